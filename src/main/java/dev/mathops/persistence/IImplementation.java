@@ -0,0 +1,188 @@
+package dev.mathops.persistence;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+
+import java.util.List;
+
+/**
+ * The interface provided by every implementation.  A data configuration selects one implementation for each schema
+ * and context, and API operations that reference that schema and context are passed to the implementation.
+ *
+ * <p>
+ * An implementation may serve several contexts, so the context name is passed with every operation.  Implementations
+ * must be safe to call from many threads at once.
+ *
+ * <p>
+ * Clients may prepare count and query operations whose criteria have a fixed shape and execute them repeatedly with
+ * different values.  An implementation can take advantage of this by returning state from {@code prepare} (such as a
+ * generated SQL statement) that is passed back on each execution; the default methods simply perform the operation
+ * normally.
+ *
+ * <p>
+ * A new context (such as the schema of a new term) can be provisioned, creating its storage, and warmed, creating
+ * connections and other state in advance, before it is bound; the default methods do nothing.
+ *
+ * <p>
+ * When the client gave the request a deadline, it is available through {@code RequestDeadline} while an operation
+ * runs.  Implementations should stop work (for example, by cancelling a running database statement) once it passes,
+ * and report the failure with {@code PersistenceException}.
+ */
+public interface IImplementation {
+
+    /**
+     * Counts the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    long count(String context, Table table, SelectionCriteria criteria) throws PersistenceException;
+
+    /**
+     * Queries the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    void query(String context, Table table, SelectionCriteria criteria, List<? super Row> results)
+            throws PersistenceException;
+
+    /**
+     * Inserts rows.  The rows may belong to more than one table (each row carries its table).  Either all rows are
+     * inserted or, on failure, none are.
+     *
+     * @param context the context name
+     * @param rows    the rows to insert
+     * @return the number of rows inserted
+     * @throws PersistenceException if the operation failed
+     */
+    int insert(String context, List<Row> rows) throws PersistenceException;
+
+    /**
+     * Deletes the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the operation failed
+     */
+    long delete(String context, Table table, SelectionCriteria criteria) throws PersistenceException;
+
+    /**
+     * Updates the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the operation failed
+     */
+    long update(String context, Table table, SelectionCriteria criteria, UpdatedValues values)
+            throws PersistenceException;
+
+    /**
+     * Creates the storage for tables in a context, if it does not already exist.  This is called before a new context
+     * (such as the schema of a new term) is bound, and must be safe to call again for a context that already exists.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the storage could not be created
+     */
+    default void provision(final String context, final List<Table> tables) throws PersistenceException {
+
+        // No action
+    }
+
+    /**
+     * Creates the state an implementation keeps for tables in a context (such as open connections, generated SQL, and
+     * prepared statements) ahead of time, so the first operations on the context do not wait for it.  This is called
+     * shortly before a context starts to receive traffic, such as just before a new term becomes active.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the state could not be created
+     */
+    default void warm(final String context, final List<Table> tables) throws PersistenceException {
+
+        // No action
+    }
+
+    /**
+     * Prepares a count or query operation for repeated execution.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @param shape   selection criteria with the shape the operation will use (the values are placeholders)
+     * @return implementation state to pass to {@code countPrepared} or {@code queryPrepared}; {@code null} if none
+     * @throws PersistenceException if the operation could not be prepared
+     */
+    default Object prepare(final String context, final Table table, final SelectionCriteria shape)
+            throws PersistenceException {
+
+        return null;
+    }
+
+    /**
+     * Counts rows using a prepared operation.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    default long countPrepared(final Object prepared, final String context, final Table table,
+                               final SelectionCriteria criteria) throws PersistenceException {
+
+        return count(context, table, criteria);
+    }
+
+    /**
+     * Queries rows using a prepared operation.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    default void queryPrepared(final Object prepared, final String context, final Table table,
+                               final SelectionCriteria criteria, final List<? super Row> results)
+            throws PersistenceException {
+
+        query(context, table, criteria, results);
+    }
+
+    /**
+     * Tests whether reads may not yet see recent writes (as when reads are served by replicas that lag behind the
+     * primary).  Responses to such reads are not cached until shortly after the last write to their table.
+     *
+     * @return true if reads may lag behind writes
+     */
+    default boolean readsMayLag() {
+
+        return false;
+    }
+
+    /**
+     * Releases state returned by {@code prepare} when the prepared operation is discarded.
+     *
+     * @param prepared the state returned by {@code prepare}
+     */
+    default void release(final Object prepared) {
+
+        // No action
+    }
+}
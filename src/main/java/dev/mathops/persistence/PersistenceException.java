@@ -0,0 +1,59 @@
+package dev.mathops.persistence;
+
+import dev.mathops.persistence.api.EFailureCode;
+
+import java.io.Serial;
+
+/**
+ * An exception thrown by an implementation when an operation cannot be completed.  The failure code tells the client
+ * what kind of failure occurred (and so whether it can retry); it is IMPLEMENTATION_ERROR unless the implementation
+ * gives a more specific code.
+ */
+public final class PersistenceException extends Exception {
+
+    /** Version number for serialization. */
+    @Serial
+    private static final long serialVersionUID = 2430611925384756102L;
+
+    /** The failure code to report to the client. */
+    public final EFailureCode failure;
+
+    /**
+     * Constructs a new {@code PersistenceException}.
+     *
+     * @param message the error message
+     */
+    public PersistenceException(final String message) {
+
+        super(message);
+
+        this.failure = EFailureCode.IMPLEMENTATION_ERROR;
+    }
+
+    /**
+     * Constructs a new {@code PersistenceException}.
+     *
+     * @param message the error message
+     * @param cause   the underlying cause
+     */
+    public PersistenceException(final String message, final Throwable cause) {
+
+        super(message, cause);
+
+        this.failure = EFailureCode.IMPLEMENTATION_ERROR;
+    }
+
+    /**
+     * Constructs a new {@code PersistenceException} with a specific failure code.
+     *
+     * @param theFailure the failure code to report to the client
+     * @param message    the error message
+     * @param cause      the underlying cause ({@code null} if none)
+     */
+    public PersistenceException(final EFailureCode theFailure, final String message, final Throwable cause) {
+
+        super(message, cause);
+
+        this.failure = theFailure;
+    }
+}
@@ -0,0 +1,205 @@
+package dev.mathops.persistence;
+
+import dev.mathops.commons.log.Log;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deadline of the API request being processed on the current thread, so implementations can stop work the client
+ * is no longer waiting for.
+ *
+ * <p>
+ * The API pipeline sets the deadline before it calls an implementation and clears it afterward.  An implementation
+ * that runs a statement against a database can limit the statement with {@code queryTimeoutSeconds} (for example,
+ * through {@code Statement.setQueryTimeout}) and can arrange for the statement to be cancelled when the deadline
+ * passes:
+ *
+ * <pre>
+ * try (final RequestDeadline.Watch watch = RequestDeadline.onExpiry(() -&gt; cancel(stmt))) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * Expiry actions run on a single shared timer thread, so they should only signal the work to stop and return.
+ */
+public enum RequestDeadline {
+    ;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** The deadline of the request on each thread. */
+    private static final ThreadLocal<Slot> CURRENT = ThreadLocal.withInitial(Slot::new);
+
+    /** The timer that runs expiry actions. */
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    /** A watch returned when there is no deadline. */
+    private static final Watch NO_WATCH = () -> {
+        // No action
+    };
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "request-deadline-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Sets the deadline for the current thread.
+     *
+     * @param deadlineNanos the {@code System.nanoTime()} value after which the client is no longer waiting
+     */
+    public static void set(final long deadlineNanos) {
+
+        final Slot slot = CURRENT.get();
+        slot.active = true;
+        slot.deadline = deadlineNanos;
+    }
+
+    /**
+     * Clears the deadline for the current thread.
+     */
+    public static void clear() {
+
+        CURRENT.get().active = false;
+    }
+
+    /**
+     * Tests whether the current thread has a deadline.
+     *
+     * @return true if there is a deadline
+     */
+    public static boolean isSet() {
+
+        return CURRENT.get().active;
+    }
+
+    /**
+     * Tests whether the current thread's deadline has passed.
+     *
+     * @return true if there is a deadline and it has passed
+     */
+    public static boolean isExpired() {
+
+        final Slot slot = CURRENT.get();
+
+        return slot.active && System.nanoTime() - slot.deadline >= 0L;
+    }
+
+    /**
+     * Gets the time remaining before the current thread's deadline.
+     *
+     * @return the remaining time (nanoseconds); 0 if the deadline has passed; {@code Long.MAX_VALUE} if there is no
+     *         deadline
+     */
+    public static long remainingNanos() {
+
+        final Slot slot = CURRENT.get();
+
+        final long result;
+        if (slot.active) {
+            result = Math.max(0L, slot.deadline - System.nanoTime());
+        } else {
+            result = Long.MAX_VALUE;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a query timeout suitable for {@code Statement.setQueryTimeout}: the remaining time rounded up to whole
+     * seconds, and at least 1.
+     *
+     * @return the timeout (seconds); 0 (no limit) if there is no deadline
+     */
+    public static int queryTimeoutSeconds() {
+
+        final Slot slot = CURRENT.get();
+
+        int result = 0;
+        if (slot.active) {
+            final long remaining = Math.max(0L, slot.deadline - System.nanoTime());
+            final long seconds = (remaining + NANOS_PER_SECOND - 1L) / NANOS_PER_SECOND;
+            result = (int) Math.max(1L, Math.min((long) Integer.MAX_VALUE, seconds));
+        }
+
+        return result;
+    }
+
+    /**
+     * Arranges for an action to run if the current thread's deadline passes before the returned watch is closed.  If
+     * the deadline has already passed, the action runs at once (on the timer thread).
+     *
+     * @param action the action (for example, one that cancels a running statement)
+     * @return the watch, which the caller closes when the work is complete
+     */
+    public static Watch onExpiry(final Runnable action) {
+
+        final Slot slot = CURRENT.get();
+
+        final Watch result;
+        if (slot.active) {
+            final long delay = slot.deadline - System.nanoTime();
+            final ScheduledFuture<?> future = TIMER.schedule(() -> runAction(action), delay, TimeUnit.NANOSECONDS);
+            result = () -> future.cancel(false);
+        } else {
+            result = NO_WATCH;
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs an expiry action, logging any exception it throws.
+     *
+     * @param action the action
+     */
+    private static void runAction(final Runnable action) {
+
+        try {
+            action.run();
+        } catch (final RuntimeException ex) {
+            Log.warning("Request deadline expiry action failed", ex);
+        }
+    }
+
+    /**
+     * A pending expiry action, cancelled by closing the watch.
+     */
+    @FunctionalInterface
+    public interface Watch extends AutoCloseable {
+
+        /**
+         * Cancels the expiry action if it has not yet run.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * The deadline state of one thread.
+     */
+    private static final class Slot {
+
+        /** True if a deadline is set. */
+        boolean active;
+
+        /** The deadline ({@code System.nanoTime()} value). */
+        long deadline;
+
+        /**
+         * Constructs a new {@code Slot}.
+         */
+        Slot() {
+
+            // No action
+        }
+    }
+}
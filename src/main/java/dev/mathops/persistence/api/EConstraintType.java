@@ -0,0 +1,70 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.db.table.constraint.AbstractFieldConstraint;
+import dev.mathops.db.table.constraint.ByteRangeConstraint;
+import dev.mathops.db.table.constraint.DoubleRangeConstraint;
+import dev.mathops.db.table.constraint.FloatRangeConstraint;
+import dev.mathops.db.table.constraint.IntegerRangeConstraint;
+import dev.mathops.db.table.constraint.LongRangeConstraint;
+import dev.mathops.db.table.constraint.StringEnumeratedConstraint;
+import dev.mathops.db.table.constraint.StringLengthConstraint;
+
+/**
+ * The types of field constraint that can be encoded in a table definition.  The ordinal is the enumerated value that
+ * precedes each constraint definition.
+ */
+public enum EConstraintType {
+
+    /** A {@code StringEnumeratedConstraint}, encoded as the number of allowed values followed by the values. */
+    STRING_ENUMERATED,
+
+    /** A {@code StringLengthConstraint}, encoded as the minimum length followed by the maximum length. */
+    STRING_LENGTH,
+
+    /** A {@code ByteRangeConstraint}, encoded as the minimum value followed by the maximum value. */
+    BYTE_RANGE,
+
+    /** An {@code IntegerRangeConstraint}, encoded as the minimum value followed by the maximum value. */
+    INTEGER_RANGE,
+
+    /** A {@code LongRangeConstraint}, encoded as the minimum value followed by the maximum value. */
+    LONG_RANGE,
+
+    /** A {@code FloatRangeConstraint}, encoded as the minimum value followed by the maximum value. */
+    FLOAT_RANGE,
+
+    /** A {@code DoubleRangeConstraint}, encoded as the minimum value followed by the maximum value. */
+    DOUBLE_RANGE;
+
+    /**
+     * Finds the type of a constraint.
+     *
+     * @param constraint the constraint
+     * @return the type; {@code null} if the constraint is not one of the pre-defined types (an application-defined
+     *         constraint, which cannot be encoded)
+     */
+    public static EConstraintType forConstraint(final AbstractFieldConstraint<?> constraint) {
+
+        final EConstraintType result;
+
+        if (constraint instanceof StringEnumeratedConstraint) {
+            result = STRING_ENUMERATED;
+        } else if (constraint instanceof StringLengthConstraint) {
+            result = STRING_LENGTH;
+        } else if (constraint instanceof ByteRangeConstraint) {
+            result = BYTE_RANGE;
+        } else if (constraint instanceof IntegerRangeConstraint) {
+            result = INTEGER_RANGE;
+        } else if (constraint instanceof LongRangeConstraint) {
+            result = LONG_RANGE;
+        } else if (constraint instanceof FloatRangeConstraint) {
+            result = FLOAT_RANGE;
+        } else if (constraint instanceof DoubleRangeConstraint) {
+            result = DOUBLE_RANGE;
+        } else {
+            result = null;
+        }
+
+        return result;
+    }
+}
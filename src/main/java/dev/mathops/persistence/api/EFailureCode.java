@@ -0,0 +1,71 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+/**
+ * Failure codes that accompany a failure result code in API responses.  Each failure code belongs to one result code,
+ * which is the result code reported with it; the failure code gives the specific reason.
+ */
+public enum EFailureCode {
+
+    /** The request body could not be decoded. */
+    MALFORMED_REQUEST(1, EResultCode.FAILURE),
+
+    /** The authorization token was missing, invalid, or expired. */
+    UNAUTHORIZED(2, EResultCode.UNAUTHORIZED),
+
+    /** The authorization token does not grant the requested operation. */
+    FORBIDDEN(3, EResultCode.UNAUTHORIZED),
+
+    /** A schema, context, or table ID did not identify a known object. */
+    NOT_FOUND(4, EResultCode.NOT_FOUND),
+
+    /** No implementation is configured for the requested schema and context. */
+    NO_IMPLEMENTATION(5, EResultCode.FAILURE),
+
+    /** The implementation reported an error. */
+    IMPLEMENTATION_ERROR(6, EResultCode.FAILURE),
+
+    /** The request's deadline passed before the operation completed. */
+    DEADLINE_EXCEEDED(7, EResultCode.DEADLINE_EXCEEDED),
+
+    /** The operation would violate a constraint of the table or the backend. */
+    CONSTRAINT_VIOLATION(8, EResultCode.CONSTRAINT_VIOLATION),
+
+    /** The operation conflicted with a concurrent operation (for example, a deadlock or serialization failure). */
+    CONFLICT(9, EResultCode.CONFLICT),
+
+    /** The implementation could not reach its backend (for example, a lost database connection). */
+    BACKEND_UNAVAILABLE(10, EResultCode.UNAVAILABLE);
+
+    /** The code. */
+    public final int code;
+
+    /** The result code reported with this failure code. */
+    public final EResultCode resultCode;
+
+    /**
+     * Constructs a new {@code EFailureCode}.
+     *
+     * @param theCode       the code
+     * @param theResultCode the result code reported with this failure code
+     */
+    EFailureCode(final int theCode, final EResultCode theResultCode) {
+
+        this.code = theCode;
+        this.resultCode = theResultCode;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String codeString = Integer.toString(this.code);
+
+        return SimpleBuilder.concat("EFailureCode{code=", codeString, "}");
+    }
+}
@@ -4,26 +4,95 @@ import dev.mathops.text.builder.SimpleBuilder;
 
 /**
  * Possible result codes from database API operations.
+ *
+ * <p>
+ * Every code other than SUCCESS is a failure.  Each failure code says whether a retry could succeed
+ * ({@code retryable}) and whether the operation may have been carried out in whole or in part before it failed
+ * ({@code mayHaveExecuted}).  A client may retry an operation after a retryable failure if either the operation is
+ * idempotent or the failure guarantees the operation did not execute.
  */
 public enum EResultCode {
 
     /** Success. */
-    SUCCESS(0),
+    SUCCESS(0, false, true),
 
-    /** Generic failure (this should be replaced by more useful codes). */
-    FAILURE(-1);
+    /** A failure that retrying will not correct, such as a malformed request or an implementation error. */
+    FAILURE(-1, false, true),
+
+    /** The server is overloaded and did not attempt the operation; the response gives a delay before retrying. */
+    OVERLOADED(-2, true, false),
+
+    /** The request's deadline passed before the operation completed; work in progress was abandoned. */
+    DEADLINE_EXCEEDED(-3, true, true),
+
+    /** The server or its backend was briefly unreachable, or the connection was lost while waiting for a response. */
+    UNAVAILABLE(-4, true, true),
+
+    /** The authorization token was missing, invalid, or expired, or did not grant the operation. */
+    UNAUTHORIZED(-5, false, false),
+
+    /** The operation would violate a constraint (for example, a duplicate key or an out-of-range value). */
+    CONSTRAINT_VIOLATION(-6, false, false),
+
+    /** A schema, context, table, or prepared operation named in the request does not exist. */
+    NOT_FOUND(-7, false, false),
+
+    /** The operation conflicted with a concurrent operation; it was rolled back and may be retried. */
+    CONFLICT(-8, true, false);
 
     /** The code. */
     public final int code;
 
+    /** True if a retry could succeed. */
+    public final boolean retryable;
+
+    /** True if the operation may have executed (in whole or in part) despite the failure. */
+    public final boolean mayHaveExecuted;
+
     /**
      * Constructs a new {@code EResultCode}.
      *
-     * @param theCode the code
+     * @param theCode            the code
+     * @param theRetryable       true if a retry could succeed
+     * @param theMayHaveExecuted true if the operation may have executed despite the failure
      */
-    EResultCode(final int theCode) {
+    EResultCode(final int theCode, final boolean theRetryable, final boolean theMayHaveExecuted) {
 
         this.code = theCode;
+        this.retryable = theRetryable;
+        this.mayHaveExecuted = theMayHaveExecuted;
+    }
+
+    /**
+     * Tests whether an operation that failed with this code may be retried.
+     *
+     * @param idempotent true if the operation is idempotent (performing it more than once has the same effect as
+     *                   performing it once)
+     * @return true if the operation may be retried
+     */
+    public boolean isSafeToRetry(final boolean idempotent) {
+
+        return this.retryable && (idempotent || !this.mayHaveExecuted);
+    }
+
+    /**
+     * Finds the result code with a particular code value.
+     *
+     * @param theCode the code value
+     * @return the matching result code; FAILURE if the value is not recognized
+     */
+    public static EResultCode forCode(final int theCode) {
+
+        EResultCode result = FAILURE;
+
+        for (final EResultCode value : values()) {
+            if (value.code == theCode) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
     }
 
     /**
@@ -1,9 +1,17 @@
 package dev.mathops.persistence.api;
 
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.NullValue;
 import dev.mathops.db.table.Row;
 import dev.mathops.db.table.SelectionCriteria;
 import dev.mathops.db.table.Table;
 import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.EStringMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.db.table.criteria.StringFieldCriterion;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -60,7 +68,8 @@ public enum FieldDecoder {
      * @param in the input stream
      * @return the object
      * @throws IOException              if the input stream could not be read
-     * @throws IllegalArgumentException if the object could not be parsed
+     * @throws IllegalArgumentException if the object could not be parsed, or is a table, row, selection criteria, or
+     *                                  set of updated values (which can only be decoded against a table definition)
      */
     static Object decode(final InputStream in) throws IllegalArgumentException, IOException {
 
@@ -115,14 +124,12 @@ public enum FieldDecoder {
         } else if (typeCode == (int) EFieldTypeCode.BLOB_4.value) {
             final int length = extractLength4(in);
             result = decodeBlob(in, length);
-        } else if (typeCode == (int) EFieldTypeCode.TABLE.value) {
-            result = decodeTable(in);
-        } else if (typeCode == (int) EFieldTypeCode.ROW.value) {
-            result = decodeRow(in);
-        } else if (typeCode == (int) EFieldTypeCode.SELECTION_CRITERIA.value) {
-            result = decodeSelectionCriteria(in);
-        } else if (typeCode == (int) EFieldTypeCode.NEW_VALUES.value) {
-            result = decodeUpdatedValues(in);
+        } else if (typeCode == (int) EFieldTypeCode.TABLE.value || typeCode == (int) EFieldTypeCode.ROW.value
+                   || typeCode == (int) EFieldTypeCode.SELECTION_CRITERIA.value
+                   || typeCode == (int) EFieldTypeCode.NEW_VALUES.value) {
+            // These can only be decoded against a table definition, through decodeRow, decodeSelectionCriteria, and
+            // decodeUpdatedValues
+            throw new IllegalArgumentException("Type code requires a table definition");
         } else if (typeCode >= MIN_TINYINT_CODE) {
             result = Integer.valueOf(typeCode - MIN_TINYINT_CODE);
         } else {
@@ -132,6 +139,335 @@ public enum FieldDecoder {
         return result;
     }
 
+    /**
+     * Decodes an integer value (a Tinyint, Byte, Short, or Integer) from an input stream.
+     *
+     * @param in the input stream
+     * @return the value
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the next field is not an integer
+     */
+    public static int decodeIntValue(final InputStream in) throws IllegalArgumentException, IOException {
+
+        final int result;
+
+        final int typeCode = in.read() & BYTE_MASK;
+
+        if (typeCode >= MIN_TINYINT_CODE) {
+            result = typeCode - MIN_TINYINT_CODE;
+        } else if (typeCode == (int) EFieldTypeCode.BYTE.value) {
+            result = decodeByte(in).intValue();
+        } else if (typeCode == (int) EFieldTypeCode.SHORT.value) {
+            result = decodeShort(in).intValue();
+        } else if (typeCode == (int) EFieldTypeCode.INTEGER.value) {
+            result = extractInt(in);
+        } else {
+            throw new IllegalArgumentException("Expected an integer value");
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a long integer value (a Tinyint, Byte, Short, Integer, or Long) from an input stream.
+     *
+     * @param in the input stream
+     * @return the value
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the next field is not an integer
+     */
+    public static long decodeLongValue(final InputStream in) throws IllegalArgumentException, IOException {
+
+        final Object value = decode(in);
+
+        final long result;
+        if (value instanceof final Integer intValue) {
+            result = intValue.longValue();
+        } else if (value instanceof final Long longValue) {
+            result = longValue.longValue();
+        } else {
+            throw new IllegalArgumentException("Expected a long integer value");
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a local date value from an input stream.
+     *
+     * @param in the input stream
+     * @return the value
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the next field is not a local date
+     */
+    public static LocalDate decodeDateValue(final InputStream in) throws IllegalArgumentException, IOException {
+
+        final Object value = decode(in);
+
+        if (!(value instanceof final LocalDate result)) {
+            throw new IllegalArgumentException("Expected a local date value");
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a string value (ASCII or Unicode, of any length) from an input stream.
+     *
+     * @param in the input stream
+     * @return the value
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the next field is not a string
+     */
+    public static String decodeStringValue(final InputStream in) throws IllegalArgumentException, IOException {
+
+        if (!(decode(in) instanceof final String result)) {
+            throw new IllegalArgumentException("Expected a string value");
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a row of a known table from an input stream.
+     *
+     * @param in    the input stream
+     * @param table the table
+     * @return the row
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the row could not be decoded or does not match the table
+     */
+    public static Row decodeRow(final InputStream in, final Table table) throws IllegalArgumentException,
+            IOException {
+
+        final int typeCode = in.read() & BYTE_MASK;
+        if (typeCode != (int) EFieldTypeCode.ROW.value) {
+            throw new IllegalArgumentException("Expected a row");
+        }
+
+        final Object[] values = decodeFieldValues(in, table, false);
+
+        return new Row(table, values);
+    }
+
+    /**
+     * Decodes selection criteria on a known table from an input stream.  Integer and string field criteria are
+     * supported (see {@code FieldEncoder}).
+     *
+     * @param in    the input stream
+     * @param table the table
+     * @return the selection criteria
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the criteria could not be decoded or do not match the table
+     */
+    public static SelectionCriteria decodeSelectionCriteria(final InputStream in, final Table table)
+            throws IllegalArgumentException, IOException {
+
+        final int typeCode = in.read() & BYTE_MASK;
+        if (typeCode != (int) EFieldTypeCode.SELECTION_CRITERIA.value) {
+            throw new IllegalArgumentException("Expected selection criteria");
+        }
+
+        final EFieldType[] fieldTypes = EFieldType.values();
+        final ENumericMatchType[] matchTypes = ENumericMatchType.values();
+        final EStringMatchType[] stringMatchTypes = EStringMatchType.values();
+
+        final int numCriteria = decodeIntValue(in);
+        if (numCriteria < 0 || numCriteria > table.getNumFields()) {
+            throw new IllegalArgumentException("Invalid number of field criteria");
+        }
+
+        final AbstractFieldCriterion[] criteria = new AbstractFieldCriterion[numCriteria];
+        for (int i = 0; i < numCriteria; ++i) {
+            final int typeIndex = decodeIntValue(in);
+            final String fieldName = decodeStringValue(in);
+            final int matchIndex = decodeIntValue(in);
+
+            final Field field = findField(table, fieldName);
+            if (typeIndex < 0 || typeIndex >= fieldTypes.length || field == null
+                || field.getDef().getType() != fieldTypes[typeIndex]) {
+                throw new IllegalArgumentException("Field criterion does not match a field in the table");
+            }
+
+            if (fieldTypes[typeIndex] == EFieldType.INTEGER) {
+                if (matchIndex < 0 || matchIndex >= matchTypes.length) {
+                    throw new IllegalArgumentException("Invalid match type");
+                }
+                final int numIntegers = decodeIntValue(in);
+                if (numIntegers < 0 || numIntegers > in.available()) {
+                    throw new IllegalArgumentException("Invalid number of match values");
+                }
+                final Integer[] integers = new Integer[numIntegers];
+                for (int j = 0; j < numIntegers; ++j) {
+                    integers[j] = Integer.valueOf(decodeIntValue(in));
+                }
+                criteria[i] = new IntegerFieldCriterion(field, matchTypes[matchIndex], integers);
+            } else if (fieldTypes[typeIndex] == EFieldType.STRING) {
+                if (matchIndex < 0 || matchIndex >= stringMatchTypes.length) {
+                    throw new IllegalArgumentException("Invalid match type");
+                }
+                final int numStrings = decodeIntValue(in);
+                if (numStrings < 0 || numStrings > in.available()) {
+                    throw new IllegalArgumentException("Invalid number of match values");
+                }
+                final String[] strings = new String[numStrings];
+                for (int j = 0; j < numStrings; ++j) {
+                    strings[j] = decodeStringValue(in);
+                }
+                criteria[i] = new StringFieldCriterion(field, stringMatchTypes[matchIndex], strings);
+            } else {
+                throw new IllegalArgumentException("Unsupported field criterion type");
+            }
+        }
+
+        return new SelectionCriteria(table, criteria);
+    }
+
+    /**
+     * Decodes selection criteria on a known table if the next field in an input stream is a selection criteria object.
+     * The stream must support {@code mark} and {@code reset}.
+     *
+     * @param in    the input stream
+     * @param table the table
+     * @return the selection criteria; {@code null} if the stream is at its end or the next field is something else
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the criteria could not be decoded or do not match the table
+     */
+    public static SelectionCriteria decodeOptionalSelectionCriteria(final InputStream in, final Table table)
+            throws IllegalArgumentException, IOException {
+
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("Input stream does not support mark");
+        }
+
+        in.mark(1);
+        final int typeCode = in.read();
+        in.reset();
+
+        return typeCode == (int) EFieldTypeCode.SELECTION_CRITERIA.value ? decodeSelectionCriteria(in, table) : null;
+    }
+
+    /**
+     * Decodes updated values for a known table from an input stream.
+     *
+     * @param in    the input stream
+     * @param table the table
+     * @return the updated values
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the values could not be decoded or do not match the table
+     */
+    public static UpdatedValues decodeUpdatedValues(final InputStream in, final Table table)
+            throws IllegalArgumentException, IOException {
+
+        final int typeCode = in.read() & BYTE_MASK;
+        if (typeCode != (int) EFieldTypeCode.NEW_VALUES.value) {
+            throw new IllegalArgumentException("Expected updated values");
+        }
+
+        final Object[] values = decodeFieldValues(in, table, true);
+
+        return new UpdatedValues(table, values);
+    }
+
+    /**
+     * Decodes a list of (field index, field type, value) triples, as used in row and updated values encodings.
+     *
+     * @param in        the input stream
+     * @param table     the table
+     * @param allowNull true to allow fields whose type indicates they are to be set to null
+     * @return an array with one entry per table field ({@code null} for fields that were not present)
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the values could not be decoded or do not match the table
+     */
+    private static Object[] decodeFieldValues(final InputStream in, final Table table, final boolean allowNull)
+            throws IllegalArgumentException, IOException {
+
+        final int numFields = table.getNumFields();
+        final Object[] values = new Object[numFields];
+        final EFieldType[] fieldTypes = EFieldType.values();
+
+        final int numValues = decodeIntValue(in);
+        if (numValues < 0 || numValues > numFields) {
+            throw new IllegalArgumentException("Invalid number of field values");
+        }
+
+        for (int i = 0; i < numValues; ++i) {
+            final int index = decodeIntValue(in);
+            if (index < 0 || index >= numFields || values[index] != null) {
+                throw new IllegalArgumentException("Invalid field index");
+            }
+
+            final int typeIndex = decodeIntValue(in);
+            if (allowNull && typeIndex == FieldEncoder.NULL_FIELD_TYPE) {
+                values[index] = NullValue.INSTANCE;
+            } else {
+                final EFieldType type = table.getField(index).getDef().getType();
+                if (typeIndex < 0 || typeIndex >= fieldTypes.length || fieldTypes[typeIndex] != type) {
+                    throw new IllegalArgumentException("Field type does not match table");
+                }
+                values[index] = coerce(decode(in), type);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Converts a decoded value to the class used for a field type.  Integer encodings are compact, so a decoded
+     * {@code Integer} may need to be widened or narrowed.
+     *
+     * @param value the decoded value
+     * @param type  the field type
+     * @return the converted value
+     * @throws IllegalArgumentException if the value cannot represent a value of the field type
+     */
+    private static Object coerce(final Object value, final EFieldType type) throws IllegalArgumentException {
+
+        final Object result = switch (type) {
+            case STRING -> value instanceof String ? value : null;
+            case BOOLEAN -> value instanceof Boolean ? value : null;
+            case BYTE -> value instanceof final Integer i && i.intValue() == (int) i.byteValue()
+                    ? Byte.valueOf(i.byteValue()) : null;
+            case INTEGER -> value instanceof Integer ? value : null;
+            case LONG -> value instanceof final Integer i ? Long.valueOf(i.longValue())
+                    : value instanceof Long ? value : null;
+            case FLOAT -> value instanceof Float ? value : null;
+            case DOUBLE -> value instanceof Double ? value : null;
+            case LOCAL_DATE -> value instanceof LocalDate ? value : null;
+            case LOCAL_TIME -> value instanceof LocalTime ? value : null;
+            case LOCAL_DATE_TIME -> value instanceof LocalDateTime ? value : null;
+        };
+
+        if (result == null) {
+            throw new IllegalArgumentException("Field value does not match field type");
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds a field in a table by name.
+     *
+     * @param table     the table
+     * @param fieldName the field name
+     * @return the field; {@code null} if not found
+     */
+    public static Field findField(final Table table, final String fieldName) {
+
+        Field result = null;
+
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            if (field.getDef().getName().equals(fieldName)) {
+                result = field;
+                break;
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Extracts a 1-byte unsigned length.
      *
@@ -222,10 +558,10 @@ public enum FieldDecoder {
         final int v8 = in.read();
 
         return  ((long) v1 << BYTE7_SHIFT)
-                + ((long) (v2 & HI_BYTE_MASK) << BYTE6_SHIFT)
-                + ((long) (v3 & HI_BYTE_MASK) << BYTE5_SHIFT)
-                + ((long) (v4 & HI_BYTE_MASK) << BYTE4_SHIFT)
-                + ((long) (v5 & HI_BYTE_MASK) << BYTE3_SHIFT)
+                + ((long) (v2 & BYTE_MASK) << BYTE6_SHIFT)
+                + ((long) (v3 & BYTE_MASK) << BYTE5_SHIFT)
+                + ((long) (v4 & BYTE_MASK) << BYTE4_SHIFT)
+                + ((long) (v5 & BYTE_MASK) << BYTE3_SHIFT)
                 + ((long) (v6 & BYTE_MASK) << BYTE2_SHIFT)
                 + ((long) (v7 & BYTE_MASK) << BYTE1_SHIFT)
                 + (long) (v8 & BYTE_MASK);
@@ -368,7 +704,7 @@ public enum FieldDecoder {
      */
     private static Float decodeFloat(final InputStream in) throws IOException {
 
-        final int combined = extractLength4(in);
+        final int combined = extractInt(in);
 
         final float f = Float.intBitsToFloat(combined);
 
@@ -479,56 +815,4 @@ public enum FieldDecoder {
 
         return data;
     }
-
-    /**
-     * Decodes a table definition.
-     *
-     * @param in the input stream
-     * @return the decoded table definition
-     * @throws IOException if the input stream could not be read
-     */
-    private static Table decodeTable(final InputStream in) throws IOException {
-
-        // TODO:
-        return null;
-    }
-
-    /**
-     * Decodes a row.
-     *
-     * @param in the input stream
-     * @return the decoded row
-     * @throws IOException if the input stream could not be read
-     */
-    private static Row decodeRow(final InputStream in) throws IOException {
-
-        // TODO:
-        return null;
-    }
-
-    /**
-     * Decodes a set of selection criteria.
-     *
-     * @param in the input stream
-     * @return the decoded selection criteria
-     * @throws IOException if the input stream could not be read
-     */
-    private static SelectionCriteria decodeSelectionCriteria(final InputStream in) throws IOException {
-
-        // TODO:
-        return null;
-    }
-
-    /**
-     * Decodes a set of updated values.
-     *
-     * @param in the input stream
-     * @return the decoded updated values
-     * @throws IOException if the input stream could not be read
-     */
-    private static UpdatedValues decodeUpdatedValues(final InputStream in) throws IOException {
-
-        // TODO:
-        return null;
-    }
 }
@@ -1,8 +1,24 @@
 package dev.mathops.persistence.api;
 
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.NullValue;
 import dev.mathops.db.table.Row;
 import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
 import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.db.table.constraint.AbstractFieldConstraint;
+import dev.mathops.db.table.constraint.ByteRangeConstraint;
+import dev.mathops.db.table.constraint.DoubleRangeConstraint;
+import dev.mathops.db.table.constraint.FloatRangeConstraint;
+import dev.mathops.db.table.constraint.IntegerRangeConstraint;
+import dev.mathops.db.table.constraint.LongRangeConstraint;
+import dev.mathops.db.table.constraint.StringEnumeratedConstraint;
+import dev.mathops.db.table.constraint.StringLengthConstraint;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.EStringMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.db.table.criteria.StringFieldCriterion;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -34,9 +50,6 @@ public enum FieldEncoder {
     /** Mask value for two bytes (a "short"). */
     private static final long SHORT_MASK_LONG = 0xFFFFL;
 
-    /** Mask value for four bytes (an "integer"). */
-    private static final long INT_MASK_LONG = 0xFFFFFFFFL;
-
     /** Mask value for a single high-order byte. */
     private static final int HI_BYTE_MASK = 0x7F;
 
@@ -82,6 +95,9 @@ public enum FieldEncoder {
     /** Minimum value for a type code that represents a "tiny int". */
     private static final int MIN_TINYINT_CODE = 0x30;
 
+    /** The field type value that indicates a field is to be set to null in updated values. */
+    static final int NULL_FIELD_TYPE = MAX_TINYINT;
+
     /**
      * Encodes a {@code String} to an output stream.
      *
@@ -90,7 +106,8 @@ public enum FieldEncoder {
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final String toEncode, final OutputStream out) throws IllegalArgumentException, IOException {
+    public static void encode(final String toEncode, final OutputStream out)
+            throws IllegalArgumentException, IOException {
 
         if (toEncode == null) {
             throw new IllegalArgumentException("Value to encode may not be null");
@@ -178,7 +195,7 @@ public enum FieldEncoder {
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final int toEncode, final OutputStream out) throws IOException {
+    public static void encode(final int toEncode, final OutputStream out) throws IOException {
 
         if (toEncode >= 0 && toEncode <= MAX_TINYINT) {
             final int fieldCode = MIN_TINYINT_CODE + toEncode;
@@ -192,7 +209,7 @@ public enum FieldEncoder {
             out.write(toEncode & BYTE_MASK);
         } else {
             out.write((int) EFieldTypeCode.INTEGER.value);
-            out.write((toEncode >> BYTE3_SHIFT) & HI_BYTE_MASK);
+            out.write((toEncode >> BYTE3_SHIFT) & BYTE_MASK);
             out.write((toEncode >> BYTE2_SHIFT) & BYTE_MASK);
             out.write((toEncode >> BYTE1_SHIFT) & BYTE_MASK);
             out.write(toEncode & BYTE_MASK);
@@ -207,7 +224,7 @@ public enum FieldEncoder {
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final long toEncode, final OutputStream out) throws IOException {
+    public static void encode(final long toEncode, final OutputStream out) throws IOException {
 
         if (toEncode >= 0L && toEncode <= (long) MAX_TINYINT) {
             final int fieldCode = MIN_TINYINT_CODE + (int) toEncode;
@@ -221,16 +238,16 @@ public enum FieldEncoder {
             out.write((int) EFieldTypeCode.SHORT.value);
             out.write(intValue >> BYTE1_SHIFT);
             out.write(intValue & BYTE_MASK);
-        } else if ((toEncode & INT_MASK_LONG) == toEncode) {
+        } else if ((long) (int) toEncode == toEncode) {
             final int intValue = (int) toEncode;
             out.write((int) EFieldTypeCode.INTEGER.value);
-            out.write((intValue >> BYTE3_SHIFT) & HI_BYTE_MASK);
+            out.write((intValue >> BYTE3_SHIFT) & BYTE_MASK);
             out.write((intValue >> BYTE2_SHIFT) & BYTE_MASK);
             out.write((intValue >> BYTE1_SHIFT) & BYTE_MASK);
             out.write(intValue & BYTE_MASK);
         } else {
             out.write((int) EFieldTypeCode.LONG.value);
-            out.write((int) (toEncode >> BYTE7_SHIFT) & HI_BYTE_MASK);
+            out.write((int) (toEncode >> BYTE7_SHIFT) & BYTE_MASK);
             out.write((int) (toEncode >> BYTE6_SHIFT) & BYTE_MASK);
             out.write((int) (toEncode >> BYTE5_SHIFT) & BYTE_MASK);
             out.write((int) (toEncode >> BYTE4_SHIFT) & BYTE_MASK);
@@ -254,7 +271,7 @@ public enum FieldEncoder {
         final int bits = Float.floatToIntBits(toEncode);
 
         out.write((int) EFieldTypeCode.FLOAT.value);
-        out.write((bits >> BYTE3_SHIFT) & HI_BYTE_MASK);
+        out.write((bits >> BYTE3_SHIFT) & BYTE_MASK);
         out.write((bits >> BYTE2_SHIFT) & BYTE_MASK);
         out.write((bits >> BYTE1_SHIFT) & BYTE_MASK);
         out.write(bits & BYTE_MASK);
@@ -272,8 +289,8 @@ public enum FieldEncoder {
 
         final long bits = Double.doubleToLongBits(toEncode);
 
-        out.write((int) EFieldTypeCode.FLOAT.value);
-        out.write((int) (bits >> BYTE7_SHIFT) & HI_BYTE_MASK);
+        out.write((int) EFieldTypeCode.DOUBLE.value);
+        out.write((int) (bits >> BYTE7_SHIFT) & BYTE_MASK);
         out.write((int) (bits >> BYTE6_SHIFT) & BYTE_MASK);
         out.write((int) (bits >> BYTE5_SHIFT) & BYTE_MASK);
         out.write((int) (bits >> BYTE4_SHIFT) & BYTE_MASK);
@@ -421,38 +438,192 @@ public enum FieldEncoder {
     }
 
     /**
-     * Encodes a {@code SelectionCriteria} value to an output stream.
+     * Encodes a {@code SelectionCriteria} value to an output stream.  Integer and string field criteria can be
+     * encoded; these are the criteria the server's implementations evaluate.
+     *
+     * @param toEncode the value to encode
+     * @param out      the output stream
+     * @throws IOException              if the output stream could not be written
+     * @throws IllegalArgumentException if the object could not be parsed, or has a criterion of another type
+     */
+    public static void encode(final SelectionCriteria toEncode, final OutputStream out)
+            throws IllegalArgumentException, IOException {
+
+        if (toEncode == null) {
+            throw new IllegalArgumentException("Value to encode may not be null");
+        }
+
+        out.write((int) EFieldTypeCode.SELECTION_CRITERIA.value);
+
+        final int numCriteria = toEncode.getNumCriteria();
+        encode(numCriteria, out);
+
+        for (int i = 0; i < numCriteria; ++i) {
+            final AbstractFieldCriterion criterion = toEncode.getCriterion(i);
+
+            if (criterion instanceof final IntegerFieldCriterion intCriterion) {
+                final String fieldName = intCriterion.getField().getDef().getName();
+                final ENumericMatchType matchType = intCriterion.getMatchType();
+                final int numIntegers = intCriterion.getNumIntegers();
+
+                encode(EFieldType.INTEGER.ordinal(), out);
+                encode(fieldName, out);
+                encode(matchType.ordinal(), out);
+                encode(numIntegers, out);
+                for (int j = 0; j < numIntegers; ++j) {
+                    final Integer value = intCriterion.getInteger(j);
+                    encode(value.intValue(), out);
+                }
+            } else if (criterion instanceof final StringFieldCriterion strCriterion) {
+                final String fieldName = strCriterion.getField().getDef().getName();
+                final EStringMatchType matchType = strCriterion.getMatchType();
+                final int numStrings = strCriterion.getNumStrings();
+
+                encode(EFieldType.STRING.ordinal(), out);
+                encode(fieldName, out);
+                encode(matchType.ordinal(), out);
+                encode(numStrings, out);
+                for (int j = 0; j < numStrings; ++j) {
+                    encode(strCriterion.getString(j), out);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported field criterion type");
+            }
+        }
+    }
+
+    /**
+     * Encodes a field constraint definition to an output stream: the constraint type (see {@code EConstraintType}),
+     * then its bounds or allowed values.
+     *
+     * @param toEncode the constraint to encode
+     * @param out      the output stream
+     * @throws IOException              if the output stream could not be written
+     * @throws IllegalArgumentException if the constraint is not one of the pre-defined types
+     */
+    public static void encode(final AbstractFieldConstraint<?> toEncode, final OutputStream out)
+            throws IllegalArgumentException, IOException {
+
+        final EConstraintType type = EConstraintType.forConstraint(toEncode);
+        if (type == null) {
+            throw new IllegalArgumentException("Unsupported field constraint type");
+        }
+
+        encode(type.ordinal(), out);
+
+        switch (toEncode) {
+            case final StringEnumeratedConstraint enumerated -> {
+                final String[] allowed = enumerated.allowedValues;
+                encode(allowed.length, out);
+                for (final String value : allowed) {
+                    encode(value, out);
+                }
+            }
+            case final StringLengthConstraint length -> {
+                encode(length.minLength, out);
+                encode(length.maxLength, out);
+            }
+            case final ByteRangeConstraint range -> {
+                encode((int) range.minValue, out);
+                encode((int) range.maxValue, out);
+            }
+            case final IntegerRangeConstraint range -> {
+                encode(range.minValue, out);
+                encode(range.maxValue, out);
+            }
+            case final LongRangeConstraint range -> {
+                encode(range.minValue, out);
+                encode(range.maxValue, out);
+            }
+            case final FloatRangeConstraint range -> {
+                encode(range.minValue, out);
+                encode(range.maxValue, out);
+            }
+            case final DoubleRangeConstraint range -> {
+                encode(range.minValue, out);
+                encode(range.maxValue, out);
+            }
+            default -> throw new IllegalArgumentException("Unsupported field constraint type");
+        }
+    }
+
+    /**
+     * Encodes a {@code Row} value to an output stream.
      *
      * @param toEncode the value to encode
      * @param out      the output stream
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final SelectionCriteria toEncode, final OutputStream out) throws IllegalArgumentException,
+    public static void encode(final Row toEncode, final OutputStream out) throws IllegalArgumentException,
             IOException {
 
         if (toEncode == null) {
             throw new IllegalArgumentException("Value to encode may not be null");
         }
 
-        // TODO:
+        final Table table = toEncode.getTable();
+        final int numFields = table.getNumFields();
+
+        int numValues = 0;
+        for (int i = 0; i < numFields; ++i) {
+            if (toEncode.getFieldValue(i) != null) {
+                ++numValues;
+            }
+        }
+
+        out.write((int) EFieldTypeCode.ROW.value);
+        encode(numValues, out);
+
+        for (int i = 0; i < numFields; ++i) {
+            final Object value = toEncode.getFieldValue(i);
+            if (value != null) {
+                final EFieldType type = table.getField(i).getDef().getType();
+                encode(i, out);
+                encode(type.ordinal(), out);
+                encodeValue(value, out);
+            }
+        }
     }
 
     /**
-     * Encodes a {@code Row} value to an output stream.
+     * Encodes selected fields of a {@code Row} value to an output stream.  Fields not selected are encoded as though
+     * they were null.
      *
      * @param toEncode the value to encode
+     * @param fields   the indexes of the fields to encode, in increasing order
      * @param out      the output stream
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final Row toEncode, final OutputStream out) throws IllegalArgumentException, IOException {
+    public static void encode(final Row toEncode, final int[] fields, final OutputStream out)
+            throws IllegalArgumentException, IOException {
 
         if (toEncode == null) {
             throw new IllegalArgumentException("Value to encode may not be null");
         }
 
-        // TODO:
+        final Table table = toEncode.getTable();
+
+        int numValues = 0;
+        for (final int index : fields) {
+            if (toEncode.getFieldValue(index) != null) {
+                ++numValues;
+            }
+        }
+
+        out.write((int) EFieldTypeCode.ROW.value);
+        encode(numValues, out);
+
+        for (final int index : fields) {
+            final Object value = toEncode.getFieldValue(index);
+            if (value != null) {
+                final EFieldType type = table.getField(index).getDef().getType();
+                encode(index, out);
+                encode(type.ordinal(), out);
+                encodeValue(value, out);
+            }
+        }
     }
 
     /**
@@ -463,13 +634,65 @@ public enum FieldEncoder {
      * @throws IOException              if the output stream could not be written
      * @throws IllegalArgumentException if the object could not be parsed
      */
-    static void encode(final UpdatedValues toEncode, final OutputStream out) throws IllegalArgumentException,
-            IOException {
+    public static void encode(final UpdatedValues toEncode, final OutputStream out)
+            throws IllegalArgumentException, IOException {
 
         if (toEncode == null) {
             throw new IllegalArgumentException("Value to encode may not be null");
         }
 
-        // TODO:
+        final Table table = toEncode.getTable();
+        final int numFields = table.getNumFields();
+
+        int numValues = 0;
+        for (int i = 0; i < numFields; ++i) {
+            if (toEncode.getFieldValue(i) != null) {
+                ++numValues;
+            }
+        }
+
+        out.write((int) EFieldTypeCode.NEW_VALUES.value);
+        encode(numValues, out);
+
+        for (int i = 0; i < numFields; ++i) {
+            final Object value = toEncode.getFieldValue(i);
+            if (value != null) {
+                encode(i, out);
+                if (value == NullValue.INSTANCE) {
+                    encode(NULL_FIELD_TYPE, out);
+                } else {
+                    final EFieldType type = table.getField(i).getDef().getType();
+                    encode(type.ordinal(), out);
+                    encodeValue(value, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a single field value, selecting the encoding from the value's class.
+     *
+     * @param value the value to encode
+     * @param out   the output stream
+     * @throws IOException              if the output stream could not be written
+     * @throws IllegalArgumentException if the value's class is not supported
+     */
+    private static void encodeValue(final Object value, final OutputStream out) throws IllegalArgumentException,
+            IOException {
+
+        switch (value) {
+            case final String str -> encode(str, out);
+            case final Boolean bool -> encode(bool, out);
+            case final Byte byteValue -> encode(byteValue.intValue(), out);
+            case final Integer intValue -> encode(intValue.intValue(), out);
+            case final Long longValue -> encode(longValue.longValue(), out);
+            case final Float floatValue -> encode(floatValue.floatValue(), out);
+            case final Double doubleValue -> encode(doubleValue.doubleValue(), out);
+            case final LocalDate date -> encode(date, out);
+            case final LocalTime time -> encode(time, out);
+            case final LocalDateTime dateTime -> encode(dateTime, out);
+            case final byte[] blob -> encode(blob, out);
+            default -> throw new IllegalArgumentException("Unsupported field value type");
+        }
     }
 }
@@ -0,0 +1,337 @@
+package dev.mathops.persistence.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Opens the server's multiplexed "stream" endpoint as one HTTP request whose body is sent as request frames are
+ * written, and whose response body is read as response frames arrive.
+ *
+ * <p>
+ * Request frames are collected until the {@code MultiplexedConnection} flushes (once per frame), then handed to the
+ * HTTP client as one chunk.  The response body is not available until the server sends its response headers, so reads
+ * wait for them.
+ */
+enum HttpStream {
+    ;
+
+    /**
+     * Opens a stream.  The returned connection has not been started.
+     *
+     * @param http the HTTP client
+     * @param uri  the URI of the "stream" endpoint
+     * @return the connection
+     */
+    static MultiplexedConnection open(final HttpClient http, final URI uri) {
+
+        // The chunks of request body written but not yet sent; an empty chunk marks the end of the body
+        final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+
+        final HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ChunkInputStream(chunks)))
+                .build();
+        final CompletableFuture<HttpResponse<InputStream>> response = http.sendAsync(request,
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        return new MultiplexedConnection(new ChunkOutputStream(chunks), new ResponseInputStream(response));
+    }
+
+    /**
+     * The stream to which the connection writes request frames.
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+
+        /** The initial size of the buffer that collects one chunk. */
+        private static final int INITIAL_SIZE = 256;
+
+        /** The queue to which chunks are added. */
+        private final BlockingQueue<byte[]> chunks;
+
+        /** The buffer that collects the current chunk. */
+        private byte[] buffer;
+
+        /** The number of bytes in the current chunk. */
+        private int length;
+
+        /** True once the stream has been closed. */
+        private boolean closed;
+
+        /**
+         * Constructs a new {@code ChunkOutputStream}.
+         *
+         * @param theChunks the queue to which chunks are added
+         */
+        ChunkOutputStream(final BlockingQueue<byte[]> theChunks) {
+
+            super();
+
+            this.chunks = theChunks;
+            this.buffer = new byte[INITIAL_SIZE];
+            this.length = 0;
+            this.closed = false;
+        }
+
+        /**
+         * Writes one byte.
+         *
+         * @param b the byte
+         * @throws IOException if the stream has been closed
+         */
+        @Override
+        public void write(final int b) throws IOException {
+
+            ensureCapacity(1);
+            this.buffer[this.length] = (byte) b;
+            ++this.length;
+        }
+
+        /**
+         * Writes bytes from an array.
+         *
+         * @param b   the array
+         * @param off the offset of the first byte to write
+         * @param len the number of bytes to write
+         * @throws IOException if the stream has been closed
+         */
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+
+            ensureCapacity(len);
+            System.arraycopy(b, off, this.buffer, this.length, len);
+            this.length += len;
+        }
+
+        /**
+         * Ensures the buffer has room for more bytes.
+         *
+         * @param extra the number of bytes to be added
+         * @throws IOException if the stream has been closed
+         */
+        private void ensureCapacity(final int extra) throws IOException {
+
+            if (this.closed) {
+                throw new IOException("Stream is closed");
+            }
+
+            final int needed = this.length + extra;
+            if (needed > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(needed, this.buffer.length << 1));
+            }
+        }
+
+        /**
+         * Hands the current chunk to the HTTP client.
+         */
+        @Override
+        public void flush() {
+
+            if (this.length > 0) {
+                this.chunks.add(Arrays.copyOf(this.buffer, this.length));
+                this.length = 0;
+            }
+        }
+
+        /**
+         * Hands the current chunk to the HTTP client, then ends the request body.
+         */
+        @Override
+        public void close() {
+
+            if (!this.closed) {
+                flush();
+                this.chunks.add(new byte[0]);
+                this.closed = true;
+            }
+        }
+    }
+
+    /**
+     * The stream from which the HTTP client reads the request body.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        /** The queue from which chunks are taken. */
+        private final BlockingQueue<byte[]> chunks;
+
+        /** The chunk being read ({@code null} before the first chunk is taken). */
+        private byte[] current;
+
+        /** The position of the next byte to read in the current chunk. */
+        private int position;
+
+        /** True once the end of the body has been reached. */
+        private boolean ended;
+
+        /**
+         * Constructs a new {@code ChunkInputStream}.
+         *
+         * @param theChunks the queue from which chunks are taken
+         */
+        ChunkInputStream(final BlockingQueue<byte[]> theChunks) {
+
+            super();
+
+            this.chunks = theChunks;
+            this.current = null;
+            this.position = 0;
+            this.ended = false;
+        }
+
+        /**
+         * Reads one byte.
+         *
+         * @return the byte; -1 at the end of the body
+         * @throws IOException if the thread is interrupted while waiting for a chunk
+         */
+        @Override
+        public int read() throws IOException {
+
+            final byte[] one = new byte[1];
+            final int count = read(one, 0, 1);
+
+            return count < 0 ? -1 : (int) one[0] & 0xFF;
+        }
+
+        /**
+         * Reads bytes into an array, waiting for a chunk if none is available.
+         *
+         * @param b   the array
+         * @param off the offset at which to store the first byte
+         * @param len the largest number of bytes to read
+         * @return the number of bytes read; -1 at the end of the body
+         * @throws IOException if the thread is interrupted while waiting for a chunk
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            int result = -1;
+
+            while (!this.ended && (this.current == null || this.position == this.current.length)) {
+                try {
+                    this.current = this.chunks.take();
+                    this.position = 0;
+                    this.ended = this.current.length == 0;
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for request frames");
+                }
+            }
+
+            if (!this.ended) {
+                result = Math.min(len, this.current.length - this.position);
+                System.arraycopy(this.current, this.position, b, off, result);
+                this.position += result;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * The stream from which the connection reads response frames, which waits for the response headers.
+     */
+    private static final class ResponseInputStream extends InputStream {
+
+        /** The response, which completes when the headers arrive. */
+        private final CompletableFuture<HttpResponse<InputStream>> response;
+
+        /** The response body ({@code null} until the headers arrive). */
+        private InputStream body;
+
+        /**
+         * Constructs a new {@code ResponseInputStream}.
+         *
+         * @param theResponse the response
+         */
+        ResponseInputStream(final CompletableFuture<HttpResponse<InputStream>> theResponse) {
+
+            super();
+
+            this.response = theResponse;
+            this.body = null;
+        }
+
+        /**
+         * Gets the response body, waiting for the response headers if needed.
+         *
+         * @return the body
+         * @throws IOException if the request failed or the server refused the stream
+         */
+        private InputStream getBody() throws IOException {
+
+            if (this.body == null) {
+                final HttpResponse<InputStream> resp;
+                try {
+                    resp = this.response.get();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the stream response");
+                } catch (final ExecutionException ex) {
+                    throw new IOException("Stream request failed", ex.getCause());
+                }
+
+                if (resp.statusCode() != 200) {
+                    resp.body().close();
+                    throw new IOException("Stream request refused with status " + resp.statusCode());
+                }
+                this.body = resp.body();
+            }
+
+            return this.body;
+        }
+
+        /**
+         * Reads one byte.
+         *
+         * @return the byte; -1 at the end of the response
+         * @throws IOException if the response could not be read
+         */
+        @Override
+        public int read() throws IOException {
+
+            return getBody().read();
+        }
+
+        /**
+         * Reads bytes into an array.
+         *
+         * @param b   the array
+         * @param off the offset at which to store the first byte
+         * @param len the largest number of bytes to read
+         * @return the number of bytes read; -1 at the end of the response
+         * @throws IOException if the response could not be read
+         */
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            return getBody().read(b, off, len);
+        }
+
+        /**
+         * Closes the response body, or abandons the response if its headers have not arrived.
+         *
+         * @throws IOException if the response body could not be closed
+         */
+        @Override
+        public void close() throws IOException {
+
+            if (this.body == null) {
+                this.response.cancel(true);
+            } else {
+                this.body.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The client end of a multiplexed API stream (the server's "stream" endpoint).  Requests are written as frames on one
+ * long-lived request body, each with a request ID, and a reader thread matches response frames (which may arrive in
+ * any order) to the requests that are waiting for them.  Any number of threads may submit requests concurrently.
+ *
+ * <p>
+ * The caller opens the streaming request (for example, an HTTP/2 POST) and provides its request body stream and
+ * response body stream.
+ */
+public final class MultiplexedConnection {
+
+    /** The length of the request ID and operation that precede each request body in a frame. */
+    private static final int REQUEST_PREFIX_LENGTH = 5;
+
+    /** The length of the timeout that follows the operation when {@code TIMEOUT_FLAG} is set. */
+    private static final int TIMEOUT_LENGTH = 4;
+
+    /** The bit in the operation byte that indicates a timeout follows. */
+    private static final int TIMEOUT_FLAG = 0x80;
+
+    /** The length of the request ID that precedes each response body in a frame. */
+    private static final int RESPONSE_PREFIX_LENGTH = 4;
+
+    /** The stream to which request frames are written. */
+    private final DataOutputStream out;
+
+    /** The stream from which response frames are read. */
+    private final DataInputStream in;
+
+    /** The next request ID. */
+    private final AtomicInteger nextRequestId;
+
+    /** Requests awaiting responses, keyed by request ID. */
+    private final Map<Integer, CompletableFuture<byte[]>> pending;
+
+    /** The reader thread. */
+    private final Thread reader;
+
+    /** True once the connection has closed. */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new {@code MultiplexedConnection}.  The caller must call {@code start} before submitting requests.
+     *
+     * @param requestBody  the request body of the streaming request
+     * @param responseBody the response body of the streaming request
+     */
+    public MultiplexedConnection(final OutputStream requestBody, final InputStream responseBody) {
+
+        this.out = new DataOutputStream(requestBody);
+        this.in = new DataInputStream(responseBody);
+        this.nextRequestId = new AtomicInteger(0);
+        this.pending = new ConcurrentHashMap<>(64);
+        this.reader = new Thread(this::readResponses, "api-stream-reader");
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * Starts the thread that reads responses.
+     */
+    public void start() {
+
+        this.reader.start();
+    }
+
+    /**
+     * Tests whether the connection is closed.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+
+        return this.closed;
+    }
+
+    /**
+     * Submits a request with no deadline.
+     *
+     * @param operation the operation index (see the "stream" endpoint documentation)
+     * @param body      the request body the operation's endpoint would accept, starting with the authorization token
+     * @return a future that completes with the response body, or exceptionally if the connection fails first
+     */
+    public CompletableFuture<byte[]> submit(final int operation, final byte[] body) {
+
+        return submit(operation, body, -1);
+    }
+
+    /**
+     * Submits a request.  If a timeout is given, the server abandons the operation (and cancels work in progress where
+     * the backend allows) once that much time has passed since it received the request.
+     *
+     * @param operation     the operation index (see the "stream" endpoint documentation)
+     * @param body          the request body the operation's endpoint would accept, starting with the authorization
+     *                      token
+     * @param timeoutMillis the timeout (milliseconds); negative for no deadline
+     * @return a future that completes with the response body, or exceptionally if the connection fails first
+     */
+    public CompletableFuture<byte[]> submit(final int operation, final byte[] body, final int timeoutMillis) {
+
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        if (this.closed) {
+            future.completeExceptionally(new IOException("Connection is closed"));
+        } else {
+            final int requestId = this.nextRequestId.getAndIncrement();
+            final Integer key = Integer.valueOf(requestId);
+            this.pending.put(key, future);
+            if (this.closed && this.pending.remove(key) != null) {
+                // The reader finished after the check above and will not see this request
+                future.completeExceptionally(new IOException("Connection is closed"));
+            }
+
+            try {
+                synchronized (this.out) {
+                    if (timeoutMillis < 0) {
+                        this.out.writeInt(body.length + REQUEST_PREFIX_LENGTH);
+                        this.out.writeInt(requestId);
+                        this.out.writeByte(operation);
+                    } else {
+                        this.out.writeInt(body.length + REQUEST_PREFIX_LENGTH + TIMEOUT_LENGTH);
+                        this.out.writeInt(requestId);
+                        this.out.writeByte(operation | TIMEOUT_FLAG);
+                        this.out.writeInt(timeoutMillis);
+                    }
+                    this.out.write(body);
+                    this.out.flush();
+                }
+            } catch (final IOException ex) {
+                this.pending.remove(key);
+                future.completeExceptionally(ex);
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Ends the request body, which tells the server to finish outstanding operations and end the stream.  Responses to
+     * outstanding requests are still delivered.
+     */
+    public void close() {
+
+        try {
+            synchronized (this.out) {
+                this.out.close();
+            }
+        } catch (final IOException ex) {
+            Log.warning("Failed to close API stream", ex);
+        }
+    }
+
+    /**
+     * Reads response frames until the stream ends, completing the matching requests, then fails any requests still
+     * waiting.
+     */
+    private void readResponses() {
+
+        IOException failure = null;
+
+        try {
+            while (true) {
+                final int length;
+                try {
+                    length = this.in.readInt();
+                } catch (final EOFException ex) {
+                    break;
+                }
+                if (length < RESPONSE_PREFIX_LENGTH) {
+                    throw new IOException("Invalid frame length");
+                }
+                final int requestId = this.in.readInt();
+                final byte[] body = new byte[length - RESPONSE_PREFIX_LENGTH];
+                this.in.readFully(body);
+
+                final CompletableFuture<byte[]> future = this.pending.remove(Integer.valueOf(requestId));
+                if (future == null) {
+                    Log.warning("Response received for unknown request ID ", Integer.toString(requestId));
+                } else {
+                    future.complete(body);
+                }
+            }
+        } catch (final IOException ex) {
+            failure = ex;
+        }
+
+        this.closed = true;
+        final IOException reason = failure == null ? new IOException("Connection closed") : failure;
+        for (final CompletableFuture<byte[]> future : this.pending.values()) {
+            future.completeExceptionally(reason);
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String numPending = Integer.toString(this.pending.size());
+
+        return SimpleBuilder.concat("MultiplexedConnection{pending=", numPending, ", closed=",
+                Boolean.toString(this.closed), "}");
+    }
+}
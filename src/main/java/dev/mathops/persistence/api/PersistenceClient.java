@@ -1,70 +1,390 @@
 package dev.mathops.persistence.api;
 
+import dev.mathops.commons.log.Log;
 import dev.mathops.db.table.Row;
 import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
 import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.dispatch.EApiOperation;
+import dev.mathops.text.builder.SimpleBuilder;
 
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.nio.channels.SocketChannel;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * A client that can connect to a persistence server through its API and perform queries, counts, updates, inserts,
  * and deletes.
+ *
+ * <p>
+ * {@code connect} authenticates with SCRAM-SHA-256 to obtain an authorization token, then opens a multiplexed stream
+ * (unless one has been attached with {@code attachStream}).  Operations are sent as frames on that stream, so many
+ * threads can share one connection and have operations outstanding at once.
+ *
+ * <p>
+ * Each operation is given the client's timeout (see {@code setTimeout}).  The timeout is sent with the request, so the
+ * server stops work on the operation once the caller has stopped waiting for it.
+ *
+ * <p>
+ * Failures whose result codes allow it are retried with backoff, within the timeout and a retry budget shared by all
+ * operations on the client (see {@code perform}).  Idempotent reads are also hedged: if a response is slow, a second
+ * copy of the request is sent and the first response to arrive is used.
  */
 public final class PersistenceClient {
 
+    /** The default timeout for each operation (milliseconds). */
+    private static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    /** The default delay before a hedged request is sent (milliseconds). */
+    private static final int DEFAULT_HEDGE_DELAY_MILLIS = 200;
+
+    /** The largest number of attempts made for one operation. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** The limit on the delay before the first retry (milliseconds); each later retry doubles the limit. */
+    private static final long BASE_BACKOFF_MILLIS = 50L;
+
+    /** The largest limit on the delay before a retry (milliseconds). */
+    private static final long MAX_BACKOFF_MILLIS = 2000L;
+
+    /** The largest number of rows for which space is reserved before a query response's rows are decoded. */
+    private static final int MAX_INITIAL_ROWS = 1000;
+
+    /** The number of random bytes in a client nonce (encoded as 24 base-64 characters). */
+    private static final int CLIENT_NONCE_BYTES = 18;
+
+    /** The path of the authorization endpoint, relative to the server URI. */
+    private static final String AUTHORIZATION_PATH = "api/authorization";
+
+    /** The path of the logout endpoint, relative to the server URI. */
+    private static final String LOGOUT_PATH = "api/logout";
+
+    /** The path of the multiplexed stream endpoint, relative to the server URI. */
+    private static final String STREAM_PATH = "api/stream";
+
+    /** The base URI of the server. */
+    private final URI server;
+
+    /** The username with which to authenticate. */
+    private final String username;
+
+    /** The password with which to authenticate. */
+    private final String password;
+
+    /** The role under which operations execute ({@code null} for the login's default role). */
+    private final String role;
+
+    /** The HTTP client used for the authorization exchange and the stream. */
+    private final HttpClient http;
+
+    /** A secure random number generator for client nonces. */
+    private final SecureRandom rnd;
+
     /** A shared stream in which to assemble requests (all operations synchronize on this object). */
     private final ByteArrayOutputStream buffer;
 
-    /** The socket channel to the server, if the client is connected. */
-    private SocketChannel channel;
+    /** The budget that limits retries and hedged requests. */
+    private final RetryBudget retryBudget;
 
     /** The 16-byte authorization token, if client is connected. */
     private byte[] token;
 
+    /** The multiplexed stream on which to send operations, if one is attached. */
+    private MultiplexedConnection stream;
+
+    /** The timeout for each operation (milliseconds); negative for no timeout. */
+    private volatile int timeoutMillis;
+
+    /** The delay before a hedged request is sent (milliseconds); negative to disable hedging. */
+    private volatile int hedgeDelayMillis;
+
     /**
      * Constructs a new {@code PersistenceClient}.
+     *
+     * @param theServer     the base URI of the server (ending with "/"), under which the "api" paths are found
+     * @param theSslContext the SSL context with which to verify the server's certificate (for example, one that trusts
+     *                      the server's self-signed certificate); {@code null} to use the default context
+     * @param theUsername   the username with which to authenticate
+     * @param thePassword   the password with which to authenticate
+     * @param theRole       the role under which operations execute; {@code null} for the login's default role
      */
-    public PersistenceClient() {
+    public PersistenceClient(final URI theServer, final SSLContext theSslContext, final String theUsername,
+                             final String thePassword, final String theRole) {
 
         this.buffer = new ByteArrayOutputStream(500);
-
-        // TODO: Store server address/port
-        // TODO: Store credentials
+        this.timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        this.hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+        this.retryBudget = new RetryBudget();
+
+        this.server = theServer;
+        this.username = theUsername;
+        this.password = thePassword;
+        this.role = theRole;
+        this.rnd = new SecureRandom();
+
+        final HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2);
+        if (theSslContext != null) {
+            builder.sslContext(theSslContext);
+        }
+        this.http = builder.build();
     }
 
     /**
-     * Connects to the API server using provided credentials.  This establishes a TLS connection to the server, obtains
-     * an authorization token, and then can use that on future API calls.  The TLS connection is maintained, but may
-     * close if unused for some period of time, and is reopened if needed when an API call is to be made.
+     * Connects to the API server using the client's credentials.  This performs the SCRAM-SHA-256 exchange over TLS
+     * to obtain an authorization token, then opens a multiplexed stream for operations if none is attached.  The
+     * client may call {@code connect} again to re-authenticate (for example, after its session has expired).
      *
      * @return the response, with an error message if not successful
      */
     public ConnectResponse connect() {
 
-        // TODO: Create a SSLSocketFactory that can use the self-signed certificate from the server.
+        ConnectResponse result;
+
+        try {
+            result = authenticate();
+
+            final MultiplexedConnection current = this.stream;
+            if (result.resultCode() == EResultCode.SUCCESS && (current == null || current.isClosed())) {
+                final MultiplexedConnection opened = HttpStream.open(this.http, this.server.resolve(STREAM_PATH));
+                opened.start();
+                this.stream = opened;
+            }
+        } catch (final IOException ex) {
+            result = new ConnectResponse(EResultCode.UNAVAILABLE, ex.getMessage());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result = new ConnectResponse(EResultCode.FAILURE, "Interrupted");
+        } catch (final IllegalArgumentException ex) {
+            final String message = SimpleBuilder.concat("Invalid response: ", ex.getMessage());
+            result = new ConnectResponse(EResultCode.FAILURE, message);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs the SCRAM-SHA-256 exchange (see the server's "authorization" endpoint), and stores the authorization
+     * token if it succeeds.
+     *
+     * @return the response
+     * @throws IOException              if a request could not be sent or the server did not accept it
+     * @throws InterruptedException     if the thread was interrupted while waiting for a response
+     * @throws IllegalArgumentException if a server message could not be decoded
+     */
+    private ConnectResponse authenticate() throws IOException, InterruptedException {
+
+        ConnectResponse result;
+
+        final Base64.Encoder encoder = Base64.getEncoder();
+        final Base64.Decoder decoder = Base64.getDecoder();
+
+        final byte[] nonceBytes = new byte[CLIENT_NONCE_BYTES];
+        this.rnd.nextBytes(nonceBytes);
+        final String clientNonce = encoder.encodeToString(nonceBytes);
+
+        final String gs2Header = this.role == null ? "n,," : SimpleBuilder.concat("n,a=", saslName(this.role), ",");
+        final String clientFirstBare = SimpleBuilder.concat("n=", saslName(this.username), ",r=", clientNonce);
+        final String serverFirst = post(AUTHORIZATION_PATH, gs2Header + clientFirstBare);
+
+        final String nonce = attribute(serverFirst, "r=");
+        final String salt = attribute(serverFirst, "s=");
+        final String iterations = attribute(serverFirst, "i=");
+
+        if (serverFirst.startsWith("e=")) {
+            result = new ConnectResponse(EResultCode.UNAUTHORIZED, serverFirst.substring(2));
+        } else if (nonce == null || !nonce.startsWith(clientNonce) || salt == null || iterations == null) {
+            result = new ConnectResponse(EResultCode.FAILURE, "Invalid server-first-message");
+        } else {
+            final byte[] saltBytes = decoder.decode(salt);
+            final String scramPassword = ScramKeys.loginHash(this.password, new String(saltBytes,
+                    StandardCharsets.UTF_8));
+            final byte[] salted = ScramKeys.saltedPassword(scramPassword, saltBytes, Integer.parseInt(iterations));
+            final byte[] clientKey = ScramKeys.clientKey(salted);
+
+            final String binding = encoder.encodeToString(gs2Header.getBytes(StandardCharsets.UTF_8));
+            final String withoutProof = SimpleBuilder.concat("c=", binding, ",r=", nonce);
+            final String authMessage = SimpleBuilder.concat(clientFirstBare, ",", serverFirst, ",", withoutProof);
+            final byte[] clientSignature = ScramKeys.hmac(ScramKeys.storedKey(clientKey), authMessage);
+            final String proof = encoder.encodeToString(ScramKeys.xor(clientKey, clientSignature));
+
+            final String serverFinal = post(AUTHORIZATION_PATH, SimpleBuilder.concat(withoutProof, ",p=", proof));
+            final String verifier = attribute(serverFinal, "v=");
+            final String encodedToken = attribute(serverFinal, "t=");
+
+            if (serverFinal.startsWith("e=")) {
+                result = new ConnectResponse(EResultCode.UNAUTHORIZED, serverFinal.substring(2));
+            } else if (verifier == null || encodedToken == null) {
+                result = new ConnectResponse(EResultCode.FAILURE, "Invalid server-final-message");
+            } else if (!MessageDigest.isEqual(decoder.decode(verifier),
+                    ScramKeys.hmac(ScramKeys.serverKey(salted), authMessage))) {
+                result = new ConnectResponse(EResultCode.FAILURE, "Server signature did not verify");
+            } else {
+                final byte[] newToken = decoder.decode(encodedToken);
+                if (newToken.length == 16) {
+                    synchronized (this.buffer) {
+                        this.token = newToken;
+                    }
+                    result = new ConnectResponse(EResultCode.SUCCESS, null);
+                } else {
+                    result = new ConnectResponse(EResultCode.FAILURE, "Invalid authorization token length");
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Encodes a name as a SCRAM "saslname", in which a comma is written as "=2C" and an equals sign as "=3D".
+     *
+     * @param name the name
+     * @return the encoded name
+     */
+    private static String saslName(final String name) {
+
+        return name.replace("=", "=3D").replace(",", "=2C");
+    }
+
+    /**
+     * Finds the value of an attribute in a SCRAM message.
+     *
+     * @param message the message
+     * @param prefix  the attribute prefix, such as "r="
+     * @return the value; {@code null} if the message has no such attribute
+     */
+    private static String attribute(final String message, final String prefix) {
 
-        // TODO: Connect to the server over TLS
+        String result = null;
 
-        // TODO: Send SCRAM-SHA-256 "client_first" message, receive the "server_first" message, generate and send the
-        // TODO: "client_final" message, receive the "server_final" message, and store the authorization token
+        for (final String part : message.split(",")) {
+            if (part.startsWith(prefix)) {
+                result = part.substring(prefix.length());
+                break;
+            }
+        }
 
-        return null;
+        return result;
+    }
+
+    /**
+     * Sends a POST request to an endpoint and waits for the response.
+     *
+     * @param path the endpoint path, relative to the server URI
+     * @param body the request body
+     * @return the response body
+     * @throws IOException          if the request could not be sent or the server did not accept it
+     * @throws InterruptedException if the thread was interrupted while waiting for the response
+     */
+    private String post(final String path, final String body) throws IOException, InterruptedException {
+
+        return post(path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a POST request to an endpoint and waits for the response.
+     *
+     * @param path the endpoint path, relative to the server URI
+     * @param body the request body
+     * @return the response body
+     * @throws IOException          if the request could not be sent or the server did not accept it
+     * @throws InterruptedException if the thread was interrupted while waiting for the response
+     */
+    private String post(final String path, final byte[] body) throws IOException, InterruptedException {
+
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(this.server.resolve(path))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        final int timeout = this.timeoutMillis;
+        if (timeout >= 0) {
+            builder.timeout(Duration.ofMillis((long) timeout));
+        }
+
+        final HttpResponse<String> response = this.http.send(builder.build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            throw new IOException(SimpleBuilder.concat("Server returned status ",
+                    Integer.toString(response.statusCode())));
+        }
+
+        return response.body();
     }
 
     /**
      * Disconnects from the server.  This attempts to tell the server that the authorization token is no longer needed
-     * (which invalidates the token), then closes the TLS connection and discards the token.  The client may call
-     * {@code connect} again if needed to re-connect.
+     * (which ends its session and invalidates the token), then closes the stream and discards the token.  The client
+     * may call {@code connect} again if needed to re-connect.
      */
     public void disconnect() {
 
-        // TODO: If TLS connection is closed, attempt to re-open
+        final byte[] oldToken;
+        synchronized (this.buffer) {
+            oldToken = this.token;
+            this.token = null;
+        }
+
+        if (oldToken != null) {
+            try {
+                post(LOGOUT_PATH, oldToken);
+            } catch (final IOException ex) {
+                Log.warning("Failed to log out of the server", ex);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (this.stream != null) {
+            this.stream.close();
+            this.stream = null;
+        }
+    }
 
-        // TODO: If connected to server, send a message to invalidate the authorization token
+    /**
+     * Attaches a multiplexed stream, on which subsequent operations are sent.  The stream must have been started.
+     *
+     * @param theStream the stream
+     */
+    public void attachStream(final MultiplexedConnection theStream) {
+
+        this.stream = theStream;
+    }
+
+    /**
+     * Sets the timeout for subsequent operations.  An operation that does not complete within the timeout fails with a
+     * "Timed out" message, and the server abandons it.
+     *
+     * @param timeout the timeout; {@code null} for no timeout
+     */
+    public void setTimeout(final Duration timeout) {
 
-        this.token = null;
+        this.timeoutMillis = timeout == null ? -1 : (int) Math.min((long) Integer.MAX_VALUE, timeout.toMillis());
+    }
+
+    /**
+     * Sets the delay after which a second copy of a slow idempotent read is sent.
+     *
+     * @param delay the delay; {@code null} to disable hedging
+     */
+    public void setHedgeDelay(final Duration delay) {
+
+        this.hedgeDelayMillis = delay == null ? -1 : (int) Math.min((long) Integer.MAX_VALUE, delay.toMillis());
     }
 
     /**
@@ -80,27 +400,33 @@ public final class PersistenceClient {
     public CountResponse doCount(final int schemaId, final int contextId, final int tableId,
                                  final SelectionCriteria criteria) {
 
-        // TODO:
+        final byte[] body = buildRequest(schemaId, contextId, tableId, criteria, null);
+        final OperationResult result = perform(EApiOperation.COUNT, body, null);
 
-        return new CountResponse(EResultCode.FAILURE, 0, "Not yet implemented");
+        return new CountResponse(result.resultCode(), (int) result.value(), result.errorMessage());
     }
 
     /**
      * Performs a query operation to return the rows in a table that match selection criteria (or all rows if no
      * selection criteria is provided).
      *
+     * <p>
+     * Like a count, a query is idempotent, so it is retried and hedged as described for {@code doCount}.
+     *
      * @param schemaId the schema ID
      * @param contextId the context ID
      * @param tableId the table ID
+     * @param table the definition of the table (as obtained from the "table" operation), used to decode the rows
      * @param criteria optional selection criteria
      * @return the response, with the rows found (on SUCCESS), or an error message otherwise
      */
-    public QueryResponse doQuery(final int schemaId, final int contextId, final int tableId,
+    public QueryResponse doQuery(final int schemaId, final int contextId, final int tableId, final Table table,
                                  final SelectionCriteria criteria) {
 
-        // TODO:
+        final byte[] body = buildRequest(schemaId, contextId, tableId, criteria, null);
+        final OperationResult result = perform(EApiOperation.QUERY, body, table);
 
-        return new QueryResponse(EResultCode.FAILURE, null, "Not yet implemented");
+        return new QueryResponse(result.resultCode(), result.rows(), result.errorMessage());
     }
 
     /**
@@ -115,9 +441,11 @@ public final class PersistenceClient {
     public InsertResponse doInsert(final int schemaId, final int contextId, final int tableId,
                                    final List<Row> rowsToInsert) {
 
-        // TODO:
+        final byte[] body = buildInsertRequest(new int[]{schemaId}, new int[]{contextId}, new int[]{tableId},
+                List.<List<Row>>of(rowsToInsert), false);
+        final OperationResult result = perform(EApiOperation.INSERT, body, null);
 
-        return new InsertResponse(EResultCode.FAILURE, 0, "Not yet implemented");
+        return new InsertResponse(result.resultCode(), (int) result.value(), result.errorMessage());
     }
 
     /**
@@ -134,9 +462,10 @@ public final class PersistenceClient {
     public InsertResponse doMultiInsert(final int[] schemaId, final int[] contextId, final int[] tableId,
                                         final List<Row>[] rowsToInsert) {
 
-        // TODO:
+        final byte[] body = buildInsertRequest(schemaId, contextId, tableId, List.of(rowsToInsert), true);
+        final OperationResult result = perform(EApiOperation.INSERT_MULTI, body, null);
 
-        return new InsertResponse(EResultCode.FAILURE, 0, "Not yet implemented");
+        return new InsertResponse(result.resultCode(), (int) result.value(), result.errorMessage());
     }
 
     /**
@@ -152,9 +481,10 @@ public final class PersistenceClient {
     public DeleteResponse doDelete(final int schemaId, final int contextId, final int tableId,
                                    final SelectionCriteria criteria) {
 
-        // TODO:
+        final byte[] body = buildRequest(schemaId, contextId, tableId, criteria, null);
+        final OperationResult result = perform(EApiOperation.DELETE, body, null);
 
-        return new DeleteResponse(EResultCode.FAILURE, 0, "Not yet implemented");
+        return new DeleteResponse(result.resultCode(), (int) result.value(), result.errorMessage());
     }
 
     /**
@@ -171,9 +501,340 @@ public final class PersistenceClient {
     public UpdateResponse doUpdate(final int schemaId, final int contextId, final int tableId,
                                    final SelectionCriteria criteria, final UpdatedValues updatedValues) {
 
-        // TODO:
+        final byte[] body = buildRequest(schemaId, contextId, tableId, criteria, updatedValues);
+        final OperationResult result = perform(EApiOperation.UPDATE, body, null);
 
-        return new UpdateResponse(EResultCode.FAILURE, 0, "Not yet implemented");
+        return new UpdateResponse(result.resultCode(), (int) result.value(), result.errorMessage());
+    }
+
+    /**
+     * Builds the body of a request that names a target table, with optional selection criteria and updated values.
+     *
+     * @param schemaId      the schema ID
+     * @param contextId     the context ID
+     * @param tableId       the table ID
+     * @param criteria      optional selection criteria
+     * @param updatedValues optional updated values
+     * @return the request body; {@code null} if the client is not connected or the arguments could not be encoded
+     */
+    private byte[] buildRequest(final int schemaId, final int contextId, final int tableId,
+                                final SelectionCriteria criteria, final UpdatedValues updatedValues) {
+
+        byte[] result = null;
+
+        synchronized (this.buffer) {
+            if (this.token != null) {
+                this.buffer.reset();
+                try {
+                    this.buffer.write(this.token);
+                    FieldEncoder.encode(schemaId, this.buffer);
+                    FieldEncoder.encode(contextId, this.buffer);
+                    FieldEncoder.encode(tableId, this.buffer);
+                    if (criteria != null) {
+                        FieldEncoder.encode(criteria, this.buffer);
+                    }
+                    if (updatedValues != null) {
+                        FieldEncoder.encode(updatedValues, this.buffer);
+                    }
+                    result = this.buffer.toByteArray();
+                } catch (final IllegalArgumentException | IOException ex) {
+                    Log.warning("Unable to encode request", ex);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds the body of an "insert" or "insert_multi" request.
+     *
+     * @param schemaId     the schema ID of each table
+     * @param contextId    the context ID of each table
+     * @param tableId      the table ID of each table
+     * @param rowsToInsert the rows to insert into each table
+     * @param multi        true to include the number of tables ("insert_multi")
+     * @return the request body; {@code null} if the client is not connected or the arguments could not be encoded
+     */
+    private byte[] buildInsertRequest(final int[] schemaId, final int[] contextId, final int[] tableId,
+                                      final List<List<Row>> rowsToInsert, final boolean multi) {
+
+        byte[] result = null;
+
+        synchronized (this.buffer) {
+            if (this.token != null) {
+                this.buffer.reset();
+                try {
+                    this.buffer.write(this.token);
+                    final int numTables = schemaId.length;
+                    if (multi) {
+                        FieldEncoder.encode(numTables, this.buffer);
+                    }
+                    for (int i = 0; i < numTables; ++i) {
+                        FieldEncoder.encode(schemaId[i], this.buffer);
+                        FieldEncoder.encode(contextId[i], this.buffer);
+                        FieldEncoder.encode(tableId[i], this.buffer);
+                        final List<Row> rows = rowsToInsert.get(i);
+                        FieldEncoder.encode(rows.size(), this.buffer);
+                        for (final Row row : rows) {
+                            FieldEncoder.encode(row, this.buffer);
+                        }
+                    }
+                    result = this.buffer.toByteArray();
+                } catch (final IllegalArgumentException | IOException ex) {
+                    Log.warning("Unable to encode request", ex);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends a request and waits for the response, retrying while the failure allows it.  The SUCCESS response holds
+     * either a single integer (a count of rows) or, when a table is given, a list of rows of that table.
+     *
+     * <p>
+     * A failure is retried if its result code is retryable and either the operation is idempotent or the failure
+     * guarantees the operation did not execute.  Retries wait a random delay up to an exponentially growing limit
+     * ("full jitter", so clients that failed together do not retry together), or at least the server's suggested delay
+     * after an OVERLOADED result.  Retries stop after {@code MAX_ATTEMPTS} attempts, when the next one could not
+     * complete within the timeout, or when the retry budget is exhausted.
+     *
+     * @param operation the operation
+     * @param body      the request body ({@code null} if it could not be built)
+     * @param table     the table whose rows the SUCCESS response holds; {@code null} if it holds an integer
+     * @return the result
+     */
+    private OperationResult perform(final EApiOperation operation, final byte[] body, final Table table) {
+
+        OperationResult result;
+
+        final MultiplexedConnection conn = this.stream;
+        if (body == null || conn == null || conn.isClosed()) {
+            result = new OperationResult(EResultCode.FAILURE, 0L, null, "Not connected");
+        } else {
+            final int timeout = this.timeoutMillis;
+            final long start = System.nanoTime();
+            int attempts = 0;
+            boolean done = false;
+
+            do {
+                result = attempt(conn, operation, body, table, remainingMillis(start, timeout));
+                ++attempts;
+
+                final EResultCode code = result.resultCode();
+                if (code == EResultCode.SUCCESS) {
+                    this.retryBudget.recordSuccess();
+                    done = true;
+                } else if (attempts < MAX_ATTEMPTS && code.isSafeToRetry(operation.idempotent)) {
+                    final long delay = backoffMillis(attempts, result);
+                    done = (timeout >= 0 && delay >= (long) remainingMillis(start, timeout))
+                           || !this.retryBudget.tryWithdraw() || !pause(delay);
+                } else {
+                    done = true;
+                }
+            } while (!done);
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes the time remaining before an operation's timeout.
+     *
+     * @param start   the {@code System.nanoTime()} value when the operation began
+     * @param timeout the operation timeout (milliseconds); negative for no timeout
+     * @return the remaining time (milliseconds); negative for no timeout
+     */
+    private static int remainingMillis(final long start, final int timeout) {
+
+        int result = timeout;
+
+        if (timeout >= 0) {
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            result = (int) Math.max(0L, (long) timeout - elapsed);
+        }
+
+        return result;
+    }
+
+    /**
+     * Chooses the delay before a retry.
+     *
+     * @param attempts the number of attempts made so far
+     * @param failure  the result of the last attempt
+     * @return the delay (milliseconds)
+     */
+    private static long backoffMillis(final int attempts, final OperationResult failure) {
+
+        final long limit = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempts - 1));
+        final long jittered = ThreadLocalRandom.current().nextLong(limit + 1L);
+
+        return failure.resultCode() == EResultCode.OVERLOADED ? Math.max(failure.value(), jittered) : jittered;
+    }
+
+    /**
+     * Waits before a retry.
+     *
+     * @param millis the delay (milliseconds)
+     * @return true if the delay completed; false if the thread was interrupted
+     */
+    private static boolean pause(final long millis) {
+
+        boolean result = true;
+
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result = false;
+        }
+
+        return result;
+    }
+
+    /**
+     * Makes one attempt at an operation.  For an idempotent operation, if no response arrives within the hedge delay,
+     * a second identical request is sent (if the retry budget allows), and whichever response arrives first is used.
+     *
+     * @param conn      the connection
+     * @param operation the operation
+     * @param body      the request body
+     * @param table     the table whose rows the SUCCESS response holds; {@code null} if it holds an integer
+     * @param timeout   the timeout (milliseconds); negative for no timeout
+     * @return the result
+     */
+    private OperationResult attempt(final MultiplexedConnection conn, final EApiOperation operation, final byte[] body,
+                                    final Table table, final int timeout) {
+
+        OperationResult result;
+
+        final long start = System.nanoTime();
+        final int op = operation.ordinal();
+        final int hedgeDelay = this.hedgeDelayMillis;
+        final CompletableFuture<byte[]> first = conn.submit(op, body, timeout);
+        CompletableFuture<byte[]> response = first;
+        CompletableFuture<byte[]> hedge = null;
+
+        try {
+            if (operation.idempotent && hedgeDelay >= 0 && (timeout < 0 || hedgeDelay < timeout)) {
+                try {
+                    first.get((long) hedgeDelay, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException ex) {
+                    if (this.retryBudget.tryWithdraw()) {
+                        hedge = conn.submit(op, body, remainingMillis(start, timeout));
+                        response = firstSuccessful(first, hedge);
+                    }
+                }
+            }
+
+            final int remaining = remainingMillis(start, timeout);
+            final byte[] bytes = remaining < 0 ? response.get() : response.get((long) remaining, TimeUnit.MILLISECONDS);
+            result = decodeResult(bytes, table);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result = new OperationResult(EResultCode.FAILURE, 0L, null, "Interrupted");
+        } catch (final ExecutionException ex) {
+            result = new OperationResult(EResultCode.UNAVAILABLE, 0L, null, ex.getCause().getMessage());
+        } catch (final TimeoutException ex) {
+            result = new OperationResult(EResultCode.DEADLINE_EXCEEDED, 0L, null, "Timed out");
+        } finally {
+            first.cancel(false);
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Combines two requests for the same response into a future that completes with whichever response arrives first,
+     * or exceptionally only if both fail.
+     *
+     * @param first  the first request
+     * @param second the second request
+     * @return the combined future
+     */
+    private static CompletableFuture<byte[]> firstSuccessful(final CompletableFuture<byte[]> first,
+                                                             final CompletableFuture<byte[]> second) {
+
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        final BiConsumer<byte[], Throwable> handler = (bytes, ex) -> {
+            if (ex == null) {
+                result.complete(bytes);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(ex);
+            }
+        };
+        first.whenComplete(handler);
+        second.whenComplete(handler);
+
+        return result;
+    }
+
+    /**
+     * Decodes a response whose SUCCESS form holds a single integer or a list of rows.
+     *
+     * @param response the response body
+     * @param table    the table whose rows the SUCCESS form holds; {@code null} if it holds an integer
+     * @return the result
+     */
+    private static OperationResult decodeResult(final byte[] response, final Table table) {
+
+        OperationResult result;
+
+        try {
+            final ByteArrayInputStream in = new ByteArrayInputStream(response);
+            final EResultCode code = EResultCode.forCode(FieldDecoder.decodeIntValue(in));
+            if (code == EResultCode.SUCCESS && table == null) {
+                result = new OperationResult(EResultCode.SUCCESS, FieldDecoder.decodeLongValue(in), null, null);
+            } else if (code == EResultCode.SUCCESS) {
+                final List<Row> rows = decodeRows(in, table);
+                result = new OperationResult(EResultCode.SUCCESS, (long) rows.size(), rows, null);
+            } else if (code == EResultCode.OVERLOADED) {
+                final long retryAfter = FieldDecoder.decodeLongValue(in);
+                final String message = FieldDecoder.decodeStringValue(in);
+                result = new OperationResult(EResultCode.OVERLOADED, retryAfter, null, message);
+            } else {
+                FieldDecoder.decodeIntValue(in);
+                final String message = FieldDecoder.decodeStringValue(in);
+                result = new OperationResult(code, 0L, null, message);
+            }
+        } catch (final IllegalArgumentException | IOException ex) {
+            final String message = SimpleBuilder.concat("Invalid response: ", ex.getMessage());
+            result = new OperationResult(EResultCode.FAILURE, 0L, null, message);
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a list of rows: the number of rows, then each row.
+     *
+     * @param in    the input stream
+     * @param table the table
+     * @return the rows
+     * @throws IOException              if the input stream could not be read
+     * @throws IllegalArgumentException if the rows could not be decoded or do not match the table
+     */
+    private static List<Row> decodeRows(final ByteArrayInputStream in, final Table table)
+            throws IllegalArgumentException, IOException {
+
+        final int numRows = FieldDecoder.decodeIntValue(in);
+        if (numRows < 0) {
+            throw new IllegalArgumentException("Invalid number of rows");
+        }
+
+        final List<Row> result = new ArrayList<>(Math.min(numRows, MAX_INITIAL_ROWS));
+        for (int i = 0; i < numRows; ++i) {
+            result.add(FieldDecoder.decodeRow(in, table));
+        }
+
+        return result;
     }
 
     /**
@@ -184,6 +845,17 @@ public final class PersistenceClient {
     @Override
     public String toString() {
 
-        return "PersistenceClient{}";
+        return SimpleBuilder.concat("PersistenceClient{server=", this.server, ", username=", this.username, "}");
     }
+
+    /**
+     * The result of an operation.
+     *
+     * @param resultCode   the result code
+     * @param value        on a SUCCESS result code, the integer from the response (or the number of rows); on
+     *                     OVERLOADED, the suggested delay before retrying (milliseconds)
+     * @param rows         on a SUCCESS result code for an operation that returns rows, the rows; {@code null} otherwise
+     * @param errorMessage on a non-SUCCESS result code, a diagnostic error message
+     */
+    private record OperationResult(EResultCode resultCode, long value, List<Row> rows, String errorMessage) {}
 }
@@ -0,0 +1,69 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+/**
+ * A budget that limits retries and hedged requests to a fraction of successful requests, so that when the server is
+ * failing broadly, clients do not multiply its load by retrying everything.
+ *
+ * <p>
+ * The budget holds tokens, up to a maximum.  Each successful request deposits a fraction of a token, and each retry or
+ * hedged request withdraws one token; a retry is not sent if no whole token is available.  The budget starts full, so
+ * an idle client can retry a few isolated failures at once.
+ */
+final class RetryBudget {
+
+    /** The largest number of tokens the budget holds. */
+    private static final double MAX_TOKENS = 10.0;
+
+    /** The tokens deposited by each successful request (the steady-state ratio of retries to successes). */
+    private static final double DEPOSIT_PER_SUCCESS = 0.1;
+
+    /** The number of tokens available. */
+    private double tokens;
+
+    /**
+     * Constructs a new {@code RetryBudget}.
+     */
+    RetryBudget() {
+
+        this.tokens = MAX_TOKENS;
+    }
+
+    /**
+     * Records a successful request.
+     */
+    synchronized void recordSuccess() {
+
+        this.tokens = Math.min(MAX_TOKENS, this.tokens + DEPOSIT_PER_SUCCESS);
+    }
+
+    /**
+     * Attempts to withdraw a token for a retry or hedged request.
+     *
+     * @return true if a token was withdrawn; false if the budget is exhausted
+     */
+    synchronized boolean tryWithdraw() {
+
+        final boolean result = this.tokens >= 1.0;
+
+        if (result) {
+            this.tokens -= 1.0;
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public synchronized String toString() {
+
+        final String tokensStr = Double.toString(this.tokens);
+
+        return SimpleBuilder.concat("RetryBudget{tokens=", tokensStr, "}");
+    }
+}
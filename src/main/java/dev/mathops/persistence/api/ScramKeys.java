@@ -0,0 +1,169 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.commons.HexEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * The key derivations used by the SCRAM-SHA-256 authorization exchange (RFC5802 and RFC7677), shared by the server and
+ * the client.
+ *
+ * <p>
+ * The server does not store passwords, only the SHA-512 hash of the salt followed by the SHA-512 hash of the password
+ * (see {@code Login}).  So the "password" that SCRAM salts and iterates is the uppercase hexadecimal form of that hash,
+ * which the client computes from the user's password and the salt the server sends in its "server-first-message".
+ */
+public enum ScramKeys {
+    ;
+
+    /** The number of PBKDF2 iterations used to salt the password. */
+    public static final int ITERATIONS = 4096;
+
+    /** The length of a SHA-256 key or signature, in bits. */
+    private static final int KEY_BITS = 256;
+
+    /** The HMAC algorithm. */
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Computes the uppercase hexadecimal form of the stored login hash for a password, which serves as the SCRAM
+     * password.
+     *
+     * @param password the password
+     * @param salt     the login's salt
+     * @return the hexadecimal hash
+     */
+    public static String loginHash(final String password, final String salt) {
+
+        final byte[] saltBytes = salt.getBytes(StandardCharsets.UTF_8);
+        final byte[] pwdBytes = password.getBytes(StandardCharsets.UTF_8);
+
+        final byte[] hash;
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            final byte[] digestedPwdBytes = digest.digest(pwdBytes);
+
+            final byte[] toHash = new byte[saltBytes.length + digestedPwdBytes.length];
+            System.arraycopy(saltBytes, 0, toHash, 0, saltBytes.length);
+            System.arraycopy(digestedPwdBytes, 0, toHash, saltBytes.length, digestedPwdBytes.length);
+            hash = digest.digest(toHash);
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException("SHA-512 is not available", ex);
+        }
+
+        return HexEncoder.encodeUppercase(hash);
+    }
+
+    /**
+     * Computes the salted password: {@code Hi(password, salt, iterations)}, which is PBKDF2 with HMAC-SHA-256.
+     *
+     * @param password   the SCRAM password (see {@code loginHash})
+     * @param salt       the salt
+     * @param iterations the iteration count
+     * @return the salted password
+     */
+    public static byte[] saltedPassword(final String password, final byte[] salt, final int iterations) {
+
+        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+
+        final byte[] result;
+        try {
+            result = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", ex);
+        } finally {
+            spec.clearPassword();
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes the client key: {@code HMAC(SaltedPassword, "Client Key")}.
+     *
+     * @param saltedPassword the salted password
+     * @return the client key
+     */
+    public static byte[] clientKey(final byte[] saltedPassword) {
+
+        return hmac(saltedPassword, "Client Key");
+    }
+
+    /**
+     * Computes the server key: {@code HMAC(SaltedPassword, "Server Key")}.
+     *
+     * @param saltedPassword the salted password
+     * @return the server key
+     */
+    public static byte[] serverKey(final byte[] saltedPassword) {
+
+        return hmac(saltedPassword, "Server Key");
+    }
+
+    /**
+     * Computes the stored key: {@code H(ClientKey)}.
+     *
+     * @param clientKey the client key
+     * @return the stored key
+     */
+    public static byte[] storedKey(final byte[] clientKey) {
+
+        final byte[] result;
+        try {
+            result = MessageDigest.getInstance("SHA-256").digest(clientKey);
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes an HMAC-SHA-256 signature of a message.
+     *
+     * @param key     the key
+     * @param message the message (encoded as UTF-8)
+     * @return the signature
+     */
+    public static byte[] hmac(final byte[] key, final String message) {
+
+        final byte[] result;
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            result = mac.doFinal(message.getBytes(StandardCharsets.UTF_8));
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException("HMAC-SHA-256 is not available", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes the exclusive-or of two byte arrays of the same length (used to form and to recover the client proof).
+     *
+     * @param first  the first array
+     * @param second the second array
+     * @return a new array with the exclusive-or of the inputs
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public static byte[] xor(final byte[] first, final byte[] second) {
+
+        if (first.length != second.length) {
+            throw new IllegalArgumentException("Arrays differ in length");
+        }
+
+        final byte[] result = new byte[first.length];
+        for (int i = 0; i < first.length; ++i) {
+            result[i] = (byte) (first[i] ^ second[i]);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,251 @@
+package dev.mathops.persistence.archive;
+
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.api.FieldDecoder;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the rows of one table from an archive file written by {@code ArchiveWriter}, one block at a time.  Every block
+ * is checked against its checksum, and the trailer against the number of rows read, so a damaged or incomplete archive
+ * is reported rather than partly restored without notice.
+ */
+final class ArchiveReader implements AutoCloseable {
+
+    /** The size of the read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The path of the file. */
+    private final Path path;
+
+    /** The table whose rows the file holds. */
+    private final Table table;
+
+    /** The input stream that reads the file. */
+    private final DataInputStream in;
+
+    /** The decompressor. */
+    private final Inflater inflater;
+
+    /** The total number of rows read. */
+    private long totalRows;
+
+    /** True once the trailer has been read. */
+    private boolean done;
+
+    /**
+     * Opens an archive file and checks that its header matches a table.
+     *
+     * @param thePath  the path of the archive file
+     * @param theTable the table whose rows the file should hold
+     * @throws IOException if the file could not be read, is not an archive, or was written for a table with different
+     *                     fields
+     */
+    ArchiveReader(final Path thePath, final Table theTable) throws IOException {
+
+        this.path = thePath;
+        this.table = theTable;
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(thePath), BUFFER_SIZE));
+        this.inflater = new Inflater();
+
+        try {
+            checkHeader();
+        } catch (final IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the header and checks that it matches the table.
+     *
+     * @throws IOException if the file could not be read, is not an archive, or does not match the table
+     */
+    private void checkHeader() throws IOException {
+
+        if (this.in.readInt() != ArchiveWriter.MAGIC || this.in.readInt() != ArchiveWriter.VERSION) {
+            throw new IOException("File is not a table archive");
+        }
+
+        boolean matches = this.in.readUTF().equals(this.table.getSchema())
+                          && this.in.readUTF().equals(this.table.getName());
+
+        final int numFields = this.in.readInt();
+        matches = matches && numFields == this.table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            final String name = this.in.readUTF();
+            final int type = this.in.readInt();
+            if (matches) {
+                final Field field = this.table.getField(i);
+                matches = name.equals(field.getDef().getName()) && type == field.getDef().getType().ordinal();
+            }
+        }
+
+        if (!matches) {
+            final String msg = SimpleBuilder.concat("Archive does not match the definition of table '",
+                    this.table.getName(), "'");
+            throw new IOException(msg);
+        }
+    }
+
+    /**
+     * Reads the next block of rows.
+     *
+     * @return the rows; {@code null} once the trailer has been read
+     * @throws IOException if the file could not be read or is damaged or incomplete
+     */
+    List<Row> nextBlock() throws IOException {
+
+        List<Row> result = null;
+
+        if (!this.done) {
+            final int numRows = this.in.readInt();
+            if (numRows == ArchiveWriter.TRAILER) {
+                readTrailer();
+            } else {
+                result = readBlock(numRows);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the body of a block.
+     *
+     * @param numRows the number of rows in the block
+     * @return the rows
+     * @throws IOException if the file could not be read or the block is damaged
+     */
+    private List<Row> readBlock(final int numRows) throws IOException {
+
+        final int rawLen = this.in.readInt();
+        final int compressedLen = this.in.readInt();
+        final int checksum = this.in.readInt();
+        if (numRows <= 0 || numRows > ArchiveWriter.MAX_BLOCK_ROWS || rawLen < 0 || compressedLen < 0
+            || (long) compressedLen > (long) rawLen + (long) (rawLen >> 4) + 1024L) {
+            throw damaged(null);
+        }
+
+        final byte[] compressed = new byte[compressedLen];
+        this.in.readFully(compressed);
+
+        final byte[] raw = new byte[rawLen];
+        this.inflater.reset();
+        this.inflater.setInput(compressed);
+        try {
+            int len = 0;
+            while (len < rawLen && !this.inflater.finished()) {
+                final int n = this.inflater.inflate(raw, len, rawLen - len);
+                if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != rawLen || !this.inflater.finished()) {
+                throw damaged(null);
+            }
+        } catch (final DataFormatException ex) {
+            throw damaged(ex);
+        }
+
+        final CRC32C crc = new CRC32C();
+        crc.update(raw);
+        if ((int) crc.getValue() != checksum) {
+            throw damaged(null);
+        }
+
+        final List<Row> result = new ArrayList<>(numRows);
+        final InputStream rows = new ByteArrayInputStream(raw);
+        try {
+            for (int i = 0; i < numRows; ++i) {
+                result.add(FieldDecoder.decodeRow(rows, this.table));
+            }
+        } catch (final IllegalArgumentException ex) {
+            throw damaged(ex);
+        }
+        if (rows.available() > 0) {
+            throw damaged(null);
+        }
+        this.totalRows += (long) numRows;
+
+        return result;
+    }
+
+    /**
+     * Reads the trailer and checks it against the number of rows read.
+     *
+     * @throws IOException if the file could not be read or the trailer does not match
+     */
+    private void readTrailer() throws IOException {
+
+        final long total = this.in.readLong();
+        final int checksum = this.in.readInt();
+        if (total != this.totalRows || checksum != ArchiveWriter.trailerChecksum(total)) {
+            throw damaged(null);
+        }
+        this.done = true;
+    }
+
+    /**
+     * Creates the exception thrown when the file is damaged.
+     *
+     * @param cause the underlying cause ({@code null} if none)
+     * @return the exception
+     */
+    private IOException damaged(final Exception cause) {
+
+        final String msg = SimpleBuilder.concat("Archive file '", this.path, "' is damaged");
+
+        return new IOException(msg, cause);
+    }
+
+    /**
+     * Gets the total number of rows read.
+     *
+     * @return the number of rows
+     */
+    long getTotalRows() {
+
+        return this.totalRows;
+    }
+
+    /**
+     * Closes the reader.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.inflater.end();
+        this.in.close();
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String rowsStr = Long.toString(this.totalRows);
+
+        return SimpleBuilder.concat("ArchiveReader{path=", this.path, ", rows=", rowsStr, "}");
+    }
+}
@@ -0,0 +1,258 @@
+package dev.mathops.persistence.archive;
+
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.api.FieldEncoder;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the rows of one table to an archive file.
+ *
+ * <p>
+ * An archive file begins with a header: a 4-byte magic number, a 4-byte version, the schema and table names, and the
+ * name and type of each field, so a restore can tell whether the table has been redefined since the archive was
+ * written.  Then come blocks of rows, each a 4-byte row count, the 4-byte lengths of the rows before and after
+ * compression, a 4-byte CRC-32C checksum of the uncompressed rows, and the rows encoded by {@code FieldEncoder} and
+ * compressed with Deflate.  A trailer (a row count of -1, the 8-byte total number of rows, and a checksum of that
+ * total) marks the end, so an archive that was cut short is never taken for a complete one.
+ *
+ * <p>
+ * The file is written under a temporary name, forced to disk, and then renamed, so a file with the final name is
+ * always complete.  Only one block of rows is held in memory at a time.
+ */
+final class ArchiveWriter implements AutoCloseable {
+
+    /** The magic number that begins an archive file ("MPAR"). */
+    static final int MAGIC = 0x4D504152;
+
+    /** The version of the file format. */
+    static final int VERSION = 1;
+
+    /** The row count that marks the trailer. */
+    static final int TRAILER = -1;
+
+    /** The uncompressed size at which a block is written (bytes). */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /** The number of rows at which a block is written. */
+    static final int MAX_BLOCK_ROWS = 4096;
+
+    /** The size of the buffer used to compress a block. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** The path of the file being written. */
+    private final Path tempPath;
+
+    /** The path to which the file is renamed when complete. */
+    private final Path path;
+
+    /** The file channel. */
+    private final FileChannel channel;
+
+    /** The output stream that writes the file. */
+    private final DataOutputStream out;
+
+    /** The rows of the current block, encoded. */
+    private final ByteArrayOutputStream pending;
+
+    /** The compressor. */
+    private final Deflater deflater;
+
+    /** The compressed rows of the current block. */
+    private final ByteArrayOutputStream compressed;
+
+    /** The buffer used to compress a block. */
+    private final byte[] chunk;
+
+    /** The number of rows in the current block. */
+    private int pendingRows;
+
+    /** The total number of rows written. */
+    private long totalRows;
+
+    /** True once the file is complete. */
+    private boolean finished;
+
+    /**
+     * Creates an archive file and writes its header.
+     *
+     * @param thePath the path of the archive file (written under a temporary name until complete)
+     * @param table   the table whose rows will be written
+     * @throws IOException if the file could not be created or written
+     */
+    ArchiveWriter(final Path thePath, final Table table) throws IOException {
+
+        this.path = thePath;
+        this.tempPath = thePath.resolveSibling(thePath.getFileName() + ".tmp");
+        this.channel = FileChannel.open(this.tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel), CHUNK_SIZE));
+        this.pending = new ByteArrayOutputStream(BLOCK_SIZE + CHUNK_SIZE);
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.compressed = new ByteArrayOutputStream(BLOCK_SIZE / 2);
+        this.chunk = new byte[CHUNK_SIZE];
+
+        try {
+            writeHeader(this.out, table);
+        } catch (final IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes the header of an archive file.
+     *
+     * @param out   the output stream
+     * @param table the table
+     * @throws IOException if the header could not be written
+     */
+    private static void writeHeader(final DataOutputStream out, final Table table) throws IOException {
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(table.getSchema());
+        out.writeUTF(table.getName());
+
+        final int numFields = table.getNumFields();
+        out.writeInt(numFields);
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            out.writeUTF(field.getDef().getName());
+            out.writeInt(field.getDef().getType().ordinal());
+        }
+    }
+
+    /**
+     * Adds a row to the archive, writing a block if the current one is full.
+     *
+     * @param row the row
+     * @throws IOException if the row could not be encoded or written
+     */
+    void add(final Row row) throws IOException {
+
+        try {
+            FieldEncoder.encode(row, this.pending);
+        } catch (final IllegalArgumentException ex) {
+            throw new IOException("Row could not be encoded", ex);
+        }
+        ++this.pendingRows;
+
+        if (this.pending.size() >= BLOCK_SIZE || this.pendingRows >= MAX_BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Compresses and writes the current block, if it holds any rows.
+     *
+     * @throws IOException if the block could not be written
+     */
+    private void writeBlock() throws IOException {
+
+        if (this.pendingRows > 0) {
+            final byte[] raw = this.pending.toByteArray();
+            final CRC32C crc = new CRC32C();
+            crc.update(raw);
+
+            this.compressed.reset();
+            this.deflater.reset();
+            this.deflater.setInput(raw);
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                final int len = this.deflater.deflate(this.chunk);
+                this.compressed.write(this.chunk, 0, len);
+            }
+
+            this.out.writeInt(this.pendingRows);
+            this.out.writeInt(raw.length);
+            this.out.writeInt(this.compressed.size());
+            this.out.writeInt((int) crc.getValue());
+            this.compressed.writeTo(this.out);
+
+            this.totalRows += (long) this.pendingRows;
+            this.pending.reset();
+            this.pendingRows = 0;
+        }
+    }
+
+    /**
+     * Computes the checksum of the total row count in the trailer.
+     *
+     * @param total the total row count
+     * @return the CRC-32C checksum of the count's 8 bytes
+     */
+    static int trailerChecksum(final long total) {
+
+        final CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, total));
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the last block and the trailer, forces the file to disk, and gives it its final name.
+     *
+     * @return the number of rows written
+     * @throws IOException if the file could not be completed
+     */
+    long finish() throws IOException {
+
+        writeBlock();
+
+        this.out.writeInt(TRAILER);
+        this.out.writeLong(this.totalRows);
+        this.out.writeInt(trailerChecksum(this.totalRows));
+        this.out.flush();
+        this.channel.force(true);
+        this.channel.close();
+
+        Files.move(this.tempPath, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.finished = true;
+
+        return this.totalRows;
+    }
+
+    /**
+     * Closes the writer.  If the file is not complete, it is deleted.
+     *
+     * @throws IOException if the file could not be closed or deleted
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.deflater.end();
+        if (!this.finished) {
+            this.channel.close();
+            Files.deleteIfExists(this.tempPath);
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String rowsStr = Long.toString(this.totalRows);
+
+        return SimpleBuilder.concat("ArchiveWriter{path=", this.path, ", rows=", rowsStr, "}");
+    }
+}
@@ -0,0 +1,335 @@
+package dev.mathops.persistence.archive;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Archives the tables of a term schema to files when the term is retired, and restores them from those files.
+ *
+ * <p>
+ * Each table is written to its own archive file ({@code table_name.mpa}) by {@code ArchiveWriter}: rows encoded by
+ * {@code FieldEncoder}, compressed in blocks, with a checksum on each block.  Tables are archived or restored in
+ * parallel, each on its own worker thread.
+ *
+ * <p>
+ * An implementation returns all the rows a query matches at once, so to avoid loading a whole table into memory, a
+ * table whose first PARTITION_KEY field holds integers is read in pages: the range of key values is halved until the
+ * rows in each part number no more than {@code PAGE_ROWS}, using counts (which implementations answer without reading
+ * rows), and the parts are queried in key order.  Memory use is then bounded by the number of worker threads times the
+ * page size, however large the tables are.  A table with no such field is read with a single query.  A restore inserts
+ * one block of rows at a time.
+ *
+ * <p>
+ * An archive is only complete once every table has been written and the number of rows written matches the number
+ * in the table, so the caller may delete the term's data only after {@code archive} returns normally.  A restore is
+ * not atomic: if it fails, the rows of the blocks already inserted remain.
+ */
+public final class TermArchiver {
+
+    /** The file name extension of archive files. */
+    private static final String EXTENSION = ".mpa";
+
+    /** The most rows read by one query when a table is read in pages. */
+    private static final int PAGE_ROWS = 10000;
+
+    /** The implementation that holds the term's data. */
+    private final IImplementation impl;
+
+    /** The largest number of tables to process at once. */
+    private final int parallelism;
+
+    /**
+     * Constructs a new {@code TermArchiver}.
+     *
+     * @param theImpl        the implementation that holds the term's data
+     * @param theParallelism the largest number of tables to process at once
+     * @throws IllegalArgumentException if the parallelism is less than 1
+     */
+    public TermArchiver(final IImplementation theImpl, final int theParallelism) {
+
+        if (theParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+
+        this.impl = theImpl;
+        this.parallelism = theParallelism;
+    }
+
+    /**
+     * Gets the path of the archive file for a table.
+     *
+     * @param dir   the archive directory
+     * @param table the table
+     * @return the path of the file
+     */
+    public static Path archivePath(final Path dir, final Table table) {
+
+        return dir.resolve(table.getName() + EXTENSION);
+    }
+
+    /**
+     * Archives the tables of a term.
+     *
+     * @param context the context that holds the term's data (such as "term202510")
+     * @param tables  the tables to archive (normally all tables in the term schema)
+     * @param dir     the directory in which to write the archive files (created if needed)
+     * @return the total number of rows archived
+     * @throws IOException          if an archive file could not be written (files already completed remain)
+     * @throws PersistenceException if the data could not be read, or a table changed while it was being archived
+     */
+    public long archive(final String context, final List<Table> tables, final Path dir)
+            throws IOException, PersistenceException {
+
+        Files.createDirectories(dir);
+
+        final List<Callable<Long>> tasks = new ArrayList<>(tables.size());
+        for (final Table table : tables) {
+            tasks.add(() -> Long.valueOf(archiveTable(context, table, archivePath(dir, table))));
+        }
+
+        return runAll(tasks);
+    }
+
+    /**
+     * Restores the tables of a term from archive files.  The tables should be empty.
+     *
+     * @param context the context into which to restore the term's data
+     * @param tables  the tables to restore
+     * @param dir     the directory that holds the archive files
+     * @return the total number of rows restored
+     * @throws IOException          if an archive file could not be read, is damaged, or does not match its table
+     * @throws PersistenceException if the rows could not be inserted
+     */
+    public long restore(final String context, final List<Table> tables, final Path dir)
+            throws IOException, PersistenceException {
+
+        final List<Callable<Long>> tasks = new ArrayList<>(tables.size());
+        for (final Table table : tables) {
+            tasks.add(() -> Long.valueOf(restoreTable(context, table, archivePath(dir, table))));
+        }
+
+        return runAll(tasks);
+    }
+
+    /**
+     * Runs tasks on a pool of worker threads and waits for all of them.  If one fails, the others are stopped.
+     *
+     * @param tasks the tasks, each returning a number of rows
+     * @return the total number of rows
+     * @throws IOException          if a task failed to read or write a file
+     * @throws PersistenceException if a task failed to read or write data, or the wait was interrupted
+     */
+    private long runAll(final List<Callable<Long>> tasks) throws IOException, PersistenceException {
+
+        long total = 0L;
+
+        final int numThreads = Math.max(1, Math.min(this.parallelism, tasks.size()));
+        final ExecutorService workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "term-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            final List<Future<Long>> futures = new ArrayList<>(tasks.size());
+            for (final Callable<Long> task : tasks) {
+                futures.add(workers.submit(task));
+            }
+            for (final Future<Long> future : futures) {
+                total += future.get().longValue();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for archive tasks", ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof final PersistenceException pex) {
+                throw pex;
+            }
+            if (cause instanceof final IOException ioex) {
+                throw ioex;
+            }
+            throw new PersistenceException(EFailureCode.IMPLEMENTATION_ERROR, "Archive task failed", cause);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        return total;
+    }
+
+    /**
+     * Archives one table.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @param path    the path of the archive file
+     * @return the number of rows archived
+     * @throws IOException          if the archive file could not be written
+     * @throws PersistenceException if the data could not be read, or the table changed while it was being archived
+     */
+    private long archiveTable(final String context, final Table table, final Path path)
+            throws IOException, PersistenceException {
+
+        final long expected = this.impl.count(context, table, null);
+        final long written;
+
+        try (final ArchiveWriter writer = new ArchiveWriter(path, table)) {
+            final Field keyField = pagingField(table);
+            if (keyField == null) {
+                final List<Row> rows = new ArrayList<>((int) Math.min(expected, (long) PAGE_ROWS));
+                this.impl.query(context, table, null, rows);
+                for (final Row row : rows) {
+                    writer.add(row);
+                }
+            } else {
+                writePages(context, table, keyField, writer);
+            }
+            written = writer.finish();
+        }
+
+        if (written != expected || this.impl.count(context, table, null) != expected) {
+            Files.deleteIfExists(path);
+            final String msg = SimpleBuilder.concat("Table '", table.getName(), "' changed while being archived");
+            throw new PersistenceException(EFailureCode.CONFLICT, msg, null);
+        }
+
+        final String countStr = Long.toString(written);
+        Log.info("Archived ", countStr, " rows of table '", table.getName(), "' from ", context, ".");
+
+        return written;
+    }
+
+    /**
+     * Finds the field by which a table is read in pages: its first PARTITION_KEY field, if that field holds values
+     * that an integer criterion can select.
+     *
+     * @param table the table
+     * @return the field; {@code null} if the table cannot be read in pages
+     */
+    private static Field pagingField(final Table table) {
+
+        Field result = null;
+
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            if (field.getRole() == EFieldRole.PARTITION_KEY) {
+                final EFieldType type = field.getDef().getType();
+                if (type == EFieldType.INTEGER || type == EFieldType.BYTE) {
+                    result = field;
+                }
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the rows of a table to an archive in pages, in order of key value.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param keyField the field whose value ranges divide the table into pages
+     * @param writer   the archive writer
+     * @throws IOException          if the archive file could not be written
+     * @throws PersistenceException if the data could not be read
+     */
+    private void writePages(final String context, final Table table, final Field keyField,
+                            final ArchiveWriter writer) throws IOException, PersistenceException {
+
+        final Deque<long[]> ranges = new ArrayDeque<>(64);
+        ranges.push(new long[]{(long) Integer.MIN_VALUE, (long) Integer.MAX_VALUE});
+
+        final List<Row> page = new ArrayList<>(PAGE_ROWS);
+        while (!ranges.isEmpty()) {
+            final long[] range = ranges.pop();
+            final long lower = range[0];
+            final long upper = range[1];
+
+            final SelectionCriteria criteria = new SelectionCriteria(table, new IntegerFieldCriterion(keyField,
+                    ENumericMatchType.BETWEEN_INCLUDE_BOUNDS, Integer.valueOf((int) lower),
+                    Integer.valueOf((int) upper)));
+            final long count = this.impl.count(context, table, criteria);
+
+            if (count > (long) PAGE_ROWS && lower < upper) {
+                final long mid = lower + (upper - lower) / 2L;
+                ranges.push(new long[]{mid + 1L, upper});
+                ranges.push(new long[]{lower, mid});
+            } else if (count > 0L) {
+                page.clear();
+                this.impl.query(context, table, criteria, page);
+                for (final Row row : page) {
+                    writer.add(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores one table.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @param path    the path of the archive file
+     * @return the number of rows restored
+     * @throws IOException          if the archive file could not be read, is damaged, or does not match the table
+     * @throws PersistenceException if the rows could not be inserted
+     */
+    private long restoreTable(final String context, final Table table, final Path path)
+            throws IOException, PersistenceException {
+
+        final long restored;
+
+        try (final ArchiveReader reader = new ArchiveReader(path, table)) {
+            List<Row> block = reader.nextBlock();
+            while (block != null) {
+                this.impl.insert(context, block);
+                block = reader.nextBlock();
+            }
+            restored = reader.getTotalRows();
+        }
+
+        final String countStr = Long.toString(restored);
+        Log.info("Restored ", countStr, " rows of table '", table.getName(), "' to ", context, ".");
+
+        return restored;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String parallelismStr = Integer.toString(this.parallelism);
+
+        return SimpleBuilder.concat("TermArchiver{impl=", this.impl, ", parallelism=", parallelismStr, "}");
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Archiving of term schemas to compressed files when a term is retired, and restoring them from those files.
+ */
+package dev.mathops.persistence.archive;
@@ -0,0 +1,12 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.persistence.IImplementation;
+
+/**
+ * One physical backend of an implementation (for example, a database primary or one of its read replicas).
+ *
+ * @param name           the endpoint name (for diagnostics)
+ * @param role           the endpoint role
+ * @param implementation the implementation object that performs operations against this endpoint
+ */
+public record BackendEndpoint(String name, EBackendRole role, IImplementation implementation) {}
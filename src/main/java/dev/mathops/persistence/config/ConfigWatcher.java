@@ -0,0 +1,168 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the configuration directory for changes to configuration files and notifies registered listeners when a
+ * file they care about is created or modified.
+ *
+ * <p>
+ * A single daemon thread waits on a {@code WatchService}.  Editors often generate several events for one save, so
+ * after the first event the thread waits a short settling delay and drains any further events before notifying each
+ * affected listener once.  Listeners run on the watcher thread; they should build replacement state off to the side
+ * and publish it with a single reference assignment so request threads are never blocked by a reload.
+ */
+public final class ConfigWatcher {
+
+    /** The delay (milliseconds) to wait for further events after the first one, so one save triggers one reload. */
+    private static final long SETTLE_DELAY_MS = 250L;
+
+    /** The directory being watched. */
+    private final File directory;
+
+    /** A map from filename to the listeners to notify when that file changes. */
+    private final Map<String, List<Runnable>> listeners;
+
+    /** The watch service ({@code null} when not running). */
+    private WatchService watchService;
+
+    /** The watcher thread ({@code null} when not running). */
+    private Thread thread;
+
+    /**
+     * Constructs a new {@code ConfigWatcher}.
+     *
+     * @param theDirectory the directory to watch
+     */
+    public ConfigWatcher(final File theDirectory) {
+
+        this.directory = theDirectory;
+        this.listeners = new ConcurrentHashMap<>(10);
+        this.watchService = null;
+        this.thread = null;
+    }
+
+    /**
+     * Registers a listener to be called when a file in the watched directory is created or modified.
+     *
+     * @param filename the filename (no path)
+     * @param listener the listener
+     */
+    public void register(final String filename, final Runnable listener) {
+
+        this.listeners.computeIfAbsent(filename, s -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Starts watching.  If the directory cannot be watched, a warning is logged and configuration will only be
+     * loaded at startup.
+     */
+    public synchronized void start() {
+
+        if (this.thread == null) {
+            final Path path = this.directory.toPath();
+            try {
+                final WatchService service = FileSystems.getDefault().newWatchService();
+                path.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                this.watchService = service;
+
+                this.thread = new Thread(() -> runWatcher(service), "config-watcher");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            } catch (final IOException ex) {
+                Log.warning("Unable to watch '", path, "' for configuration changes.", ex);
+            }
+        }
+    }
+
+    /**
+     * Stops watching.
+     */
+    public synchronized void stop() {
+
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (final IOException ex) {
+                Log.warning("Failed to close configuration watch service.", ex);
+            }
+            this.watchService = null;
+        }
+
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * The watcher thread's main loop.
+     *
+     * @param service the watch service
+     */
+    private void runWatcher(final WatchService service) {
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<String> changed = new HashSet<>(4);
+
+                WatchKey key = service.take();
+                while (key != null) {
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof final Path changedPath) {
+                            changed.add(changedPath.getFileName().toString());
+                        }
+                    }
+                    key.reset();
+                    key = service.poll(SETTLE_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+
+                for (final String name : changed) {
+                    notifyListeners(name);
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException ex) {
+            // Normal shutdown
+        }
+    }
+
+    /**
+     * Notifies all listeners registered for a filename.
+     *
+     * @param filename the filename that changed
+     */
+    private void notifyListeners(final String filename) {
+
+        final List<Runnable> list = this.listeners.get(filename);
+
+        if (list != null) {
+            Log.info("Configuration file '", filename, "' changed; reloading.");
+            for (final Runnable listener : list) {
+                try {
+                    listener.run();
+                } catch (final RuntimeException ex) {
+                    Log.warning("Failed to reload '", filename, "'.", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.Table;
+
+/**
+ * A table whose specification was loaded from "schemas.json" rather than compiled into the server.
+ */
+final class ConfiguredTable extends Table {
+
+    /**
+     * Constructs a new {@code ConfiguredTable}.
+     *
+     * @param theSchema      the schema name
+     * @param theGroup       the table group name
+     * @param theName        the table name
+     * @param theDescription the table description (HTML)
+     * @param theExamples    examples (HTML; {@code null} if none)
+     * @param theFields      the fields
+     */
+    ConfiguredTable(final String theSchema, final String theGroup, final String theName,
+                    final String theDescription, final String theExamples, final Field... theFields) {
+
+        super(theSchema, theGroup, theName, theDescription, theExamples, theFields);
+    }
+}
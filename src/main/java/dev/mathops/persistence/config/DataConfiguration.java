@@ -1,5 +1,7 @@
 package dev.mathops.persistence.config;
 
+import dev.mathops.persistence.IImplementation;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,6 +32,11 @@ import java.util.Map;
  *   ... additional configuration objects ...
  * ]
  * </pre>
+ *
+ * <p>
+ * Names are used only while loading.  The server resolves a configuration to implementation objects with
+ * {@code getBindings} and passes the result to the catalog, which builds the integer-indexed routing snapshot the API
+ * uses.
  */
 public class DataConfiguration {
 
@@ -49,4 +56,48 @@ public class DataConfiguration {
         this.name = theName;
         this.implementations = new HashMap<>(10);
     }
+
+    /**
+     * Gets the data configuration name.
+     *
+     * @return the data configuration name
+     */
+    public String getName() {
+
+        return this.name;
+    }
+
+    /**
+     * Assigns an implementation to a schema and context.
+     *
+     * @param schemaName  the schema name
+     * @param contextName the context name
+     * @param impl        the implementation configuration
+     */
+    void addImplementation(final String schemaName, final String contextName, final ImplementationConfig impl) {
+
+        this.implementations.computeIfAbsent(schemaName, s -> new HashMap<>(10)).put(contextName, impl);
+    }
+
+    /**
+     * Gets the implementation object for every schema and context, in the form the catalog takes when bindings are
+     * replaced.
+     *
+     * @return a map from schema name to a map from context name to the implementation object
+     */
+    public Map<String, Map<String, IImplementation>> getBindings() {
+
+        final Map<String, Map<String, IImplementation>> result = new HashMap<>(this.implementations.size());
+
+        for (final Map.Entry<String, Map<String, ImplementationConfig>> schema : this.implementations.entrySet()) {
+            final Map<String, ImplementationConfig> contexts = schema.getValue();
+            final Map<String, IImplementation> row = new HashMap<>(contexts.size());
+            for (final Map.Entry<String, ImplementationConfig> context : contexts.entrySet()) {
+                row.put(context.getKey(), context.getValue().getImplementation());
+            }
+            result.put(schema.getKey(), row);
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,57 @@
+package dev.mathops.persistence.config;
+
+/**
+ * The role of a backend endpoint within an implementation.
+ */
+public enum EBackendRole {
+
+    /** The endpoint that accepts writes (and reads, if there are no replicas). */
+    PRIMARY("primary"),
+
+    /** A read-only copy of the primary, which may lag slightly behind it. */
+    REPLICA("replica");
+
+    /** The role name, as used in "implementations.json". */
+    public final String name;
+
+    /**
+     * Constructs a new {@code EBackendRole}.
+     *
+     * @param theName the role name
+     */
+    EBackendRole(final String theName) {
+
+        this.name = theName;
+    }
+
+    /**
+     * Finds the role with a particular name.
+     *
+     * @param theName the role name
+     * @return the role; {@code null} if none has that name
+     */
+    public static EBackendRole forName(final String theName) {
+
+        EBackendRole result = null;
+
+        for (final EBackendRole value : values()) {
+            if (value.name.equals(theName)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return this.name;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.mathops.persistence.config;
+
+/**
+ * Enumeration of table operations for which permissions can be granted to a role.
+ */
+public enum EOperation {
+
+    /** Count rows matching criteria. */
+    COUNT("count"),
+
+    /** Query rows matching criteria. */
+    QUERY("query"),
+
+    /** Insert rows. */
+    INSERT("insert"),
+
+    /** Delete rows matching criteria. */
+    DELETE("delete"),
+
+    /** Update rows matching criteria. */
+    UPDATE("update");
+
+    /** The operation name, as used in "roles.json". */
+    public final String name;
+
+    /**
+     * Constructs a new {@code EOperation}.
+     *
+     * @param theName the operation name
+     */
+    EOperation(final String theName) {
+
+        this.name = theName;
+    }
+
+    /**
+     * Generates a string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return this.name;
+    }
+
+    /**
+     * Finds the {@code EOperation} with a particular name.
+     *
+     * @param theName the name
+     * @return the corresponding {@code EOperation}; {@code null} if none corresponds to the name
+     */
+    public static EOperation forName(final String theName) {
+
+        final EOperation[] values = values();
+        EOperation result = null;
+
+        for (final EOperation value : values) {
+            if (value.name.equals(theName)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+}
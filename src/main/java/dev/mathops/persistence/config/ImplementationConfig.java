@@ -1,6 +1,8 @@
 package dev.mathops.persistence.config;
 
-import dev.mathops.db.table.impl.IImplementation;
+import dev.mathops.persistence.IImplementation;
+
+import java.util.List;
 
 /**
  * The configuration of an implementation.
@@ -18,22 +20,45 @@ import dev.mathops.db.table.impl.IImplementation;
  *         "implementation-class": "...class name..."
  *       },
  *       ... additional schemas ...
+ *     ],
+ *     "hedge-reads": true,
+ *     "endpoints": [
+ *       {
+ *         "name": "...endpoint name...",
+ *         "role": "primary",
+ *         ... endpoint connection settings ...
+ *       },
+ *       {
+ *         "name": "...endpoint name...",
+ *         "role": "replica",
+ *         ... endpoint connection settings ...
+ *       },
+ *       ... additional replicas ...
  *     ]
  *   },
  *   ... additional role objects ...
  * ]
  * </pre>
+ *
+ * <p>
+ * An implementation may list several physical endpoints: one primary and any number of read replicas.  Writes go to the
+ * primary, and reads are spread over the replicas (see {@code ReplicatedImplementation}), so read-heavy tables scale
+ * by adding replicas with no change to clients.  "hedge-reads" (default false) sends slow reads to a second replica.
+ * An implementation with a single endpoint uses that endpoint's implementation object directly.
  */
 public class ImplementationConfig {
 
     /** The implementation name. */
     private final String name;
 
+    /** The physical endpoints. */
+    private final List<BackendEndpoint> endpoints;
+
     /** The implementation object. */
     private final IImplementation implementation;
 
     /**
-     * Constructs a new {@code ImplementationConfig}.
+     * Constructs a new {@code ImplementationConfig} with a single endpoint.
      *
      * @param theName           the implementation name
      * @param theImplementation the implementation object
@@ -41,6 +66,58 @@ public class ImplementationConfig {
     ImplementationConfig(final String theName, final IImplementation theImplementation) {
 
         this.name = theName;
+        this.endpoints = List.of(new BackendEndpoint(theName, EBackendRole.PRIMARY, theImplementation));
         this.implementation = theImplementation;
     }
+
+    /**
+     * Constructs a new {@code ImplementationConfig} with a primary endpoint and any number of replicas.
+     *
+     * @param theName       the implementation name
+     * @param theEndpoints  the endpoints (exactly one must be the primary)
+     * @param theHedgeReads true to send slow reads to a second replica
+     * @throws IllegalArgumentException if there is not exactly one primary endpoint
+     */
+    ImplementationConfig(final String theName, final List<BackendEndpoint> theEndpoints,
+                         final boolean theHedgeReads) {
+
+        this.name = theName;
+        this.endpoints = List.copyOf(theEndpoints);
+
+        if (this.endpoints.size() == 1 && this.endpoints.getFirst().role() == EBackendRole.PRIMARY) {
+            this.implementation = this.endpoints.getFirst().implementation();
+        } else {
+            this.implementation = new ReplicatedImplementation(this.endpoints, theHedgeReads);
+        }
+    }
+
+    /**
+     * Gets the implementation name.
+     *
+     * @return the implementation name
+     */
+    public String getName() {
+
+        return this.name;
+    }
+
+    /**
+     * Gets the physical endpoints.
+     *
+     * @return the endpoints
+     */
+    public List<BackendEndpoint> getEndpoints() {
+
+        return this.endpoints;
+    }
+
+    /**
+     * Gets the implementation object (for several endpoints, one that routes each operation to an endpoint).
+     *
+     * @return the implementation object
+     */
+    public IImplementation getImplementation() {
+
+        return this.implementation;
+    }
 }
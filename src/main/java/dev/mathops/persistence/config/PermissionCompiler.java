@@ -0,0 +1,206 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+import dev.mathops.schema.main.RolePermissionTable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles role configurations (from "roles.json") and rows of the "role_permission" table into a
+ * {@code PermissionMatrix}.
+ *
+ * <p>
+ * The built-in DATA_OWNER role is granted every operation on every table, and the built-in DATA_VIEWER role is
+ * granted "count" and "query" on every table.  These grants are represented as wildcard masks so they do not depend on
+ * the set of tables that appear in the configuration.
+ *
+ * <p>
+ * When a previous matrix is supplied, roles keep the IDs they had in that matrix (new roles get new IDs, and IDs of
+ * roles that were removed are not reused), so role IDs embedded in outstanding authorization tokens stay valid across
+ * configuration changes.
+ */
+public enum PermissionCompiler {
+    ;
+
+    /** The built-in role that may perform any operation on any table. */
+    public static final String DATA_OWNER = "DATA_OWNER";
+
+    /** The built-in role that may count and query any table. */
+    public static final String DATA_VIEWER = "DATA_VIEWER";
+
+    /** The index of the "role_id" field in a "role_permission" row. */
+    private static final int ROLE_ID_FIELD = 0;
+
+    /** The index of the "activity" field in a "role_permission" row. */
+    private static final int ACTIVITY_FIELD = 1;
+
+    /** The index of the "perm_lvl" field in a "role_permission" row. */
+    private static final int PERM_LVL_FIELD = 2;
+
+    /**
+     * Compiles a permission matrix.
+     *
+     * @param roles              the role configurations
+     * @param rolePermissionRows rows from the "role_permission" table (rows from other tables are ignored)
+     * @param previous           the previous matrix, whose role IDs are preserved ({@code null} if none)
+     * @return the compiled matrix
+     */
+    public static PermissionMatrix compile(final Collection<RoleConfig> roles, final List<Row> rolePermissionRows,
+                                           final PermissionMatrix previous) {
+
+        // Assign dense IDs to roles, tables, and activities
+
+        final Map<String, Integer> roleIds = previous == null ? new LinkedHashMap<>(roles.size() + 10)
+                : previous.copyRoleIds();
+        assignId(roleIds, DATA_OWNER);
+        assignId(roleIds, DATA_VIEWER);
+
+        final Map<String, Map<String, Integer>> tableIds = new HashMap<>(10);
+        int numTables = 0;
+
+        for (final RoleConfig role : roles) {
+            assignId(roleIds, role.getName());
+            for (final String granted : role.getGrantedRoles()) {
+                assignId(roleIds, granted);
+            }
+            for (final String schemaName : role.getSchemaNames()) {
+                final Map<String, Integer> tables = tableIds.computeIfAbsent(schemaName, s -> new HashMap<>(50));
+                for (final String tableName : role.getTableNames(schemaName)) {
+                    if (!tables.containsKey(tableName)) {
+                        tables.put(tableName, Integer.valueOf(numTables));
+                        ++numTables;
+                    }
+                }
+            }
+        }
+
+        final Map<String, Integer> activityIds = new HashMap<>(10);
+        for (final Row row : rolePermissionRows) {
+            if (row.getTable() == RolePermissionTable.INSTANCE
+                && row.getFieldValue(ROLE_ID_FIELD) instanceof final String roleId
+                && row.getFieldValue(ACTIVITY_FIELD) instanceof final String activity) {
+                assignId(roleIds, roleId);
+                assignId(activityIds, activity);
+            }
+        }
+
+        // Populate the bit array, wildcard masks, and activity levels
+
+        final int numRoles = roleIds.size();
+        final int numActivities = activityIds.size();
+        final long[] bits = new long[PermissionMatrix.wordsFor(numRoles * numTables
+                                                               * PermissionMatrix.NUM_OPERATIONS)];
+        final int[] wildcardOps = new int[numRoles];
+        final int[][] activityLevels = new int[numRoles][numActivities];
+
+        wildcardOps[roleIds.get(DATA_OWNER).intValue()] = (1 << PermissionMatrix.NUM_OPERATIONS) - 1;
+        wildcardOps[roleIds.get(DATA_VIEWER).intValue()] = (1 << EOperation.COUNT.ordinal())
+                                                           | (1 << EOperation.QUERY.ordinal());
+
+        final EOperation[] operations = EOperation.values();
+        for (final RoleConfig role : roles) {
+            final int roleId = roleIds.get(role.getName()).intValue();
+            for (final String schemaName : role.getSchemaNames()) {
+                final Map<String, Integer> tables = tableIds.get(schemaName);
+                for (final String tableName : role.getTableNames(schemaName)) {
+                    final int tableId = tables.get(tableName).intValue();
+                    final TablePermissions permissions = role.getTablePermissions(schemaName, tableName);
+                    for (final EOperation op : operations) {
+                        if (permissions.allows(op)) {
+                            final int index = PermissionMatrix.bitIndex(roleId, tableId, numTables, op.ordinal());
+                            PermissionMatrix.setBit(bits, index);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (final Row row : rolePermissionRows) {
+            if (row.getTable() == RolePermissionTable.INSTANCE
+                && row.getFieldValue(ROLE_ID_FIELD) instanceof final String roleId
+                && row.getFieldValue(ACTIVITY_FIELD) instanceof final String activity) {
+                if (row.getFieldValue(PERM_LVL_FIELD) instanceof final Integer level) {
+                    final int[] levels = activityLevels[roleIds.get(roleId).intValue()];
+                    final int activityId = activityIds.get(activity).intValue();
+                    levels[activityId] = Math.max(levels[activityId], level.intValue());
+                } else {
+                    Log.warning("Role permission for '", roleId, "' on '", activity, "' has no permission level.");
+                }
+            }
+        }
+
+        final long[][] closure = computeClosure(roles, roleIds);
+
+        return new PermissionMatrix(roleIds, tableIds, activityIds, numTables, bits, wildcardOps, activityLevels,
+                closure);
+    }
+
+    /**
+     * Computes the transitive closure of the "includes" relation between roles.  Each role's closure contains the role
+     * itself.  Cycles are allowed, and all roles on a cycle end up with the same closure.
+     *
+     * @param roles   the role configurations
+     * @param roleIds the map from role name to role ID
+     * @return for each role ID, a bit array with a bit set for each role ID in its closure
+     */
+    private static long[][] computeClosure(final Collection<RoleConfig> roles, final Map<String, Integer> roleIds) {
+
+        final int numRoles = roleIds.size();
+
+        final int[][] includes = new int[numRoles][];
+        for (final RoleConfig role : roles) {
+            final List<String> granted = role.getGrantedRoles();
+            final int numGranted = granted.size();
+            final int[] ids = new int[numGranted];
+            for (int i = 0; i < numGranted; ++i) {
+                ids[i] = roleIds.get(granted.get(i)).intValue();
+            }
+            includes[roleIds.get(role.getName()).intValue()] = ids;
+        }
+
+        final int words = PermissionMatrix.wordsFor(numRoles);
+        final long[][] closure = new long[numRoles][words];
+        final int[] stack = new int[numRoles];
+
+        for (int root = 0; root < numRoles; ++root) {
+            final long[] row = closure[root];
+            PermissionMatrix.setBit(row, root);
+            stack[0] = root;
+            int depth = 1;
+
+            while (depth > 0) {
+                --depth;
+                final int[] next = includes[stack[depth]];
+                if (next != null) {
+                    for (final int id : next) {
+                        if (!PermissionMatrix.testBit(row, id)) {
+                            PermissionMatrix.setBit(row, id);
+                            stack[depth] = id;
+                            ++depth;
+                        }
+                    }
+                }
+            }
+        }
+
+        return closure;
+    }
+
+    /**
+     * Assigns the next available ID to a name if it does not already have one.
+     *
+     * @param ids  the map from name to ID
+     * @param name the name
+     */
+    private static void assignId(final Map<String, Integer> ids, final String name) {
+
+        if (!ids.containsKey(name)) {
+            ids.put(name, Integer.valueOf(ids.size()));
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package dev.mathops.persistence.config;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable, compiled form of the role permission configuration.
+ *
+ * <p>
+ * Roles, tables, and activities are assigned dense integer IDs when the matrix is compiled.  Table permissions are
+ * stored in a single bit array, where the bit for (roleId, tableId, operation) is at index
+ * {@code (roleId * numTables + tableId) * NUM_OPERATIONS + operation.ordinal()}.  Each role may also carry a
+ * "wildcard" operation mask that applies to every table (used for the built-in data roles).  Activity permission levels
+ * from the "role_permission" table are stored in a dense array indexed by (roleId, activityId).
+ *
+ * <p>
+ * Roles may include other roles (see {@code RoleConfig}).  The transitive closure of the "includes" relation is
+ * computed when the matrix is built and stored as one bit row per role, and is used only to decide whether a user
+ * authenticated under one role may execute transactions under another.  A transaction has the permissions of its
+ * effective role alone, not those of the roles it includes; these per-role permission sets are also built up front, so
+ * checking whether one role may act as another, and finding the permissions that apply, are each a single array read.
+ *
+ * <p>
+ * Matrices are built by {@code PermissionCompiler} and are never modified, so a new matrix is built and published
+ * whenever configuration changes.
+ */
+public final class PermissionMatrix {
+
+    /** The number of operations. */
+    static final int NUM_OPERATIONS = EOperation.values().length;
+
+    /** Bits per word in the bit array. */
+    private static final int BITS_PER_WORD = 64;
+
+    /** A shift to convert a bit index to a word index. */
+    private static final int WORD_SHIFT = 6;
+
+    /** A map from role name to role ID. */
+    private final Map<String, Integer> roleIds;
+
+    /** A map from schema name to a map from table name to table ID. */
+    private final Map<String, Map<String, Integer>> tableIds;
+
+    /** A map from activity name to activity ID. */
+    private final Map<String, Integer> activityIds;
+
+    /** The number of tables. */
+    private final int numTables;
+
+    /** The permission bits. */
+    private final long[] bits;
+
+    /** For each role, a mask of operations (bit = 1 << ordinal) allowed on all tables. */
+    private final int[] wildcardOps;
+
+    /** For each role, the permission level for each activity. */
+    private final int[][] activityLevels;
+
+    /** For each role, a bit array of the roles in its closure (including itself). */
+    private final long[][] closure;
+
+    /** For each role, the permissions granted to that role. */
+    private final PermissionSet[] effective;
+
+    /**
+     * Constructs a new {@code PermissionMatrix}.  The caller must not retain references to the arrays or maps.
+     *
+     * @param theRoleIds        a map from role name to role ID
+     * @param theTableIds       a map from schema name to a map from table name to table ID
+     * @param theActivityIds    a map from activity name to activity ID
+     * @param theNumTables      the number of tables
+     * @param theBits           the permission bits
+     * @param theWildcardOps    the per-role wildcard operation masks
+     * @param theActivityLevels the per-role activity permission levels
+     * @param theClosure        for each role, a bit array of the roles in its closure (including itself)
+     */
+    PermissionMatrix(final Map<String, Integer> theRoleIds, final Map<String, Map<String, Integer>> theTableIds,
+                     final Map<String, Integer> theActivityIds, final int theNumTables, final long[] theBits,
+                     final int[] theWildcardOps, final int[][] theActivityLevels, final long[][] theClosure) {
+
+        this.roleIds = theRoleIds;
+        this.tableIds = theTableIds;
+        this.activityIds = theActivityIds;
+        this.numTables = theNumTables;
+        this.bits = theBits;
+        this.wildcardOps = theWildcardOps;
+        this.activityLevels = theActivityLevels;
+        this.closure = theClosure;
+
+        final int numRoles = theWildcardOps.length;
+        final long[] single = new long[wordsFor(numRoles)];
+        this.effective = new PermissionSet[numRoles];
+        for (int i = 0; i < numRoles; ++i) {
+            setBit(single, i);
+            this.effective[i] = unionOf(single);
+            single[i >>> WORD_SHIFT] = 0L;
+        }
+    }
+
+    /**
+     * Computes the index of the bit for a (role, table, operation) triple.
+     *
+     * @param roleId    the role ID
+     * @param tableId   the table ID
+     * @param numTables the number of tables
+     * @param opIndex   the operation ordinal
+     * @return the bit index
+     */
+    static int bitIndex(final int roleId, final int tableId, final int numTables, final int opIndex) {
+
+        return (roleId * numTables + tableId) * NUM_OPERATIONS + opIndex;
+    }
+
+    /**
+     * Tests a bit in a bit array.
+     *
+     * @param array the bit array
+     * @param index the bit index
+     * @return true if the bit is set
+     */
+    static boolean testBit(final long[] array, final int index) {
+
+        return (array[index >>> WORD_SHIFT] & (1L << index)) != 0L;
+    }
+
+    /**
+     * Sets a bit in a bit array.
+     *
+     * @param array the bit array
+     * @param index the bit index
+     */
+    static void setBit(final long[] array, final int index) {
+
+        array[index >>> WORD_SHIFT] |= 1L << index;
+    }
+
+    /**
+     * Computes the number of words needed for a bit array.
+     *
+     * @param numBits the number of bits
+     * @return the number of {@code long} words
+     */
+    static int wordsFor(final int numBits) {
+
+        return (numBits + BITS_PER_WORD - 1) / BITS_PER_WORD;
+    }
+
+    /**
+     * Gets a copy of the map from role name to role ID, so a rebuilt matrix can keep the same IDs for existing roles.
+     *
+     * @return the map
+     */
+    Map<String, Integer> copyRoleIds() {
+
+        return new LinkedHashMap<>(this.roleIds);
+    }
+
+    /**
+     * Gets the number of roles.
+     *
+     * @return the number of roles
+     */
+    public int getNumRoles() {
+
+        return this.wildcardOps.length;
+    }
+
+    /**
+     * Gets the number of tables.
+     *
+     * @return the number of tables
+     */
+    public int getNumTables() {
+
+        return this.numTables;
+    }
+
+    /**
+     * Gets the number of activities.
+     *
+     * @return the number of activities
+     */
+    public int getNumActivities() {
+
+        return this.activityIds.size();
+    }
+
+    /**
+     * Gets the ID of a role.
+     *
+     * @param roleName the role name
+     * @return the role ID; -1 if the role is not known
+     */
+    public int getRoleId(final String roleName) {
+
+        final Integer id = this.roleIds.get(roleName);
+
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Gets the ID of a table.
+     *
+     * @param schemaName the schema name
+     * @param tableName  the table name
+     * @return the table ID; -1 if no role has permissions configured for the table
+     */
+    public int getTableId(final String schemaName, final String tableName) {
+
+        int result = -1;
+
+        final Map<String, Integer> tables = this.tableIds.get(schemaName);
+        if (tables != null) {
+            final Integer id = tables.get(tableName);
+            if (id != null) {
+                result = id.intValue();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the ID of an activity.
+     *
+     * @param activity the activity name
+     * @return the activity ID; -1 if the activity is not known
+     */
+    public int getActivityId(final String activity) {
+
+        final Integer id = this.activityIds.get(activity);
+
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Tests whether a role is allowed to perform an operation on a table.
+     *
+     * @param roleId    the role ID
+     * @param tableId   the table ID (-1 tests only operations allowed on all tables)
+     * @param operation the operation
+     * @return true if the operation is allowed
+     */
+    public boolean isAllowed(final int roleId, final int tableId, final EOperation operation) {
+
+        final int opIndex = operation.ordinal();
+
+        boolean allowed = (this.wildcardOps[roleId] & (1 << opIndex)) != 0;
+        if (!allowed && tableId >= 0) {
+            allowed = testBit(this.bits, bitIndex(roleId, tableId, this.numTables, opIndex));
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Gets the permission level a role has for an activity.
+     *
+     * @param roleId     the role ID
+     * @param activityId the activity ID
+     * @return the permission level (0 if none was granted)
+     */
+    public int getActivityLevel(final int roleId, final int activityId) {
+
+        return this.activityLevels[roleId][activityId];
+    }
+
+    /**
+     * Tests whether a user authenticated under one role may execute transactions under another role.
+     *
+     * @param authRoleId      the authenticating role ID
+     * @param effectiveRoleId the effective role ID
+     * @return true if the effective role is the authenticating role or is included in it
+     */
+    public boolean canActAs(final int authRoleId, final int effectiveRoleId) {
+
+        final int numRoles = this.effective.length;
+
+        return authRoleId >= 0 && authRoleId < numRoles && effectiveRoleId >= 0 && effectiveRoleId < numRoles
+               && testBit(this.closure[authRoleId], effectiveRoleId);
+    }
+
+    /**
+     * Gets the permissions that apply when a user authenticated under one role executes a transaction under another.
+     *
+     * @param authRoleId      the authenticating role ID
+     * @param effectiveRoleId the effective role ID
+     * @return the permissions granted to the effective role; {@code null} if the authenticating role may not act as the
+     *         effective role
+     */
+    public PermissionSet getEffectivePermissions(final int authRoleId, final int effectiveRoleId) {
+
+        return canActAs(authRoleId, effectiveRoleId) ? this.effective[effectiveRoleId] : null;
+    }
+
+    /**
+     * Computes the union of the permissions of a set of roles.  Role names that are not known are ignored.
+     *
+     * @param roleNames the role names
+     * @return the combined permissions
+     */
+    public PermissionSet union(final Collection<String> roleNames) {
+
+        final int numRoles = this.effective.length;
+        final long[] roles = new long[wordsFor(numRoles)];
+
+        for (final String roleName : roleNames) {
+            final int roleId = getRoleId(roleName);
+            if (roleId >= 0) {
+                setBit(roles, roleId);
+            }
+        }
+
+        return unionOf(roles);
+    }
+
+    /**
+     * Computes the union of the permissions of a set of roles.
+     *
+     * @param roles a bit array with a bit set for each role ID to include
+     * @return the combined permissions
+     */
+    private PermissionSet unionOf(final long[] roles) {
+
+        final int numBits = this.numTables * NUM_OPERATIONS;
+        final long[] unionBits = new long[wordsFor(numBits)];
+        final int numActivities = this.activityIds.size();
+        final int[] unionLevels = new int[numActivities];
+        int unionWildcard = 0;
+
+        final int numRoles = this.wildcardOps.length;
+        for (int roleId = 0; roleId < numRoles; ++roleId) {
+            if (testBit(roles, roleId)) {
+                unionWildcard |= this.wildcardOps[roleId];
+
+                final int base = bitIndex(roleId, 0, this.numTables, 0);
+                for (int i = 0; i < numBits; ++i) {
+                    if (testBit(this.bits, base + i)) {
+                        setBit(unionBits, i);
+                    }
+                }
+
+                final int[] levels = this.activityLevels[roleId];
+                for (int i = 0; i < numActivities; ++i) {
+                    unionLevels[i] = Math.max(unionLevels[i], levels[i]);
+                }
+            }
+        }
+
+        return new PermissionSet(this, unionBits, unionWildcard, unionLevels);
+    }
+}
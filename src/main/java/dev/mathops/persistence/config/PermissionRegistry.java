@@ -0,0 +1,91 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the current {@code PermissionMatrix} and rebuilds it when the "roles.json" file or the contents of the
+ * "role_permission" table change.
+ *
+ * <p>
+ * A rebuild compiles a complete new matrix and then publishes it with a single volatile write, so readers always see
+ * a consistent matrix and never wait for a rebuild.
+ */
+public final class PermissionRegistry {
+
+    /** The configuration directory. */
+    private final File configDir;
+
+    /** The role configurations most recently loaded from "roles.json". */
+    private List<RoleConfig> roles;
+
+    /** The "role_permission" rows most recently supplied. */
+    private List<Row> rolePermissionRows;
+
+    /** The current matrix. */
+    private volatile PermissionMatrix matrix;
+
+    /**
+     * Constructs a new {@code PermissionRegistry} and loads the initial configuration.
+     *
+     * @param theConfigDir the configuration directory
+     */
+    public PermissionRegistry(final File theConfigDir) {
+
+        this.configDir = theConfigDir;
+
+        final List<RoleConfig> loaded = RoleConfigLoader.load(theConfigDir);
+        this.roles = loaded == null ? new ArrayList<>(0) : loaded;
+        this.rolePermissionRows = new ArrayList<>(0);
+        this.matrix = PermissionCompiler.compile(this.roles, this.rolePermissionRows, null);
+    }
+
+    /**
+     * Gets the current matrix.
+     *
+     * @return the matrix
+     */
+    public PermissionMatrix getMatrix() {
+
+        return this.matrix;
+    }
+
+    /**
+     * Reloads "roles.json" and rebuilds the matrix.  This is intended to be called by a {@code ConfigWatcher} when the
+     * file changes.
+     *
+     * <p>
+     * If the file cannot be loaded (as when an editor has only partly written it), the prior role configurations are
+     * kept and the matrix is not rebuilt.  The next change to the file triggers another reload.
+     *
+     * @return true if the matrix was rebuilt; false if the prior role configurations were kept
+     */
+    public synchronized boolean reload() {
+
+        final List<RoleConfig> loaded = RoleConfigLoader.load(this.configDir);
+
+        if (loaded == null) {
+            Log.warning("Unable to load '", RoleConfigLoader.FILENAME, "' - keeping the prior role configuration.");
+        } else {
+            this.roles = loaded;
+            this.matrix = PermissionCompiler.compile(this.roles, this.rolePermissionRows, this.matrix);
+        }
+
+        return loaded != null;
+    }
+
+    /**
+     * Replaces the "role_permission" rows and rebuilds the matrix.
+     *
+     * @param rows the complete set of rows from the "role_permission" table
+     */
+    public synchronized void setRolePermissionRows(final List<Row> rows) {
+
+        this.rolePermissionRows = new ArrayList<>(rows);
+        this.matrix = PermissionCompiler.compile(this.roles, this.rolePermissionRows, this.matrix);
+    }
+}
@@ -0,0 +1,82 @@
+package dev.mathops.persistence.config;
+
+/**
+ * The combined permissions of one or more roles, compiled against a specific {@code PermissionMatrix}.  Checking a
+ * permission is a mask test and (at most) one array read.
+ *
+ * <p>
+ * A permission set is only meaningful with the matrix from which it was built, since table and activity IDs are
+ * assigned per matrix.  Holders should compare {@code getMatrix()} with the current matrix and rebuild when it has
+ * changed.
+ */
+public final class PermissionSet {
+
+    /** The matrix from which this set was built. */
+    private final PermissionMatrix matrix;
+
+    /** The permission bits, indexed by {@code tableId * NUM_OPERATIONS + operation.ordinal()}. */
+    private final long[] bits;
+
+    /** A mask of operations (bit = 1 << ordinal) allowed on all tables. */
+    private final int wildcardOps;
+
+    /** The permission level for each activity. */
+    private final int[] activityLevels;
+
+    /**
+     * Constructs a new {@code PermissionSet}.
+     *
+     * @param theMatrix         the matrix from which this set was built
+     * @param theBits           the permission bits
+     * @param theWildcardOps    the mask of operations allowed on all tables
+     * @param theActivityLevels the permission level for each activity
+     */
+    PermissionSet(final PermissionMatrix theMatrix, final long[] theBits, final int theWildcardOps,
+                  final int[] theActivityLevels) {
+
+        this.matrix = theMatrix;
+        this.bits = theBits;
+        this.wildcardOps = theWildcardOps;
+        this.activityLevels = theActivityLevels;
+    }
+
+    /**
+     * Gets the matrix from which this set was built.
+     *
+     * @return the matrix
+     */
+    public PermissionMatrix getMatrix() {
+
+        return this.matrix;
+    }
+
+    /**
+     * Tests whether an operation is allowed on a table.
+     *
+     * @param tableId   the table ID from the matrix (-1 tests only operations allowed on all tables)
+     * @param operation the operation
+     * @return true if the operation is allowed
+     */
+    public boolean isAllowed(final int tableId, final EOperation operation) {
+
+        final int opIndex = operation.ordinal();
+
+        boolean allowed = (this.wildcardOps & (1 << opIndex)) != 0;
+        if (!allowed && tableId >= 0) {
+            allowed = PermissionMatrix.testBit(this.bits, tableId * PermissionMatrix.NUM_OPERATIONS + opIndex);
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Gets the permission level for an activity.
+     *
+     * @param activityId the activity ID from the matrix
+     * @return the permission level (0 if none was granted or the activity ID is -1)
+     */
+    public int getActivityLevel(final int activityId) {
+
+        return activityId < 0 ? 0 : this.activityLevels[activityId];
+    }
+}
@@ -0,0 +1,649 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.RequestDeadline;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.HtmlBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An implementation that spreads operations over a primary backend and its read replicas.
+ *
+ * <p>
+ * Writes (insert, delete, update) go to the primary.  Reads (count and query, including prepared operations) go to
+ * the replica with the fewest outstanding requests, or to the primary if there are no replicas.  Because replicas may
+ * lag behind the primary, a read that follows a write may not see it.
+ *
+ * <p>
+ * If hedging is enabled, a read that has not completed within the 95th percentile of recent read latencies is sent to
+ * a second endpoint as well, and the first result to arrive is used; the other is left to finish (it stops at the
+ * request deadline, if there is one).  This trims the latency tail when one backend stalls, at the cost of about 5%
+ * more reads.  Hedging starts once enough reads have completed to estimate the percentile.
+ */
+final class ReplicatedImplementation implements IImplementation {
+
+    /** The number of recent read latencies kept to estimate the hedge delay. */
+    private static final int NUM_SAMPLES = 256;
+
+    /** The number of reads between updates of the hedge delay. */
+    private static final int UPDATE_INTERVAL = 64;
+
+    /** The percentile of recent read latencies after which a read is hedged. */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    /** The threads that perform hedged reads (shared by all replicated implementations). */
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "replica-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The primary endpoint. */
+    private final Endpoint primary;
+
+    /** The endpoints that serve reads (the replicas, or only the primary if there are none). */
+    private final Endpoint[] readers;
+
+    /** The number of endpoints (each has an index, used to find its prepared state). */
+    private final int numEndpoints;
+
+    /** True to hedge slow reads. */
+    private final boolean hedgeReads;
+
+    /** Recent read latencies (nanoseconds), used as a ring. */
+    private final long[] samples;
+
+    /** The number of read latencies recorded. */
+    private long numSamples;
+
+    /** The current hedge delay (nanoseconds); {@code Long.MAX_VALUE} until enough reads have completed. */
+    private volatile long hedgeDelay;
+
+    /**
+     * Constructs a new {@code ReplicatedImplementation}.
+     *
+     * @param endpoints     the endpoints (exactly one must be the primary)
+     * @param theHedgeReads true to hedge slow reads
+     * @throws IllegalArgumentException if there is not exactly one primary endpoint
+     */
+    ReplicatedImplementation(final List<BackendEndpoint> endpoints, final boolean theHedgeReads) {
+
+        Endpoint thePrimary = null;
+        final List<Endpoint> replicas = new ArrayList<>(endpoints.size());
+
+        int index = 0;
+        for (final BackendEndpoint endpoint : endpoints) {
+            final Endpoint ep = new Endpoint(endpoint, index);
+            if (endpoint.role() == EBackendRole.PRIMARY) {
+                if (thePrimary != null) {
+                    throw new IllegalArgumentException("More than one primary endpoint");
+                }
+                thePrimary = ep;
+            } else {
+                replicas.add(ep);
+            }
+            ++index;
+        }
+        if (thePrimary == null) {
+            throw new IllegalArgumentException("No primary endpoint");
+        }
+
+        this.primary = thePrimary;
+        this.readers = replicas.isEmpty() ? new Endpoint[]{thePrimary} : replicas.toArray(new Endpoint[0]);
+        this.numEndpoints = index;
+        this.hedgeReads = theHedgeReads;
+        this.samples = new long[NUM_SAMPLES];
+        this.hedgeDelay = Long.MAX_VALUE;
+    }
+
+    /**
+     * Tests whether reads may not yet see recent writes.
+     *
+     * @return true if reads are served by replicas rather than the primary
+     */
+    @Override
+    public boolean readsMayLag() {
+
+        return this.readers[0] != this.primary;
+    }
+
+    /**
+     * Counts the rows in a table that match selection criteria, using a read endpoint.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long count(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        final Long result = read(ep -> Long.valueOf(ep.implementation.count(context, table, criteria)));
+
+        return result.longValue();
+    }
+
+    /**
+     * Queries the rows in a table that match selection criteria, using a read endpoint.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public void query(final String context, final Table table, final SelectionCriteria criteria,
+                      final List<? super Row> results) throws PersistenceException {
+
+        final List<Row> rows = read(ep -> {
+            final List<Row> list = new ArrayList<>(50);
+            ep.implementation.query(context, table, criteria, list);
+            return list;
+        });
+
+        results.addAll(rows);
+    }
+
+    /**
+     * Inserts rows using the primary endpoint.
+     *
+     * @param context the context name
+     * @param rows    the rows to insert
+     * @return the number of rows inserted
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public int insert(final String context, final List<Row> rows) throws PersistenceException {
+
+        final int result;
+
+        this.primary.outstanding.incrementAndGet();
+        try {
+            result = this.primary.implementation.insert(context, rows);
+        } finally {
+            this.primary.outstanding.decrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Deletes the rows in a table that match selection criteria, using the primary endpoint.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long delete(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        final long result;
+
+        this.primary.outstanding.incrementAndGet();
+        try {
+            result = this.primary.implementation.delete(context, table, criteria);
+        } finally {
+            this.primary.outstanding.decrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the rows in a table that match selection criteria, using the primary endpoint.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long update(final String context, final Table table, final SelectionCriteria criteria,
+                       final UpdatedValues values) throws PersistenceException {
+
+        final long result;
+
+        this.primary.outstanding.incrementAndGet();
+        try {
+            result = this.primary.implementation.update(context, table, criteria, values);
+        } finally {
+            this.primary.outstanding.decrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the storage for tables in a context on the primary (from which replicas copy it).
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the storage could not be created
+     */
+    @Override
+    public void provision(final String context, final List<Table> tables) throws PersistenceException {
+
+        this.primary.implementation.provision(context, tables);
+    }
+
+    /**
+     * Warms a context on the primary and on every endpoint that serves reads.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the context could not be warmed on an endpoint
+     */
+    @Override
+    public void warm(final String context, final List<Table> tables) throws PersistenceException {
+
+        this.primary.implementation.warm(context, tables);
+        for (final Endpoint ep : this.readers) {
+            if (ep != this.primary) {
+                ep.implementation.warm(context, tables);
+            }
+        }
+    }
+
+    /**
+     * Prepares a count or query operation on every endpoint that serves reads.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @param shape   selection criteria with the shape the operation will use
+     * @return the state from each endpoint, indexed by endpoint index
+     * @throws PersistenceException if the operation could not be prepared on an endpoint
+     */
+    @Override
+    public Object prepare(final String context, final Table table, final SelectionCriteria shape)
+            throws PersistenceException {
+
+        final Object[] states = new Object[this.numEndpoints];
+
+        try {
+            for (final Endpoint ep : this.readers) {
+                states[ep.index] = ep.implementation.prepare(context, table, shape);
+            }
+        } catch (final PersistenceException ex) {
+            release(states);
+            throw ex;
+        }
+
+        return states;
+    }
+
+    /**
+     * Counts rows using a prepared operation, using a read endpoint.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long countPrepared(final Object prepared, final String context, final Table table,
+                              final SelectionCriteria criteria) throws PersistenceException {
+
+        final Object[] states = (Object[]) prepared;
+        final Long result = read(ep -> Long.valueOf(ep.implementation.countPrepared(states[ep.index], context, table,
+                criteria)));
+
+        return result.longValue();
+    }
+
+    /**
+     * Queries rows using a prepared operation, using a read endpoint.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public void queryPrepared(final Object prepared, final String context, final Table table,
+                              final SelectionCriteria criteria, final List<? super Row> results)
+            throws PersistenceException {
+
+        final Object[] states = (Object[]) prepared;
+        final List<Row> rows = read(ep -> {
+            final List<Row> list = new ArrayList<>(50);
+            ep.implementation.queryPrepared(states[ep.index], context, table, criteria, list);
+            return list;
+        });
+
+        results.addAll(rows);
+    }
+
+    /**
+     * Releases the state each endpoint returned from {@code prepare}.
+     *
+     * @param prepared the state returned by {@code prepare}
+     */
+    @Override
+    public void release(final Object prepared) {
+
+        final Object[] states = (Object[]) prepared;
+
+        for (final Endpoint ep : this.readers) {
+            final Object state = states[ep.index];
+            if (state != null) {
+                ep.implementation.release(state);
+            }
+        }
+    }
+
+    /**
+     * Performs a read on the endpoint with the fewest outstanding requests, hedging it on a second endpoint if it is
+     * slow and hedging is enabled.
+     *
+     * @param operation the read operation
+     * @param <T>       the result type
+     * @return the result
+     * @throws PersistenceException if the operation failed
+     */
+    private <T> T read(final ReadOperation<T> operation) throws PersistenceException {
+
+        final T result;
+
+        final Endpoint first = chooseReader(null);
+        final long delay = this.hedgeDelay;
+
+        if (this.hedgeReads && delay != Long.MAX_VALUE && this.readers.length > 1) {
+            result = hedgedRead(operation, first, delay);
+        } else {
+            result = performOn(first, operation);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a read on a worker thread, and if it has not completed within a delay, on a second endpoint as well.
+     *
+     * @param operation the read operation
+     * @param first     the first endpoint to try
+     * @param delay     the hedge delay (nanoseconds)
+     * @param <T>       the result type
+     * @return the result from whichever endpoint succeeds first
+     * @throws PersistenceException if the operation failed on every endpoint tried
+     */
+    private <T> T hedgedRead(final ReadOperation<T> operation, final Endpoint first, final long delay)
+            throws PersistenceException {
+
+        final T result;
+
+        final boolean hasDeadline = RequestDeadline.isSet();
+        final long deadline = hasDeadline ? System.nanoTime() + RequestDeadline.remainingNanos() : 0L;
+        final CompletableFuture<T> firstFuture = submit(first, operation, hasDeadline, deadline);
+
+        try {
+            T firstResult = null;
+            boolean hedge = false;
+            try {
+                firstResult = firstFuture.get(delay, TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException ex) {
+                hedge = true;
+            }
+
+            if (hedge) {
+                final Endpoint second = chooseReader(first);
+                final CompletableFuture<T> secondFuture = submit(second, operation, hasDeadline, deadline);
+                result = firstSuccessful(firstFuture, secondFuture).get();
+            } else {
+                result = firstResult;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for a replica", ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof final PersistenceException pex) {
+                throw pex;
+            }
+            throw new PersistenceException(EFailureCode.IMPLEMENTATION_ERROR, "Read failed", cause);
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts a read on a worker thread, carrying over the request deadline.
+     *
+     * @param ep          the endpoint
+     * @param operation   the read operation
+     * @param hasDeadline true if the request has a deadline
+     * @param deadline    the request deadline ({@code System.nanoTime()} value)
+     * @param <T>         the result type
+     * @return a future that completes with the result
+     */
+    private <T> CompletableFuture<T> submit(final Endpoint ep, final ReadOperation<T> operation,
+                                            final boolean hasDeadline, final long deadline) {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        READERS.execute(() -> {
+            if (hasDeadline) {
+                RequestDeadline.set(deadline);
+            }
+            try {
+                future.complete(performOn(ep, operation));
+            } catch (final PersistenceException | RuntimeException ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                RequestDeadline.clear();
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Performs a read on an endpoint, tracking outstanding requests and recording the latency.
+     *
+     * @param ep        the endpoint
+     * @param operation the read operation
+     * @param <T>       the result type
+     * @return the result
+     * @throws PersistenceException if the operation failed
+     */
+    private <T> T performOn(final Endpoint ep, final ReadOperation<T> operation) throws PersistenceException {
+
+        final T result;
+
+        final long start = System.nanoTime();
+        ep.outstanding.incrementAndGet();
+        try {
+            result = operation.perform(ep);
+        } finally {
+            ep.outstanding.decrementAndGet();
+        }
+        recordLatency(System.nanoTime() - start);
+
+        return result;
+    }
+
+    /**
+     * Chooses the read endpoint with the fewest outstanding requests, starting the search at a random endpoint so ties
+     * are spread evenly.
+     *
+     * @param exclude an endpoint not to choose, unless it is the only one ({@code null} if none)
+     * @return the endpoint
+     */
+    private Endpoint chooseReader(final Endpoint exclude) {
+
+        final int count = this.readers.length;
+        final int start = count == 1 ? 0 : ThreadLocalRandom.current().nextInt(count);
+
+        Endpoint result = null;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < count; ++i) {
+            final Endpoint ep = this.readers[(start + i) % count];
+            final int outstanding = ep.outstanding.get();
+            if (ep != exclude && outstanding < fewest) {
+                result = ep;
+                fewest = outstanding;
+            }
+        }
+
+        return result == null ? exclude : result;
+    }
+
+    /**
+     * Records the latency of a completed read, and periodically updates the hedge delay.
+     *
+     * @param latency the latency (nanoseconds)
+     */
+    private void recordLatency(final long latency) {
+
+        long[] snapshot = null;
+
+        synchronized (this.samples) {
+            this.samples[(int) (this.numSamples % (long) NUM_SAMPLES)] = latency;
+            ++this.numSamples;
+            if (this.numSamples >= (long) NUM_SAMPLES && this.numSamples % (long) UPDATE_INTERVAL == 0L) {
+                snapshot = this.samples.clone();
+            }
+        }
+
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            this.hedgeDelay = snapshot[(int) ((double) (NUM_SAMPLES - 1) * HEDGE_PERCENTILE)];
+        }
+    }
+
+    /**
+     * Combines two futures into one that completes with whichever result arrives first, or exceptionally only if both
+     * fail.
+     *
+     * @param first  the first future
+     * @param second the second future
+     * @param <T>    the result type
+     * @return the combined future
+     */
+    private static <T> CompletableFuture<T> firstSuccessful(final CompletableFuture<T> first,
+                                                            final CompletableFuture<T> second) {
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        final BiConsumer<T, Throwable> handler = (value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(ex);
+            }
+        };
+        first.whenComplete(handler);
+        second.whenComplete(handler);
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final HtmlBuilder builder = new HtmlBuilder(100);
+
+        builder.add("ReplicatedImplementation{primary=", this.primary, ", readers=");
+        for (final Endpoint ep : this.readers) {
+            builder.add(ep, " ");
+        }
+        builder.add("}");
+
+        return builder.toString();
+    }
+
+    /**
+     * A read operation performed against one endpoint.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    private interface ReadOperation<T> {
+
+        /**
+         * Performs the operation.
+         *
+         * @param ep the endpoint
+         * @return the result
+         * @throws PersistenceException if the operation failed
+         */
+        T perform(Endpoint ep) throws PersistenceException;
+    }
+
+    /**
+     * An endpoint with a count of its outstanding requests.
+     */
+    private static final class Endpoint {
+
+        /** The endpoint name. */
+        final String name;
+
+        /** The implementation object. */
+        final IImplementation implementation;
+
+        /** The endpoint index. */
+        final int index;
+
+        /** The number of requests in progress on the endpoint. */
+        final AtomicInteger outstanding;
+
+        /**
+         * Constructs a new {@code Endpoint}.
+         *
+         * @param theEndpoint the endpoint configuration
+         * @param theIndex    the endpoint index
+         */
+        Endpoint(final BackendEndpoint theEndpoint, final int theIndex) {
+
+            this.name = theEndpoint.name();
+            this.implementation = theEndpoint.implementation();
+            this.index = theIndex;
+            this.outstanding = new AtomicInteger(0);
+        }
+
+        /**
+         * Generates a diagnostic string representation of the object.
+         *
+         * @return the string representation
+         */
+        @Override
+        public String toString() {
+
+            return this.name;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package dev.mathops.persistence.config;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The configuration of a role.
@@ -13,6 +17,7 @@ import java.util.Map;
  * [
  *   {
  *     "role-name": "...role name...",
+ *     "grants": ["...role name...", "...role name..."],
  *     "schemas": [
  *       {
  *         "name": "...schema name...",
@@ -28,6 +33,12 @@ import java.util.Map;
  *   ... additional role objects ...
  * ]
  * </pre>
+ *
+ * <p>
+ * The optional "grants" array lists roles that this role includes.  A user authenticated under a role may execute
+ * transactions under that role or any role it includes (directly or through other included roles).  Each transaction
+ * has only the permissions configured for the role it executes under, so an "aggregate" role lets a user switch among
+ * several roles without granting the union of their permissions in any one transaction.
  */
 public class RoleConfig {
 
@@ -37,6 +48,9 @@ public class RoleConfig {
     /** A map from schema name to a map from table name to the permissions for that table. */
     private final Map<String, Map<String, TablePermissions>> tablePermissions;
 
+    /** The names of roles this role includes. */
+    private final List<String> grantedRoles;
+
     /**
      * Constructs a new {@code RoleConfig}.
      *
@@ -46,5 +60,85 @@ public class RoleConfig {
 
         this.name = theName;
         this.tablePermissions = new HashMap<>(10);
+        this.grantedRoles = new ArrayList<>(4);
+    }
+
+    /**
+     * Gets the role name.
+     *
+     * @return the role name
+     */
+    public String getName() {
+
+        return this.name;
+    }
+
+    /**
+     * Adds a role that this role includes.
+     *
+     * @param roleName the name of the included role
+     */
+    void addGrantedRole(final String roleName) {
+
+        this.grantedRoles.add(roleName);
+    }
+
+    /**
+     * Gets the names of roles this role includes directly.
+     *
+     * @return the list of role names
+     */
+    public List<String> getGrantedRoles() {
+
+        return Collections.unmodifiableList(this.grantedRoles);
+    }
+
+    /**
+     * Sets the permissions the role has on a table.
+     *
+     * @param schemaName  the schema name
+     * @param tableName   the table name
+     * @param permissions the permissions
+     */
+    void setTablePermissions(final String schemaName, final String tableName, final TablePermissions permissions) {
+
+        this.tablePermissions.computeIfAbsent(schemaName, s -> new HashMap<>(20)).put(tableName, permissions);
+    }
+
+    /**
+     * Gets the names of schemas in which the role has permissions on at least one table.
+     *
+     * @return the set of schema names
+     */
+    public Set<String> getSchemaNames() {
+
+        return Collections.unmodifiableSet(this.tablePermissions.keySet());
+    }
+
+    /**
+     * Gets the names of tables within a schema on which the role has permissions.
+     *
+     * @param schemaName the schema name
+     * @return the set of table names (empty if the role has no permissions in the schema)
+     */
+    public Set<String> getTableNames(final String schemaName) {
+
+        final Map<String, TablePermissions> tables = this.tablePermissions.get(schemaName);
+
+        return tables == null ? Collections.emptySet() : Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * Gets the permissions the role has on a table.
+     *
+     * @param schemaName the schema name
+     * @param tableName  the table name
+     * @return the permissions; {@code null} if none are configured
+     */
+    public TablePermissions getTablePermissions(final String schemaName, final String tableName) {
+
+        final Map<String, TablePermissions> tables = this.tablePermissions.get(schemaName);
+
+        return tables == null ? null : tables.get(tableName);
     }
 }
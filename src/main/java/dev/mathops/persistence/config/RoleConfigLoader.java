@@ -0,0 +1,169 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.file.FileLoader;
+import dev.mathops.commons.log.Log;
+import dev.mathops.text.parser.ParsingException;
+import dev.mathops.text.parser.json.JSONObject;
+import dev.mathops.text.parser.json.JSONParser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads role configurations from the "roles.json" file in the configuration directory (see {@code RoleConfig} for the
+ * file format).
+ */
+public enum RoleConfigLoader {
+    ;
+
+    /** The name of the configuration file. */
+    public static final String FILENAME = "roles.json";
+
+    /**
+     * Loads role configurations.  Entries that are not valid are logged and skipped.
+     *
+     * @param configDir the configuration directory
+     * @return the list of role configurations; {@code null} if the file was not found or could not be read or parsed
+     */
+    public static List<RoleConfig> load(final File configDir) {
+
+        List<RoleConfig> result = null;
+
+        final File file = new File(configDir, FILENAME);
+        if (file.exists()) {
+            final String json = FileLoader.loadFileAsString(file, false);
+            if (json == null) {
+                Log.warning("'", FILENAME, "' could not be read.");
+            } else {
+                try {
+                    final Object parsedJson = JSONParser.parseJSON(json);
+                    if (parsedJson instanceof final Object[] array) {
+                        result = new ArrayList<>(array.length);
+                        for (final Object entry : array) {
+                            if (entry instanceof final JSONObject roleObj) {
+                                final RoleConfig role = parseRole(roleObj);
+                                if (role != null) {
+                                    result.add(role);
+                                }
+                            } else {
+                                Log.warning("'", FILENAME, "' had entry in top-level array that is not an object.");
+                            }
+                        }
+                    } else {
+                        Log.warning("'", FILENAME, "' had no top-level array of role objects.");
+                    }
+                } catch (final ParsingException ex) {
+                    Log.warning("Failed to parse '", FILENAME, "'.", ex);
+                }
+            }
+        } else {
+            Log.warning("'", FILENAME, "' was not found.");
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a single role object.
+     *
+     * @param roleObj the role object
+     * @return the role configuration; {@code null} if the object is not valid
+     */
+    private static RoleConfig parseRole(final JSONObject roleObj) {
+
+        RoleConfig result = null;
+
+        final String roleName = roleObj.getStringProperty("role-name");
+
+        if (roleName == null) {
+            Log.warning("Role object in '", FILENAME, "' has no 'role-name'.");
+        } else {
+            result = new RoleConfig(roleName);
+
+            if (roleObj.getProperty("grants") instanceof final Object[] grants) {
+                for (final Object grant : grants) {
+                    if (grant instanceof final String grantedName) {
+                        result.addGrantedRole(grantedName);
+                    } else {
+                        Log.warning("Role '", roleName, "' in '", FILENAME, "' grants a role that is not a string.");
+                    }
+                }
+            }
+
+            if (roleObj.getProperty("schemas") instanceof final Object[] schemas) {
+                for (final Object schemaEntry : schemas) {
+                    if (schemaEntry instanceof final JSONObject schemaObj) {
+                        parseSchema(result, schemaObj);
+                    } else {
+                        Log.warning("Role '", roleName, "' in '", FILENAME, "' has a schema that is not an object.");
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the permissions for a single schema within a role object.
+     *
+     * @param role      the role configuration to which to add permissions
+     * @param schemaObj the schema object
+     */
+    private static void parseSchema(final RoleConfig role, final JSONObject schemaObj) {
+
+        final String schemaName = schemaObj.getStringProperty("name");
+
+        if (schemaName == null) {
+            Log.warning("Schema in role '", role.getName(), "' in '", FILENAME, "' has no 'name'.");
+        } else if (schemaObj.getProperty("tables") instanceof final Object[] tables) {
+            for (final Object tableEntry : tables) {
+                if (tableEntry instanceof final JSONObject tableObj) {
+                    final String tableName = tableObj.getStringProperty("name");
+                    if (tableName == null) {
+                        Log.warning("Table in role '", role.getName(), "' in '", FILENAME, "' has no 'name'.");
+                    } else {
+                        final TablePermissions permissions = parseAllow(role, tableObj.getProperty("allow"));
+                        role.setTablePermissions(schemaName, tableName, permissions);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the "allow" array of operation names for a table.
+     *
+     * @param role  the role configuration (used for logging)
+     * @param allow the value of the "allow" property
+     * @return the table permissions
+     */
+    private static TablePermissions parseAllow(final RoleConfig role, final Object allow) {
+
+        boolean count = false;
+        boolean query = false;
+        boolean insert = false;
+        boolean delete = false;
+        boolean update = false;
+
+        if (allow instanceof final Object[] ops) {
+            for (final Object op : ops) {
+                final EOperation operation = op instanceof final String opName ? EOperation.forName(opName) : null;
+                if (operation == null) {
+                    Log.warning("Invalid operation in role '", role.getName(), "' in '", FILENAME, "'.");
+                } else {
+                    switch (operation) {
+                        case COUNT -> count = true;
+                        case QUERY -> query = true;
+                        case INSERT -> insert = true;
+                        case DELETE -> delete = true;
+                        case UPDATE -> update = true;
+                    }
+                }
+            }
+        }
+
+        return new TablePermissions(count, query, insert, delete, update);
+    }
+}
@@ -2,7 +2,9 @@ package dev.mathops.persistence.config;
 
 import dev.mathops.db.table.Table;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -23,6 +25,9 @@ import java.util.Map;
  *     "tables": [
  *       {
  *         "table-name": "...table name...",
+ *         "group": "...table group name...",
+ *         "description": "...description (HTML)...",
+ *         "examples": "...examples (HTML, optional)...",
  *         "fields": [
  *           {
  *             "field-name": "...field name...",
@@ -46,16 +51,20 @@ import java.util.Map;
  *   ... additional schema objects ...
  * ]
  * </pre>
+ *
+ * <p>
+ * Table IDs follow the order in which tables are listed.  Each constraint is named after its field and type (for
+ * example, "zip_code_string-length").  See {@code SchemaConfigLoader} for how the file is loaded and reloaded.
  */
 public final class SchemaConfig {
 
     /** The schema name. */
     private final String name;
 
-    /** A map from context name to the schema context configuration. */
+    /** A map from context name to the schema context configuration, in the order listed. */
     private final Map<String, SchemaContextConfig> contexts;
 
-    /** A map from table name to the tables supported by the schema. */
+    /** A map from table name to the tables supported by the schema, in the order listed. */
     private final Map<String, Table> tables;
 
     /**
@@ -67,8 +76,8 @@ public final class SchemaConfig {
 
         this.name = theName;
 
-        this.contexts = new HashMap<>(10);
-        this.tables = new HashMap<>(100);
+        this.contexts = new LinkedHashMap<>(10);
+        this.tables = new LinkedHashMap<>(100);
     }
 
     /**
@@ -112,6 +121,37 @@ public final class SchemaConfig {
         return this.tables.size();
     }
 
+    /**
+     * Gets the contexts this schema defines.
+     *
+     * @return the contexts, in the order listed
+     */
+    public List<SchemaContextConfig> getContexts() {
+
+        return new ArrayList<>(this.contexts.values());
+    }
+
+    /**
+     * Gets the tables this schema defines.
+     *
+     * @return the tables, in the order listed
+     */
+    public List<Table> getTables() {
+
+        return new ArrayList<>(this.tables.values());
+    }
+
+    /**
+     * Tests whether the schema defines a table.
+     *
+     * @param tableName the table name
+     * @return true if the schema defines the table
+     */
+    boolean hasTable(final String tableName) {
+
+        return this.tables.containsKey(tableName);
+    }
+
     /**
      * Adds a schema table configuration.
      *
@@ -0,0 +1,362 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.file.FileLoader;
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.FieldDef;
+import dev.mathops.db.table.constraint.AbstractFieldConstraint;
+import dev.mathops.db.table.constraint.ByteRangeConstraint;
+import dev.mathops.db.table.constraint.DoubleRangeConstraint;
+import dev.mathops.db.table.constraint.EFloatingPointAllow;
+import dev.mathops.db.table.constraint.FloatRangeConstraint;
+import dev.mathops.db.table.constraint.IntegerRangeConstraint;
+import dev.mathops.db.table.constraint.LongRangeConstraint;
+import dev.mathops.db.table.constraint.StringEnumeratedConstraint;
+import dev.mathops.db.table.constraint.StringLengthConstraint;
+import dev.mathops.text.parser.ParsingException;
+import dev.mathops.text.parser.json.JSONObject;
+import dev.mathops.text.parser.json.JSONParser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads schema configurations from the "schemas.json" file in the configuration directory (see {@code SchemaConfig}
+ * for the file format).
+ *
+ * <p>
+ * A table, field, or constraint that is not valid is logged and skipped along with the table that contains it, so a
+ * mistake in one table does not prevent the rest of the file from loading.
+ */
+public enum SchemaConfigLoader {
+    ;
+
+    /** The name of the configuration file. */
+    public static final String FILENAME = "schemas.json";
+
+    /**
+     * Loads schema configurations.  Entries that are not valid are logged and skipped.
+     *
+     * @param configDir the configuration directory
+     * @return the list of schema configurations; {@code null} if the file was not found or could not be read or
+     *         parsed
+     */
+    public static List<SchemaConfig> load(final File configDir) {
+
+        List<SchemaConfig> result = null;
+
+        final File file = new File(configDir, FILENAME);
+        if (file.exists()) {
+            final String json = FileLoader.loadFileAsString(file, false);
+            if (json == null) {
+                Log.warning("'", FILENAME, "' could not be read.");
+            } else {
+                try {
+                    final Object parsedJson = JSONParser.parseJSON(json);
+                    if (parsedJson instanceof final Object[] array) {
+                        result = new ArrayList<>(array.length);
+                        for (final Object entry : array) {
+                            if (entry instanceof final JSONObject schemaObj) {
+                                final SchemaConfig schema = parseSchema(schemaObj);
+                                if (schema != null) {
+                                    result.add(schema);
+                                }
+                            } else {
+                                Log.warning("'", FILENAME, "' had entry in top-level array that is not an object.");
+                            }
+                        }
+                    } else {
+                        Log.warning("'", FILENAME, "' had no top-level array of schema objects.");
+                    }
+                } catch (final ParsingException ex) {
+                    Log.warning("Failed to parse '", FILENAME, "'.", ex);
+                }
+            }
+        } else {
+            Log.info("'", FILENAME, "' was not found; only built-in tables will be available.");
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a single schema object.
+     *
+     * @param schemaObj the schema object
+     * @return the schema configuration; {@code null} if the object is not valid
+     */
+    private static SchemaConfig parseSchema(final JSONObject schemaObj) {
+
+        SchemaConfig result = null;
+
+        final String schemaName = schemaObj.getStringProperty("schema-name");
+
+        if (schemaName == null) {
+            Log.warning("Schema object in '", FILENAME, "' has no 'schema-name'.");
+        } else {
+            result = new SchemaConfig(schemaName);
+
+            if (schemaObj.getProperty("contexts") instanceof final Object[] contexts) {
+                for (final Object contextEntry : contexts) {
+                    final String contextName = contextEntry instanceof final JSONObject contextObj
+                            ? contextObj.getStringProperty("context-name") : null;
+                    if (contextName == null) {
+                        Log.warning("Schema '", schemaName, "' in '", FILENAME, "' has a context with no name.");
+                    } else {
+                        result.addContext(new SchemaContextConfig(contextName));
+                    }
+                }
+            }
+
+            if (schemaObj.getProperty("tables") instanceof final Object[] tables) {
+                for (final Object tableEntry : tables) {
+                    if (tableEntry instanceof final JSONObject tableObj) {
+                        final ConfiguredTable table = parseTable(schemaName, tableObj);
+                        if (table != null) {
+                            if (result.hasTable(table.getName())) {
+                                Log.warning("Schema '", schemaName, "' in '", FILENAME, "' defines table '",
+                                        table.getName(), "' more than once.");
+                            } else {
+                                result.addTable(table);
+                            }
+                        }
+                    } else {
+                        Log.warning("Schema '", schemaName, "' in '", FILENAME, "' has a table that is not an object.");
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a single table object.
+     *
+     * @param schemaName the schema name
+     * @param tableObj   the table object
+     * @return the table; {@code null} if the object or any of its fields is not valid
+     */
+    private static ConfiguredTable parseTable(final String schemaName, final JSONObject tableObj) {
+
+        ConfiguredTable result = null;
+
+        final String tableName = tableObj.getStringProperty("table-name");
+        final String group = tableObj.getStringProperty("group");
+        final String description = tableObj.getStringProperty("description");
+        final String examples = tableObj.getStringProperty("examples");
+
+        if (tableName == null || group == null || description == null) {
+            Log.warning("Table in schema '", schemaName, "' in '", FILENAME,
+                    "' is missing 'table-name', 'group', or 'description'.");
+        } else if (tableObj.getProperty("fields") instanceof final Object[] fieldEntries && fieldEntries.length > 0) {
+            final Field[] fields = new Field[fieldEntries.length];
+            boolean valid = true;
+            for (int i = 0; valid && i < fieldEntries.length; ++i) {
+                if (fieldEntries[i] instanceof final JSONObject fieldObj) {
+                    fields[i] = parseField(tableName, fieldObj);
+                }
+                valid = fields[i] != null;
+            }
+
+            if (valid) {
+                result = new ConfiguredTable(schemaName, group, tableName, description, examples, fields);
+            } else {
+                Log.warning("Table '", tableName, "' in schema '", schemaName, "' in '", FILENAME,
+                        "' has an invalid field; table skipped.");
+            }
+        } else {
+            Log.warning("Table '", tableName, "' in schema '", schemaName, "' in '", FILENAME, "' has no fields.");
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a single field object.
+     *
+     * @param tableName the table name (used for logging)
+     * @param fieldObj  the field object
+     * @return the field; {@code null} if the object or any of its constraints is not valid
+     */
+    private static Field parseField(final String tableName, final JSONObject fieldObj) {
+
+        Field result = null;
+
+        final String fieldName = fieldObj.getStringProperty("field-name");
+        final EFieldType type = fieldType(fieldObj.getStringProperty("type"));
+        final EFieldRole role = fieldRole(fieldObj.getStringProperty("role"));
+        final String description = fieldObj.getStringProperty("description");
+
+        if (fieldName == null || type == null || role == null || description == null) {
+            Log.warning("Field in table '", tableName, "' in '", FILENAME,
+                    "' is missing 'field-name', 'description', or a valid 'type' or 'role'.");
+        } else {
+            final List<AbstractFieldConstraint<?>> constraints = new ArrayList<>(2);
+            boolean valid = true;
+
+            if (fieldObj.getProperty("constraints") instanceof final Object[] constraintEntries) {
+                for (final Object constraintEntry : constraintEntries) {
+                    final AbstractFieldConstraint<?> constraint =
+                            constraintEntry instanceof final JSONObject constraintObj
+                                    ? parseConstraint(fieldName, constraintObj) : null;
+                    if (constraint == null) {
+                        Log.warning("Field '", fieldName, "' in table '", tableName, "' in '", FILENAME,
+                                "' has an invalid constraint.");
+                        valid = false;
+                    } else {
+                        constraints.add(constraint);
+                    }
+                }
+            }
+
+            if (valid) {
+                final AbstractFieldConstraint<?>[] array = constraints.toArray(new AbstractFieldConstraint<?>[0]);
+                result = new Field(new FieldDef(fieldName, type, description, array), role);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses a single constraint object.
+     *
+     * @param fieldName     the field name (used to name the constraint)
+     * @param constraintObj the constraint object
+     * @return the constraint; {@code null} if the object is not valid
+     */
+    private static AbstractFieldConstraint<?> parseConstraint(final String fieldName,
+                                                              final JSONObject constraintObj) {
+
+        AbstractFieldConstraint<?> result = null;
+
+        final String type = constraintObj.getStringProperty("type");
+        final Double min = constraintObj.getNumberProperty("min");
+        final Double max = constraintObj.getNumberProperty("max");
+        final boolean hasRange = min != null && max != null && min.doubleValue() <= max.doubleValue();
+
+        if (type != null) {
+            final String name = fieldName + "_" + type;
+
+            switch (type) {
+                case "byte-range" -> {
+                    if (hasRange && min.doubleValue() >= (double) Byte.MIN_VALUE
+                        && max.doubleValue() <= (double) Byte.MAX_VALUE) {
+                        result = new ByteRangeConstraint(name, min.byteValue(), max.byteValue());
+                    }
+                }
+                case "integer-range" -> {
+                    if (hasRange && min.doubleValue() >= (double) Integer.MIN_VALUE
+                        && max.doubleValue() <= (double) Integer.MAX_VALUE) {
+                        result = new IntegerRangeConstraint(name, min.intValue(), max.intValue());
+                    }
+                }
+                case "long-range" -> {
+                    if (hasRange) {
+                        result = new LongRangeConstraint(name, min.longValue(), max.longValue());
+                    }
+                }
+                case "float-range" -> {
+                    final EFloatingPointAllow allow = floatingPointAllow(constraintObj.getStringProperty("allow"));
+                    if (hasRange && allow != null) {
+                        result = new FloatRangeConstraint(name, allow, min.floatValue(), max.floatValue());
+                    }
+                }
+                case "double-range" -> {
+                    final EFloatingPointAllow allow = floatingPointAllow(constraintObj.getStringProperty("allow"));
+                    if (hasRange && allow != null) {
+                        result = new DoubleRangeConstraint(name, allow, min.doubleValue(), max.doubleValue());
+                    }
+                }
+                case "string-length" -> {
+                    if (hasRange && min.doubleValue() >= 0.0 && max.doubleValue() <= (double) Integer.MAX_VALUE) {
+                        result = new StringLengthConstraint(name, min.intValue(), max.intValue());
+                    }
+                }
+                case "string-enum" -> {
+                    if (constraintObj.getProperty("values") instanceof final Object[] values && values.length > 0) {
+                        final String[] allowed = new String[values.length];
+                        boolean valid = true;
+                        for (int i = 0; i < values.length; ++i) {
+                            if (values[i] instanceof final String str) {
+                                allowed[i] = str;
+                            } else {
+                                valid = false;
+                            }
+                        }
+                        if (valid) {
+                            result = new StringEnumeratedConstraint(name, allowed);
+                        }
+                    }
+                }
+                default -> Log.warning("Unrecognized constraint type '", type, "' in '", FILENAME, "'.");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the field type with a given name.
+     *
+     * @param name the name
+     * @return the field type; {@code null} if {@code name} is null or does not match a field type
+     */
+    private static EFieldType fieldType(final String name) {
+
+        EFieldType result = null;
+
+        for (final EFieldType value : EFieldType.values()) {
+            if (value.name().equals(name)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the field role with a given name.
+     *
+     * @param name the name
+     * @return the field role; {@code null} if {@code name} is null or does not match a field role
+     */
+    private static EFieldRole fieldRole(final String name) {
+
+        EFieldRole result = null;
+
+        for (final EFieldRole value : EFieldRole.values()) {
+            if (value.name().equals(name)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the floating-point allowance with a given name.
+     *
+     * @param name the name
+     * @return the allowance; {@code null} if {@code name} is null or does not match an allowance
+     */
+    private static EFloatingPointAllow floatingPointAllow(final String name) {
+
+        EFloatingPointAllow result = null;
+
+        for (final EFloatingPointAllow value : EFloatingPointAllow.values()) {
+            if (value.name().equals(name)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,231 @@
+package dev.mathops.persistence.config;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.FieldDef;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.constraint.AbstractFieldConstraint;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Holds the tables the server exposes: the built-in tables plus those defined in "schemas.json", which is reloaded when
+ * it changes.
+ *
+ * <p>
+ * A reload compares each table in the new file with the table of the same schema and name from the previous load.  A
+ * table whose structure (description, fields, types, roles, and constraints) is unchanged keeps its previous
+ * {@code Table} object, so consumers can find the tables that changed by identity and rebuild only the state that
+ * depends on them (routing entries, cached responses, prepared operations).  The new table list is published with a
+ * single volatile write.
+ *
+ * <p>
+ * Built-in tables cannot be redefined by the file; a configured table with the same schema and name as a built-in
+ * table is logged and ignored.
+ */
+public final class SchemaRegistry {
+
+    /** The configuration directory. */
+    private final File configDir;
+
+    /** The built-in tables. */
+    private final List<Table> builtIn;
+
+    /** The schema configurations most recently loaded from "schemas.json". */
+    private List<SchemaConfig> schemas;
+
+    /** The current tables (built-in tables first, then configured tables in the order listed). */
+    private volatile List<Table> tables;
+
+    /**
+     * Constructs a new {@code SchemaRegistry} and loads the initial configuration.
+     *
+     * @param theConfigDir the configuration directory
+     * @param theBuiltIn   the built-in tables
+     */
+    public SchemaRegistry(final File theConfigDir, final List<Table> theBuiltIn) {
+
+        this.configDir = theConfigDir;
+        this.builtIn = List.copyOf(theBuiltIn);
+
+        final List<SchemaConfig> loaded = SchemaConfigLoader.load(theConfigDir);
+        this.schemas = loaded == null ? new ArrayList<>(0) : loaded;
+        this.tables = merge(this.schemas, new HashMap<>(0));
+    }
+
+    /**
+     * Gets the current tables.
+     *
+     * @return the tables (built-in tables first, then configured tables in the order listed)
+     */
+    public List<Table> getTables() {
+
+        return this.tables;
+    }
+
+    /**
+     * Reloads "schemas.json".  This is intended to be called by a {@code ConfigWatcher} when the file changes.
+     *
+     * <p>
+     * If the file cannot be loaded (as when it has been removed, or an editor has only partly written it), the prior
+     * tables are kept.  The next change to the file triggers another reload.
+     *
+     * @return true if any table was added, changed, or removed
+     */
+    public synchronized boolean reload() {
+
+        final List<SchemaConfig> newSchemas = SchemaConfigLoader.load(this.configDir);
+
+        boolean result = false;
+        if (newSchemas == null) {
+            Log.warning("Unable to load '", SchemaConfigLoader.FILENAME, "' - keeping the prior tables.");
+        } else {
+            result = publish(newSchemas);
+        }
+
+        return result;
+    }
+
+    /**
+     * Publishes the tables built from a new set of schema configurations.
+     *
+     * @param newSchemas the schema configurations
+     * @return true if any table was added, changed, or removed
+     */
+    private boolean publish(final List<SchemaConfig> newSchemas) {
+
+        final Map<String, Table> previous = new HashMap<>(this.tables.size());
+        for (final Table table : this.tables) {
+            previous.put(key(table), table);
+        }
+
+        final List<Table> newTables = merge(newSchemas, previous);
+
+        int added = 0;
+        int changed = 0;
+        int unchanged = 0;
+        for (final Table table : newTables) {
+            final Table old = previous.remove(key(table));
+            if (old == null) {
+                ++added;
+            } else if (old == table) {
+                ++unchanged;
+            } else {
+                ++changed;
+            }
+        }
+        final int removed = previous.size();
+
+        final boolean result = added + changed + removed > 0;
+        if (result) {
+            Log.info("'", SchemaConfigLoader.FILENAME, "' reloaded: ", Integer.toString(added), " added, ",
+                    Integer.toString(changed), " changed, ", Integer.toString(removed), " removed, ",
+                    Integer.toString(unchanged), " unchanged.");
+        }
+
+        this.schemas = newSchemas;
+        this.tables = newTables;
+
+        return result;
+    }
+
+    /**
+     * Builds the list of tables from the built-in tables and a set of schema configurations, reusing a previous table
+     * object wherever the configured table has the same structure.
+     *
+     * @param theSchemas the schema configurations
+     * @param previous   a map from schema and table name to the table from the previous load
+     * @return the tables
+     */
+    private List<Table> merge(final List<SchemaConfig> theSchemas, final Map<String, Table> previous) {
+
+        final List<Table> result = new ArrayList<>(this.builtIn);
+
+        final Map<String, Table> builtInByKey = new HashMap<>(this.builtIn.size());
+        for (final Table table : this.builtIn) {
+            builtInByKey.put(key(table), table);
+        }
+
+        for (final SchemaConfig schema : theSchemas) {
+            for (final Table table : schema.getTables()) {
+                final String key = key(table);
+                if (builtInByKey.containsKey(key)) {
+                    Log.warning("'", SchemaConfigLoader.FILENAME, "' redefines built-in table '", schema.getName(),
+                            ".", table.getName(), "'; ignored.");
+                } else {
+                    final Table old = previous.get(key);
+                    result.add(old != null && isSameStructure(old, table) ? old : table);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the key under which a table is matched across loads.
+     *
+     * @param table the table
+     * @return the key
+     */
+    private static String key(final Table table) {
+
+        return table.getSchema() + "." + table.getName();
+    }
+
+    /**
+     * Tests whether two tables have the same structure.
+     *
+     * @param table1 the first table
+     * @param table2 the second table
+     * @return true if the tables have the same description, examples, and fields
+     */
+    static boolean isSameStructure(final Table table1, final Table table2) {
+
+        final int numFields = table1.getNumFields();
+
+        boolean same = numFields == table2.getNumFields()
+                       && Objects.equals(table1.getDescription(), table2.getDescription())
+                       && Objects.equals(table1.getExamples(), table2.getExamples());
+
+        for (int i = 0; same && i < numFields; ++i) {
+            final Field field1 = table1.getField(i);
+            final Field field2 = table2.getField(i);
+            same = field1.getRole() == field2.getRole() && isSameDef(field1.getDef(), field2.getDef());
+        }
+
+        return same;
+    }
+
+    /**
+     * Tests whether two field definitions are the same.  Constraints are compared by type, name, and description (the
+     * description is generated from the constraint's parameters).
+     *
+     * @param def1 the first field definition
+     * @param def2 the second field definition
+     * @return true if the definitions have the same name, type, description, and constraints
+     */
+    private static boolean isSameDef(final FieldDef def1, final FieldDef def2) {
+
+        final int numConstraints = def1.getNumConstraints();
+
+        boolean same = def1.getType() == def2.getType() && numConstraints == def2.getNumConstraints()
+                       && Objects.equals(def1.getName(), def2.getName())
+                       && Objects.equals(def1.getDescription(), def2.getDescription());
+
+        for (int i = 0; same && i < numConstraints; ++i) {
+            final AbstractFieldConstraint<?> constraint1 = def1.getConstraint(i);
+            final AbstractFieldConstraint<?> constraint2 = def2.getConstraint(i);
+            same = constraint1.getClass() == constraint2.getClass()
+                   && Objects.equals(constraint1.getName(), constraint2.getName())
+                   && Objects.equals(constraint1.getDescription(), constraint2.getDescription());
+        }
+
+        return same;
+    }
+}
@@ -14,4 +14,21 @@ package dev.mathops.persistence.config;
  */
 public record TablePermissions(boolean canCount, boolean canQuery, boolean canInsert, boolean canDelete,
                                boolean canUpdate) {
+
+    /**
+     * Tests whether these permissions allow an operation.
+     *
+     * @param operation the operation
+     * @return true if the operation is allowed
+     */
+    public boolean allows(final EOperation operation) {
+
+        return switch (operation) {
+            case COUNT -> this.canCount;
+            case QUERY -> this.canQuery;
+            case INSERT -> this.canInsert;
+            case DELETE -> this.canDelete;
+            case UPDATE -> this.canUpdate;
+        };
+    }
 }
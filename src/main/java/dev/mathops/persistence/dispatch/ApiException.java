@@ -0,0 +1,49 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.persistence.api.EFailureCode;
+
+import java.io.Serial;
+
+/**
+ * An exception thrown by a pipeline stage to end processing of a request with a FAILURE response.
+ */
+final class ApiException extends Exception {
+
+    /** Version number for serialization. */
+    @Serial
+    private static final long serialVersionUID = -6021843374619580117L;
+
+    /** The failure code to report ({@code null} if the request was refused because the server is overloaded). */
+    final EFailureCode failure;
+
+    /** The suggested delay before retrying (milliseconds) if the server is overloaded; 0 otherwise. */
+    final long retryAfterMillis;
+
+    /**
+     * Constructs a new {@code ApiException}.
+     *
+     * @param theFailure the failure code to report
+     * @param message    the error message to report
+     */
+    ApiException(final EFailureCode theFailure, final String message) {
+
+        super(message);
+
+        this.failure = theFailure;
+        this.retryAfterMillis = 0L;
+    }
+
+    /**
+     * Constructs a new {@code ApiException} for a request refused because the server is overloaded.
+     *
+     * @param theRetryAfterMillis the suggested delay before retrying (milliseconds)
+     * @param message             the error message to report
+     */
+    ApiException(final long theRetryAfterMillis, final String message) {
+
+        super(message);
+
+        this.failure = null;
+        this.retryAfterMillis = theRetryAfterMillis;
+    }
+}
@@ -0,0 +1,161 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.persistence.config.PermissionSet;
+import dev.mathops.persistence.site.session.AuthToken;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The state of one API request as it passes through the pipeline, with the request buffer and response writer.  Each
+ * thread that processes requests keeps one {@code ApiExchange} and reuses it, so the steady state allocates no buffers.
+ */
+final class ApiExchange {
+
+    /** The request body. */
+    final RequestBuffer request;
+
+    /** The response body. */
+    final ResponseWriter response;
+
+    /** True if the client gave the request a deadline. */
+    boolean hasDeadline;
+
+    /** The {@code System.nanoTime()} value after which the client is no longer waiting (if {@code hasDeadline}). */
+    long deadline;
+
+    /** The routing snapshot taken when the request began, used by every stage of the request. */
+    RoutingTable routes;
+
+    /** The authorization token presented with the request. */
+    AuthToken token;
+
+    /** The permissions granted by the token (set by the AUTHORIZE stage). */
+    PermissionSet permissions;
+
+    /** The index that maps table positions to permission table IDs (set by the AUTHORIZE stage). */
+    PermissionIndex permissionIndex;
+
+    /** The flags from the request ("all_tables" and "table" only). */
+    int flags;
+
+    /** The schema ID named in an "all_tables" request (-1 for all schemas). */
+    int schemaFilter;
+
+    /** The prepared operation ("prepare" and "execute_prepared" only). */
+    PreparedOperation prepared;
+
+    /** The date to look up ("term_for_date" and "week_for_date" only). */
+    LocalDate date;
+
+    /** All rows to insert, across targets ("insert" and "insert_multi" only). */
+    final List<Row> insertRows;
+
+    /** The targets (only the first {@code numTargets} are in use). */
+    private ApiTarget[] targets;
+
+    /** The number of targets in use. */
+    private int numTargets;
+
+    /**
+     * Constructs a new {@code ApiExchange}.
+     */
+    ApiExchange() {
+
+        this.request = new RequestBuffer();
+        this.response = new ResponseWriter();
+        this.insertRows = new ArrayList<>(50);
+        this.targets = new ApiTarget[]{new ApiTarget()};
+    }
+
+    /**
+     * Clears state from the previous request.
+     */
+    void clear() {
+
+        this.response.release();
+        this.hasDeadline = false;
+        this.deadline = 0L;
+        this.routes = null;
+        this.token = null;
+        this.permissions = null;
+        this.permissionIndex = null;
+        this.flags = 0;
+        this.schemaFilter = -1;
+        this.prepared = null;
+        this.date = null;
+        this.insertRows.clear();
+        for (int i = 0; i < this.numTargets; ++i) {
+            this.targets[i].clear();
+        }
+        this.numTargets = 0;
+    }
+
+    /**
+     * Sets the request deadline from the time the request arrived and the client's timeout.
+     *
+     * @param arrivedNanos  the {@code System.nanoTime()} value when the request arrived
+     * @param timeoutMillis the timeout (milliseconds); negative if the request has no deadline
+     */
+    void setDeadline(final long arrivedNanos, final long timeoutMillis) {
+
+        this.hasDeadline = timeoutMillis >= 0L;
+        this.deadline = arrivedNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Tests whether the request's deadline has passed.
+     *
+     * @return true if the request has a deadline and it has passed
+     */
+    boolean isExpired() {
+
+        return this.hasDeadline && System.nanoTime() - this.deadline >= 0L;
+    }
+
+    /**
+     * Adds a target.
+     *
+     * @return the new target (cleared)
+     */
+    ApiTarget addTarget() {
+
+        if (this.numTargets == this.targets.length) {
+            final int oldLen = this.targets.length;
+            this.targets = Arrays.copyOf(this.targets, oldLen << 1);
+            for (int i = oldLen; i < this.targets.length; ++i) {
+                this.targets[i] = new ApiTarget();
+            }
+        }
+
+        final ApiTarget target = this.targets[this.numTargets];
+        ++this.numTargets;
+
+        return target;
+    }
+
+    /**
+     * Gets the number of targets.
+     *
+     * @return the number of targets
+     */
+    int getNumTargets() {
+
+        return this.numTargets;
+    }
+
+    /**
+     * Gets a target.
+     *
+     * @param index the target index
+     * @return the target
+     */
+    ApiTarget getTarget(final int index) {
+
+        return this.targets[index];
+    }
+}
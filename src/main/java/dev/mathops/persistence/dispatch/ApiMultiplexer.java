@@ -0,0 +1,228 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.persistence.api.EResultCode;
+import dev.mathops.persistence.api.FieldEncoder;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves many API operations over one long-lived streaming POST, so a client can keep a single connection open (over
+ * HTTP/2, or HTTP/1.1 with a container that allows full-duplex request and response bodies) rather than making one
+ * request per operation.
+ *
+ * <p>
+ * The request body is a sequence of frames, each of which is a 4-byte big-endian length (of the rest of the frame), a
+ * 4-byte request ID chosen by the client, a 1-byte operation (the ordinal of an {@code EApiOperation}), and the request
+ * body that operation's endpoint would accept (starting with the authorization token).  If the high bit of the
+ * operation byte is set, a 4-byte timeout in milliseconds (measured from when the frame is read) follows the operation
+ * byte, and the operation is subject to that deadline as described in {@code ApiPipeline}.  Each frame is processed
+ * by a worker thread through the {@code ApiPipeline}, and the response is sent as a frame holding a 4-byte length, the
+ * request ID, and the response body that the endpoint would have returned.  Response frames are sent as soon as each
+ * operation completes, so they may arrive in a different order than the requests.
+ *
+ * <p>
+ * At most {@code MAX_IN_FLIGHT} operations from one stream are processed at a time; once that many are outstanding,
+ * no further frames are read until one completes.
+ */
+public final class ApiMultiplexer {
+
+    /** The length of the request ID and operation that precede each request body in a frame. */
+    private static final int REQUEST_PREFIX_LENGTH = 5;
+
+    /** The length of the timeout that follows the operation when {@code TIMEOUT_FLAG} is set. */
+    private static final int TIMEOUT_LENGTH = 4;
+
+    /** The bit in the operation byte that indicates a timeout follows. */
+    private static final int TIMEOUT_FLAG = 0x80;
+
+    /** The length of the request ID that precedes each response body in a frame. */
+    private static final int RESPONSE_PREFIX_LENGTH = 4;
+
+    /** The largest number of operations from one stream processed at a time. */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /** Mask value for a single byte. */
+    private static final int BYTE_MASK = 0xFF;
+
+    /** The content type of the response stream. */
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    /** The pipeline that processes each operation. */
+    private final ApiPipeline pipeline;
+
+    /** The worker threads. */
+    private final ExecutorService workers;
+
+    /**
+     * Constructs a new {@code ApiMultiplexer}.
+     *
+     * @param thePipeline the pipeline that processes each operation
+     * @param numWorkers  the number of worker threads shared by all streams
+     */
+    public ApiMultiplexer(final ApiPipeline thePipeline, final int numWorkers) {
+
+        this.pipeline = thePipeline;
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.workers = Executors.newFixedThreadPool(numWorkers, runnable -> {
+            final Thread thread = new Thread(runnable, "api-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+
+        this.workers.shutdownNow();
+    }
+
+    /**
+     * Serves a stream until the client ends its request body, then waits for outstanding operations to finish.
+     *
+     * @param body the request body
+     * @param resp the response
+     * @throws IOException if the response stream could not be opened
+     */
+    public void serve(final InputStream body, final HttpServletResponse resp) throws IOException {
+
+        resp.setContentType(CONTENT_TYPE);
+        final OutputStream out = resp.getOutputStream();
+        final DataInputStream in = new DataInputStream(body);
+        final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        final AtomicBoolean broken = new AtomicBoolean(false);
+
+        try {
+            while (!broken.get()) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (final EOFException ex) {
+                    break;
+                }
+
+                if (length < REQUEST_PREFIX_LENGTH || length > RequestBuffer.MAX_REQUEST_SIZE) {
+                    Log.warning("Invalid frame length on API stream: ", Integer.toString(length));
+                    break;
+                }
+                final byte[] frame = new byte[length];
+                in.readFully(frame);
+                final long arrived = System.nanoTime();
+
+                inFlight.acquireUninterruptibly();
+                this.workers.execute(() -> {
+                    try {
+                        processFrame(frame, arrived, out, broken);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (final IOException ex) {
+            Log.warning("API stream ended unexpectedly", ex);
+        } finally {
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        }
+
+        out.close();
+    }
+
+    /**
+     * Processes one request frame and sends its response frame.
+     *
+     * @param frame   the request frame (without its length)
+     * @param arrived the {@code System.nanoTime()} value when the frame was read
+     * @param out     the response stream
+     * @param broken  a flag set if the response stream fails, after which no further frames are sent
+     */
+    private void processFrame(final byte[] frame, final long arrived, final OutputStream out,
+                              final AtomicBoolean broken) {
+
+        final int requestId = readInt(frame, 0);
+        final int opByte = frame[4] & BYTE_MASK;
+        final int opIndex = opByte & ~TIMEOUT_FLAG;
+        final boolean hasTimeout = (opByte & TIMEOUT_FLAG) != 0;
+        final int bodyOffset = hasTimeout ? REQUEST_PREFIX_LENGTH + TIMEOUT_LENGTH : REQUEST_PREFIX_LENGTH;
+        final EApiOperation[] ops = EApiOperation.values();
+
+        try {
+            if (opIndex < ops.length && frame.length >= bodyOffset) {
+                long timeout = ApiPipeline.NO_TIMEOUT;
+                if (hasTimeout) {
+                    // A negative timeout has already expired
+                    timeout = Math.max(0L, (long) readInt(frame, REQUEST_PREFIX_LENGTH));
+                }
+                final ResponseWriter response = this.pipeline.processFrame(ops[opIndex], frame, bodyOffset,
+                        frame.length - bodyOffset, arrived, timeout);
+                synchronized (out) {
+                    if (!broken.get()) {
+                        writeFrameHeader(out, (int) response.size(), requestId);
+                        response.drainTo(out);
+                        out.flush();
+                    }
+                }
+            } else {
+                final ByteArrayOutputStream failure = new ByteArrayOutputStream(40);
+                FieldEncoder.encode(EResultCode.FAILURE.code, failure);
+                FieldEncoder.encode(EFailureCode.MALFORMED_REQUEST.code, failure);
+                FieldEncoder.encode("Unknown operation or truncated frame", failure);
+                synchronized (out) {
+                    if (!broken.get()) {
+                        writeFrameHeader(out, failure.size(), requestId);
+                        failure.writeTo(out);
+                        out.flush();
+                    }
+                }
+            }
+        } catch (final IOException ex) {
+            if (!broken.getAndSet(true)) {
+                Log.warning("Unable to write to API stream", ex);
+            }
+        }
+    }
+
+    /**
+     * Reads a 4-byte big-endian integer from a frame.
+     *
+     * @param frame  the frame
+     * @param offset the offset of the integer
+     * @return the integer
+     */
+    private static int readInt(final byte[] frame, final int offset) {
+
+        return ((frame[offset] & BYTE_MASK) << 24) | ((frame[offset + 1] & BYTE_MASK) << 16)
+               | ((frame[offset + 2] & BYTE_MASK) << 8) | (frame[offset + 3] & BYTE_MASK);
+    }
+
+    /**
+     * Writes the length and request ID that begin a response frame.
+     *
+     * @param out        the response stream
+     * @param bodyLength the length of the response body
+     * @param requestId  the request ID
+     * @throws IOException if the stream could not be written
+     */
+    private static void writeFrameHeader(final OutputStream out, final int bodyLength, final int requestId)
+            throws IOException {
+
+        final int length = bodyLength + RESPONSE_PREFIX_LENGTH;
+        final byte[] header = {(byte) (length >> 24), (byte) (length >> 16), (byte) (length >> 8), (byte) length,
+                (byte) (requestId >> 24), (byte) (requestId >> 16), (byte) (requestId >> 8), (byte) requestId};
+        out.write(header);
+    }
+}
@@ -0,0 +1,1205 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.FieldDef;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.constraint.AbstractFieldConstraint;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.RequestDeadline;
+import dev.mathops.persistence.api.EConstraintType;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.persistence.api.EResultCode;
+import dev.mathops.persistence.api.FieldDecoder;
+import dev.mathops.persistence.api.FieldEncoder;
+import dev.mathops.persistence.config.EOperation;
+import dev.mathops.persistence.config.PermissionMatrix;
+import dev.mathops.persistence.config.PermissionRegistry;
+import dev.mathops.persistence.config.PermissionSet;
+import dev.mathops.persistence.site.session.AuthToken;
+import dev.mathops.persistence.site.session.SessionManager;
+import dev.mathops.persistence.term.TermProvisioner;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.schema.term.TermWeekTable;
+import dev.mathops.text.builder.SimpleBuilder;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Processes binary API requests in six stages: DECODE (parse the body and resolve IDs against the catalog), AUTHORIZE
+ * (validate the token and check table permissions), ADMIT (wait for admission under the concurrency limits), ROUTE
+ * (select the implementation for each target schema and context), EXECUTE (call the implementation), and ENCODE (build
+ * the response body).
+ *
+ * <p>
+ * Each stage is timed separately (see {@code StageTimer}).  Each thread keeps one {@code ApiExchange} holding the
+ * request buffer, the response writer, and the decoded state, which are reused from request to request.  Query results
+ * are streamed in batches once the success header is written (see {@code ResponseWriter}), so ENCODE times for large
+ * results include the time to send them.
+ *
+ * <p>
+ * A stage that cannot complete throws {@code ApiException}, and the response is replaced with a FAILURE result code,
+ * a failure code, and an error message.  A request that is not admitted in time gets an OVERLOADED result code, a
+ * suggested retry delay, and a message instead.
+ *
+ * <p>
+ * A client may give a request a timeout, measured from when the request arrives.  A request whose deadline has passed
+ * is refused with DEADLINE_EXCEEDED before decoding and again before execution, admission waits no longer than the
+ * deadline, and the deadline is made available to implementations (see {@code RequestDeadline}) so they can cancel
+ * work the client is no longer waiting for.
+ *
+ * <p>
+ * Responses to count and query requests are cached once they are authorized (see {@code ResultCache}); a hit is
+ * answered without admission, routing, or execution, and writes invalidate cached responses for their tables.
+ *
+ * <p>
+ * Count and query operations whose criteria have a fixed shape can be prepared once and executed by handle (see
+ * {@code PreparedOperation}).  Preparing checks the same permission as the operation itself, and so does every
+ * execution, since the token's role permissions may have changed in between.
+ *
+ * <p>
+ * The "term_for_date" and "week_for_date" operations find the term, or the week of a term, that contains a date by
+ * binary search in date interval indexes of the "term" and "term_week" tables (see {@code IntervalIndexCache}), which
+ * are rebuilt after writes to those tables.  They require query permission on the tables.
+ */
+public final class ApiPipeline {
+
+    /** The flag in "all_tables" and "table" requests that asks for row counts. */
+    private static final int FLAG_ROW_COUNT = 0x01;
+
+    /** The content type of API responses. */
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    /** The header that carries a request's timeout (milliseconds). */
+    public static final String TIMEOUT_HEADER = "Request-Timeout";
+
+    /** The timeout value that indicates a request has no deadline. */
+    public static final long NO_TIMEOUT = -1L;
+
+    /** The longest a request without a deadline waits for admission (nanoseconds). */
+    private static final long MAX_ADMISSION_WAIT = Duration.ofSeconds(2L).toNanos();
+
+    /** The largest number of values a prepared criterion may take. */
+    private static final int MAX_PREPARED_ARITY = 1000;
+
+    /** The per-thread exchange objects. */
+    private static final ThreadLocal<ApiExchange> EXCHANGE = ThreadLocal.withInitial(ApiExchange::new);
+
+    /** The catalog of schemas, contexts, and tables. */
+    private final Catalog catalog;
+
+    /** The session manager that validates authorization tokens. */
+    private final SessionManager sessionMgr;
+
+    /** The registry that holds the current compiled role permissions. */
+    private final PermissionRegistry permissions;
+
+    /** The admission control that limits concurrent execution. */
+    private final IAdmissionControl admission;
+
+    /** The stage timer. */
+    private final StageTimer timer;
+
+    /** The cache of encoded count and query responses. */
+    private final ResultCache cache;
+
+    /** The prepared operations registered by each token. */
+    private final PreparedRegistry prepared;
+
+    /** The date interval indexes of the "term" and "term_week" tables. */
+    private final IntervalIndexCache indexes;
+
+    /** The index of permission table IDs for the most recent matrix and routing snapshot. */
+    private volatile PermissionIndex permissionIndex;
+
+    /**
+     * Constructs a new {@code ApiPipeline}.
+     *
+     * @param theCatalog     the catalog of schemas, contexts, and tables
+     * @param theSessionMgr  the session manager that validates authorization tokens
+     * @param thePermissions the registry that holds the current compiled role permissions
+     * @param theAdmission   the admission control that limits concurrent execution
+     */
+    public ApiPipeline(final Catalog theCatalog, final SessionManager theSessionMgr,
+                       final PermissionRegistry thePermissions, final IAdmissionControl theAdmission) {
+
+        this.catalog = theCatalog;
+        this.sessionMgr = theSessionMgr;
+        this.permissions = thePermissions;
+        this.admission = theAdmission;
+        this.timer = new StageTimer();
+        this.cache = new ResultCache();
+        this.prepared = new PreparedRegistry();
+        this.indexes = new IntervalIndexCache();
+        this.permissionIndex = null;
+    }
+
+    /**
+     * Gets the stage timer.
+     *
+     * @return the stage timer
+     */
+    public StageTimer getTimer() {
+
+        return this.timer;
+    }
+
+    /**
+     * Invalidates all cached responses and date interval indexes for a table whose data was changed other than through
+     * this pipeline (for example, by a background task that writes to the implementation directly).
+     *
+     * @param table the table
+     */
+    public void invalidate(final Table table) {
+
+        final RoutingTable routes = this.catalog.getRoutes();
+        final int schemaId = routes.getSchemaId(table.getSchema());
+
+        final int tableId = routes.getTableId(schemaId, table);
+        if (tableId >= 0) {
+            this.cache.invalidate(routes, schemaId, tableId);
+        }
+
+        this.indexes.invalidate(table, null);
+    }
+
+    /**
+     * Processes a request and sends the response.
+     *
+     * @param op            the operation
+     * @param body          the request body
+     * @param timeoutHeader the value of the {@code TIMEOUT_HEADER} header; {@code null} if absent
+     * @param resp          the response
+     * @throws IOException if the request could not be read or the response could not be written
+     */
+    public void process(final EApiOperation op, final InputStream body, final String timeoutHeader,
+                        final HttpServletResponse resp) throws IOException {
+
+        final long arrived = System.nanoTime();
+
+        final ApiExchange exchange = EXCHANGE.get();
+        exchange.clear();
+
+        final ResponseWriter response = exchange.response;
+        resp.setContentType(CONTENT_TYPE);
+        response.begin(resp);
+
+        final long timeout = parseTimeout(timeoutHeader);
+        if (timeout == Long.MIN_VALUE) {
+            writeFailure(op, exchange, EFailureCode.MALFORMED_REQUEST, "Invalid request timeout");
+            this.timer.recordOutcome(op, false);
+        } else if (exchange.request.fill(body)) {
+            exchange.setDeadline(arrived, timeout);
+            run(op, exchange);
+        } else {
+            exchange.request.clear();
+            writeFailure(op, exchange, EFailureCode.MALFORMED_REQUEST, "Request too large");
+            this.timer.recordOutcome(op, false);
+        }
+
+        response.finish();
+    }
+
+    /**
+     * Parses the value of a timeout header.
+     *
+     * @param header the header value; {@code null} if absent
+     * @return the timeout (milliseconds, at most {@code Integer.MAX_VALUE}); {@code NO_TIMEOUT} if absent;
+     *         {@code Long.MIN_VALUE} if the value is not a valid timeout
+     */
+    private static long parseTimeout(final String header) {
+
+        long result = NO_TIMEOUT;
+
+        if (header != null) {
+            try {
+                final long value = Long.parseLong(header.trim());
+                result = value < 0L ? Long.MIN_VALUE : Math.min(value, (long) Integer.MAX_VALUE);
+            } catch (final NumberFormatException ex) {
+                result = Long.MIN_VALUE;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Processes one request from a multiplexed stream.  The response is left in the calling thread's response writer,
+     * which is returned; it remains valid only until the same thread processes another request.
+     *
+     * @param op            the operation
+     * @param data          the array holding the request body
+     * @param offset        the offset of the body in the array
+     * @param length        the length of the body
+     * @param arrivedNanos  the {@code System.nanoTime()} value when the frame arrived
+     * @param timeoutMillis the timeout (milliseconds); {@code NO_TIMEOUT} if the request has no deadline
+     * @return the response writer holding the response body
+     */
+    ResponseWriter processFrame(final EApiOperation op, final byte[] data, final int offset, final int length,
+                                final long arrivedNanos, final long timeoutMillis) {
+
+        final ApiExchange exchange = EXCHANGE.get();
+        exchange.clear();
+
+        exchange.request.fill(data, offset, length);
+        exchange.setDeadline(arrivedNanos, timeoutMillis);
+        run(op, exchange);
+
+        return exchange.response;
+    }
+
+    /**
+     * Runs the pipeline stages on a request whose body is in the exchange's request buffer, leaving the response in
+     * the exchange's response buffer.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     */
+    void run(final EApiOperation op, final ApiExchange exchange) {
+
+        boolean success = false;
+
+        try {
+            if (exchange.hasDeadline) {
+                checkDeadline(exchange, "Request deadline passed before processing began");
+                RequestDeadline.set(exchange.deadline);
+            }
+
+            exchange.routes = this.catalog.getRoutes();
+
+            final long start = System.nanoTime();
+            decode(op, exchange);
+            final long decoded = System.nanoTime();
+            this.timer.record(op, EStage.DECODE, decoded - start);
+
+            authorize(op, exchange);
+            final long authorized = System.nanoTime();
+            this.timer.record(op, EStage.AUTHORIZE, authorized - decoded);
+
+            final ResultCache.Key cacheKey = ResultCache.isCacheable(op) ? this.cache.keyFor(op, exchange) : null;
+            final byte[] cached = cacheKey == null ? null : this.cache.lookup(cacheKey, exchange);
+
+            if (cached == null) {
+                byte[] response = null;
+                try {
+                    admitAndExecute(op, exchange, authorized);
+                    if (cacheKey != null) {
+                        response = exchange.response.copyBuffered(ResultCache.MAX_ENTRY_SIZE);
+                    }
+                } finally {
+                    if (cacheKey != null) {
+                        this.cache.complete(cacheKey, response);
+                    }
+                }
+            } else {
+                exchange.response.write(cached, 0, cached.length);
+            }
+
+            success = true;
+        } catch (final ApiException ex) {
+            if (ex.failure == null) {
+                writeOverloaded(exchange, ex.retryAfterMillis, ex.getMessage());
+            } else {
+                writeFailure(op, exchange, ex.failure, ex.getMessage());
+            }
+        } catch (final IllegalArgumentException | IOException ex) {
+            writeFailure(op, exchange, EFailureCode.MALFORMED_REQUEST, ex.getMessage());
+        } finally {
+            RequestDeadline.clear();
+        }
+
+        this.timer.recordOutcome(op, success);
+    }
+
+    /**
+     * Runs the ADMIT, ROUTE, EXECUTE, and ENCODE stages.  Writes invalidate cached responses for their tables before
+     * and after they execute.
+     *
+     * @param op         the operation
+     * @param exchange   the exchange
+     * @param authorized the {@code System.nanoTime()} value when the AUTHORIZE stage completed
+     * @throws ApiException if a stage cannot complete
+     * @throws IOException  if the response could not be written
+     */
+    private void admitAndExecute(final EApiOperation op, final ApiExchange exchange, final long authorized)
+            throws ApiException, IOException {
+
+        final int roleId = exchange.token.effectiveRoleId();
+        final long admitBy = exchange.hasDeadline ? exchange.deadline : authorized + MAX_ADMISSION_WAIT;
+        final long retryAfter = this.admission.admit(op, roleId, admitBy);
+        final long admitted = System.nanoTime();
+        this.timer.record(op, EStage.ADMIT, admitted - authorized);
+        if (retryAfter > 0L) {
+            throw new ApiException(retryAfter, "Server is overloaded");
+        }
+
+        final boolean write = op == EApiOperation.INSERT || op == EApiOperation.INSERT_MULTI
+                              || op == EApiOperation.DELETE || op == EApiOperation.UPDATE;
+        long executed = admitted;
+        long latency = -1L;
+        try {
+            checkDeadline(exchange, "Request deadline passed before execution");
+            route(op, exchange);
+            final long routed = System.nanoTime();
+            this.timer.record(op, EStage.ROUTE, routed - admitted);
+
+            if (write) {
+                invalidateTargets(exchange);
+            }
+            execute(op, exchange);
+            executed = System.nanoTime();
+            latency = executed - routed;
+            this.timer.record(op, EStage.EXECUTE, latency);
+        } finally {
+            this.admission.release(op, roleId, latency);
+            if (write) {
+                invalidateTargets(exchange);
+            }
+        }
+
+        encode(op, exchange);
+        final long encoded = System.nanoTime();
+        this.timer.record(op, EStage.ENCODE, encoded - executed);
+    }
+
+    /**
+     * Invalidates cached responses and date interval indexes for every table a request targets.
+     *
+     * @param exchange the exchange
+     */
+    private void invalidateTargets(final ApiExchange exchange) {
+
+        final int count = exchange.getNumTargets();
+        for (int i = 0; i < count; ++i) {
+            final ApiTarget target = exchange.getTarget(i);
+            this.cache.invalidate(exchange.routes, target.schemaId, target.tableId);
+            this.indexes.invalidate(target.table, target.contextName);
+        }
+    }
+
+    /**
+     * Ends processing of a request whose deadline has passed.
+     *
+     * @param exchange the exchange
+     * @param message  the error message to report if the deadline has passed
+     * @throws ApiException if the deadline has passed
+     */
+    private static void checkDeadline(final ApiExchange exchange, final String message) throws ApiException {
+
+        if (exchange.isExpired()) {
+            throw new ApiException(EFailureCode.DEADLINE_EXCEEDED, message);
+        }
+    }
+
+    /**
+     * Builds the exception that reports an implementation failure, with the failure code the implementation gave.  If
+     * the request's deadline has passed, the failure is assumed to be the implementation stopping work the client is no
+     * longer waiting for.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @param ex       the exception the implementation threw
+     * @return the exception to throw
+     */
+    private static ApiException implementationFailure(final EApiOperation op, final ApiExchange exchange,
+                                                      final PersistenceException ex) {
+
+        final ApiException result;
+
+        if (exchange.isExpired()) {
+            result = new ApiException(EFailureCode.DEADLINE_EXCEEDED, "Request deadline passed during execution");
+        } else {
+            if (ex.failure == EFailureCode.IMPLEMENTATION_ERROR || ex.failure == EFailureCode.BACKEND_UNAVAILABLE) {
+                Log.warning("Implementation failed to perform '", op, "'", ex);
+            }
+            result = new ApiException(ex.failure, ex.getMessage());
+        }
+
+        return result;
+    }
+
+    /**
+     * The DECODE stage: reads the authorization token and the operation's arguments, and resolves schema, context, and
+     * table IDs against the catalog.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @throws ApiException             if an ID does not resolve or the token is missing
+     * @throws IllegalArgumentException if the body could not be decoded
+     * @throws IOException              if the body could not be read
+     */
+    private void decode(final EApiOperation op, final ApiExchange exchange) throws ApiException,
+            IllegalArgumentException, IOException {
+
+        final RequestBuffer in = exchange.request;
+
+        if (in.length() < AuthToken.ENCODED_LENGTH) {
+            throw new ApiException(EFailureCode.UNAUTHORIZED, "Missing authorization token");
+        }
+        exchange.token = AuthToken.decode(in.array(), 0);
+        in.skip(AuthToken.ENCODED_LENGTH);
+
+        switch (op) {
+            case ALL_CONTEXTS, ALL_SCHEMAS -> {
+            }
+            case ALL_TABLES -> {
+                exchange.flags = FieldDecoder.decodeIntValue(in);
+                if (in.available() > 0) {
+                    final int schemaId = FieldDecoder.decodeIntValue(in);
+                    if (schemaId < 0 || schemaId >= exchange.routes.getNumSchemas()) {
+                        throw new ApiException(EFailureCode.NOT_FOUND, "Unknown schema ID");
+                    }
+                    exchange.schemaFilter = schemaId;
+                }
+            }
+            case TABLE -> {
+                exchange.flags = FieldDecoder.decodeIntValue(in);
+                final ApiTarget target = exchange.addTarget();
+                target.schemaId = FieldDecoder.decodeIntValue(in);
+                target.tableId = FieldDecoder.decodeIntValue(in);
+                resolveTable(exchange.routes, target);
+            }
+            case COUNT, QUERY, DELETE -> {
+                final ApiTarget target = decodeTarget(exchange);
+                target.criteria = FieldDecoder.decodeOptionalSelectionCriteria(in, target.table);
+            }
+            case UPDATE -> {
+                final ApiTarget target = decodeTarget(exchange);
+                target.criteria = FieldDecoder.decodeOptionalSelectionCriteria(in, target.table);
+                target.values = FieldDecoder.decodeUpdatedValues(in, target.table);
+            }
+            case INSERT -> decodeInsertTarget(exchange);
+            case INSERT_MULTI -> {
+                final int numTargets = FieldDecoder.decodeIntValue(in);
+                if (numTargets < 1 || numTargets > in.available()) {
+                    throw new IllegalArgumentException("Invalid number of tables");
+                }
+                for (int i = 0; i < numTargets; ++i) {
+                    decodeInsertTarget(exchange);
+                }
+            }
+            case PREPARE -> decodePrepare(exchange);
+            case EXECUTE_PREPARED -> {
+                final int handle = FieldDecoder.decodeIntValue(in);
+                final PreparedOperation operation = this.prepared.get(exchange.token, handle);
+                if (operation == null) {
+                    throw new ApiException(EFailureCode.NOT_FOUND, "Unknown prepared operation handle");
+                }
+                exchange.prepared = operation;
+                final ApiTarget target = exchange.addTarget();
+                operation.fillTarget(target);
+                if (exchange.routes.getTable(target.schemaId, target.tableId) != target.table) {
+                    throw new ApiException(EFailureCode.NOT_FOUND, "Table was redefined; prepare the operation again");
+                }
+                target.criteria = operation.bind(in);
+            }
+            case TERM_FOR_DATE, WEEK_FOR_DATE -> {
+                exchange.date = FieldDecoder.decodeDateValue(in);
+                addTableTarget(exchange, TermTable.INSTANCE);
+                if (op == EApiOperation.WEEK_FOR_DATE) {
+                    addTableTarget(exchange, TermWeekTable.INSTANCE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a target for a table named by the operation rather than by the request.  The context is left unset, to be
+     * chosen by the ROUTE or EXECUTE stage.
+     *
+     * @param exchange the exchange
+     * @param table    the table
+     * @throws ApiException if the table is not in the catalog
+     */
+    private static void addTableTarget(final ApiExchange exchange, final Table table) throws ApiException {
+
+        final RoutingTable routes = exchange.routes;
+        final ApiTarget target = exchange.addTarget();
+
+        target.schemaId = routes.getSchemaId(table.getSchema());
+        target.tableId = routes.getTableId(target.schemaId, table);
+        if (target.tableId < 0) {
+            final String msg = SimpleBuilder.concat("Table '", table.getName(), "' is not in the catalog");
+            throw new ApiException(EFailureCode.NOT_FOUND, msg);
+        }
+        target.table = table;
+    }
+
+    /**
+     * Decodes the schema, context, and table IDs of a target and resolves them.
+     *
+     * @param exchange the exchange
+     * @return the new target
+     * @throws ApiException             if an ID does not resolve
+     * @throws IllegalArgumentException if the IDs could not be decoded
+     * @throws IOException              if the body could not be read
+     */
+    private ApiTarget decodeTarget(final ApiExchange exchange) throws ApiException, IllegalArgumentException,
+            IOException {
+
+        final RequestBuffer in = exchange.request;
+        final ApiTarget target = exchange.addTarget();
+
+        target.schemaId = FieldDecoder.decodeIntValue(in);
+        target.contextId = FieldDecoder.decodeIntValue(in);
+        target.tableId = FieldDecoder.decodeIntValue(in);
+        resolveTable(exchange.routes, target);
+
+        target.contextName = exchange.routes.getContextName(target.contextId);
+        if (target.contextName == null) {
+            throw new ApiException(EFailureCode.NOT_FOUND, "Unknown context ID");
+        }
+
+        return target;
+    }
+
+    /**
+     * Decodes a target and the rows to insert into its table.
+     *
+     * @param exchange the exchange
+     * @throws ApiException             if an ID does not resolve
+     * @throws IllegalArgumentException if the target or rows could not be decoded
+     * @throws IOException              if the body could not be read
+     */
+    private void decodeInsertTarget(final ApiExchange exchange) throws ApiException, IllegalArgumentException,
+            IOException {
+
+        final RequestBuffer in = exchange.request;
+        final ApiTarget target = decodeTarget(exchange);
+
+        final int numRows = FieldDecoder.decodeIntValue(in);
+        if (numRows < 0 || numRows > in.available()) {
+            throw new IllegalArgumentException("Invalid number of rows");
+        }
+        for (int i = 0; i < numRows; ++i) {
+            final Row row = FieldDecoder.decodeRow(in, target.table);
+            target.rows.add(row);
+            exchange.insertRows.add(row);
+        }
+    }
+
+    /**
+     * Decodes the operation template in a "prepare" request.  Only count and query operations, and only criteria on
+     * integer fields, may be prepared.
+     *
+     * @param exchange the exchange
+     * @throws ApiException             if an ID does not resolve
+     * @throws IllegalArgumentException if the template could not be decoded or does not match the table
+     * @throws IOException              if the body could not be read
+     */
+    private void decodePrepare(final ApiExchange exchange) throws ApiException, IllegalArgumentException,
+            IOException {
+
+        final RequestBuffer in = exchange.request;
+
+        final int opIndex = FieldDecoder.decodeIntValue(in);
+        final EApiOperation operation;
+        if (opIndex == EOperation.COUNT.ordinal()) {
+            operation = EApiOperation.COUNT;
+        } else if (opIndex == EOperation.QUERY.ordinal()) {
+            operation = EApiOperation.QUERY;
+        } else {
+            throw new IllegalArgumentException("Only count and query operations may be prepared");
+        }
+
+        final ApiTarget target = decodeTarget(exchange);
+        final Table table = target.table;
+        final int numFields = table.getNumFields();
+
+        final int numCriteria = FieldDecoder.decodeIntValue(in);
+        if (numCriteria < 0 || numCriteria > numFields) {
+            throw new IllegalArgumentException("Invalid number of field criteria");
+        }
+
+        final ENumericMatchType[] allMatchTypes = ENumericMatchType.values();
+        final Field[] fields = new Field[numCriteria];
+        final ENumericMatchType[] matchTypes = new ENumericMatchType[numCriteria];
+        final int[] arities = new int[numCriteria];
+        for (int i = 0; i < numCriteria; ++i) {
+            final String fieldName = FieldDecoder.decodeStringValue(in);
+            final int matchIndex = FieldDecoder.decodeIntValue(in);
+            final int arity = FieldDecoder.decodeIntValue(in);
+
+            final Field field = FieldDecoder.findField(table, fieldName);
+            if (field == null || field.getDef().getType() != EFieldType.INTEGER) {
+                throw new IllegalArgumentException("Only criteria on integer fields may be prepared");
+            }
+            if (matchIndex < 0 || matchIndex >= allMatchTypes.length) {
+                throw new IllegalArgumentException("Invalid match type");
+            }
+            if (arity < 0 || arity > MAX_PREPARED_ARITY) {
+                throw new IllegalArgumentException("Invalid number of match values");
+            }
+            fields[i] = field;
+            matchTypes[i] = allMatchTypes[matchIndex];
+            arities[i] = arity;
+        }
+
+        final int numProjected = FieldDecoder.decodeIntValue(in);
+        if (numProjected < 0 || numProjected > numFields) {
+            throw new IllegalArgumentException("Invalid number of projected fields");
+        }
+
+        int[] projection = null;
+        if (numProjected > 0) {
+            projection = new int[numProjected];
+            int prior = -1;
+            for (int i = 0; i < numProjected; ++i) {
+                final int index = FieldDecoder.decodeIntValue(in);
+                if (index <= prior || index >= numFields) {
+                    throw new IllegalArgumentException("Projected field indexes must be increasing and in range");
+                }
+                projection[i] = index;
+                prior = index;
+            }
+        }
+
+        exchange.prepared = new PreparedOperation(operation, target, fields, matchTypes, arities, projection);
+    }
+
+    /**
+     * Resolves the schema and table IDs of a target to a table.
+     *
+     * @param routes the routing snapshot
+     * @param target the target
+     * @throws ApiException if the IDs do not identify a table
+     */
+    private static void resolveTable(final RoutingTable routes, final ApiTarget target) throws ApiException {
+
+        target.table = routes.getTable(target.schemaId, target.tableId);
+        if (target.table == null) {
+            throw new ApiException(EFailureCode.NOT_FOUND, "Unknown schema or table ID");
+        }
+    }
+
+    /**
+     * The AUTHORIZE stage: validates the authorization token and checks that its permissions allow the operation on
+     * every target table.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @throws ApiException if the token is not valid or the operation is not permitted
+     */
+    private void authorize(final EApiOperation op, final ApiExchange exchange) throws ApiException {
+
+        final PermissionMatrix matrix = this.permissions.getMatrix();
+        final PermissionSet granted = this.sessionMgr.authorize(exchange.token, matrix);
+        if (granted == null) {
+            throw new ApiException(EFailureCode.UNAUTHORIZED, "Invalid authorization token");
+        }
+        exchange.permissions = granted;
+        exchange.permissionIndex = getPermissionIndex(matrix, exchange.routes);
+
+        final EOperation required;
+        if (exchange.prepared != null) {
+            required = exchange.prepared.operation.permission;
+        } else if (op == EApiOperation.TABLE && (exchange.flags & FLAG_ROW_COUNT) != 0) {
+            required = EOperation.COUNT;
+        } else {
+            required = op.permission;
+        }
+
+        if (required != null) {
+            final int numTargets = exchange.getNumTargets();
+            for (int i = 0; i < numTargets; ++i) {
+                final ApiTarget target = exchange.getTarget(i);
+                if (!isAllowed(exchange, target.schemaId, target.tableId, required)) {
+                    throw new ApiException(EFailureCode.FORBIDDEN, "Operation not permitted on table");
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the permission index for a matrix and routing snapshot, building a new one if either has changed since the
+     * last was built.
+     *
+     * @param matrix the current permission matrix
+     * @param routes the request's routing snapshot
+     * @return the index
+     */
+    private PermissionIndex getPermissionIndex(final PermissionMatrix matrix, final RoutingTable routes) {
+
+        PermissionIndex result = this.permissionIndex;
+
+        if (result == null || !result.isFor(matrix, routes)) {
+            result = new PermissionIndex(matrix, routes);
+            this.permissionIndex = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether the permissions granted to a request allow an operation on a table.
+     *
+     * @param exchange  the exchange, with the permissions and permission index set by the AUTHORIZE stage
+     * @param schemaId  the schema ID
+     * @param tableId   the table ID
+     * @param operation the operation
+     * @return true if the operation is allowed
+     */
+    private static boolean isAllowed(final ApiExchange exchange, final int schemaId, final int tableId,
+                                     final EOperation operation) {
+
+        final int matrixTableId = exchange.permissionIndex.getMatrixTableId(schemaId, tableId);
+
+        return exchange.permissions.isAllowed(matrixTableId, operation);
+    }
+
+    /**
+     * The ROUTE stage: selects the implementation for each target.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @throws ApiException if no implementation is bound for a target's schema and context
+     */
+    private static void route(final EApiOperation op, final ApiExchange exchange) throws ApiException {
+
+        final RoutingTable routes = exchange.routes;
+        final int numTargets = exchange.getNumTargets();
+
+        // The context of a "week_for_date" request's week table depends on the term, found during execution
+        final int numRouted = op == EApiOperation.WEEK_FOR_DATE ? 1 : numTargets;
+        for (int i = 0; i < numRouted; ++i) {
+            final ApiTarget target = exchange.getTarget(i);
+
+            if (target.contextId < 0) {
+                // Table listings with row counts use the first context bound to the schema
+                target.contextId = routes.getDefaultContextId(target.schemaId);
+                target.contextName = routes.getContextName(target.contextId);
+            }
+
+            target.implementation = routes.getImplementation(target.schemaId, target.contextId);
+            if (target.implementation == null && (op != EApiOperation.TABLE
+                                                  || (exchange.flags & FLAG_ROW_COUNT) != 0)) {
+                throw new ApiException(EFailureCode.NO_IMPLEMENTATION, "No implementation for schema and context");
+            }
+        }
+
+        if (op == EApiOperation.INSERT_MULTI) {
+            final ApiTarget first = exchange.getTarget(0);
+            for (int i = 1; i < numTargets; ++i) {
+                final ApiTarget target = exchange.getTarget(i);
+                if (target.implementation != first.implementation || target.contextId != first.contextId) {
+                    throw new ApiException(EFailureCode.NO_IMPLEMENTATION,
+                            "All tables in an insert must use the same implementation and context");
+                }
+            }
+        }
+    }
+
+    /**
+     * The EXECUTE stage: performs the operation through each target's implementation.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @throws ApiException if an implementation reports an error
+     */
+    private void execute(final EApiOperation op, final ApiExchange exchange) throws ApiException {
+
+        try {
+            switch (op) {
+                case ALL_CONTEXTS, ALL_SCHEMAS, ALL_TABLES -> {
+                }
+                case TABLE -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    if ((exchange.flags & FLAG_ROW_COUNT) != 0) {
+                        target.result = target.implementation.count(target.contextName, target.table, null);
+                    }
+                }
+                case COUNT -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    target.result = target.implementation.count(target.contextName, target.table, target.criteria);
+                }
+                case QUERY -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    target.implementation.query(target.contextName, target.table, target.criteria, target.rows);
+                    target.result = target.rows.size();
+                }
+                case INSERT, INSERT_MULTI -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    target.result = target.implementation.insert(target.contextName, exchange.insertRows);
+                }
+                case DELETE -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    target.result = target.implementation.delete(target.contextName, target.table, target.criteria);
+                }
+                case UPDATE -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    target.result = target.implementation.update(target.contextName, target.table, target.criteria,
+                            target.values);
+                }
+                case PREPARE -> executePrepare(exchange);
+                case EXECUTE_PREPARED -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    final IImplementation impl = target.implementation;
+                    final Object state = exchange.prepared.getBackendState(impl);
+                    if (exchange.prepared.operation == EApiOperation.COUNT) {
+                        target.result = impl.countPrepared(state, target.contextName, target.table, target.criteria);
+                    } else {
+                        impl.queryPrepared(state, target.contextName, target.table, target.criteria, target.rows);
+                        target.result = target.rows.size();
+                    }
+                }
+                case TERM_FOR_DATE -> {
+                    final ApiTarget target = exchange.getTarget(0);
+                    final Row term = findByDate(target, exchange.date);
+                    if (term != null) {
+                        target.rows.add(term);
+                    }
+                }
+                case WEEK_FOR_DATE -> executeWeekForDate(exchange);
+            }
+        } catch (final PersistenceException ex) {
+            throw implementationFailure(op, exchange, ex);
+        }
+    }
+
+    /**
+     * Finds the row of a target's table whose date range contains a date.
+     *
+     * @param target the target (routed)
+     * @param date   the date
+     * @return the row; {@code null} if none contains the date
+     * @throws PersistenceException if the table could not be read to build its index
+     */
+    private Row findByDate(final ApiTarget target, final LocalDate date) throws PersistenceException {
+
+        final DateIntervalIndex index = this.indexes.get(target.table, target.implementation, target.contextName);
+
+        return index.find(date);
+    }
+
+    /**
+     * Executes a "week_for_date" request: finds the term that contains the date, routes the week target to that term's
+     * context, and finds the week that contains the date.  The first target's result is the term ID, or -1 if no term
+     * contains the date.  The second target's rows are empty if no week contains the date, or if the term has no
+     * context bound.
+     *
+     * @param exchange the exchange
+     * @throws PersistenceException if a table could not be read to build its index
+     */
+    private void executeWeekForDate(final ApiExchange exchange) throws PersistenceException {
+
+        final ApiTarget termTarget = exchange.getTarget(0);
+        final ApiTarget weekTarget = exchange.getTarget(1);
+        final Row term = findByDate(termTarget, exchange.date);
+        termTarget.result = term == null ? -1L : (long) IntervalIndexCache.termId(term);
+
+        if (termTarget.result >= 0L) {
+            final RoutingTable routes = exchange.routes;
+            final String context = TermProvisioner.contextName((int) termTarget.result);
+            weekTarget.contextId = routes.getContextId(context);
+            weekTarget.contextName = context;
+            weekTarget.implementation = routes.getImplementation(weekTarget.schemaId, weekTarget.contextId);
+
+            if (weekTarget.implementation != null) {
+                final Row week = findByDate(weekTarget, exchange.date);
+                if (week != null) {
+                    weekTarget.rows.add(week);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepares an operation with its target's implementation and registers it under the request's token.
+     *
+     * @param exchange the exchange
+     * @throws ApiException         if the token already holds the maximum number of handles
+     * @throws PersistenceException if the implementation could not prepare the operation
+     */
+    private void executePrepare(final ApiExchange exchange) throws ApiException, PersistenceException {
+
+        final PreparedOperation operation = exchange.prepared;
+        operation.getBackendState(exchange.getTarget(0).implementation);
+
+        final int handle = this.prepared.register(exchange.token, operation);
+        if (handle < 0) {
+            operation.release();
+            throw new ApiException(EFailureCode.MALFORMED_REQUEST, "Too many prepared operations");
+        }
+
+        exchange.getTarget(0).result = handle;
+    }
+
+    /**
+     * The ENCODE stage: writes a SUCCESS response.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @throws ApiException if an implementation reports an error while counting rows for a table listing
+     * @throws IOException  if the response could not be written
+     */
+    private void encode(final EApiOperation op, final ApiExchange exchange) throws ApiException, IOException {
+
+        final ResponseWriter out = exchange.response;
+        final RoutingTable routes = exchange.routes;
+        FieldEncoder.encode(EResultCode.SUCCESS.code, out);
+
+        switch (op) {
+            case ALL_CONTEXTS -> {
+                final int numContexts = routes.getNumContexts();
+                FieldEncoder.encode(numContexts, out);
+                for (int i = 0; i < numContexts; ++i) {
+                    FieldEncoder.encode(i, out);
+                    FieldEncoder.encode(routes.getContextName(i), out);
+                }
+            }
+            case ALL_SCHEMAS -> {
+                final int numSchemas = routes.getNumSchemas();
+                final int numContexts = routes.getNumContexts();
+                FieldEncoder.encode(numSchemas, out);
+                for (int i = 0; i < numSchemas; ++i) {
+                    FieldEncoder.encode(i, out);
+                    FieldEncoder.encode(routes.getSchemaName(i), out);
+                    int numBound = 0;
+                    for (int j = 0; j < numContexts; ++j) {
+                        if (routes.getImplementation(i, j) != null) {
+                            ++numBound;
+                        }
+                    }
+                    FieldEncoder.encode(numBound, out);
+                    for (int j = 0; j < numContexts; ++j) {
+                        if (routes.getImplementation(i, j) != null) {
+                            FieldEncoder.encode(j, out);
+                        }
+                    }
+                }
+            }
+            case ALL_TABLES -> encodeAllTables(exchange);
+            case TABLE -> {
+                final ApiTarget target = exchange.getTarget(0);
+                FieldEncoder.encode(exchange.flags, out);
+                encodeTable(target.schemaId, target.tableId, target.table, out);
+                if ((exchange.flags & FLAG_ROW_COUNT) != 0) {
+                    FieldEncoder.encode(target.result, out);
+                }
+            }
+            case COUNT, INSERT, INSERT_MULTI, DELETE, UPDATE, PREPARE ->
+                    FieldEncoder.encode(exchange.getTarget(0).result, out);
+            case QUERY -> {
+                out.allowStreaming();
+                encodeRows(exchange.getTarget(0).rows, null, out);
+            }
+            case EXECUTE_PREPARED -> {
+                final PreparedOperation operation = exchange.prepared;
+                if (operation.operation == EApiOperation.COUNT) {
+                    FieldEncoder.encode(exchange.getTarget(0).result, out);
+                } else {
+                    out.allowStreaming();
+                    encodeRows(exchange.getTarget(0).rows, operation.projection, out);
+                }
+            }
+            case TERM_FOR_DATE -> encodeRows(exchange.getTarget(0).rows, null, out);
+            case WEEK_FOR_DATE -> {
+                FieldEncoder.encode((int) exchange.getTarget(0).result, out);
+                encodeRows(exchange.getTarget(1).rows, null, out);
+            }
+        }
+    }
+
+    /**
+     * Writes a list of query results.
+     *
+     * @param rows       the rows
+     * @param projection the indexes of the fields to write ({@code null} for all fields)
+     * @param out        the output stream
+     * @throws IOException if the stream could not be written
+     */
+    private static void encodeRows(final List<Row> rows, final int[] projection, final OutputStream out)
+            throws IOException {
+
+        FieldEncoder.encode(rows.size(), out);
+        if (projection == null) {
+            for (final Row row : rows) {
+                FieldEncoder.encode(row, out);
+            }
+        } else {
+            for (final Row row : rows) {
+                FieldEncoder.encode(row, projection, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the body of a SUCCESS response to "all_tables".  Tables that have been removed are omitted.  When row
+     * counts are requested, tables whose rows the caller may not count, or whose schema has no implementation, are
+     * also omitted.
+     *
+     * @param exchange the exchange
+     * @throws ApiException if an implementation reports an error while counting rows
+     * @throws IOException  if the response could not be written
+     */
+    private void encodeAllTables(final ApiExchange exchange) throws ApiException, IOException {
+
+        final ResponseWriter out = exchange.response;
+        final RoutingTable routes = exchange.routes;
+        final boolean withCounts = (exchange.flags & FLAG_ROW_COUNT) != 0;
+        final int firstSchema = exchange.schemaFilter < 0 ? 0 : exchange.schemaFilter;
+        final int lastSchema = exchange.schemaFilter < 0 ? routes.getNumSchemas() - 1 : exchange.schemaFilter;
+
+        int numTables = 0;
+        for (int schemaId = firstSchema; schemaId <= lastSchema; ++schemaId) {
+            final int contextId = routes.getDefaultContextId(schemaId);
+            final int count = routes.getNumTables(schemaId);
+            for (int tableId = 0; tableId < count; ++tableId) {
+                if (isListed(exchange, withCounts, schemaId, contextId, tableId)) {
+                    ++numTables;
+                }
+            }
+        }
+
+        FieldEncoder.encode(exchange.flags, out);
+        FieldEncoder.encode(numTables, out);
+
+        try {
+            for (int schemaId = firstSchema; schemaId <= lastSchema; ++schemaId) {
+                final int contextId = routes.getDefaultContextId(schemaId);
+                final String contextName = routes.getContextName(contextId);
+                final int count = routes.getNumTables(schemaId);
+                for (int tableId = 0; tableId < count; ++tableId) {
+                    if (isListed(exchange, withCounts, schemaId, contextId, tableId)) {
+                        final Table table = routes.getTable(schemaId, tableId);
+                        encodeTable(schemaId, tableId, table, out);
+                        if (withCounts) {
+                            final IImplementation impl = routes.getImplementation(schemaId, contextId);
+                            FieldEncoder.encode(impl.count(contextName, table, null), out);
+                        }
+                    }
+                }
+            }
+        } catch (final PersistenceException ex) {
+            throw implementationFailure(EApiOperation.ALL_TABLES, exchange, ex);
+        }
+    }
+
+    /**
+     * Tests whether a table is included in the response to an "all_tables" request.
+     *
+     * @param exchange   the exchange
+     * @param withCounts true if row counts were requested
+     * @param schemaId   the schema ID
+     * @param contextId  the context ID used to count rows (-1 if none is bound)
+     * @param tableId    the table ID
+     * @return true if the table has not been removed and, if row counts were requested, the table has an
+     *         implementation and the caller may count its rows
+     */
+    private static boolean isListed(final ApiExchange exchange, final boolean withCounts, final int schemaId,
+                                    final int contextId, final int tableId) {
+
+        final Table table = exchange.routes.getTable(schemaId, tableId);
+
+        return table != null && (!withCounts
+                                 || contextId >= 0 && isAllowed(exchange, schemaId, tableId, EOperation.COUNT));
+    }
+
+    /**
+     * Writes a table encoding.  Each field's pre-defined constraints are included (see {@code EConstraintType});
+     * application-defined constraints cannot be encoded, so they are omitted.
+     *
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     * @param table    the table
+     * @param out      the output stream
+     * @throws IOException if the stream could not be written
+     */
+    private static void encodeTable(final int schemaId, final int tableId, final Table table, final OutputStream out)
+            throws IOException {
+
+        FieldEncoder.encode(schemaId, out);
+        FieldEncoder.encode(tableId, out);
+        FieldEncoder.encode(table.getName(), out);
+
+        final int numFields = table.getNumFields();
+        FieldEncoder.encode(numFields, out);
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            final FieldDef def = field.getDef();
+            FieldEncoder.encode(def.getType().ordinal(), out);
+            FieldEncoder.encode(field.getRole().ordinal(), out);
+
+            final int numConstraints = def.getNumConstraints();
+            int numReported = 0;
+            for (int j = 0; j < numConstraints; ++j) {
+                if (EConstraintType.forConstraint(def.getConstraint(j)) != null) {
+                    ++numReported;
+                }
+            }
+            FieldEncoder.encode(numReported, out);
+            for (int j = 0; j < numConstraints; ++j) {
+                final AbstractFieldConstraint<?> constraint = def.getConstraint(j);
+                if (EConstraintType.forConstraint(constraint) != null) {
+                    FieldEncoder.encode(constraint, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an OVERLOADED response (no part of the response will have been encoded).
+     *
+     * @param exchange         the exchange
+     * @param retryAfterMillis the suggested delay before retrying (milliseconds)
+     * @param message          the error message
+     */
+    private static void writeOverloaded(final ApiExchange exchange, final long retryAfterMillis,
+                                        final String message) {
+
+        final ResponseWriter out = exchange.response;
+        out.rewind();
+
+        try {
+            FieldEncoder.encode(EResultCode.OVERLOADED.code, out);
+            FieldEncoder.encode(retryAfterMillis, out);
+            FieldEncoder.encode(message, out);
+        } catch (final IOException ex) {
+            // Nothing is sent until streaming is allowed, so a short response does not throw
+            Log.warning(ex);
+        }
+    }
+
+    /**
+     * Replaces any partly-encoded response with a failure response (the failure code's result code, then the failure
+     * code and message).  If part of a streamed response has already been
+     * sent, it cannot be replaced; the rest is discarded so the client sees fewer rows than the response announced.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @param failure  the failure code
+     * @param message  the error message
+     */
+    private static void writeFailure(final EApiOperation op, final ApiExchange exchange, final EFailureCode failure,
+                                     final String message) {
+
+        final ResponseWriter out = exchange.response;
+        out.rewind();
+
+        if (out.isCommitted()) {
+            Log.warning("Response to '", op, "' failed after it was partly sent: ", message);
+        } else {
+            try {
+                FieldEncoder.encode(failure.resultCode.code, out);
+                if (op == EApiOperation.ALL_TABLES || op == EApiOperation.TABLE) {
+                    FieldEncoder.encode(exchange.flags, out);
+                }
+                FieldEncoder.encode(failure.code, out);
+                FieldEncoder.encode(message == null ? failure.name() : message, out);
+            } catch (final IOException ex) {
+                // Nothing is sent until streaming is allowed, so a short failure response does not throw
+                Log.warning(ex);
+            }
+        }
+    }
+}
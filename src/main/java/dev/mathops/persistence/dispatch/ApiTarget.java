@@ -0,0 +1,74 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of one (schema, context, table) target of an API request, filled in as the request passes through the
+ * pipeline stages.  Most operations have a single target; "insert_multi" may have several.  Instances are reused from
+ * request to request.
+ */
+final class ApiTarget {
+
+    /** The schema ID. */
+    int schemaId;
+
+    /** The context ID (-1 for operations that do not name a context). */
+    int contextId;
+
+    /** The table ID. */
+    int tableId;
+
+    /** The table. */
+    Table table;
+
+    /** The context name. */
+    String contextName;
+
+    /** The implementation that will perform the operation. */
+    IImplementation implementation;
+
+    /** The selection criteria ({@code null} if none). */
+    SelectionCriteria criteria;
+
+    /** The updated values ({@code null} if none). */
+    UpdatedValues values;
+
+    /** Rows decoded from the request (for inserts) or returned by the implementation (for queries). */
+    final List<Row> rows;
+
+    /** The numeric result of the operation (count, or number of rows affected). */
+    long result;
+
+    /**
+     * Constructs a new {@code ApiTarget}.
+     */
+    ApiTarget() {
+
+        this.rows = new ArrayList<>(50);
+        clear();
+    }
+
+    /**
+     * Clears the target for reuse.
+     */
+    void clear() {
+
+        this.schemaId = -1;
+        this.contextId = -1;
+        this.tableId = -1;
+        this.table = null;
+        this.contextName = null;
+        this.implementation = null;
+        this.criteria = null;
+        this.values = null;
+        this.rows.clear();
+        this.result = 0L;
+    }
+}
@@ -0,0 +1,383 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.IImplementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The catalog of schemas, contexts, and tables that the API exposes, with the integer IDs clients use to refer to them,
+ * and the implementation bound to each (schema, context) pair.
+ *
+ * <p>
+ * Schema IDs are assigned in order of schema name, and table IDs in the order tables are listed for each schema.
+ * Schemas and tables added when the table list is reloaded get the next free IDs.  Context IDs are global, assigned in
+ * the order contexts are first bound.  No ID is reassigned while the server runs (a removed table leaves an empty
+ * slot), so IDs clients have cached stay valid when the configuration changes.
+ *
+ * <p>
+ * The catalog publishes its routing as an immutable {@code RoutingTable}.  Changing bindings (one at a time during
+ * initialization, or all at once when the data configuration is reloaded) or the table list builds a new snapshot and
+ * swaps it in with a single volatile write; requests in progress keep using the snapshot they started with.  Each table
+ * in a snapshot has a revision, which changes only when that table's definition or the bindings of its schema change,
+ * so state derived from unaffected tables (such as cached responses) survives a reload.
+ */
+public final class Catalog {
+
+    /** The context names, indexed by context ID (only modified while holding the catalog's lock). */
+    private final List<String> contextNames;
+
+    /** The next cache slot to assign to a new table position (only modified while holding the catalog's lock). */
+    private int nextSlot;
+
+    /** The current routing snapshot. */
+    private volatile RoutingTable routes;
+
+    /**
+     * Constructs a new {@code Catalog} with no contexts.
+     *
+     * @param allTables the tables to expose
+     */
+    public Catalog(final List<Table> allTables) {
+
+        final Map<String, List<Table>> bySchema = new TreeMap<>();
+        for (final Table table : allTables) {
+            bySchema.computeIfAbsent(table.getSchema(), s -> new ArrayList<>(20)).add(table);
+        }
+
+        final int numSchemas = bySchema.size();
+        final String[] schemaNames = new String[numSchemas];
+        final Table[][] tables = new Table[numSchemas][];
+        final long[][] revisions = new long[numSchemas][];
+        final int[][] slots = new int[numSchemas][];
+
+        int schemaId = 0;
+        for (final Map.Entry<String, List<Table>> entry : bySchema.entrySet()) {
+            schemaNames[schemaId] = entry.getKey();
+            tables[schemaId] = entry.getValue().toArray(new Table[0]);
+            final int numTables = tables[schemaId].length;
+            revisions[schemaId] = new long[numTables];
+            slots[schemaId] = new int[numTables];
+            for (int i = 0; i < numTables; ++i) {
+                slots[schemaId][i] = this.nextSlot;
+                ++this.nextSlot;
+            }
+            ++schemaId;
+        }
+
+        this.contextNames = new ArrayList<>(10);
+        this.routes = new RoutingTable(0L, schemaNames, tables, new String[0], new IImplementation[numSchemas][0],
+                revisions, slots, this.nextSlot);
+    }
+
+    /**
+     * Gets the current routing snapshot.  A request should call this once and use the result throughout.
+     *
+     * @return the routing snapshot
+     */
+    public RoutingTable getRoutes() {
+
+        return this.routes;
+    }
+
+    /**
+     * Binds an implementation to a schema and context, keeping all other bindings.
+     *
+     * @param schemaName  the schema name
+     * @param contextName the context name (a new context ID is assigned if this context has not been seen)
+     * @param impl        the implementation
+     * @throws IllegalArgumentException if the schema is not in the catalog
+     */
+    public synchronized void bind(final String schemaName, final String contextName, final IImplementation impl) {
+
+        final RoutingTable current = this.routes;
+
+        final int schemaId = current.getSchemaId(schemaName);
+        if (schemaId < 0) {
+            throw new IllegalArgumentException("Unknown schema");
+        }
+
+        final int contextId = contextId(contextName);
+        final IImplementation[][] newImplementations = copyImplementations(current, current.getNumSchemas());
+        newImplementations[schemaId][contextId] = impl;
+
+        publish(current, schemaNames(current), tables(current), newImplementations);
+    }
+
+    /**
+     * Replaces all bindings at once, as when the data configuration is reloaded.  Contexts that are no longer bound
+     * keep their IDs, with no implementation.
+     *
+     * @param bindings a map from schema name to a map from context name to the implementation
+     * @throws IllegalArgumentException if a schema is not in the catalog (in which case no bindings change)
+     */
+    public synchronized void rebind(final Map<String, ? extends Map<String, ? extends IImplementation>> bindings) {
+
+        final RoutingTable current = this.routes;
+
+        for (final String schemaName : bindings.keySet()) {
+            if (current.getSchemaId(schemaName) < 0) {
+                throw new IllegalArgumentException("Unknown schema");
+            }
+        }
+
+        for (final Map<String, ? extends IImplementation> contexts : bindings.values()) {
+            for (final String contextName : contexts.keySet()) {
+                contextId(contextName);
+            }
+        }
+
+        final int numContexts = this.contextNames.size();
+        final IImplementation[][] newImplementations = new IImplementation[current.getNumSchemas()][numContexts];
+        for (final Map.Entry<String, ? extends Map<String, ? extends IImplementation>> schema : bindings.entrySet()) {
+            final IImplementation[] row = newImplementations[current.getSchemaId(schema.getKey())];
+            for (final Map.Entry<String, ? extends IImplementation> context : schema.getValue().entrySet()) {
+                row[this.contextNames.indexOf(context.getKey())] = context.getValue();
+            }
+        }
+
+        publish(current, schemaNames(current), tables(current), newImplementations);
+    }
+
+    /**
+     * Replaces the table list, as when the schema configuration is reloaded.  A table keeps its ID if its schema and
+     * name are unchanged; new tables and schemas get the next free IDs, and the IDs of removed tables are left empty
+     * (a table that is removed and later restored gets a new ID).  Table objects are compared by identity: a table
+     * that is the same object as before is treated as unchanged.
+     *
+     * @param allTables the tables to expose
+     */
+    public synchronized void setTables(final List<Table> allTables) {
+
+        final RoutingTable current = this.routes;
+
+        final Map<String, Map<String, Table>> bySchema = new TreeMap<>();
+        for (final Table table : allTables) {
+            bySchema.computeIfAbsent(table.getSchema(), s -> new LinkedHashMap<>(20)).put(table.getName(), table);
+        }
+
+        final List<String> newSchemaNames = new ArrayList<>(Arrays.asList(schemaNames(current)));
+        for (final String schemaName : bySchema.keySet()) {
+            if (current.getSchemaId(schemaName) < 0) {
+                newSchemaNames.add(schemaName);
+            }
+        }
+
+        final int numSchemas = newSchemaNames.size();
+        final Table[][] newTables = new Table[numSchemas][];
+        for (int i = 0; i < numSchemas; ++i) {
+            final Map<String, Table> listed = bySchema.getOrDefault(newSchemaNames.get(i), new LinkedHashMap<>(0));
+            final List<Table> row = new ArrayList<>(listed.size());
+
+            final int oldCount = i < current.getNumSchemas() ? current.getNumTables(i) : 0;
+            for (int j = 0; j < oldCount; ++j) {
+                final Table old = current.getTable(i, j);
+                row.add(old == null ? null : listed.remove(old.getName()));
+            }
+            row.addAll(listed.values());
+
+            newTables[i] = row.toArray(new Table[0]);
+        }
+
+        final IImplementation[][] newImplementations = copyImplementations(current, numSchemas);
+
+        publish(current, newSchemaNames.toArray(new String[0]), newTables, newImplementations);
+    }
+
+    /**
+     * Gets the ID of a context, assigning a new ID if the context has not been seen.  Called while holding the
+     * catalog's lock.
+     *
+     * @param contextName the context name
+     * @return the context ID
+     */
+    private int contextId(final String contextName) {
+
+        int result = this.contextNames.indexOf(contextName);
+
+        if (result < 0) {
+            result = this.contextNames.size();
+            this.contextNames.add(contextName);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the schema names from a snapshot.
+     *
+     * @param current the snapshot
+     * @return the schema names, indexed by schema ID
+     */
+    private static String[] schemaNames(final RoutingTable current) {
+
+        final int numSchemas = current.getNumSchemas();
+        final String[] result = new String[numSchemas];
+
+        for (int i = 0; i < numSchemas; ++i) {
+            result[i] = current.getSchemaName(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the tables from a snapshot.
+     *
+     * @param current the snapshot
+     * @return the tables, indexed by schema ID then table ID
+     */
+    private static Table[][] tables(final RoutingTable current) {
+
+        final int numSchemas = current.getNumSchemas();
+        final Table[][] result = new Table[numSchemas][];
+
+        for (int i = 0; i < numSchemas; ++i) {
+            final int numTables = current.getNumTables(i);
+            result[i] = new Table[numTables];
+            for (int j = 0; j < numTables; ++j) {
+                result[i][j] = current.getTable(i, j);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies the bindings from a snapshot into new arrays sized for the current set of contexts.  Called while holding
+     * the catalog's lock.
+     *
+     * @param current    the snapshot
+     * @param numSchemas the number of schemas in the new arrays (at least the number in the snapshot)
+     * @return the implementations, indexed by schema ID then context ID
+     */
+    private IImplementation[][] copyImplementations(final RoutingTable current, final int numSchemas) {
+
+        final int numContexts = this.contextNames.size();
+        final IImplementation[][] result = new IImplementation[numSchemas][numContexts];
+
+        for (int i = 0; i < numSchemas; ++i) {
+            for (int j = 0; j < numContexts; ++j) {
+                result[i][j] = current.getImplementation(i, j);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Publishes a new routing snapshot.  A table keeps its revision if it is the same object as before and the bindings
+     * of its schema are unchanged; otherwise its revision becomes the new snapshot's version.  Called while holding the
+     * catalog's lock.
+     *
+     * @param current            the current snapshot
+     * @param newSchemaNames     the schema names, indexed by schema ID (a superset of those in {@code current})
+     * @param newTables          the tables, indexed by schema ID then table ID
+     * @param newImplementations the implementations, indexed by schema ID then context ID
+     */
+    private void publish(final RoutingTable current, final String[] newSchemaNames, final Table[][] newTables,
+                         final IImplementation[][] newImplementations) {
+
+        final long version = current.version + 1L;
+        final int numSchemas = newSchemaNames.length;
+        final long[][] revisions = new long[numSchemas][];
+        final int[][] slots = new int[numSchemas][];
+
+        for (int i = 0; i < numSchemas; ++i) {
+            final boolean oldSchema = i < current.getNumSchemas();
+            final boolean sameBindings = oldSchema && isSameBindings(current, i, newImplementations[i]);
+            final int oldCount = oldSchema ? current.getNumTables(i) : 0;
+            final int numTables = newTables[i].length;
+
+            revisions[i] = new long[numTables];
+            slots[i] = new int[numTables];
+
+            for (int j = 0; j < numTables; ++j) {
+                if (j < oldCount) {
+                    slots[i][j] = current.getSlot(i, j);
+                    final boolean same = sameBindings && newTables[i][j] == current.getTable(i, j);
+                    revisions[i][j] = same ? current.getRevision(i, j) : version;
+                } else {
+                    slots[i][j] = this.nextSlot;
+                    ++this.nextSlot;
+                    revisions[i][j] = version;
+                }
+            }
+        }
+
+        final String[] names = this.contextNames.toArray(new String[0]);
+
+        this.routes = new RoutingTable(version, newSchemaNames, newTables, names, newImplementations, revisions, slots,
+                this.nextSlot);
+    }
+
+    /**
+     * Tests whether the bindings of a schema in a new set of implementations are the same as in a snapshot.
+     *
+     * @param current  the snapshot
+     * @param schemaId the schema ID
+     * @param newRow   the new implementations for the schema, indexed by context ID
+     * @return true if every context is bound to the same implementation object
+     */
+    private static boolean isSameBindings(final RoutingTable current, final int schemaId,
+                                          final IImplementation[] newRow) {
+
+        boolean same = true;
+
+        final int numContexts = Math.max(newRow.length, current.getNumContexts());
+        for (int j = 0; same && j < numContexts; ++j) {
+            final IImplementation impl = j < newRow.length ? newRow[j] : null;
+            same = impl == current.getImplementation(schemaId, j);
+        }
+
+        return same;
+    }
+
+    /**
+     * Gets the number of schemas.
+     *
+     * @return the number of schemas
+     */
+    public int getNumSchemas() {
+
+        return this.routes.getNumSchemas();
+    }
+
+    /**
+     * Gets the ID of a schema.
+     *
+     * @param schemaName the schema name
+     * @return the schema ID; -1 if not found
+     */
+    public int getSchemaId(final String schemaName) {
+
+        return this.routes.getSchemaId(schemaName);
+    }
+
+    /**
+     * Gets the name of a schema.
+     *
+     * @param schemaId the schema ID
+     * @return the schema name
+     */
+    public String getSchemaName(final int schemaId) {
+
+        return this.routes.getSchemaName(schemaId);
+    }
+
+    /**
+     * Gets the number of tables in a schema.
+     *
+     * @param schemaId the schema ID
+     * @return the number of tables
+     */
+    public int getNumTables(final int schemaId) {
+
+        return this.routes.getNumTables(schemaId);
+    }
+}
@@ -0,0 +1,210 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable index of rows that each cover a range of dates (such as terms, or the weeks of a term), which finds the
+ * row that contains a date by binary search.
+ *
+ * <p>
+ * The first and last days of each row's range are held as epoch days in sorted parallel arrays, so a lookup is a
+ * binary search on the start days followed by one comparison with the end day, with no boxing or date arithmetic.  The
+ * ranges are expected not to overlap (the term and week tables require this); where they do, only the range that starts
+ * last on or before a date is checked.
+ */
+public final class DateIntervalIndex {
+
+    /** An index with no rows. */
+    public static final DateIntervalIndex EMPTY = new DateIntervalIndex(new Row[0], new long[0], new long[0]);
+
+    /** The rows, in order of start date. */
+    private final Row[] rows;
+
+    /** The first day of each row's range (epoch day). */
+    private final long[] startDays;
+
+    /** The last day of each row's range (epoch day). */
+    private final long[] endDays;
+
+    /**
+     * Constructs a new {@code DateIntervalIndex}.  The arrays are not copied; the caller must not modify them
+     * afterward.
+     *
+     * @param theRows      the rows, in order of start date
+     * @param theStartDays the first day of each row's range
+     * @param theEndDays   the last day of each row's range
+     */
+    private DateIntervalIndex(final Row[] theRows, final long[] theStartDays, final long[] theEndDays) {
+
+        this.rows = theRows;
+        this.startDays = theStartDays;
+        this.endDays = theEndDays;
+    }
+
+    /**
+     * Builds an index.  Rows whose start or end field does not hold a date, or whose end date is before their start
+     * date, are left out.
+     *
+     * @param source     the rows
+     * @param startField the index of the field that holds the first day of each row's range
+     * @param endField   the index of the field that holds the last day of each row's range
+     * @return the index
+     */
+    public static DateIntervalIndex build(final List<Row> source, final int startField, final int endField) {
+
+        final List<Row> valid = new ArrayList<>(source.size());
+        for (final Row row : source) {
+            if (row.getFieldValue(startField) instanceof final LocalDate start
+                && row.getFieldValue(endField) instanceof final LocalDate end && !end.isBefore(start)) {
+                valid.add(row);
+            }
+        }
+        valid.sort((row1, row2) -> ((LocalDate) row1.getFieldValue(startField)).compareTo(
+                (LocalDate) row2.getFieldValue(startField)));
+
+        final int numRows = valid.size();
+        final Row[] rows = valid.toArray(new Row[numRows]);
+        final long[] starts = new long[numRows];
+        final long[] ends = new long[numRows];
+        for (int i = 0; i < numRows; ++i) {
+            starts[i] = ((LocalDate) rows[i].getFieldValue(startField)).toEpochDay();
+            ends[i] = ((LocalDate) rows[i].getFieldValue(endField)).toEpochDay();
+        }
+
+        return new DateIntervalIndex(rows, starts, ends);
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+
+        return this.rows.length;
+    }
+
+    /**
+     * Gets a row by position.
+     *
+     * @param pos the position, in order of start date
+     * @return the row
+     */
+    public Row get(final int pos) {
+
+        return this.rows[pos];
+    }
+
+    /**
+     * Gets the first day of a row's range.
+     *
+     * @param pos the position, in order of start date
+     * @return the epoch day
+     */
+    public long getStartDay(final int pos) {
+
+        return this.startDays[pos];
+    }
+
+    /**
+     * Gets the last day of a row's range.
+     *
+     * @param pos the position, in order of start date
+     * @return the epoch day
+     */
+    public long getEndDay(final int pos) {
+
+        return this.endDays[pos];
+    }
+
+    /**
+     * Finds the position of the first row whose range starts after a day.
+     *
+     * @param day the epoch day
+     * @return the position; {@code size()} if no row starts after the day
+     */
+    private int firstStartAfter(final long day) {
+
+        int low = 0;
+        int high = this.startDays.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (this.startDays[mid] > day) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the position of the row whose range contains a day.
+     *
+     * @param day the epoch day
+     * @return the position; -1 if no row contains the day
+     */
+    public int positionOf(final long day) {
+
+        final int pos = firstStartAfter(day) - 1;
+
+        return pos >= 0 && day <= this.endDays[pos] ? pos : -1;
+    }
+
+    /**
+     * Finds the position of the first row whose range starts after a day.
+     *
+     * @param day the epoch day
+     * @return the position; -1 if no row starts after the day
+     */
+    public int positionAfter(final long day) {
+
+        final int pos = firstStartAfter(day);
+
+        return pos < this.startDays.length ? pos : -1;
+    }
+
+    /**
+     * Finds the row whose range contains a date.
+     *
+     * @param date the date
+     * @return the row; {@code null} if no row contains the date
+     */
+    public Row find(final LocalDate date) {
+
+        final int pos = positionOf(date.toEpochDay());
+
+        return pos < 0 ? null : this.rows[pos];
+    }
+
+    /**
+     * Tests whether this index holds the same ranges as another, in the same order.
+     *
+     * @param other the other index
+     * @return true if the ranges are the same
+     */
+    public boolean sameRanges(final DateIntervalIndex other) {
+
+        return Arrays.equals(this.startDays, other.startDays) && Arrays.equals(this.endDays, other.endDays);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String sizeStr = Integer.toString(this.rows.length);
+
+        return SimpleBuilder.concat("DateIntervalIndex{size=", sizeStr, "}");
+    }
+}
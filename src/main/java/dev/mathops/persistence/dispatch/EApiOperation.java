@@ -0,0 +1,92 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.persistence.config.EOperation;
+
+/**
+ * The operations supported by the binary API.
+ */
+public enum EApiOperation {
+
+    /** Retrieves the set of defined contexts. */
+    ALL_CONTEXTS("all_contexts", null, true),
+
+    /** Retrieves the set of defined schemas. */
+    ALL_SCHEMAS("all_schemas", null, true),
+
+    /** Retrieves the set of defined tables. */
+    ALL_TABLES("all_tables", null, true),
+
+    /** Retrieves the definition of a single table. */
+    TABLE("table", null, true),
+
+    /** Counts rows that match criteria. */
+    COUNT("count", EOperation.COUNT, true),
+
+    /** Queries rows that match criteria. */
+    QUERY("query", EOperation.QUERY, true),
+
+    /** Inserts rows into a table. */
+    INSERT("insert", EOperation.INSERT, false),
+
+    /** Inserts rows into several tables. */
+    INSERT_MULTI("insert_multi", EOperation.INSERT, false),
+
+    /** Deletes rows that match criteria. */
+    DELETE("delete", EOperation.DELETE, false),
+
+    /** Updates rows that match criteria. */
+    UPDATE("update", EOperation.UPDATE, false),
+
+    /** Registers a count or query operation for repeated execution (permission depends on the operation). */
+    PREPARE("prepare", null, false),
+
+    /** Executes a prepared operation (permission depends on the operation). */
+    EXECUTE_PREPARED("execute_prepared", null, true),
+
+    /** Finds the term that contains a date. */
+    TERM_FOR_DATE("term_for_date", EOperation.QUERY, true),
+
+    /** Finds the term, and the week within the term, that contains a date. */
+    WEEK_FOR_DATE("week_for_date", EOperation.QUERY, true);
+
+    /** The operation name (the last component of the endpoint path). */
+    public final String name;
+
+    /**
+     * The table operation that must be permitted on each target table ({@code null} for catalog operations, and for
+     * prepared operations, which take the permission of the operation being prepared).
+     */
+    public final EOperation permission;
+
+    /**
+     * True if the operation is idempotent: performing it more than once has the same effect and response as performing
+     * it once, so a client may retry it even if an earlier attempt may have executed.  Deletes and updates change
+     * their row counts when repeated, so they are not treated as idempotent.
+     */
+    public final boolean idempotent;
+
+    /**
+     * Constructs a new {@code EApiOperation}.
+     *
+     * @param theName       the operation name
+     * @param thePermission the table operation that must be permitted on each target table
+     * @param theIdempotent true if the operation is idempotent
+     */
+    EApiOperation(final String theName, final EOperation thePermission, final boolean theIdempotent) {
+
+        this.name = theName;
+        this.permission = thePermission;
+        this.idempotent = theIdempotent;
+    }
+
+    /**
+     * Generates a string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return this.name;
+    }
+}
@@ -0,0 +1,25 @@
+package dev.mathops.persistence.dispatch;
+
+/**
+ * The stages through which every API request passes, in order.
+ */
+public enum EStage {
+
+    /** Decode the request body and resolve schema, context, and table IDs. */
+    DECODE,
+
+    /** Validate the authorization token and check table permissions. */
+    AUTHORIZE,
+
+    /** Wait for admission under the concurrency limits for the operation and role. */
+    ADMIT,
+
+    /** Select the implementation for each target schema and context. */
+    ROUTE,
+
+    /** Perform the operation through the implementation. */
+    EXECUTE,
+
+    /** Encode the response body. */
+    ENCODE
+}
@@ -0,0 +1,29 @@
+package dev.mathops.persistence.dispatch;
+
+/**
+ * The interface through which the pipeline asks whether an authorized request may proceed to execution.  An
+ * implementation limits the number of operations executing at once, and may hold a request in a queue until it can
+ * proceed.
+ */
+public interface IAdmissionControl {
+
+    /**
+     * Requests admission for an operation, waiting if necessary until the deadline.  Every successful admission must be
+     * followed by a call to {@code release}.
+     *
+     * @param op            the operation
+     * @param roleId        the effective role ID of the caller
+     * @param deadlineNanos the {@code System.nanoTime()} value after which the request is no longer worth executing
+     * @return 0 if admitted; otherwise, the suggested delay before retrying, in milliseconds
+     */
+    long admit(EApiOperation op, int roleId, long deadlineNanos);
+
+    /**
+     * Releases an admission when the operation has finished executing.
+     *
+     * @param op           the operation
+     * @param roleId       the effective role ID of the caller
+     * @param latencyNanos the time the operation took to execute (nanoseconds)
+     */
+    void release(EApiOperation op, int roleId, long latencyNanos);
+}
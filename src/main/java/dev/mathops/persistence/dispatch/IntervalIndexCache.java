@@ -0,0 +1,140 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.term.TermFields;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.schema.term.TermWeekTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The date interval indexes (see {@code DateIntervalIndex}) the pipeline keeps for the tables whose rows cover ranges
+ * of dates: the "term" table, and the "term_week" table in each term's context.  These answer "which term (or week)
+ * contains this date" from memory rather than with a range query.
+ *
+ * <p>
+ * An index is built from all the rows of its table the first time it is needed in a context, and discarded whenever
+ * the table is written in that context, so the next lookup builds it again.  The pipeline invalidates indexes before
+ * and after each write, as it does cached responses.  A generation number, incremented by every invalidation, keeps an
+ * index built from rows read while a write was in progress from being kept.
+ */
+final class IntervalIndexCache {
+
+    /** The indexes, by table and context. */
+    private final Map<Key, DateIntervalIndex> indexes;
+
+    /** The generation, incremented each time an index is invalidated. */
+    private final AtomicLong generation;
+
+    /**
+     * Constructs a new {@code IntervalIndexCache}.
+     */
+    IntervalIndexCache() {
+
+        this.indexes = new ConcurrentHashMap<>(16);
+        this.generation = new AtomicLong();
+    }
+
+    /**
+     * Tests whether a table has a date interval index.
+     *
+     * @param table the table
+     * @return true if the table is indexed
+     */
+    static boolean isIndexed(final Table table) {
+
+        return table == TermTable.INSTANCE || table == TermWeekTable.INSTANCE;
+    }
+
+    /**
+     * Gets the ID of a "term" row.
+     *
+     * @param term the "term" row
+     * @return the term ID; -1 if the row has no term ID
+     */
+    static int termId(final Row term) {
+
+        return term.getFieldValue(TermFields.TERM) instanceof final Integer termId ? termId.intValue() : -1;
+    }
+
+    /**
+     * Gets the index of an indexed table in a context, building it if needed.
+     *
+     * @param table   the table ({@code TermTable.INSTANCE} or {@code TermWeekTable.INSTANCE})
+     * @param impl    the implementation bound to the table's schema and the context
+     * @param context the context name
+     * @return the index
+     * @throws PersistenceException if the table could not be read
+     */
+    DateIntervalIndex get(final Table table, final IImplementation impl, final String context)
+            throws PersistenceException {
+
+        final Key key = new Key(table, context);
+        DateIntervalIndex result = this.indexes.get(key);
+
+        if (result == null) {
+            final long gen = this.generation.get();
+            final List<Row> rows = new ArrayList<>(50);
+            impl.query(context, table, null, rows);
+            result = table == TermTable.INSTANCE
+                    ? DateIntervalIndex.build(rows, TermFields.TERM_START_DATE, TermFields.TERM_END_DATE)
+                    : DateIntervalIndex.build(rows, TermFields.WEEK_START_DATE, TermFields.WEEK_END_DATE);
+
+            if (this.generation.get() == gen) {
+                this.indexes.put(key, result);
+                // An invalidation between the check and the put may have run before the put
+                if (this.generation.get() != gen) {
+                    this.indexes.remove(key, result);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards the indexes of a table.  This is called before and after each write to the table.
+     *
+     * @param table   the table (ignored if not indexed)
+     * @param context the context written; {@code null} to discard the table's indexes in all contexts
+     */
+    void invalidate(final Table table, final String context) {
+
+        if (isIndexed(table)) {
+            this.generation.incrementAndGet();
+            if (context == null) {
+                this.indexes.keySet().removeIf(key -> key.table() == table);
+            } else {
+                this.indexes.remove(new Key(table, context));
+            }
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("IntervalIndexCache{indexes=", this.indexes.keySet(), "}");
+    }
+
+    /**
+     * The key of an index.
+     *
+     * @param table   the table
+     * @param context the context name
+     */
+    private record Key(Table table, String context) {
+    }
+}
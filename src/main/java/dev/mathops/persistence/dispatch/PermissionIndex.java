@@ -0,0 +1,90 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.config.PermissionMatrix;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.Arrays;
+
+/**
+ * The permission matrix's table IDs, indexed by routing table slot, so checking a target's permissions is a few array
+ * loads rather than a lookup by schema and table name.
+ *
+ * <p>
+ * Table IDs are assigned per matrix and slots per routing snapshot, so an index is built for one matrix and one
+ * snapshot.  The pipeline keeps the most recent index and builds a new one when either has been replaced.
+ */
+final class PermissionIndex {
+
+    /** The matrix whose table IDs the index holds. */
+    private final PermissionMatrix matrix;
+
+    /** The routing snapshot whose slots the index is keyed on. */
+    private final RoutingTable routes;
+
+    /** The matrix table ID for each slot (-1 where the matrix grants nothing specific to the table). */
+    private final int[] matrixTableIds;
+
+    /**
+     * Constructs a new {@code PermissionIndex}.
+     *
+     * @param theMatrix the matrix whose table IDs to index
+     * @param theRoutes the routing snapshot whose slots to key on
+     */
+    PermissionIndex(final PermissionMatrix theMatrix, final RoutingTable theRoutes) {
+
+        this.matrix = theMatrix;
+        this.routes = theRoutes;
+        this.matrixTableIds = new int[theRoutes.getNumSlots()];
+        Arrays.fill(this.matrixTableIds, -1);
+
+        final int numSchemas = theRoutes.getNumSchemas();
+        for (int schemaId = 0; schemaId < numSchemas; ++schemaId) {
+            final int numTables = theRoutes.getNumTables(schemaId);
+            for (int tableId = 0; tableId < numTables; ++tableId) {
+                final Table table = theRoutes.getTable(schemaId, tableId);
+                if (table != null) {
+                    final int slot = theRoutes.getSlot(schemaId, tableId);
+                    this.matrixTableIds[slot] = theMatrix.getTableId(table.getSchema(), table.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests whether this index was built for a matrix and routing snapshot.
+     *
+     * @param theMatrix the matrix
+     * @param theRoutes the routing snapshot
+     * @return true if the index applies to both
+     */
+    boolean isFor(final PermissionMatrix theMatrix, final RoutingTable theRoutes) {
+
+        return this.matrix == theMatrix && this.routes == theRoutes;
+    }
+
+    /**
+     * Gets the matrix table ID of a table position in the routing snapshot.
+     *
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     * @return the matrix table ID; -1 if the matrix grants nothing specific to the table
+     */
+    int getMatrixTableId(final int schemaId, final int tableId) {
+
+        return this.matrixTableIds[this.routes.getSlot(schemaId, tableId)];
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String numSlotsStr = Integer.toString(this.matrixTableIds.length);
+
+        return SimpleBuilder.concat("PermissionIndex{numSlots=", numSlotsStr, "}");
+    }
+}
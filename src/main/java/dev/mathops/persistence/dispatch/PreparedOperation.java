@@ -0,0 +1,216 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.FieldDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A count or query operation registered by a "prepare" request.  The template fixes the target table and context, the
+ * fields and match types of the selection criteria, the number of values each criterion takes, and (for queries) the
+ * fields to return.  An "execute_prepared" request then supplies only the criterion values.
+ *
+ * <p>
+ * The template also holds whatever state the implementation returned from {@code prepare}.  If the catalog binds a
+ * different implementation to the schema and context, the operation is prepared again with the new implementation on
+ * its next execution.
+ */
+final class PreparedOperation {
+
+    /** The operation (COUNT or QUERY). */
+    final EApiOperation operation;
+
+    /** The schema ID. */
+    final int schemaId;
+
+    /** The context ID. */
+    final int contextId;
+
+    /** The table ID. */
+    final int tableId;
+
+    /** The table. */
+    final Table table;
+
+    /** The context name. */
+    final String contextName;
+
+    /** The indexes of the fields to return from a query, in increasing order ({@code null} for all fields). */
+    final int[] projection;
+
+    /** The field of each criterion. */
+    private final Field[] fields;
+
+    /** The match type of each criterion. */
+    private final ENumericMatchType[] matchTypes;
+
+    /** The number of values each criterion takes. */
+    private final int[] arities;
+
+    /** The total number of values an execution must supply. */
+    private final int numParameters;
+
+    /** The implementation for which the operation was last prepared. */
+    private IImplementation implementation;
+
+    /** The state returned by the implementation's {@code prepare} method. */
+    private Object backendState;
+
+    /** The {@code System.nanoTime()} value when the operation was last executed. */
+    private volatile long lastUsed;
+
+    /**
+     * Constructs a new {@code PreparedOperation}.
+     *
+     * @param theOperation   the operation (COUNT or QUERY)
+     * @param theTarget      the decoded target of the "prepare" request
+     * @param theFields      the field of each criterion
+     * @param theMatchTypes  the match type of each criterion
+     * @param theArities     the number of values each criterion takes
+     * @param theProjection  the indexes of the fields to return from a query ({@code null} for all fields)
+     */
+    PreparedOperation(final EApiOperation theOperation, final ApiTarget theTarget, final Field[] theFields,
+                      final ENumericMatchType[] theMatchTypes, final int[] theArities, final int[] theProjection) {
+
+        this.operation = theOperation;
+        this.schemaId = theTarget.schemaId;
+        this.contextId = theTarget.contextId;
+        this.tableId = theTarget.tableId;
+        this.table = theTarget.table;
+        this.contextName = theTarget.contextName;
+        this.fields = theFields;
+        this.matchTypes = theMatchTypes;
+        this.arities = theArities;
+        this.projection = theProjection;
+
+        int total = 0;
+        for (final int arity : theArities) {
+            total += arity;
+        }
+        this.numParameters = total;
+        this.lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Gets the {@code System.nanoTime()} value when the operation was last executed.
+     *
+     * @return the time of last use
+     */
+    long getLastUsed() {
+
+        return this.lastUsed;
+    }
+
+    /**
+     * Fills in a target from the template.
+     *
+     * @param target the target
+     */
+    void fillTarget(final ApiTarget target) {
+
+        target.schemaId = this.schemaId;
+        target.contextId = this.contextId;
+        target.tableId = this.tableId;
+        target.table = this.table;
+        target.contextName = this.contextName;
+    }
+
+    /**
+     * Builds selection criteria with the template's shape and placeholder values, to pass to an implementation's
+     * {@code prepare} method.
+     *
+     * @return the selection criteria
+     */
+    SelectionCriteria shape() {
+
+        final Integer zero = Integer.valueOf(0);
+
+        final int numCriteria = this.fields.length;
+        final AbstractFieldCriterion[] criteria = new AbstractFieldCriterion[numCriteria];
+        for (int i = 0; i < numCriteria; ++i) {
+            final Integer[] values = new Integer[this.arities[i]];
+            Arrays.fill(values, zero);
+            criteria[i] = new IntegerFieldCriterion(this.fields[i], this.matchTypes[i], values);
+        }
+
+        return new SelectionCriteria(this.table, criteria);
+    }
+
+    /**
+     * Reads the criterion values for one execution and builds the selection criteria.
+     *
+     * @param in the input stream positioned at the first value
+     * @return the selection criteria
+     * @throws IllegalArgumentException if the values could not be decoded
+     * @throws IOException              if the stream could not be read
+     */
+    SelectionCriteria bind(final InputStream in) throws IllegalArgumentException, IOException {
+
+        if (in.available() < this.numParameters) {
+            throw new IllegalArgumentException("Too few parameter values");
+        }
+
+        final int numCriteria = this.fields.length;
+        final AbstractFieldCriterion[] criteria = new AbstractFieldCriterion[numCriteria];
+        for (int i = 0; i < numCriteria; ++i) {
+            final int arity = this.arities[i];
+            final Integer[] values = new Integer[arity];
+            for (int j = 0; j < arity; ++j) {
+                values[j] = Integer.valueOf(FieldDecoder.decodeIntValue(in));
+            }
+            criteria[i] = new IntegerFieldCriterion(this.fields[i], this.matchTypes[i], values);
+        }
+
+        this.lastUsed = System.nanoTime();
+
+        return new SelectionCriteria(this.table, criteria);
+    }
+
+    /**
+     * Gets the implementation state for this operation, preparing the operation if it has not yet been prepared for
+     * the given implementation.
+     *
+     * @param impl the implementation that will perform the operation
+     * @return the implementation state ({@code null} if the implementation keeps none)
+     * @throws PersistenceException if the implementation could not prepare the operation
+     */
+    synchronized Object getBackendState(final IImplementation impl) throws PersistenceException {
+
+        if (impl != this.implementation) {
+            if (this.implementation != null) {
+                this.implementation.release(this.backendState);
+            }
+            this.implementation = null;
+            this.backendState = impl.prepare(this.contextName, this.table, shape());
+            this.implementation = impl;
+        }
+
+        return this.backendState;
+    }
+
+    /**
+     * Releases any implementation state held by the operation.
+     */
+    synchronized void release() {
+
+        if (this.implementation != null) {
+            try {
+                this.implementation.release(this.backendState);
+            } catch (final RuntimeException ex) {
+                Log.warning("Failed to release prepared operation", ex);
+            }
+            this.implementation = null;
+            this.backendState = null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.persistence.site.session.AuthToken;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The prepared operations registered by each authorization token.  Handles are small integers that are only
+ * meaningful together with the token that registered them, so one client cannot execute another's operations.
+ *
+ * <p>
+ * Each token may hold at most {@code MAX_HANDLES_PER_TOKEN} handles.  Tokens whose operations have not been executed
+ * for {@code IDLE_TIMEOUT} are discarded (and their implementation state released) when the registry is swept, which
+ * happens when a new token registers its first operation and the registry has reached {@code SWEEP_THRESHOLD} tokens.
+ */
+final class PreparedRegistry {
+
+    /** The largest number of handles a token may hold. */
+    static final int MAX_HANDLES_PER_TOKEN = 256;
+
+    /** The number of tokens at which new registrations trigger a sweep. */
+    private static final int SWEEP_THRESHOLD = 1000;
+
+    /** The time after which an unused token's handles are discarded (nanoseconds). */
+    private static final long IDLE_TIMEOUT = Duration.ofMinutes(30L).toNanos();
+
+    /** The handles held by each token, keyed on the token's random ID. */
+    private final Map<Long, TokenHandles> handles;
+
+    /** Flag indicating a sweep is in progress (so only one thread sweeps at a time). */
+    private final AtomicBoolean sweeping;
+
+    /**
+     * Constructs a new {@code PreparedRegistry}.
+     */
+    PreparedRegistry() {
+
+        this.handles = new ConcurrentHashMap<>(100);
+        this.sweeping = new AtomicBoolean(false);
+    }
+
+    /**
+     * Registers a prepared operation.
+     *
+     * @param token     the token that prepared the operation
+     * @param operation the operation
+     * @return the handle; -1 if the token already holds the maximum number of handles
+     */
+    int register(final AuthToken token, final PreparedOperation operation) {
+
+        final Long key = Long.valueOf(token.randomId());
+
+        TokenHandles entry = this.handles.get(key);
+        if (entry == null) {
+            if (this.handles.size() >= SWEEP_THRESHOLD) {
+                sweep(System.nanoTime());
+            }
+            entry = this.handles.computeIfAbsent(key, k -> new TokenHandles(token));
+        }
+
+        return entry.token.equals(token) ? entry.add(operation) : -1;
+    }
+
+    /**
+     * Gets a prepared operation.
+     *
+     * @param token  the token presented with the request
+     * @param handle the handle
+     * @return the operation; {@code null} if the token holds no operation with the given handle
+     */
+    PreparedOperation get(final AuthToken token, final int handle) {
+
+        final TokenHandles entry = this.handles.get(Long.valueOf(token.randomId()));
+
+        return entry == null || !entry.token.equals(token) ? null : entry.get(handle);
+    }
+
+    /**
+     * Removes tokens none of whose operations have been executed recently, releasing their implementation state.  If
+     * another thread is already sweeping, this returns immediately.
+     *
+     * @param now the current {@code System.nanoTime()} value
+     */
+    private void sweep(final long now) {
+
+        if (this.sweeping.compareAndSet(false, true)) {
+            try {
+                int numRemoved = 0;
+                final Iterator<TokenHandles> iter = this.handles.values().iterator();
+                while (iter.hasNext()) {
+                    final TokenHandles entry = iter.next();
+                    if (now - entry.getLastUsed() > IDLE_TIMEOUT) {
+                        iter.remove();
+                        entry.releaseAll();
+                        ++numRemoved;
+                    }
+                }
+                if (numRemoved > 0) {
+                    Log.info("Discarded prepared operations for ", Integer.toString(numRemoved), " idle tokens.");
+                }
+            } finally {
+                this.sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * The operations registered by one token.
+     */
+    private static final class TokenHandles {
+
+        /** The token. */
+        final AuthToken token;
+
+        /** The {@code System.nanoTime()} value when the entry was created. */
+        private final long created;
+
+        /** The operations (only the first {@code count} are in use); the index of each is its handle. */
+        private PreparedOperation[] operations;
+
+        /** The number of operations. */
+        private int count;
+
+        /**
+         * Constructs a new {@code TokenHandles}.
+         *
+         * @param theToken the token
+         */
+        TokenHandles(final AuthToken theToken) {
+
+            this.token = theToken;
+            this.created = System.nanoTime();
+            this.operations = new PreparedOperation[8];
+        }
+
+        /**
+         * Adds an operation.
+         *
+         * @param operation the operation
+         * @return the handle; -1 if the token already holds the maximum number of handles
+         */
+        synchronized int add(final PreparedOperation operation) {
+
+            int handle = -1;
+
+            if (this.count < MAX_HANDLES_PER_TOKEN) {
+                if (this.count == this.operations.length) {
+                    this.operations = Arrays.copyOf(this.operations, this.count << 1);
+                }
+                handle = this.count;
+                this.operations[handle] = operation;
+                ++this.count;
+            }
+
+            return handle;
+        }
+
+        /**
+         * Gets an operation.
+         *
+         * @param handle the handle
+         * @return the operation; {@code null} if the handle is not valid
+         */
+        synchronized PreparedOperation get(final int handle) {
+
+            return handle >= 0 && handle < this.count ? this.operations[handle] : null;
+        }
+
+        /**
+         * Gets the {@code System.nanoTime()} value when any of the token's operations was last executed (or when the
+         * entry was created, if later).
+         *
+         * @return the time of last use
+         */
+        synchronized long getLastUsed() {
+
+            long latest = this.created;
+            for (int i = 0; i < this.count; ++i) {
+                final long used = this.operations[i].getLastUsed();
+                if (used - latest > 0L) {
+                    latest = used;
+                }
+            }
+
+            return latest;
+        }
+
+        /**
+         * Releases the implementation state of every operation.
+         */
+        synchronized void releaseAll() {
+
+            for (int i = 0; i < this.count; ++i) {
+                this.operations[i].release();
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package dev.mathops.persistence.dispatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A reusable buffer that holds a complete request body and reads it as an input stream.  Unlike
+ * {@code ByteArrayInputStream}, its methods are not synchronized and its storage is kept between requests.
+ */
+final class RequestBuffer extends InputStream {
+
+    /** The initial buffer size. */
+    private static final int INITIAL_SIZE = 4096;
+
+    /** The largest buffer kept between requests; a larger buffer is released after use. */
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    /** The largest request body accepted. */
+    static final int MAX_REQUEST_SIZE = 64 << 20;
+
+    /** Mask value for a single byte. */
+    private static final int BYTE_MASK = 0xFF;
+
+    /** The data. */
+    private byte[] data;
+
+    /** The number of valid bytes in {@code data}. */
+    private int length;
+
+    /** The read position. */
+    private int pos;
+
+    /** The marked position. */
+    private int mark;
+
+    /**
+     * Constructs a new {@code RequestBuffer}.
+     */
+    RequestBuffer() {
+
+        super();
+
+        this.data = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Discards the current contents and, if the buffer grew very large for the last request, releases it.
+     */
+    void clear() {
+
+        if (this.data.length > MAX_RETAINED_SIZE) {
+            this.data = new byte[INITIAL_SIZE];
+        }
+        this.length = 0;
+        this.pos = 0;
+        this.mark = 0;
+    }
+
+    /**
+     * Reads an entire request body into the buffer, replacing its contents.
+     *
+     * @param in the stream from which to read the body
+     * @return true if the body was read; false if it exceeded the maximum request size
+     * @throws IOException if the stream could not be read
+     */
+    boolean fill(final InputStream in) throws IOException {
+
+        clear();
+
+        boolean ok = true;
+        int count = in.read(this.data, 0, this.data.length);
+        while (count >= 0) {
+            this.length += count;
+            if (this.length == this.data.length) {
+                if (this.length >= MAX_REQUEST_SIZE) {
+                    ok = false;
+                    break;
+                }
+                this.data = Arrays.copyOf(this.data, Math.min(this.length << 1, MAX_REQUEST_SIZE));
+            }
+            count = in.read(this.data, this.length, this.data.length - this.length);
+        }
+
+        return ok;
+    }
+
+    /**
+     * Copies a request body from an array into the buffer, replacing its contents.
+     *
+     * @param source the array holding the body
+     * @param offset the offset of the body in the array
+     * @param count  the length of the body
+     */
+    void fill(final byte[] source, final int offset, final int count) {
+
+        clear();
+
+        if (count > this.data.length) {
+            this.data = new byte[count];
+        }
+        System.arraycopy(source, offset, this.data, 0, count);
+        this.length = count;
+    }
+
+    /**
+     * Gets the underlying array (valid from index 0 up to the number of bytes read).
+     *
+     * @return the array
+     */
+    byte[] array() {
+
+        return this.data;
+    }
+
+    /**
+     * Gets the current read position.
+     *
+     * @return the position
+     */
+    int position() {
+
+        return this.pos;
+    }
+
+    /**
+     * Gets the number of bytes in the body.
+     *
+     * @return the number of bytes
+     */
+    int length() {
+
+        return this.length;
+    }
+
+    /**
+     * Reads the next byte.
+     *
+     * @return the byte (0 to 255); -1 at the end of the body
+     */
+    @Override
+    public int read() {
+
+        return this.pos < this.length ? this.data[this.pos++] & BYTE_MASK : -1;
+    }
+
+    /**
+     * Reads bytes into an array.
+     *
+     * @param b   the array
+     * @param off the offset at which to store the first byte
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read; -1 at the end of the body
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+
+        final int avail = this.length - this.pos;
+
+        final int count;
+        if (avail <= 0) {
+            count = len == 0 ? 0 : -1;
+        } else {
+            count = Math.min(avail, len);
+            System.arraycopy(this.data, this.pos, b, off, count);
+            this.pos += count;
+        }
+
+        return count;
+    }
+
+    /**
+     * Skips bytes.
+     *
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped
+     */
+    @Override
+    public long skip(final long n) {
+
+        final int count = (int) Math.max(0L, Math.min(n, (long) (this.length - this.pos)));
+        this.pos += count;
+
+        return count;
+    }
+
+    /**
+     * Gets the number of unread bytes.
+     *
+     * @return the number of bytes
+     */
+    @Override
+    public int available() {
+
+        return this.length - this.pos;
+    }
+
+    /**
+     * Indicates that mark and reset are supported.
+     *
+     * @return true
+     */
+    @Override
+    public boolean markSupported() {
+
+        return true;
+    }
+
+    /**
+     * Marks the current position.
+     *
+     * @param readLimit ignored, since the whole body is held in memory
+     */
+    @Override
+    public void mark(final int readLimit) {
+
+        this.mark = this.pos;
+    }
+
+    /**
+     * Returns to the marked position.
+     */
+    @Override
+    public void reset() {
+
+        this.pos = this.mark;
+    }
+}
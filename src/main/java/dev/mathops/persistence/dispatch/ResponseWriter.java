@@ -0,0 +1,345 @@
+package dev.mathops.persistence.dispatch;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Assembles a response body as a list of fixed-size segments and writes it to a servlet response.
+ *
+ * <p>
+ * Until the writer is told that the remainder of the response may be sent before it is complete (by calling
+ * {@code allowStreaming}), the whole body is held in segments, so it can still be discarded and replaced (for example,
+ * with a FAILURE response), and it is sent with a Content-Length header when finished.  Once streaming is allowed,
+ * each time {@code BATCH_SEGMENTS} segments fill they are written to the servlet output stream in one pass and
+ * returned to a shared pool, and the container sends the response with chunked transfer encoding.  The heap used by a
+ * large response is then bounded by the batch size rather than the response size.
+ *
+ * <p>
+ * Segments are recycled through a bounded pool shared by all writers.  Writers are not thread-safe.
+ */
+public final class ResponseWriter extends OutputStream {
+
+    /** The size of each segment. */
+    static final int SEGMENT_SIZE = 16 * 1024;
+
+    /** The number of full segments that are written together once streaming is allowed. */
+    private static final int BATCH_SEGMENTS = 4;
+
+    /** The largest number of free segments kept in the pool. */
+    private static final int MAX_POOLED_SEGMENTS = 256;
+
+    /** The pool of free segments. */
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(MAX_POOLED_SEGMENTS);
+
+    /** The servlet response ({@code null} until {@code begin} is called). */
+    private HttpServletResponse target;
+
+    /** The servlet output stream ({@code null} until the first write to the response). */
+    private OutputStream out;
+
+    /** True if segments may be written before the response is complete. */
+    private boolean streaming;
+
+    /** The segments (only the first {@code numSegments} are in use). */
+    private byte[][] segments;
+
+    /** The number of segments in use. */
+    private int numSegments;
+
+    /** The number of bytes used in the last segment. */
+    private int position;
+
+    /** The number of bytes already written to the servlet output stream. */
+    private long sent;
+
+    /**
+     * Constructs a new {@code ResponseWriter}.
+     */
+    public ResponseWriter() {
+
+        super();
+
+        this.segments = new byte[BATCH_SEGMENTS + 1][];
+    }
+
+    /**
+     * Prepares to write a new response, discarding anything from a previous response.  The caller sets the content
+     * type and any other headers on the servlet response.
+     *
+     * @param theTarget the servlet response
+     */
+    public void begin(final HttpServletResponse theTarget) {
+
+        release();
+        this.target = theTarget;
+    }
+
+    /**
+     * Indicates that the content written so far will not be replaced, so the remainder of the response may be sent
+     * in batches as it is written.
+     */
+    public void allowStreaming() {
+
+        this.streaming = true;
+    }
+
+    /**
+     * Tests whether any part of the response has been written to the servlet output stream (after which the response
+     * can no longer be replaced).
+     *
+     * @return true if the response has been committed
+     */
+    public boolean isCommitted() {
+
+        return this.out != null;
+    }
+
+    /**
+     * Gets the total number of bytes written, including bytes already sent.
+     *
+     * @return the number of bytes
+     */
+    public long size() {
+
+        final long buffered = this.numSegments == 0 ? 0L
+                : (long) (this.numSegments - 1) * (long) SEGMENT_SIZE + (long) this.position;
+
+        return this.sent + buffered;
+    }
+
+    /**
+     * Copies the response, if none of it has been sent and it is no larger than a limit.
+     *
+     * @param maxLength the largest response to copy
+     * @return the copy; {@code null} if part of the response has been sent or it is larger than the limit
+     */
+    byte[] copyBuffered(final int maxLength) {
+
+        byte[] result = null;
+
+        final long total = size();
+        if (this.out == null && total <= (long) maxLength) {
+            result = new byte[(int) total];
+            final int last = this.numSegments - 1;
+            for (int i = 0; i < last; ++i) {
+                System.arraycopy(this.segments[i], 0, result, i * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+            if (last >= 0) {
+                System.arraycopy(this.segments[last], 0, result, last * SEGMENT_SIZE, this.position);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards the buffered content so a different response can be written.  This has no effect on content that has
+     * already been sent.
+     */
+    public void rewind() {
+
+        recycleSegments();
+        this.streaming = false;
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param b the byte (low-order 8 bits are used)
+     * @throws IOException if a batch of segments could not be sent
+     */
+    @Override
+    public void write(final int b) throws IOException {
+
+        if (this.numSegments == 0 || this.position == SEGMENT_SIZE) {
+            nextSegment();
+        }
+        this.segments[this.numSegments - 1][this.position] = (byte) b;
+        ++this.position;
+    }
+
+    /**
+     * Writes bytes from an array.
+     *
+     * @param b   the array
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException if a batch of segments could not be sent
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+
+        int offset = off;
+        int remaining = len;
+
+        while (remaining > 0) {
+            if (this.numSegments == 0 || this.position == SEGMENT_SIZE) {
+                nextSegment();
+            }
+            final int count = Math.min(remaining, SEGMENT_SIZE - this.position);
+            System.arraycopy(b, offset, this.segments[this.numSegments - 1], this.position, count);
+            this.position += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a character sequence, encoding directly into segments.  Malformed input is
+     * replaced.
+     *
+     * @param text the character sequence
+     * @throws IOException if a batch of segments could not be sent
+     */
+    public void writeUtf8(final CharSequence text) throws IOException {
+
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.wrap(text);
+
+        boolean flushing = false;
+        CoderResult result = CoderResult.OVERFLOW;
+        while (result.isOverflow()) {
+            if (this.numSegments == 0 || this.position == SEGMENT_SIZE) {
+                nextSegment();
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(this.segments[this.numSegments - 1], this.position,
+                    SEGMENT_SIZE - this.position);
+            result = flushing ? encoder.flush(buffer) : encoder.encode(chars, buffer, true);
+
+            if (result.isOverflow() && buffer.position() == this.position) {
+                // The next character does not fit in the rest of the segment, so encode it separately and let it
+                // span two segments
+                final int start = chars.position();
+                final int end = Character.isHighSurrogate(chars.get(start)) && start + 1 < chars.limit()
+                        ? start + 2 : start + 1;
+                final byte[] bytes = chars.subSequence(0, end - start).toString().getBytes(StandardCharsets.UTF_8);
+                chars.position(end);
+                write(bytes, 0, bytes.length);
+            } else {
+                this.position = buffer.position();
+            }
+
+            if (!flushing && result.isUnderflow()) {
+                flushing = true;
+                result = CoderResult.OVERFLOW;
+            }
+        }
+    }
+
+    /**
+     * Sends any buffered content and completes the response, then returns all segments to the pool.  If nothing has
+     * been sent yet, the response is sent with a Content-Length header.
+     *
+     * @throws IOException if the response could not be written
+     */
+    public void finish() throws IOException {
+
+        try {
+            if (this.out == null) {
+                this.target.setContentLengthLong(size());
+                this.out = this.target.getOutputStream();
+            }
+            final int last = this.numSegments - 1;
+            for (int i = 0; i < last; ++i) {
+                this.out.write(this.segments[i], 0, SEGMENT_SIZE);
+            }
+            if (last >= 0) {
+                this.out.write(this.segments[last], 0, this.position);
+            }
+            this.out.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Writes the buffered content to an output stream other than the servlet response (used to embed a response in a
+     * frame of a multiplexed stream), then returns the segments to the pool.
+     *
+     * @param dest the output stream
+     * @throws IOException if the stream could not be written
+     */
+    void drainTo(final OutputStream dest) throws IOException {
+
+        try {
+            final int last = this.numSegments - 1;
+            for (int i = 0; i < last; ++i) {
+                dest.write(this.segments[i], 0, SEGMENT_SIZE);
+            }
+            if (last >= 0) {
+                dest.write(this.segments[last], 0, this.position);
+            }
+        } finally {
+            recycleSegments();
+        }
+    }
+
+    /**
+     * Returns all segments to the pool and detaches the writer from its servlet response, without sending anything
+     * further.
+     */
+    public void release() {
+
+        recycleSegments();
+        this.target = null;
+        this.out = null;
+        this.streaming = false;
+        this.sent = 0L;
+    }
+
+    /**
+     * Adds an empty segment.  If streaming is allowed and a full batch of segments is buffered, the batch is sent and
+     * its segments are recycled first.
+     *
+     * @throws IOException if a batch of segments could not be sent
+     */
+    private void nextSegment() throws IOException {
+
+        if (this.streaming && this.numSegments >= BATCH_SEGMENTS && this.target != null) {
+            if (this.out == null) {
+                this.out = this.target.getOutputStream();
+            }
+            for (int i = 0; i < this.numSegments; ++i) {
+                this.out.write(this.segments[i], 0, SEGMENT_SIZE);
+            }
+            this.out.flush();
+            this.sent += (long) this.numSegments * (long) SEGMENT_SIZE;
+            recycleSegments();
+        }
+
+        if (this.numSegments == this.segments.length) {
+            this.segments = Arrays.copyOf(this.segments, this.numSegments << 1);
+        }
+
+        final byte[] segment = POOL.poll();
+        this.segments[this.numSegments] = segment == null ? new byte[SEGMENT_SIZE] : segment;
+        ++this.numSegments;
+        this.position = 0;
+    }
+
+    /**
+     * Returns all segments to the pool.
+     */
+    private void recycleSegments() {
+
+        for (int i = 0; i < this.numSegments; ++i) {
+            POOL.offer(this.segments[i]);
+            this.segments[i] = null;
+        }
+        this.numSegments = 0;
+        this.position = 0;
+    }
+}
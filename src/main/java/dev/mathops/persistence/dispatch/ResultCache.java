@@ -0,0 +1,488 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.site.session.AuthToken;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of encoded responses to count and query requests, shared by all threads that process requests.
+ *
+ * <p>
+ * Entries are keyed on the operation, the caller's effective role, the request body after the authorization token
+ * (the schema, context, and table IDs and the encoded selection criteria), and the revision of the table in the routing
+ * snapshot (so responses are not served after the table is redefined or its schema is bound to another implementation,
+ * while responses for other tables survive a reload), and hold the complete SUCCESS response body, so a hit is
+ * answered by copying bytes.  Only responses small enough to be held in full before they are sent are cached.  The
+ * cache is bounded by total size, evicting the least recently used entries, and entries expire after {@code MAX_AGE}
+ * so that changes made other than through this server are seen eventually.
+ *
+ * <p>
+ * Each table slot (see {@code RoutingTable}) has a generation number, which is advanced before and after every insert,
+ * update, or delete on the table processed by this server.  An entry records the generation of its table when the
+ * request that produced it began, and is only stored, and only used, while that generation is current.  So a write
+ * invalidates every cached response for its table at once, and a read that overlaps a write is never cached.
+ *
+ * <p>
+ * When the implementation serves reads from replicas that may lag behind the primary (see
+ * {@code IImplementation.readsMayLag}), a read that begins just after a write may still return the data from before it,
+ * with the new generation.  Such responses are not stored until {@code LAG_WINDOW} has passed since the last write to
+ * the table.  A replica that lags by more than that can still have a stale response cached, for up to
+ * {@code MAX_AGE}.
+ *
+ * <p>
+ * When several requests miss on the same key at once, only the first is executed; the others wait for its response.
+ * A request does not wait for one that began with an older generation of the table (before a write the waiting request
+ * follows); it executes itself, and requests that arrive after it wait for it instead.
+ */
+final class ResultCache {
+
+    /** The largest total size of cached responses. */
+    private static final long MAX_TOTAL_SIZE = 64L << 20;
+
+    /** The largest response that is cached (responses this size are held in full before they are sent). */
+    static final int MAX_ENTRY_SIZE = 64 << 10;
+
+    /** The time after which an entry expires (nanoseconds). */
+    private static final long MAX_AGE = Duration.ofSeconds(30L).toNanos();
+
+    /** The time after a write to a table during which reads that may lag behind writes are not cached (nanoseconds). */
+    private static final long LAG_WINDOW = Duration.ofSeconds(5L).toNanos();
+
+    /** The longest a request without a deadline waits for a concurrent identical request (nanoseconds). */
+    private static final long MAX_COALESCE_WAIT = Duration.ofSeconds(5L).toNanos();
+
+    /** The entries, in order from least to most recently used. */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /** The total size of cached responses. */
+    private long totalSize;
+
+    /** Requests being executed after a miss, keyed on their keys. */
+    private final Map<Key, Flight> inFlight;
+
+    /** The number of slots in each chunk of generation numbers (a power of 2). */
+    private static final int CHUNK_SIZE = 256;
+
+    /** The bit shift that converts a slot to a chunk index. */
+    private static final int CHUNK_SHIFT = 8;
+
+    /**
+     * The generation of each table slot, in chunks of {@code CHUNK_SIZE}.  Chunks are never replaced, so an increment
+     * is never lost when the outer array grows.
+     */
+    private volatile AtomicLongArray[] generations;
+
+    /**
+     * The {@code System.nanoTime()} value when each table slot was last invalidated (0 if never), in chunks of
+     * {@code CHUNK_SIZE}, allocated along with the chunks of generation numbers.
+     */
+    private volatile AtomicLongArray[] writeTimes;
+
+    /** The number of hits. */
+    private final LongAdder hits;
+
+    /** The number of misses. */
+    private final LongAdder misses;
+
+    /**
+     * Constructs a new {@code ResultCache}.
+     */
+    ResultCache() {
+
+        this.entries = new LinkedHashMap<>(1000, 0.75f, true);
+        this.inFlight = new ConcurrentHashMap<>(100);
+        this.generations = new AtomicLongArray[0];
+        this.writeTimes = new AtomicLongArray[0];
+
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Tests whether responses to an operation may be cached.
+     *
+     * @param op the operation
+     * @return true for count and query operations
+     */
+    static boolean isCacheable(final EApiOperation op) {
+
+        return op == EApiOperation.COUNT || op == EApiOperation.QUERY;
+    }
+
+    /**
+     * Creates the key for a decoded and authorized count or query request, recording the current generation of its
+     * table.
+     *
+     * @param op       the operation
+     * @param exchange the exchange
+     * @return the key
+     */
+    Key keyFor(final EApiOperation op, final ApiExchange exchange) {
+
+        final RequestBuffer request = exchange.request;
+        final byte[] body = Arrays.copyOfRange(request.array(), AuthToken.ENCODED_LENGTH, request.length());
+        final ApiTarget target = exchange.getTarget(0);
+        final RoutingTable routes = exchange.routes;
+        final long revision = routes.getRevision(target.schemaId, target.tableId);
+        final int slot = routes.getSlot(target.schemaId, target.tableId);
+        final long generation = generations(slot).get(slot & (CHUNK_SIZE - 1));
+        final IImplementation impl = routes.getImplementation(target.schemaId, target.contextId);
+        final boolean mayLag = impl != null && impl.readsMayLag();
+
+        return new Key(op, exchange.token.effectiveRoleId(), revision, body, slot, generation, mayLag);
+    }
+
+    /**
+     * Looks up a response.  On a miss, if an identical request that began with the same or a newer generation of the
+     * table is being executed, waits for its response; otherwise, executes the request (marking the key as the one
+     * being executed if no newer request is), in which case the caller must call {@code complete} when done.
+     *
+     * @param key      the key
+     * @param exchange the exchange (for the request deadline)
+     * @return the encoded response; {@code null} if the caller must execute the request
+     */
+    byte[] lookup(final Key key, final ApiExchange exchange) {
+
+        byte[] result = get(key);
+
+        if (result == null) {
+            final Flight mine = new Flight(key.generation, new CompletableFuture<>());
+            final Flight other = this.inFlight.putIfAbsent(key, mine);
+
+            if (other == null) {
+                key.flight = mine;
+            } else if (other.generation() < key.generation) {
+                // The other request began before a write, so its response may not reflect it
+                if (this.inFlight.replace(key, other, mine)) {
+                    key.flight = mine;
+                }
+            } else {
+                final long wait = exchange.hasDeadline ? exchange.deadline - System.nanoTime() : MAX_COALESCE_WAIT;
+                try {
+                    result = other.future().get(Math.max(0L, wait), TimeUnit.NANOSECONDS);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (final ExecutionException | TimeoutException ex) {
+                    // Execute the request instead
+                }
+            }
+        }
+
+        if (result == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a current entry.
+     *
+     * @param key the key
+     * @return the encoded response; {@code null} if there is no current entry
+     */
+    private byte[] get(final Key key) {
+
+        byte[] result = null;
+
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(key);
+            if (entry != null) {
+                final long current = generations(key.slot).get(key.slot & (CHUNK_SIZE - 1));
+                if (entry.generation == current && System.nanoTime() - entry.created < MAX_AGE) {
+                    result = entry.response;
+                } else {
+                    this.entries.remove(key);
+                    this.totalSize -= (long) entry.response.length;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Completes a request that missed: stores its response if the table has not been written since the request began
+     * (and, for reads that may lag behind writes, if the last write was at least {@code LAG_WINDOW} ago), and passes
+     * the response to any identical requests waiting for it.
+     *
+     * @param key      the key
+     * @param response the encoded SUCCESS response; {@code null} if the request failed or the response was too large
+     */
+    void complete(final Key key, final byte[] response) {
+
+        final int index = key.slot & (CHUNK_SIZE - 1);
+
+        if (response != null && response.length <= MAX_ENTRY_SIZE
+            && generations(key.slot).get(index) == key.generation
+            && !(key.mayLag && isRecentlyWritten(writeTimes(key.slot).get(index)))) {
+
+            synchronized (this.entries) {
+                final Entry old = this.entries.put(key, new Entry(response, key.generation));
+                if (old != null) {
+                    this.totalSize -= (long) old.response.length;
+                }
+                this.totalSize += (long) response.length;
+
+                final Iterator<Entry> iter = this.entries.values().iterator();
+                while (this.totalSize > MAX_TOTAL_SIZE && iter.hasNext()) {
+                    this.totalSize -= (long) iter.next().response.length;
+                    iter.remove();
+                }
+            }
+        }
+
+        final Flight flight = key.flight;
+        if (flight != null) {
+            this.inFlight.remove(key, flight);
+            flight.future().complete(response);
+        }
+    }
+
+    /**
+     * Tests whether a table was written too recently for a read that may lag behind writes to be cached.
+     *
+     * @param writeTime the {@code System.nanoTime()} value when the table was last invalidated (0 if never)
+     * @return true if the table was written within {@code LAG_WINDOW}
+     */
+    private static boolean isRecentlyWritten(final long writeTime) {
+
+        return writeTime != 0L && System.nanoTime() - writeTime < LAG_WINDOW;
+    }
+
+    /**
+     * Invalidates all cached responses for a table.  This is called before and after each write to the table.
+     *
+     * @param routes   the routing snapshot
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     */
+    void invalidate(final RoutingTable routes, final int schemaId, final int tableId) {
+
+        final int slot = routes.getSlot(schemaId, tableId);
+        final int index = slot & (CHUNK_SIZE - 1);
+
+        writeTimes(slot).set(index, System.nanoTime());
+        generations(slot).incrementAndGet(index);
+    }
+
+    /**
+     * Gets the chunk of generation numbers that holds a slot, adding chunks if the slot is beyond those allocated so
+     * far.
+     *
+     * @param slot the slot
+     * @return the chunk
+     */
+    private AtomicLongArray generations(final int slot) {
+
+        final int index = slot >>> CHUNK_SHIFT;
+        AtomicLongArray[] chunks = this.generations;
+
+        if (index >= chunks.length) {
+            grow(index);
+            chunks = this.generations;
+        }
+
+        return chunks[index];
+    }
+
+    /**
+     * Gets the chunk of write times that holds a slot, adding chunks if the slot is beyond those allocated so far.
+     *
+     * @param slot the slot
+     * @return the chunk
+     */
+    private AtomicLongArray writeTimes(final int slot) {
+
+        final int index = slot >>> CHUNK_SHIFT;
+        AtomicLongArray[] chunks = this.writeTimes;
+
+        if (index >= chunks.length) {
+            grow(index);
+            chunks = this.writeTimes;
+        }
+
+        return chunks[index];
+    }
+
+    /**
+     * Adds chunks of generation numbers and write times so a chunk index is allocated.
+     *
+     * @param index the chunk index
+     */
+    private synchronized void grow(final int index) {
+
+        final AtomicLongArray[] times = this.writeTimes;
+        if (index >= times.length) {
+            final AtomicLongArray[] grown = Arrays.copyOf(times, index + 1);
+            for (int i = times.length; i <= index; ++i) {
+                grown[i] = new AtomicLongArray(CHUNK_SIZE);
+            }
+            this.writeTimes = grown;
+        }
+
+        final AtomicLongArray[] chunks = this.generations;
+        if (index >= chunks.length) {
+            final AtomicLongArray[] grown = Arrays.copyOf(chunks, index + 1);
+            for (int i = chunks.length; i <= index; ++i) {
+                grown[i] = new AtomicLongArray(CHUNK_SIZE);
+            }
+            this.generations = grown;
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String hitsStr = Long.toString(this.hits.sum());
+        final String missesStr = Long.toString(this.misses.sum());
+        final String sizeStr;
+        synchronized (this.entries) {
+            sizeStr = Long.toString(this.totalSize);
+        }
+
+        return SimpleBuilder.concat("ResultCache{hits=", hitsStr, ", misses=", missesStr, ", size=", sizeStr, "}");
+    }
+
+    /**
+     * A cache key.
+     */
+    static final class Key {
+
+        /** The operation. */
+        private final EApiOperation op;
+
+        /** The effective role ID of the caller. */
+        private final int roleId;
+
+        /** The revision of the target table in the routing snapshot. */
+        private final long revision;
+
+        /** The request body after the authorization token. */
+        private final byte[] body;
+
+        /** The hash code. */
+        private final int hash;
+
+        /** The slot of the target table. */
+        final int slot;
+
+        /** The generation of the target table when the request began. */
+        final long generation;
+
+        /** True if the target table's implementation serves reads that may lag behind writes. */
+        final boolean mayLag;
+
+        /** The execution that identical requests wait for, if the request holding this key leads it. */
+        Flight flight;
+
+        /**
+         * Constructs a new {@code Key}.
+         *
+         * @param theOp         the operation
+         * @param theRoleId     the effective role ID of the caller
+         * @param theRevision   the revision of the target table in the routing snapshot
+         * @param theBody       the request body after the authorization token
+         * @param theSlot       the slot of the target table
+         * @param theGeneration the generation of the target table
+         * @param theMayLag     true if the target table's implementation serves reads that may lag behind writes
+         */
+        Key(final EApiOperation theOp, final int theRoleId, final long theRevision, final byte[] theBody,
+            final int theSlot, final long theGeneration, final boolean theMayLag) {
+
+            this.op = theOp;
+            this.roleId = theRoleId;
+            this.revision = theRevision;
+            this.body = theBody;
+            this.slot = theSlot;
+            this.generation = theGeneration;
+            this.mayLag = theMayLag;
+            this.hash = (theOp.ordinal() * 31 + theRoleId) * 31 + Arrays.hashCode(theBody);
+        }
+
+        /**
+         * Generates a hash code for the object.
+         *
+         * @return the hash code
+         */
+        @Override
+        public int hashCode() {
+
+            return this.hash;
+        }
+
+        /**
+         * Tests whether this object is equal to another.  Only the operation, role, table revision, and body are
+         * compared.
+         *
+         * @param obj the other object
+         * @return true if the objects are equal
+         */
+        @Override
+        public boolean equals(final Object obj) {
+
+            final boolean equal;
+
+            if (obj == this) {
+                equal = true;
+            } else if (obj instanceof final Key key) {
+                equal = this.hash == key.hash && this.op == key.op && this.roleId == key.roleId
+                        && this.revision == key.revision && Arrays.equals(this.body, key.body);
+            } else {
+                equal = false;
+            }
+
+            return equal;
+        }
+    }
+
+    /**
+     * A request being executed after a miss, which identical requests may wait for.
+     *
+     * @param generation the generation of the table when the request began
+     * @param future     the future that completes with the encoded response ({@code null} if the request failed)
+     */
+    private record Flight(long generation, CompletableFuture<byte[]> future) {
+    }
+
+    /**
+     * A cached response.
+     *
+     * @param response   the encoded response
+     * @param generation the generation of the table when the request that produced the response began
+     * @param created    the {@code System.nanoTime()} value when the entry was created
+     */
+    private record Entry(byte[] response, long generation, long created) {
+
+        /**
+         * Constructs a new {@code Entry} created now.
+         *
+         * @param response   the encoded response
+         * @param generation the generation of the table
+         */
+        Entry(final byte[] response, final long generation) {
+
+            this(response, generation, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the catalog's routing: the tables in each schema, the context names, and the implementation
+ * bound to each (schema, context) pair, all in dense arrays indexed by the integer IDs clients send.  Resolving the
+ * table and implementation for a request is a few array loads, with no hashing or boxing.
+ *
+ * <p>
+ * The catalog publishes a new snapshot whenever bindings or tables change, and the pipeline takes the current snapshot
+ * once per request, so every stage of a request sees the same bindings even if the configuration is reloaded while it
+ * runs.
+ *
+ * <p>
+ * Each table position also has a revision (the version of the snapshot in which its table or the bindings of its
+ * schema last changed) and a slot (a small integer, unique across schemas and never reassigned, for per-table state
+ * such as cache generation counters).
+ */
+public final class RoutingTable {
+
+    /** The version of the snapshot (incremented each time the catalog publishes a new snapshot). */
+    final long version;
+
+    /** The schema names, indexed by schema ID. */
+    private final String[] schemaNames;
+
+    /** The tables in each schema, indexed by schema ID then table ID. */
+    private final Table[][] tables;
+
+    /** The context names, indexed by context ID. */
+    private final String[] contextNames;
+
+    /** The implementation for each (schema, context), indexed by schema ID then context ID. */
+    private final IImplementation[][] implementations;
+
+    /** The revision of each table, indexed by schema ID then table ID. */
+    private final long[][] revisions;
+
+    /** The slot of each table position, indexed by schema ID then table ID. */
+    private final int[][] slots;
+
+    /** The number of slots assigned so far (every slot is less than this). */
+    private final int numSlots;
+
+    /** The ID of the first context bound to each schema (-1 if none), indexed by schema ID. */
+    private final int[] defaultContextIds;
+
+    /** The table ID of each table, by table identity. */
+    private final Map<Table, Integer> tableIds;
+
+    /**
+     * Constructs a new {@code RoutingTable}.  The arrays are not copied; the caller must not modify them afterward.
+     *
+     * @param theVersion         the version
+     * @param theSchemaNames     the schema names, indexed by schema ID
+     * @param theTables          the tables in each schema, indexed by schema ID then table ID ({@code null} where a
+     *                           table was removed)
+     * @param theContextNames    the context names, indexed by context ID
+     * @param theImplementations the implementations, indexed by schema ID then context ID (each row as long as
+     *                           {@code theContextNames})
+     * @param theRevisions       the revision of each table, indexed by schema ID then table ID
+     * @param theSlots           the slot of each table position, indexed by schema ID then table ID
+     * @param theNumSlots        the number of slots assigned so far
+     */
+    RoutingTable(final long theVersion, final String[] theSchemaNames, final Table[][] theTables,
+                 final String[] theContextNames, final IImplementation[][] theImplementations,
+                 final long[][] theRevisions, final int[][] theSlots, final int theNumSlots) {
+
+        this.version = theVersion;
+        this.schemaNames = theSchemaNames;
+        this.tables = theTables;
+        this.contextNames = theContextNames;
+        this.implementations = theImplementations;
+        this.revisions = theRevisions;
+        this.slots = theSlots;
+        this.numSlots = theNumSlots;
+
+        final int numSchemas = theSchemaNames.length;
+        this.defaultContextIds = new int[numSchemas];
+        for (int i = 0; i < numSchemas; ++i) {
+            int first = -1;
+            final IImplementation[] row = theImplementations[i];
+            for (int j = 0; j < row.length; ++j) {
+                if (row[j] != null) {
+                    first = j;
+                    break;
+                }
+            }
+            this.defaultContextIds[i] = first;
+        }
+
+        this.tableIds = new IdentityHashMap<>(32);
+        for (final Table[] schemaTables : theTables) {
+            for (int j = 0; j < schemaTables.length; ++j) {
+                if (schemaTables[j] != null) {
+                    this.tableIds.put(schemaTables[j], Integer.valueOf(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of schemas.
+     *
+     * @return the number of schemas
+     */
+    public int getNumSchemas() {
+
+        return this.schemaNames.length;
+    }
+
+    /**
+     * Gets the ID of a schema.
+     *
+     * @param schemaName the schema name
+     * @return the schema ID; -1 if not found
+     */
+    public int getSchemaId(final String schemaName) {
+
+        int result = -1;
+
+        for (int i = 0; i < this.schemaNames.length; ++i) {
+            if (this.schemaNames[i].equals(schemaName)) {
+                result = i;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the name of a schema.
+     *
+     * @param schemaId the schema ID
+     * @return the schema name
+     */
+    public String getSchemaName(final int schemaId) {
+
+        return this.schemaNames[schemaId];
+    }
+
+    /**
+     * Gets the number of tables in a schema.
+     *
+     * @param schemaId the schema ID
+     * @return the number of tables
+     */
+    public int getNumTables(final int schemaId) {
+
+        return this.tables[schemaId].length;
+    }
+
+    /**
+     * Gets a table.
+     *
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     * @return the table; {@code null} if either ID is out of range or the table was removed
+     */
+    public Table getTable(final int schemaId, final int tableId) {
+
+        Table result = null;
+
+        if (schemaId >= 0 && schemaId < this.tables.length) {
+            final Table[] schemaTables = this.tables[schemaId];
+            if (tableId >= 0 && tableId < schemaTables.length) {
+                result = schemaTables[tableId];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the ID of a table within a schema.  Table IDs are indexed by table identity when the snapshot is built, so
+     * this is a single lookup, for operations that name a table other than by ID.
+     *
+     * @param schemaId the schema ID (-1 if the schema is not in the catalog)
+     * @param table    the table
+     * @return the table ID; -1 if the table is not in the schema
+     */
+    int getTableId(final int schemaId, final Table table) {
+
+        final Integer tableId = this.tableIds.get(table);
+
+        return tableId != null && getTable(schemaId, tableId.intValue()) == table ? tableId.intValue() : -1;
+    }
+
+    /**
+     * Gets the revision of a table.
+     *
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     * @return the revision
+     */
+    long getRevision(final int schemaId, final int tableId) {
+
+        return this.revisions[schemaId][tableId];
+    }
+
+    /**
+     * Gets the slot of a table position.
+     *
+     * @param schemaId the schema ID
+     * @param tableId  the table ID
+     * @return the slot
+     */
+    int getSlot(final int schemaId, final int tableId) {
+
+        return this.slots[schemaId][tableId];
+    }
+
+    /**
+     * Gets the number of slots assigned so far.
+     *
+     * @return the number of slots (every slot is less than this)
+     */
+    int getNumSlots() {
+
+        return this.numSlots;
+    }
+
+    /**
+     * Gets the number of contexts.
+     *
+     * @return the number of contexts
+     */
+    public int getNumContexts() {
+
+        return this.contextNames.length;
+    }
+
+    /**
+     * Gets the name of a context.
+     *
+     * @param contextId the context ID
+     * @return the context name; {@code null} if the ID is out of range
+     */
+    public String getContextName(final int contextId) {
+
+        return contextId >= 0 && contextId < this.contextNames.length ? this.contextNames[contextId] : null;
+    }
+
+    /**
+     * Finds the ID of a context by name.  This searches the context names in order, so it is meant for the few
+     * operations that name a context other than by ID.
+     *
+     * @param contextName the context name
+     * @return the context ID; -1 if there is no context with the name
+     */
+    int getContextId(final String contextName) {
+
+        int result = -1;
+
+        for (int i = 0; i < this.contextNames.length; ++i) {
+            if (this.contextNames[i].equals(contextName)) {
+                result = i;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the implementation bound to a schema and context.
+     *
+     * @param schemaId  the schema ID
+     * @param contextId the context ID
+     * @return the implementation; {@code null} if none is bound or either ID is out of range
+     */
+    public IImplementation getImplementation(final int schemaId, final int contextId) {
+
+        IImplementation result = null;
+
+        if (schemaId >= 0 && schemaId < this.implementations.length) {
+            final IImplementation[] row = this.implementations[schemaId];
+            if (contextId >= 0 && contextId < row.length) {
+                result = row[contextId];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the ID of the first context bound to a schema.  This is used for operations such as table listings that
+     * report row counts but do not name a context.
+     *
+     * @param schemaId the schema ID
+     * @return the context ID; -1 if no context is bound to the schema
+     */
+    public int getDefaultContextId(final int schemaId) {
+
+        return this.defaultContextIds[schemaId];
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String versionStr = Long.toString(this.version);
+        final String schemasStr = Integer.toString(this.schemaNames.length);
+        final String contextsStr = Integer.toString(this.contextNames.length);
+
+        return SimpleBuilder.concat("RoutingTable{version=", versionStr, ", schemas=", schemasStr, ", contexts=",
+                contextsStr, "}");
+    }
+}
@@ -0,0 +1,140 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.text.builder.HtmlBuilder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the time spent in each pipeline stage, for each API operation.
+ *
+ * <p>
+ * Counters are {@code LongAdder} objects, so threads recording timings for the same operation do not contend on a
+ * single memory location.
+ */
+public final class StageTimer {
+
+    /** The number of stages. */
+    private static final int NUM_STAGES = EStage.values().length;
+
+    /** Total nanoseconds spent, indexed by (operation ordinal * NUM_STAGES + stage ordinal). */
+    private final LongAdder[] nanos;
+
+    /** Number of requests that completed all stages, indexed by operation ordinal. */
+    private final LongAdder[] completed;
+
+    /** Number of requests that failed, indexed by operation ordinal. */
+    private final LongAdder[] failed;
+
+    /**
+     * Constructs a new {@code StageTimer}.
+     */
+    StageTimer() {
+
+        final int numOps = EApiOperation.values().length;
+
+        this.nanos = new LongAdder[numOps * NUM_STAGES];
+        for (int i = 0; i < this.nanos.length; ++i) {
+            this.nanos[i] = new LongAdder();
+        }
+
+        this.completed = new LongAdder[numOps];
+        this.failed = new LongAdder[numOps];
+        for (int i = 0; i < numOps; ++i) {
+            this.completed[i] = new LongAdder();
+            this.failed[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records time spent in a stage.
+     *
+     * @param op          the operation
+     * @param stage       the stage
+     * @param elapsedNano the elapsed time, in nanoseconds
+     */
+    void record(final EApiOperation op, final EStage stage, final long elapsedNano) {
+
+        this.nanos[op.ordinal() * NUM_STAGES + stage.ordinal()].add(elapsedNano);
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param op      the operation
+     * @param success true if the request completed all stages; false if it failed
+     */
+    void recordOutcome(final EApiOperation op, final boolean success) {
+
+        if (success) {
+            this.completed[op.ordinal()].increment();
+        } else {
+            this.failed[op.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Gets the total time spent in a stage for an operation.
+     *
+     * @param op    the operation
+     * @param stage the stage
+     * @return the total time, in nanoseconds
+     */
+    public long getTotalNanos(final EApiOperation op, final EStage stage) {
+
+        return this.nanos[op.ordinal() * NUM_STAGES + stage.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of requests for an operation that completed all stages.
+     *
+     * @param op the operation
+     * @return the number of requests
+     */
+    public long getCompleted(final EApiOperation op) {
+
+        return this.completed[op.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of requests for an operation that failed.
+     *
+     * @param op the operation
+     * @return the number of requests
+     */
+    public long getFailed(final EApiOperation op) {
+
+        return this.failed[op.ordinal()].sum();
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object, with the mean time per stage for each operation
+     * that has been used.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final HtmlBuilder builder = new HtmlBuilder(500);
+        builder.add("StageTimer{");
+
+        final EStage[] stages = EStage.values();
+        for (final EApiOperation op : EApiOperation.values()) {
+            final long numCompleted = getCompleted(op);
+            final long numFailed = getFailed(op);
+            if (numCompleted + numFailed > 0L) {
+                builder.add(op.name, "(ok=", Long.toString(numCompleted), ",failed=", Long.toString(numFailed));
+                if (numCompleted > 0L) {
+                    for (final EStage stage : stages) {
+                        final long mean = getTotalNanos(op, stage) / numCompleted;
+                        builder.add(",", stage.name(), "=", Long.toString(mean), "ns");
+                    }
+                }
+                builder.add(")");
+            }
+        }
+        builder.add("}");
+
+        return builder.toString();
+    }
+}
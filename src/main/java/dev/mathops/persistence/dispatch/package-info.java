@@ -0,0 +1,5 @@
+/**
+ * Classes that decode API requests, authorize them, route them to the implementation configured for their schema and
+ * context, execute them, and encode the responses.
+ */
+package dev.mathops.persistence.dispatch;
@@ -0,0 +1,205 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * The SQL dialects supported by the JDBC implementation, with the details that differ among them: how a pooled
+ * connection is checked before it is lent out, how many prepared statements each connection keeps open, the vendor
+ * error codes that indicate a conflict with a concurrent transaction, and the column types and schema handling used
+ * when tables are created.
+ *
+ * <p>
+ * The SQL the implementation generates (column lists, "IN" lists, and "?" parameters) is common to all three, except
+ * that an "IN" list longer than the dialect allows is split into several lists.
+ */
+public enum ESqlDialect {
+
+    /** PostgreSQL. */
+    POSTGRESQL("jdbc:postgresql:", null, 256, Integer.MAX_VALUE, new int[0], true),
+
+    /** Oracle (ORA-00060 deadlock, ORA-08177 serialization failure). */
+    ORACLE("jdbc:oracle:", null, 64, 1000, new int[]{60, 8177}, false),
+
+    /** Informix (-143 deadlock, -154 lock timeout, -244 and -245 row locked). */
+    INFORMIX("jdbc:informix-sqli:", "SELECT 1 FROM systables WHERE tabid = 1", 64, Integer.MAX_VALUE,
+            new int[]{-143, -154, -244, -245}, false);
+
+    /** The prefix of JDBC URLs for this dialect. */
+    public final String urlPrefix;
+
+    /**
+     * The query used to check a connection before it is lent out; {@code null} to use {@code Connection.isValid},
+     * which the driver implements with a protocol-level ping.
+     */
+    final String validationQuery;
+
+    /** The number of prepared statements each pooled connection keeps open (bounded by server cursor limits). */
+    final int statementCacheSize;
+
+    /** The maximum number of values in one "IN" list (Oracle allows 1000). */
+    final int maxInListSize;
+
+    /** Vendor error codes that indicate a deadlock, lock timeout, or serialization failure. */
+    private final int[] conflictCodes;
+
+    /**
+     * True if a missing database schema can be created with "CREATE SCHEMA" (in Oracle and Informix, a schema is a
+     * user, which must already exist).
+     */
+    final boolean createsSchemas;
+
+    /**
+     * Constructs a new {@code ESqlDialect}.
+     *
+     * @param theUrlPrefix          the prefix of JDBC URLs for this dialect
+     * @param theValidationQuery    the validation query; {@code null} to use {@code Connection.isValid}
+     * @param theStatementCacheSize the number of prepared statements each pooled connection keeps open
+     * @param theMaxInListSize      the maximum number of values in one "IN" list
+     * @param theConflictCodes      vendor error codes that indicate a conflict
+     * @param theCreatesSchemas     true if a missing database schema can be created with "CREATE SCHEMA"
+     */
+    ESqlDialect(final String theUrlPrefix, final String theValidationQuery, final int theStatementCacheSize,
+                final int theMaxInListSize, final int[] theConflictCodes, final boolean theCreatesSchemas) {
+
+        this.urlPrefix = theUrlPrefix;
+        this.validationQuery = theValidationQuery;
+        this.statementCacheSize = theStatementCacheSize;
+        this.maxInListSize = theMaxInListSize;
+        this.conflictCodes = theConflictCodes;
+        this.createsSchemas = theCreatesSchemas;
+    }
+
+    /**
+     * Finds the dialect for a JDBC URL.
+     *
+     * @param url the JDBC URL
+     * @return the dialect; {@code null} if the URL does not match a supported dialect
+     */
+    public static ESqlDialect forUrl(final String url) {
+
+        ESqlDialect result = null;
+
+        for (final ESqlDialect value : values()) {
+            if (url.startsWith(value.urlPrefix)) {
+                result = value;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the column type used for a field type when a table is created.
+     *
+     * @param type the field type
+     * @return the column type
+     */
+    String columnType(final EFieldType type) {
+
+        return switch (this) {
+            case POSTGRESQL -> switch (type) {
+                case STRING -> "TEXT";
+                case BOOLEAN -> "BOOLEAN";
+                case BYTE -> "SMALLINT";
+                case INTEGER -> "INTEGER";
+                case LONG -> "BIGINT";
+                case FLOAT -> "REAL";
+                case DOUBLE -> "DOUBLE PRECISION";
+                case LOCAL_DATE -> "DATE";
+                case LOCAL_TIME -> "TIME";
+                case LOCAL_DATE_TIME -> "TIMESTAMP";
+            };
+            case ORACLE -> switch (type) {
+                case STRING -> "VARCHAR2(4000)";
+                case BOOLEAN -> "NUMBER(1)";
+                case BYTE -> "NUMBER(3)";
+                case INTEGER -> "NUMBER(10)";
+                case LONG -> "NUMBER(19)";
+                case FLOAT -> "BINARY_FLOAT";
+                case DOUBLE -> "BINARY_DOUBLE";
+                case LOCAL_DATE -> "DATE";
+                case LOCAL_TIME, LOCAL_DATE_TIME -> "TIMESTAMP";
+            };
+            case INFORMIX -> switch (type) {
+                case STRING -> "LVARCHAR(4096)";
+                case BOOLEAN -> "BOOLEAN";
+                case BYTE -> "SMALLINT";
+                case INTEGER -> "INTEGER";
+                case LONG -> "BIGINT";
+                case FLOAT -> "SMALLFLOAT";
+                case DOUBLE -> "FLOAT";
+                case LOCAL_DATE -> "DATE";
+                case LOCAL_TIME -> "DATETIME HOUR TO SECOND";
+                case LOCAL_DATE_TIME -> "DATETIME YEAR TO FRACTION(3)";
+            };
+        };
+    }
+
+    /**
+     * Classifies a database error as a failure code to report to the client.
+     *
+     * @param ex      the exception
+     * @param expired true if the request's deadline has passed
+     * @return the failure code
+     */
+    EFailureCode classify(final SQLException ex, final boolean expired) {
+
+        final String state = ex.getSQLState();
+        final String stateClass = state == null || state.length() < 2 ? "" : state.substring(0, 2);
+        final int vendorCode = ex.getErrorCode();
+
+        final EFailureCode result;
+        if (expired) {
+            result = EFailureCode.DEADLINE_EXCEEDED;
+        } else if ("08".equals(stateClass) || ex instanceof SQLTransientConnectionException
+                   || ex instanceof SQLTimeoutException) {
+            result = EFailureCode.BACKEND_UNAVAILABLE;
+        } else if ("23".equals(stateClass)) {
+            result = EFailureCode.CONSTRAINT_VIOLATION;
+        } else if ("40".equals(stateClass) || isConflictCode(vendorCode)) {
+            result = EFailureCode.CONFLICT;
+        } else {
+            result = EFailureCode.IMPLEMENTATION_ERROR;
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether a vendor error code indicates a conflict with a concurrent transaction.
+     *
+     * @param vendorCode the vendor error code
+     * @return true if the code indicates a conflict
+     */
+    private boolean isConflictCode(final int vendorCode) {
+
+        boolean result = false;
+
+        for (final int code : this.conflictCodes) {
+            if (code == vendorCode) {
+                result = true;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("ESqlDialect{urlPrefix=", this.urlPrefix, "}");
+    }
+}
@@ -0,0 +1,22 @@
+package dev.mathops.persistence.jdbc;
+
+/**
+ * The types of statement the JDBC implementation generates.
+ */
+enum EStatementType {
+
+    /** A count of matching rows. */
+    COUNT,
+
+    /** A query for matching rows. */
+    SELECT,
+
+    /** An insert of one row. */
+    INSERT,
+
+    /** An update of matching rows. */
+    UPDATE,
+
+    /** A delete of matching rows. */
+    DELETE;
+}
@@ -0,0 +1,451 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.RequestDeadline;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of connections to one database.
+ *
+ * <p>
+ * Idle connections are reused most-recently-released first, so a lightly loaded pool keeps reusing the same few warm
+ * connections (with their prepared statements) and the rest age out.  A connection is checked before it is lent out
+ * only if it has been idle long enough that the server or a firewall may have dropped it; the check is the dialect's
+ * cheapest round trip.  When all connections are in use, a borrower waits for one to be returned, but no longer than
+ * its request deadline.
+ *
+ * <p>
+ * A shared background thread periodically closes connections that have been idle for a long time and logs
+ * connections that have been borrowed for longer than any operation should take, with the borrowing thread's current
+ * stack, so a leak can be traced to the code that holds the connection.
+ */
+public final class JdbcConnectionPool implements AutoCloseable {
+
+    /** The longest a borrower waits for a connection when its request has no deadline (nanoseconds). */
+    private static final long BORROW_TIMEOUT = TimeUnit.SECONDS.toNanos(5L);
+
+    /** The idle time after which a connection is checked before it is lent out (nanoseconds). */
+    private static final long VALIDATE_AFTER_IDLE = TimeUnit.SECONDS.toNanos(5L);
+
+    /** The timeout for the check of an idle connection (seconds). */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    /** The time after which a borrowed connection is reported as leaked (nanoseconds). */
+    private static final long LEAK_THRESHOLD = TimeUnit.SECONDS.toNanos(60L);
+
+    /** The idle time after which a connection is closed (nanoseconds). */
+    private static final long MAX_IDLE = TimeUnit.MINUTES.toNanos(10L);
+
+    /** The interval between sweeps for leaked and long-idle connections (seconds). */
+    private static final long SWEEP_INTERVAL = 15L;
+
+    /** The thread that sweeps all pools. */
+    private static final ScheduledThreadPoolExecutor SWEEPER;
+
+    static {
+        SWEEPER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "jdbc-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SWEEPER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The JDBC URL. */
+    private final String url;
+
+    /** The connection properties (user, password, and driver settings). */
+    private final Properties properties;
+
+    /** The SQL dialect of the database. */
+    final ESqlDialect dialect;
+
+    /** The maximum number of connections. */
+    private final int maxSize;
+
+    /** The lock that guards the pool state. */
+    private final ReentrantLock lock;
+
+    /** Signaled when a connection is returned or a slot for a new connection becomes free. */
+    private final Condition available;
+
+    /** The idle connections, most recently released first. */
+    private final Deque<PooledConnection> idle;
+
+    /** The borrowed connections. */
+    private final Set<PooledConnection> borrowed;
+
+    /** The sweep task. */
+    private final ScheduledFuture<?> sweep;
+
+    /** The number of open connections, including those being opened. */
+    private int total;
+
+    /** True once the pool has been closed. */
+    private boolean closed;
+
+    /**
+     * Constructs a new {@code JdbcConnectionPool}.  No connections are opened until they are needed.
+     *
+     * @param theUrl        the JDBC URL
+     * @param theProperties the connection properties (user, password, and driver settings)
+     * @param theMaxSize    the maximum number of connections
+     * @throws IllegalArgumentException if the URL does not match a supported dialect or the maximum size is not
+     *                                  positive
+     */
+    public JdbcConnectionPool(final String theUrl, final Properties theProperties, final int theMaxSize) {
+
+        final ESqlDialect theDialect = ESqlDialect.forUrl(theUrl);
+        if (theDialect == null) {
+            throw new IllegalArgumentException("Unsupported JDBC URL: " + theUrl);
+        }
+        if (theMaxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+
+        this.url = theUrl;
+        this.properties = new Properties();
+        this.properties.putAll(theProperties);
+        this.dialect = theDialect;
+        this.maxSize = theMaxSize;
+        this.lock = new ReentrantLock();
+        this.available = this.lock.newCondition();
+        this.idle = new ArrayDeque<>(theMaxSize);
+        this.borrowed = new HashSet<>(theMaxSize * 2);
+        this.sweep = SWEEPER.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the SQL dialect of the database.
+     *
+     * @return the dialect
+     */
+    public ESqlDialect getDialect() {
+
+        return this.dialect;
+    }
+
+    /**
+     * Gets the maximum number of connections.
+     *
+     * @return the maximum number of connections
+     */
+    int getMaxSize() {
+
+        return this.maxSize;
+    }
+
+    /**
+     * Borrows a connection, waiting for one to be returned if all are in use.  The caller closes the connection to
+     * return it.
+     *
+     * @return the connection
+     * @throws PersistenceException if no connection became available before the request deadline (or the default
+     *                              borrow timeout), the pool is closed, or a new connection could not be opened
+     */
+    PooledConnection borrow() throws PersistenceException {
+
+        final long limit = System.nanoTime() + Math.min(RequestDeadline.remainingNanos(), BORROW_TIMEOUT);
+
+        PooledConnection result = null;
+
+        while (result == null) {
+            final PooledConnection candidate;
+            this.lock.lock();
+            try {
+                candidate = takeIdle(limit);
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (candidate == null) {
+                result = open();
+            } else if (System.nanoTime() - candidate.lastReleased < VALIDATE_AFTER_IDLE || isValid(candidate)) {
+                result = candidate;
+            } else {
+                Log.info("Discarding stale connection to ", this.url, ".");
+                candidate.markBroken();
+                discard(candidate);
+            }
+        }
+
+        this.lock.lock();
+        try {
+            result.borrower = Thread.currentThread();
+            result.borrowedAt = System.nanoTime();
+            result.leakReported = false;
+            this.borrowed.add(result);
+        } finally {
+            this.lock.unlock();
+        }
+
+        return result;
+    }
+
+    /**
+     * Takes an idle connection, or reserves a slot for a new connection, waiting if the pool is at its maximum size.
+     * The caller must hold the lock.
+     *
+     * @param limit the {@code System.nanoTime()} value after which to stop waiting
+     * @return the idle connection; {@code null} if a slot was reserved for a new connection
+     * @throws PersistenceException if the pool is closed or the wait timed out
+     */
+    private PooledConnection takeIdle(final long limit) throws PersistenceException {
+
+        PooledConnection result = null;
+        boolean reserved = false;
+
+        while (result == null && !reserved) {
+            if (this.closed) {
+                throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, "Connection pool is closed", null);
+            }
+
+            if (!this.idle.isEmpty()) {
+                result = this.idle.pop();
+            } else if (this.total < this.maxSize) {
+                ++this.total;
+                reserved = true;
+            } else {
+                final long remaining = limit - System.nanoTime();
+                if (remaining <= 0L) {
+                    final EFailureCode code = RequestDeadline.isExpired() ? EFailureCode.DEADLINE_EXCEEDED
+                            : EFailureCode.BACKEND_UNAVAILABLE;
+                    throw new PersistenceException(code, "Timed out waiting for a database connection", null);
+                }
+                try {
+                    this.available.awaitNanos(remaining);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new PersistenceException("Interrupted while waiting for a database connection", ex);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Opens a new connection in a slot reserved by {@code takeIdle}, freeing the slot if the connection cannot be
+     * opened.
+     *
+     * @return the connection
+     * @throws PersistenceException if the connection could not be opened
+     */
+    private PooledConnection open() throws PersistenceException {
+
+        final PooledConnection result;
+
+        try {
+            final Connection conn = DriverManager.getConnection(this.url, this.properties);
+            result = new PooledConnection(this, conn, this.dialect.statementCacheSize);
+        } catch (final SQLException ex) {
+            this.lock.lock();
+            try {
+                --this.total;
+                this.available.signal();
+            } finally {
+                this.lock.unlock();
+            }
+            throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, "Unable to connect to database", ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks an idle connection with the dialect's validation query, or {@code Connection.isValid} if it has none.
+     *
+     * @param conn the connection
+     * @return true if the connection is usable
+     */
+    private boolean isValid(final PooledConnection conn) {
+
+        boolean result;
+
+        try {
+            final String query = this.dialect.validationQuery;
+            if (query == null) {
+                result = conn.connection.isValid(VALIDATION_TIMEOUT);
+            } else {
+                try (final Statement stmt = conn.connection.createStatement()) {
+                    stmt.setQueryTimeout(VALIDATION_TIMEOUT);
+                    try (final ResultSet rs = stmt.executeQuery(query)) {
+                        result = rs.next();
+                    }
+                }
+            }
+        } catch (final SQLException ex) {
+            result = false;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a borrowed connection to the pool.  Any open transaction is rolled back.  A broken connection, or any
+     * connection returned after the pool is closed, is closed instead.
+     *
+     * @param conn the connection
+     */
+    void release(final PooledConnection conn) {
+
+        if (!conn.broken) {
+            try {
+                if (!conn.connection.getAutoCommit()) {
+                    conn.connection.rollback();
+                    conn.connection.setAutoCommit(true);
+                }
+            } catch (final SQLException ex) {
+                conn.markBroken();
+            }
+        }
+
+        final boolean keep;
+        this.lock.lock();
+        try {
+            this.borrowed.remove(conn);
+            conn.borrower = null;
+            keep = !conn.broken && !this.closed;
+            if (keep) {
+                conn.lastReleased = System.nanoTime();
+                this.idle.push(conn);
+            } else {
+                --this.total;
+            }
+            this.available.signal();
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (!keep) {
+            conn.closePhysical();
+        }
+    }
+
+    /**
+     * Closes a connection that was taken from the idle list and frees its slot.
+     *
+     * @param conn the connection
+     */
+    private void discard(final PooledConnection conn) {
+
+        this.lock.lock();
+        try {
+            --this.total;
+            this.available.signal();
+        } finally {
+            this.lock.unlock();
+        }
+
+        conn.closePhysical();
+    }
+
+    /**
+     * Logs connections that have been borrowed for too long and closes connections that have been idle for too long.
+     */
+    private void sweep() {
+
+        final long now = System.nanoTime();
+        final List<PooledConnection> expired = new ArrayList<>(4);
+        final List<Thread> leakers = new ArrayList<>(4);
+
+        this.lock.lock();
+        try {
+            for (final PooledConnection conn : this.borrowed) {
+                if (!conn.leakReported && now - conn.borrowedAt > LEAK_THRESHOLD && conn.borrower != null) {
+                    conn.leakReported = true;
+                    leakers.add(conn.borrower);
+                }
+            }
+
+            PooledConnection oldest = this.idle.peekLast();
+            while (oldest != null && now - oldest.lastReleased > MAX_IDLE) {
+                this.idle.removeLast();
+                --this.total;
+                expired.add(oldest);
+                oldest = this.idle.peekLast();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (final Thread thread : leakers) {
+            final Exception trace = new Exception("Stack of thread '" + thread.getName() + "'");
+            trace.setStackTrace(thread.getStackTrace());
+            Log.warning("Database connection to ", this.url, " held for more than ",
+                    Long.toString(TimeUnit.NANOSECONDS.toSeconds(LEAK_THRESHOLD)), " seconds (possible leak).", trace);
+        }
+
+        for (final PooledConnection conn : expired) {
+            conn.closePhysical();
+        }
+    }
+
+    /**
+     * Closes the pool.  Idle connections are closed at once; borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close() {
+
+        final List<PooledConnection> toClose;
+
+        this.lock.lock();
+        try {
+            this.closed = true;
+            toClose = new ArrayList<>(this.idle);
+            this.total -= this.idle.size();
+            this.idle.clear();
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.sweep.cancel(false);
+        for (final PooledConnection conn : toClose) {
+            conn.closePhysical();
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String totalStr;
+        final String idleStr;
+
+        this.lock.lock();
+        try {
+            totalStr = Integer.toString(this.total);
+            idleStr = Integer.toString(this.idle.size());
+        } finally {
+            this.lock.unlock();
+        }
+
+        return SimpleBuilder.concat("JdbcConnectionPool{url=", this.url, ", dialect=", this.dialect.name(), ", open=",
+                totalStr, ", idle=", idleStr, "}");
+    }
+}
@@ -0,0 +1,658 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.RequestDeadline;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An implementation that stores tables in a relational database accessed through JDBC.  All SQL is generated from the
+ * table definitions: each table maps to a database table with the same name, with one column per field named after
+ * the field.
+ *
+ * <p>
+ * Each context maps to a database schema (for example, "PROD" to "main" and "DEV" to "main_dev"); a context that is
+ * not mapped uses a database schema with the same name as the table's schema, unless it has been provisioned, in
+ * which case it uses a database schema with the same name as the context (for example, "term202590").  All contexts
+ * share the connection pool.
+ *
+ * <p>
+ * Provisioning a context creates any of its tables that do not exist (and, in PostgreSQL, its database schema).
+ * Warming a context opens connections up to the pool's maximum size and prepares, on each, the statements most
+ * requests use (counts and queries of all rows and by the first key field, and inserts), so the first requests after a
+ * new term becomes active find warm connections and cached statements.
+ *
+ * <p>
+ * SQL is generated once per statement shape and cached (see {@code SqlTemplateCache}).  Each operation borrows a
+ * connection from the pool and runs a prepared statement from that connection's statement cache, so repeated operations
+ * of the same shape skip both SQL generation and server-side parsing.  Prepared count and query operations hold their
+ * templates, so they skip the template lookup as well.  Statements are limited to the request deadline, and are
+ * cancelled if the deadline passes while they run.  Database errors are reported with a failure code derived from the
+ * SQL state and vendor code, so clients can tell a constraint violation or a conflict from an unavailable backend.
+ */
+public final class JdbcImplementation implements IImplementation {
+
+    /** The number of rows fetched per round trip when reading query results. */
+    private static final int FETCH_SIZE = 500;
+
+    /** The connection pool. */
+    private final JdbcConnectionPool pool;
+
+    /** A map from context name to database schema name (provisioned contexts are added). */
+    private final Map<String, String> dbSchemas;
+
+    /** The cache of generated SQL. */
+    private final SqlTemplateCache templates;
+
+    /**
+     * Constructs a new {@code JdbcImplementation}.
+     *
+     * @param thePool      the connection pool
+     * @param theDbSchemas a map from context name to database schema name
+     */
+    public JdbcImplementation(final JdbcConnectionPool thePool, final Map<String, String> theDbSchemas) {
+
+        this.pool = thePool;
+        this.dbSchemas = new ConcurrentHashMap<>(theDbSchemas);
+        this.templates = new SqlTemplateCache(thePool.dialect);
+    }
+
+    /**
+     * Counts the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long count(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        final SqlTemplate template = this.templates.count(dbSchema(context, table), table, criteria);
+
+        return runCount(template, criteria);
+    }
+
+    /**
+     * Queries the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public void query(final String context, final Table table, final SelectionCriteria criteria,
+                      final List<? super Row> results) throws PersistenceException {
+
+        final SqlTemplate template = this.templates.select(dbSchema(context, table), table, criteria);
+
+        runQuery(template, table, criteria, results);
+    }
+
+    /**
+     * Prepares a count or query operation by generating (or finding) the SQL templates for its shape.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @param shape   selection criteria with the shape the operation will use
+     * @return the count template and the query template
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    @Override
+    public Object prepare(final String context, final Table table, final SelectionCriteria shape)
+            throws PersistenceException {
+
+        final String dbSchema = dbSchema(context, table);
+
+        return new SqlTemplate[]{this.templates.count(dbSchema, table, shape),
+                this.templates.select(dbSchema, table, shape)};
+    }
+
+    /**
+     * Counts rows using a prepared operation.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long countPrepared(final Object prepared, final String context, final Table table,
+                              final SelectionCriteria criteria) throws PersistenceException {
+
+        final SqlTemplate[] prepTemplates = (SqlTemplate[]) prepared;
+
+        return runCount(prepTemplates[0], criteria);
+    }
+
+    /**
+     * Queries rows using a prepared operation.
+     *
+     * @param prepared the state returned by {@code prepare}
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria, with the same shape as when the operation was prepared
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public void queryPrepared(final Object prepared, final String context, final Table table,
+                              final SelectionCriteria criteria, final List<? super Row> results)
+            throws PersistenceException {
+
+        final SqlTemplate[] prepTemplates = (SqlTemplate[]) prepared;
+
+        runQuery(prepTemplates[1], table, criteria, results);
+    }
+
+    /**
+     * Runs a count.
+     *
+     * @param template the SQL template
+     * @param criteria the selection criteria
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    private long runCount(final SqlTemplate template, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        final Long result = perform(conn -> {
+            final PreparedStatement stmt = conn.prepare(template.sql);
+            template.bindCriteria(stmt, 1, criteria);
+
+            long count = 0L;
+            try (final RequestDeadline.Watch ignored = watch(stmt); final ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    count = rs.getLong(1);
+                }
+            }
+            return Long.valueOf(count);
+        });
+
+        return result.longValue();
+    }
+
+    /**
+     * Runs a query.
+     *
+     * @param template the SQL template
+     * @param table    the table
+     * @param criteria the selection criteria
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    private void runQuery(final SqlTemplate template, final Table table, final SelectionCriteria criteria,
+                          final List<? super Row> results) throws PersistenceException {
+
+        final int numFields = table.getNumFields();
+        final EFieldType[] types = fieldTypes(table);
+
+        perform(conn -> {
+            final PreparedStatement stmt = conn.prepare(template.sql);
+            template.bindCriteria(stmt, 1, criteria);
+            stmt.setFetchSize(FETCH_SIZE);
+
+            int count = 0;
+            try (final RequestDeadline.Watch ignored = watch(stmt); final ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    final Object[] values = new Object[numFields];
+                    for (int i = 0; i < numFields; ++i) {
+                        values[i] = SqlBuilder.readValue(rs, i + 1, types[i]);
+                    }
+                    results.add(new Row(table, values));
+                    ++count;
+                }
+            }
+            return Integer.valueOf(count);
+        });
+    }
+
+    /**
+     * Inserts rows in a single transaction, with one batch per table.
+     *
+     * @param context the context name
+     * @param rows    the rows to insert
+     * @return the number of rows inserted
+     * @throws PersistenceException if the operation failed (in which case no rows are inserted)
+     */
+    @Override
+    public int insert(final String context, final List<Row> rows) throws PersistenceException {
+
+        final Map<Table, List<Row>> byTable = new LinkedHashMap<>(4);
+        for (final Row row : rows) {
+            byTable.computeIfAbsent(row.getTable(), key -> new ArrayList<>(rows.size())).add(row);
+        }
+
+        final List<SqlTemplate> inserts = new ArrayList<>(byTable.size());
+        for (final Table table : byTable.keySet()) {
+            inserts.add(this.templates.insert(dbSchema(context, table), table));
+        }
+
+        final Integer result = perform(conn -> {
+            final Connection connection = conn.connection;
+            connection.setAutoCommit(false);
+
+            int count = 0;
+            int index = 0;
+            for (final Map.Entry<Table, List<Row>> entry : byTable.entrySet()) {
+                count += insertBatch(conn, inserts.get(index), entry.getKey(), entry.getValue());
+                ++index;
+            }
+
+            // On failure, the pool rolls back the transaction and restores auto-commit when the connection returns
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            return Integer.valueOf(count);
+        });
+
+        return result.intValue();
+    }
+
+    /**
+     * Inserts the rows of one table as a batch.
+     *
+     * @param conn     the connection
+     * @param template the SQL template
+     * @param table    the table
+     * @param rows     the rows
+     * @return the number of rows inserted
+     * @throws SQLException if the insert failed
+     */
+    private static int insertBatch(final PooledConnection conn, final SqlTemplate template, final Table table,
+                                   final List<Row> rows) throws SQLException {
+
+        final int numFields = table.getNumFields();
+        final EFieldType[] types = fieldTypes(table);
+
+        final PreparedStatement stmt = conn.prepare(template.sql);
+
+        int count = 0;
+        try (final RequestDeadline.Watch ignored = watch(stmt)) {
+            for (final Row row : rows) {
+                for (int i = 0; i < numFields; ++i) {
+                    SqlBuilder.bindValue(stmt, i + 1, types[i], row.getFieldValue(i));
+                }
+                stmt.addBatch();
+            }
+            for (final int updated : stmt.executeBatch()) {
+                count += updated == Statement.SUCCESS_NO_INFO ? 1 : updated;
+            }
+        } finally {
+            stmt.clearBatch();
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long delete(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        final SqlTemplate template = this.templates.delete(dbSchema(context, table), table, criteria);
+
+        final Long result = perform(conn -> {
+            final PreparedStatement stmt = conn.prepare(template.sql);
+            template.bindCriteria(stmt, 1, criteria);
+
+            final int count;
+            try (final RequestDeadline.Watch ignored = watch(stmt)) {
+                count = stmt.executeUpdate();
+            }
+            return Long.valueOf((long) count);
+        });
+
+        return result.longValue();
+    }
+
+    /**
+     * Updates the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long update(final String context, final Table table, final SelectionCriteria criteria,
+                       final UpdatedValues values) throws PersistenceException {
+
+        final SqlTemplate template = this.templates.update(dbSchema(context, table), table, criteria, values);
+
+        long result = 0L;
+
+        if (template != null) {
+            final EFieldType[] types = fieldTypes(table);
+
+            final Long count = perform(conn -> {
+                final PreparedStatement stmt = conn.prepare(template.sql);
+                template.bindUpdate(stmt, types, values, criteria);
+
+                final int updated;
+                try (final RequestDeadline.Watch ignored = watch(stmt)) {
+                    updated = stmt.executeUpdate();
+                }
+                return Long.valueOf((long) updated);
+            });
+            result = count.longValue();
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the tables in a context that do not already exist, and (in PostgreSQL) the database schema.  A context
+     * that has no database schema mapped is mapped to one with the same name as the context.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the tables could not be created
+     */
+    @Override
+    public void provision(final String context, final List<Table> tables) throws PersistenceException {
+
+        final String dbSchema = mapContext(context);
+
+        perform(conn -> {
+            final DatabaseMetaData meta = conn.connection.getMetaData();
+            final String schemaPattern = identifier(meta, dbSchema);
+
+            if (this.pool.dialect.createsSchemas) {
+                final boolean exists;
+                try (final ResultSet rs = meta.getSchemas(null, schemaPattern)) {
+                    exists = rs.next();
+                }
+                if (!exists) {
+                    try (final Statement stmt = conn.connection.createStatement()) {
+                        stmt.executeUpdate("CREATE SCHEMA " + dbSchema);
+                    }
+                    Log.info("Created database schema ", dbSchema, ".");
+                }
+            }
+
+            for (final Table table : tables) {
+                final boolean exists;
+                try (final ResultSet rs = meta.getTables(null, schemaPattern, identifier(meta, table.getName()),
+                        null)) {
+                    exists = rs.next();
+                }
+                if (!exists) {
+                    final String tableName = dbSchema + "." + table.getName();
+                    try (final Statement stmt = conn.connection.createStatement()) {
+                        stmt.executeUpdate(SqlBuilder.createTable(this.pool.dialect, tableName, table));
+                    }
+                    Log.info("Created database table ", tableName, ".");
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Opens connections up to the pool's maximum size and prepares the statements most requests on a context's tables
+     * use on each one.  Connections are held until all have been opened, so each is a different connection.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the statements could not be generated or prepared
+     */
+    @Override
+    public void warm(final String context, final List<Table> tables) throws PersistenceException {
+
+        final String dbSchema = mapContext(context);
+
+        final List<String> sqls = new ArrayList<>(tables.size() * 5);
+        for (final Table table : tables) {
+            sqls.add(this.templates.count(dbSchema, table, null).sql);
+            sqls.add(this.templates.select(dbSchema, table, null).sql);
+            sqls.add(this.templates.insert(dbSchema, table).sql);
+
+            final Field key = firstKeyField(table);
+            if (key != null && key.getDef().getType() == EFieldType.INTEGER) {
+                final SelectionCriteria byKey = new SelectionCriteria(table, new IntegerFieldCriterion(key,
+                        ENumericMatchType.EXACT_IN, Integer.valueOf(0)));
+                sqls.add(this.templates.count(dbSchema, table, byKey).sql);
+                sqls.add(this.templates.select(dbSchema, table, byKey).sql);
+            }
+        }
+
+        final int numConnections = this.pool.getMaxSize();
+        final List<PooledConnection> held = new ArrayList<>(numConnections);
+        try {
+            for (int i = 0; i < numConnections; ++i) {
+                final PooledConnection conn = this.pool.borrow();
+                held.add(conn);
+                for (final String sql : sqls) {
+                    conn.prepare(sql);
+                }
+            }
+        } catch (final SQLException ex) {
+            final EFailureCode code = this.pool.dialect.classify(ex, RequestDeadline.isExpired());
+            throw new PersistenceException(code, "Unable to prepare statements", ex);
+        } finally {
+            for (final PooledConnection conn : held) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Finds the first PARTITION_KEY field of a table.
+     *
+     * @param table the table
+     * @return the field; {@code null} if the table has no key fields
+     */
+    private static Field firstKeyField(final Table table) {
+
+        Field result = null;
+
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            if (field.getRole() == EFieldRole.PARTITION_KEY) {
+                result = field;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the database schema for a context, mapping the context to a database schema with the same name (in lower
+     * case) if it has none.
+     *
+     * @param context the context name
+     * @return the database schema name
+     */
+    private String mapContext(final String context) {
+
+        return this.dbSchemas.computeIfAbsent(context, key -> key.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Converts a name to the case in which the database stores unquoted identifiers, for metadata lookups.
+     *
+     * @param meta the database metadata
+     * @param name the name
+     * @return the name in the stored case
+     * @throws SQLException if the metadata could not be read
+     */
+    private static String identifier(final DatabaseMetaData meta, final String name) throws SQLException {
+
+        final String result;
+
+        if (meta.storesUpperCaseIdentifiers()) {
+            result = name.toUpperCase(Locale.ROOT);
+        } else if (meta.storesLowerCaseIdentifiers()) {
+            result = name.toLowerCase(Locale.ROOT);
+        } else {
+            result = name;
+        }
+
+        return result;
+    }
+
+    /**
+     * Borrows a connection, performs work with it, and returns it to the pool.  A database error is reported with a
+     * failure code from the dialect; if it indicates the connection is unusable, the connection is closed rather than
+     * returned.  A value whose class does not match its field's type is reported as a malformed request.
+     *
+     * @param work the work
+     * @param <T>  the result type
+     * @return the result of the work
+     * @throws PersistenceException if a connection could not be borrowed or the work failed
+     */
+    private <T> T perform(final SqlWork<T> work) throws PersistenceException {
+
+        final T result;
+
+        try (final PooledConnection conn = this.pool.borrow()) {
+            try {
+                result = work.run(conn);
+            } catch (final SQLException ex) {
+                final EFailureCode code = this.pool.dialect.classify(ex, RequestDeadline.isExpired());
+                if (code == EFailureCode.BACKEND_UNAVAILABLE) {
+                    conn.markBroken();
+                }
+                throw new PersistenceException(code, "Database operation failed", ex);
+            } catch (final ClassCastException ex) {
+                throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Value does not match field type", ex);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Limits a statement to the request deadline: sets its query timeout and arranges for it to be cancelled if the
+     * deadline passes while it runs.
+     *
+     * @param stmt the statement
+     * @return the watch, to close when the statement completes
+     * @throws SQLException if the query timeout could not be set
+     */
+    private static RequestDeadline.Watch watch(final Statement stmt) throws SQLException {
+
+        stmt.setQueryTimeout(RequestDeadline.queryTimeoutSeconds());
+
+        return RequestDeadline.onExpiry(() -> cancel(stmt));
+    }
+
+    /**
+     * Cancels a running statement.
+     *
+     * @param stmt the statement
+     */
+    private static void cancel(final Statement stmt) {
+
+        try {
+            stmt.cancel();
+        } catch (final SQLException ex) {
+            Log.warning("Failed to cancel statement at request deadline.", ex);
+        }
+    }
+
+    /**
+     * Gets the database schema for a context.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @return the database schema name
+     */
+    private String dbSchema(final String context, final Table table) {
+
+        final String mapped = this.dbSchemas.get(context);
+
+        return mapped == null ? table.getSchema() : mapped;
+    }
+
+    /**
+     * Gets the types of a table's fields.
+     *
+     * @param table the table
+     * @return the field types, in field order
+     */
+    private static EFieldType[] fieldTypes(final Table table) {
+
+        final int numFields = table.getNumFields();
+        final EFieldType[] result = new EFieldType[numFields];
+
+        for (int i = 0; i < numFields; ++i) {
+            result[i] = table.getField(i).getDef().getType();
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("JdbcImplementation{pool=", this.pool, ", schemas=", this.dbSchemas, "}");
+    }
+
+    /**
+     * Work performed with a borrowed connection.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    private interface SqlWork<T> {
+
+        /**
+         * Performs the work.
+         *
+         * @param conn the connection
+         * @return the result
+         * @throws SQLException if a database operation failed
+         */
+        T run(PooledConnection conn) throws SQLException;
+    }
+}
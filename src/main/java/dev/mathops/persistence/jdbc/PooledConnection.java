@@ -0,0 +1,189 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.Serial;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical database connection owned by a pool, with a cache of the prepared statements created on it.
+ *
+ * <p>
+ * A pooled connection is used by one thread at a time (the thread that borrowed it), so the statement cache needs no
+ * locking.  Closing a pooled connection returns it to the pool rather than closing the physical connection, so its
+ * prepared statements stay warm for the next borrower.
+ */
+final class PooledConnection implements AutoCloseable {
+
+    /** The pool that owns the connection. */
+    private final JdbcConnectionPool pool;
+
+    /** The physical connection. */
+    final Connection connection;
+
+    /** The prepared statements, keyed by SQL, in least-recently-used order. */
+    private final Map<String, PreparedStatement> statements;
+
+    /** The {@code System.nanoTime()} value when the connection was last returned to the pool. */
+    long lastReleased;
+
+    /** The {@code System.nanoTime()} value when the connection was last borrowed. */
+    long borrowedAt;
+
+    /** The thread that borrowed the connection ({@code null} while the connection is idle). */
+    Thread borrower;
+
+    /** True if the connection has been reported as leaked since it was borrowed. */
+    boolean leakReported;
+
+    /** True if an error showed the connection is no longer usable (it is closed rather than returned to the pool). */
+    boolean broken;
+
+    /**
+     * Constructs a new {@code PooledConnection}.
+     *
+     * @param thePool       the pool that owns the connection
+     * @param theConnection the physical connection
+     * @param cacheSize     the maximum number of prepared statements to keep open
+     */
+    PooledConnection(final JdbcConnectionPool thePool, final Connection theConnection, final int cacheSize) {
+
+        this.pool = thePool;
+        this.connection = theConnection;
+        this.statements = new StatementCache(cacheSize);
+        this.lastReleased = System.nanoTime();
+    }
+
+    /**
+     * Gets a prepared statement for a SQL string, reusing the cached statement if there is one.  The caller must not
+     * close the statement.
+     *
+     * @param sql the SQL
+     * @return the prepared statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    PreparedStatement prepare(final String sql) throws SQLException {
+
+        PreparedStatement result = this.statements.get(sql);
+
+        if (result == null) {
+            result = this.connection.prepareStatement(sql);
+            this.statements.put(sql, result);
+        } else {
+            result.clearParameters();
+        }
+
+        return result;
+    }
+
+    /**
+     * Marks the connection as broken, so it will be closed rather than returned to the pool.
+     */
+    void markBroken() {
+
+        this.broken = true;
+    }
+
+    /**
+     * Returns the connection to the pool.
+     */
+    @Override
+    public void close() {
+
+        this.pool.release(this);
+    }
+
+    /**
+     * Closes the cached statements and the physical connection.
+     */
+    void closePhysical() {
+
+        for (final PreparedStatement stmt : this.statements.values()) {
+            closeQuietly(stmt);
+        }
+        this.statements.clear();
+
+        try {
+            this.connection.close();
+        } catch (final SQLException ex) {
+            Log.warning("Failed to close database connection.", ex);
+        }
+    }
+
+    /**
+     * Closes a statement, ignoring errors.
+     *
+     * @param stmt the statement
+     */
+    private static void closeQuietly(final PreparedStatement stmt) {
+
+        try {
+            stmt.close();
+        } catch (final SQLException ex) {
+            Log.warning("Failed to close prepared statement.", ex);
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String countStr = Integer.toString(this.statements.size());
+
+        return SimpleBuilder.concat("PooledConnection{statements=", countStr, ", broken=",
+                Boolean.toString(this.broken), "}");
+    }
+
+    /**
+     * A map of prepared statements in access order that closes the least recently used statement when it grows past
+     * its limit.
+     */
+    private static final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+        /** Version number for serialization. */
+        @Serial
+        private static final long serialVersionUID = -3160894472015283307L;
+
+        /** The maximum number of statements. */
+        private final int maxSize;
+
+        /**
+         * Constructs a new {@code StatementCache}.
+         *
+         * @param theMaxSize the maximum number of statements
+         */
+        StatementCache(final int theMaxSize) {
+
+            super(theMaxSize * 2, 0.75f, true);
+
+            this.maxSize = theMaxSize;
+        }
+
+        /**
+         * Removes (and closes) the eldest statement when the cache is over its limit.
+         *
+         * @param eldest the least recently used entry
+         * @return true to remove the entry
+         */
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+
+            final boolean result = size() > this.maxSize;
+
+            if (result) {
+                closeQuietly(eldest.getValue());
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.NullValue;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.HtmlBuilder;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Generates SQL for operations on a table from the table's field definitions, and binds and reads the values of those
+ * fields.
+ *
+ * <p>
+ * Every value is passed as a "?" parameter, so a statement's SQL depends only on the table and the shape of the
+ * criteria (the fields, match types, and number of values), and statements with the same SQL can share a prepared
+ * statement.  The number of parameters each criterion takes (its arity) is given separately from the criterion, so
+ * "IN" lists can be padded to a common length (the padding parameters repeat the last value, which does not change
+ * the result).  Columns are named after fields and are always listed explicitly, so a query reads columns in field
+ * order regardless of the column order in the database.
+ */
+enum SqlBuilder {
+    ;
+
+    /**
+     * Generates a statement that counts the rows that match selection criteria.
+     *
+     * @param dialect   the SQL dialect
+     * @param tableName the qualified table name
+     * @param criteria  the selection criteria ({@code null} to count all rows)
+     * @param arities   the number of parameters for each criterion
+     * @return the SQL
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    static String count(final ESqlDialect dialect, final String tableName, final SelectionCriteria criteria,
+                        final int[] arities) throws PersistenceException {
+
+        final HtmlBuilder sql = new HtmlBuilder(100);
+
+        sql.add("SELECT COUNT(*) FROM ", tableName);
+        appendWhere(sql, dialect, criteria, arities);
+
+        return sql.toString();
+    }
+
+    /**
+     * Generates a statement that queries the rows that match selection criteria.
+     *
+     * @param dialect   the SQL dialect
+     * @param tableName the qualified table name
+     * @param table     the table
+     * @param criteria  the selection criteria ({@code null} to return all rows)
+     * @param arities   the number of parameters for each criterion
+     * @return the SQL
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    static String select(final ESqlDialect dialect, final String tableName, final Table table,
+                         final SelectionCriteria criteria, final int[] arities) throws PersistenceException {
+
+        final HtmlBuilder sql = new HtmlBuilder(200);
+
+        sql.add("SELECT ");
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            if (i > 0) {
+                sql.add(", ");
+            }
+            sql.add(table.getField(i).getDef().getName());
+        }
+        sql.add(" FROM ", tableName);
+        appendWhere(sql, dialect, criteria, arities);
+
+        return sql.toString();
+    }
+
+    /**
+     * Generates a statement that inserts one row, with a parameter for every field in field order.
+     *
+     * @param tableName the qualified table name
+     * @param table     the table
+     * @return the SQL
+     */
+    static String insert(final String tableName, final Table table) {
+
+        final HtmlBuilder sql = new HtmlBuilder(200);
+
+        sql.add("INSERT INTO ", tableName, " (");
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            if (i > 0) {
+                sql.add(", ");
+            }
+            sql.add(table.getField(i).getDef().getName());
+        }
+        sql.add(") VALUES (");
+        for (int i = 0; i < numFields; ++i) {
+            sql.add(i == 0 ? "?" : ", ?");
+        }
+        sql.add(")");
+
+        return sql.toString();
+    }
+
+    /**
+     * Generates a statement that creates a table, with a column for each field (NOT NULL unless the field is NULLABLE)
+     * and a primary key on the PARTITION_KEY fields.
+     *
+     * @param dialect   the SQL dialect
+     * @param tableName the qualified table name
+     * @param table     the table
+     * @return the SQL
+     */
+    static String createTable(final ESqlDialect dialect, final String tableName, final Table table) {
+
+        final HtmlBuilder sql = new HtmlBuilder(300);
+        final HtmlBuilder key = new HtmlBuilder(50);
+
+        sql.add("CREATE TABLE ", tableName, " (");
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = table.getField(i);
+            final String name = field.getDef().getName();
+            if (i > 0) {
+                sql.add(", ");
+            }
+            sql.add(name, " ", dialect.columnType(field.getDef().getType()));
+            if (field.getRole() != EFieldRole.NULLABLE) {
+                sql.add(" NOT NULL");
+            }
+            if (field.getRole() == EFieldRole.PARTITION_KEY) {
+                key.add(key.length() == 0 ? name : ", " + name);
+            }
+        }
+        if (key.length() > 0) {
+            sql.add(", PRIMARY KEY (", key.toString(), ")");
+        }
+        sql.add(")");
+
+        return sql.toString();
+    }
+
+    /**
+     * Generates a statement that updates the rows that match selection criteria, with a parameter for each updated
+     * field, followed by the parameters of the criteria.
+     *
+     * @param dialect       the SQL dialect
+     * @param tableName     the qualified table name
+     * @param table         the table
+     * @param updatedFields the indexes of the updated fields (at least one), in increasing order
+     * @param criteria      the selection criteria ({@code null} to update all rows)
+     * @param arities       the number of parameters for each criterion
+     * @return the SQL
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    static String update(final ESqlDialect dialect, final String tableName, final Table table,
+                         final int[] updatedFields, final SelectionCriteria criteria, final int[] arities)
+            throws PersistenceException {
+
+        final HtmlBuilder sql = new HtmlBuilder(200);
+
+        sql.add("UPDATE ", tableName, " SET ");
+        for (int i = 0; i < updatedFields.length; ++i) {
+            if (i > 0) {
+                sql.add(", ");
+            }
+            sql.add(table.getField(updatedFields[i]).getDef().getName(), " = ?");
+        }
+        appendWhere(sql, dialect, criteria, arities);
+
+        return sql.toString();
+    }
+
+    /**
+     * Generates a statement that deletes the rows that match selection criteria.
+     *
+     * @param dialect   the SQL dialect
+     * @param tableName the qualified table name
+     * @param criteria  the selection criteria ({@code null} to delete all rows)
+     * @param arities   the number of parameters for each criterion
+     * @return the SQL
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    static String delete(final ESqlDialect dialect, final String tableName, final SelectionCriteria criteria,
+                         final int[] arities) throws PersistenceException {
+
+        final HtmlBuilder sql = new HtmlBuilder(100);
+
+        sql.add("DELETE FROM ", tableName);
+        appendWhere(sql, dialect, criteria, arities);
+
+        return sql.toString();
+    }
+
+    /**
+     * Appends a WHERE clause for selection criteria (nothing if there are no criteria).
+     *
+     * @param sql      the builder to which to append
+     * @param dialect  the SQL dialect
+     * @param criteria the selection criteria ({@code null} if none)
+     * @param arities  the number of parameters for each criterion
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    private static void appendWhere(final HtmlBuilder sql, final ESqlDialect dialect,
+                                    final SelectionCriteria criteria, final int[] arities)
+            throws PersistenceException {
+
+        final int numCriteria = criteria == null ? 0 : criteria.getNumCriteria();
+
+        for (int i = 0; i < numCriteria; ++i) {
+            sql.add(i == 0 ? " WHERE " : " AND ");
+            appendCriterion(sql, dialect, criteria.getCriterion(i), arities[i]);
+        }
+    }
+
+    /**
+     * Appends the condition for one criterion.
+     *
+     * @param sql       the builder to which to append
+     * @param dialect   the SQL dialect
+     * @param criterion the criterion
+     * @param arity     the number of parameters for the criterion (for "IN" lists, at least the number of values)
+     * @throws PersistenceException if the criterion is malformed or not supported
+     */
+    private static void appendCriterion(final HtmlBuilder sql, final ESqlDialect dialect,
+                                        final AbstractFieldCriterion criterion, final int arity)
+            throws PersistenceException {
+
+        if (criterion instanceof final IntegerFieldCriterion intCriterion) {
+            final String column = intCriterion.getField().getDef().getName();
+            final ENumericMatchType type = intCriterion.getMatchType();
+            checkArity(type, intCriterion.getNumIntegers());
+
+            final int max = dialect.maxInListSize;
+            switch (type) {
+                case IS_NULL -> sql.add(column, " IS NULL");
+                case IS_NOT_NULL -> sql.add(column, " IS NOT NULL");
+                case EXACT_IN -> appendList(sql, column, arity, max, " = ?", " IN (", " OR ", "1 = 0");
+                case EXACT_NOT_IN -> appendList(sql, column, arity, max, " <> ?", " NOT IN (", " AND ", "1 = 1");
+                case GREATER_THAN -> sql.add(column, " > ?");
+                case GREATER_THAN_OR_EQUAL -> sql.add(column, " >= ?");
+                case LESS_THAN -> sql.add(column, " < ?");
+                case LESS_THAN_OR_EQUAL -> sql.add(column, " <= ?");
+                case BETWEEN_EXCLUDE_BOUNDS -> sql.add("(", column, " > ? AND ", column, " < ?)");
+                case BETWEEN_EXCLUDE_LOWER_BOUND -> sql.add("(", column, " > ? AND ", column, " <= ?)");
+                case BETWEEN_EXCLUDE_UPPER_BOUND -> sql.add("(", column, " >= ? AND ", column, " < ?)");
+                case BETWEEN_INCLUDE_BOUNDS -> sql.add(column, " BETWEEN ? AND ?");
+            }
+        } else {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Unsupported criterion type", null);
+        }
+    }
+
+    /**
+     * Appends the condition for a list match: a comparison for a single value, a parenthesized list for several (split
+     * into several lists joined by a connective if there are more than the dialect allows in one list), or a constant
+     * condition for an empty list.
+     *
+     * @param sql        the builder to which to append
+     * @param column     the column name
+     * @param numValues  the number of values
+     * @param maxPerList the maximum number of values in one list
+     * @param single     the comparison for a single value
+     * @param list       the operator and opening parenthesis for several values
+     * @param connective the connective that joins lists
+     * @param empty      the condition for an empty list
+     */
+    private static void appendList(final HtmlBuilder sql, final String column, final int numValues,
+                                   final int maxPerList, final String single, final String list,
+                                   final String connective, final String empty) {
+
+        if (numValues == 0) {
+            sql.add(empty);
+        } else if (numValues == 1) {
+            sql.add(column, single);
+        } else {
+            final boolean split = numValues > maxPerList;
+            if (split) {
+                sql.add("(");
+            }
+            for (int i = 0; i < numValues; ++i) {
+                final int position = i % maxPerList;
+                if (position == 0) {
+                    if (i > 0) {
+                        sql.add(")", connective);
+                    }
+                    sql.add(column, list, "?");
+                } else {
+                    sql.add(", ?");
+                }
+            }
+            sql.add(split ? "))" : ")");
+        }
+    }
+
+    /**
+     * Checks that a criterion has the number of values its match type requires.
+     *
+     * @param type      the match type
+     * @param numValues the number of values
+     * @throws PersistenceException if the number of values is wrong
+     */
+    private static void checkArity(final ENumericMatchType type, final int numValues) throws PersistenceException {
+
+        final boolean valid = switch (type) {
+            case IS_NULL, IS_NOT_NULL -> numValues == 0;
+            case EXACT_IN, EXACT_NOT_IN -> true;
+            case GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL -> numValues == 1;
+            case BETWEEN_EXCLUDE_BOUNDS, BETWEEN_EXCLUDE_LOWER_BOUND, BETWEEN_EXCLUDE_UPPER_BOUND,
+                 BETWEEN_INCLUDE_BOUNDS -> numValues == 2;
+        };
+
+        if (!valid) {
+            final String msg = "Criterion of type " + type.name() + " has " + numValues + " values";
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, msg, null);
+        }
+    }
+
+    /**
+     * Binds the values of selection criteria, in the order their parameters appear in the generated WHERE clause.  A
+     * criterion with fewer values than its arity is padded by repeating its last value.
+     *
+     * @param stmt     the statement
+     * @param start    the index of the first parameter to bind
+     * @param criteria the selection criteria ({@code null} if none)
+     * @param arities  the number of parameters for each criterion
+     * @return the index of the next parameter
+     * @throws SQLException if a value could not be bound
+     */
+    static int bindCriteria(final PreparedStatement stmt, final int start, final SelectionCriteria criteria,
+                            final int[] arities) throws SQLException {
+
+        int index = start;
+
+        final int numCriteria = criteria == null ? 0 : criteria.getNumCriteria();
+        for (int i = 0; i < numCriteria; ++i) {
+            if (criteria.getCriterion(i) instanceof final IntegerFieldCriterion intCriterion) {
+                final int last = intCriterion.getNumIntegers() - 1;
+                final int arity = arities[i];
+                for (int j = 0; j < arity; ++j) {
+                    final Integer value = intCriterion.getInteger(Math.min(j, last));
+                    if (value == null) {
+                        stmt.setNull(index, Types.INTEGER);
+                    } else {
+                        stmt.setInt(index, value.intValue());
+                    }
+                    ++index;
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Binds a field value.
+     *
+     * @param stmt  the statement
+     * @param index the parameter index
+     * @param type  the field type
+     * @param value the value ({@code null} or {@code NullValue.INSTANCE} to bind SQL NULL)
+     * @throws SQLException if the value could not be bound
+     */
+    static void bindValue(final PreparedStatement stmt, final int index, final EFieldType type, final Object value)
+            throws SQLException {
+
+        if (value == null || value == NullValue.INSTANCE) {
+            stmt.setNull(index, sqlType(type));
+        } else {
+            switch (type) {
+                case STRING -> stmt.setString(index, value.toString());
+                case BOOLEAN -> stmt.setBoolean(index, ((Boolean) value).booleanValue());
+                case BYTE -> stmt.setByte(index, ((Number) value).byteValue());
+                case INTEGER -> stmt.setInt(index, ((Number) value).intValue());
+                case LONG -> stmt.setLong(index, ((Number) value).longValue());
+                case FLOAT -> stmt.setFloat(index, ((Number) value).floatValue());
+                case DOUBLE -> stmt.setDouble(index, ((Number) value).doubleValue());
+                case LOCAL_DATE -> stmt.setDate(index, Date.valueOf((LocalDate) value));
+                case LOCAL_TIME -> stmt.setTime(index, Time.valueOf((LocalTime) value));
+                case LOCAL_DATE_TIME -> stmt.setTimestamp(index, Timestamp.valueOf((LocalDateTime) value));
+            }
+        }
+    }
+
+    /**
+     * Reads a field value from a result set.
+     *
+     * @param rs     the result set
+     * @param column the column index
+     * @param type   the field type
+     * @return the value; {@code null} if the column is SQL NULL
+     * @throws SQLException if the value could not be read
+     */
+    static Object readValue(final ResultSet rs, final int column, final EFieldType type) throws SQLException {
+
+        final Object result = switch (type) {
+            case STRING -> rs.getString(column);
+            case BOOLEAN -> Boolean.valueOf(rs.getBoolean(column));
+            case BYTE -> Byte.valueOf(rs.getByte(column));
+            case INTEGER -> Integer.valueOf(rs.getInt(column));
+            case LONG -> Long.valueOf(rs.getLong(column));
+            case FLOAT -> Float.valueOf(rs.getFloat(column));
+            case DOUBLE -> Double.valueOf(rs.getDouble(column));
+            case LOCAL_DATE -> {
+                final Date date = rs.getDate(column);
+                yield date == null ? null : date.toLocalDate();
+            }
+            case LOCAL_TIME -> {
+                final Time time = rs.getTime(column);
+                yield time == null ? null : time.toLocalTime();
+            }
+            case LOCAL_DATE_TIME -> {
+                final Timestamp timestamp = rs.getTimestamp(column);
+                yield timestamp == null ? null : timestamp.toLocalDateTime();
+            }
+        };
+
+        return rs.wasNull() ? null : result;
+    }
+
+    /**
+     * Gets the {@code java.sql.Types} code used to bind SQL NULL for a field type.
+     *
+     * @param type the field type
+     * @return the type code
+     */
+    private static int sqlType(final EFieldType type) {
+
+        return switch (type) {
+            case STRING -> Types.VARCHAR;
+            case BOOLEAN -> Types.BOOLEAN;
+            case BYTE -> Types.TINYINT;
+            case INTEGER -> Types.INTEGER;
+            case LONG -> Types.BIGINT;
+            case FLOAT -> Types.REAL;
+            case DOUBLE -> Types.DOUBLE;
+            case LOCAL_DATE -> Types.DATE;
+            case LOCAL_TIME -> Types.TIME;
+            case LOCAL_DATE_TIME -> Types.TIMESTAMP;
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The SQL generated for one statement shape, with what is needed to bind the values of any operation of that shape:
+ * the number of parameters each criterion takes (criteria with an "IN" list may take more parameters than they have
+ * values), and the fields an update sets.
+ *
+ * <p>
+ * Templates are immutable and shared by all threads.  The SQL string of a template is the key under which each pooled
+ * connection caches its prepared statement.
+ */
+final class SqlTemplate {
+
+    /** The SQL. */
+    final String sql;
+
+    /** The number of parameters for each criterion. */
+    private final int[] arities;
+
+    /** The indexes of the fields an update sets, in increasing order (empty for other statements). */
+    private final int[] updatedFields;
+
+    /**
+     * Constructs a new {@code SqlTemplate}.
+     *
+     * @param theSql           the SQL
+     * @param theArities       the number of parameters for each criterion
+     * @param theUpdatedFields the indexes of the fields an update sets (empty for other statements)
+     */
+    SqlTemplate(final String theSql, final int[] theArities, final int[] theUpdatedFields) {
+
+        this.sql = theSql;
+        this.arities = theArities;
+        this.updatedFields = theUpdatedFields;
+    }
+
+    /**
+     * Binds the values of selection criteria, padding "IN" lists to the template's arity.
+     *
+     * @param stmt     the statement
+     * @param start    the index of the first parameter to bind
+     * @param criteria the selection criteria, with the template's shape ({@code null} if none)
+     * @return the index of the next parameter
+     * @throws SQLException if a value could not be bound
+     */
+    int bindCriteria(final PreparedStatement stmt, final int start, final SelectionCriteria criteria)
+            throws SQLException {
+
+        return SqlBuilder.bindCriteria(stmt, start, criteria, this.arities);
+    }
+
+    /**
+     * Binds the values an update sets, then the values of its selection criteria.
+     *
+     * @param stmt     the statement
+     * @param types    the types of the table's fields
+     * @param values   the updated values, with the template's shape
+     * @param criteria the selection criteria, with the template's shape ({@code null} if none)
+     * @throws SQLException if a value could not be bound
+     */
+    void bindUpdate(final PreparedStatement stmt, final EFieldType[] types, final UpdatedValues values,
+                    final SelectionCriteria criteria) throws SQLException {
+
+        int index = 1;
+        for (final int field : this.updatedFields) {
+            SqlBuilder.bindValue(stmt, index, types[field], values.getFieldValue(field));
+            ++index;
+        }
+
+        SqlBuilder.bindCriteria(stmt, index, criteria, this.arities);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("SqlTemplate{sql=", this.sql, "}");
+    }
+}
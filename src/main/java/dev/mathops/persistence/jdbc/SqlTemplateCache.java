@@ -0,0 +1,376 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of generated SQL, keyed by statement shape, for one implementation (and so one dialect).
+ *
+ * <p>
+ * A shape is the statement type, the table and database schema, the fields and match types of the selection criteria,
+ * the number of parameters each criterion takes, and (for updates) the fields that are set.  The number of parameters
+ * for an "IN" or "NOT IN" list with more than one value is its length rounded up to a power of two, so lists of
+ * varying length share a few statements rather than generating one per length; the extra parameters repeat the last
+ * value.  Looking up a cached template costs one small array and a hash lookup, with no string building, and because
+ * every operation of a shape uses the same SQL string, each pooled connection reuses one prepared statement for it
+ * and the server parses it once.
+ *
+ * <p>
+ * The cache is bounded; if it fills (for example, after many schema reloads leave templates for tables that no longer
+ * exist), it is cleared and refills with the shapes in use.
+ */
+final class SqlTemplateCache {
+
+    /** The maximum number of templates before the cache is cleared. */
+    private static final int MAX_TEMPLATES = 4096;
+
+    /** An empty array. */
+    private static final int[] NONE = new int[0];
+
+    /** The SQL dialect. */
+    private final ESqlDialect dialect;
+
+    /** The templates, keyed by shape. */
+    private final Map<ShapeKey, SqlTemplate> templates;
+
+    /**
+     * Constructs a new {@code SqlTemplateCache}.
+     *
+     * @param theDialect the SQL dialect
+     */
+    SqlTemplateCache(final ESqlDialect theDialect) {
+
+        this.dialect = theDialect;
+        this.templates = new ConcurrentHashMap<>(256);
+    }
+
+    /**
+     * Gets the template for a count.
+     *
+     * @param dbSchema the database schema name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the template
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    SqlTemplate count(final String dbSchema, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return get(EStatementType.COUNT, dbSchema, table, criteria, NONE);
+    }
+
+    /**
+     * Gets the template for a query.
+     *
+     * @param dbSchema the database schema name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @return the template
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    SqlTemplate select(final String dbSchema, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return get(EStatementType.SELECT, dbSchema, table, criteria, NONE);
+    }
+
+    /**
+     * Gets the template for an insert of one row.
+     *
+     * @param dbSchema the database schema name
+     * @param table    the table
+     * @return the template
+     * @throws PersistenceException if the template could not be generated
+     */
+    SqlTemplate insert(final String dbSchema, final Table table) throws PersistenceException {
+
+        return get(EStatementType.INSERT, dbSchema, table, null, NONE);
+    }
+
+    /**
+     * Gets the template for an update.
+     *
+     * @param dbSchema the database schema name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the template; {@code null} if no field is updated
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    SqlTemplate update(final String dbSchema, final Table table, final SelectionCriteria criteria,
+                       final UpdatedValues values) throws PersistenceException {
+
+        final int numFields = table.getNumFields();
+        int numUpdated = 0;
+        for (int i = 0; i < numFields; ++i) {
+            if (values.getFieldValue(i) != null) {
+                ++numUpdated;
+            }
+        }
+
+        SqlTemplate result = null;
+
+        if (numUpdated > 0) {
+            final int[] updatedFields = new int[numUpdated];
+            int index = 0;
+            for (int i = 0; i < numFields; ++i) {
+                if (values.getFieldValue(i) != null) {
+                    updatedFields[index] = i;
+                    ++index;
+                }
+            }
+            result = get(EStatementType.UPDATE, dbSchema, table, criteria, updatedFields);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the template for a delete.
+     *
+     * @param dbSchema the database schema name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the template
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    SqlTemplate delete(final String dbSchema, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return get(EStatementType.DELETE, dbSchema, table, criteria, NONE);
+    }
+
+    /**
+     * Gets the template for a statement shape, generating it on first use.
+     *
+     * @param type          the statement type
+     * @param dbSchema      the database schema name
+     * @param table         the table
+     * @param criteria      the selection criteria ({@code null} if none)
+     * @param updatedFields the indexes of the fields an update sets (empty for other statements)
+     * @return the template
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    private SqlTemplate get(final EStatementType type, final String dbSchema, final Table table,
+                            final SelectionCriteria criteria, final int[] updatedFields) throws PersistenceException {
+
+        final int numCriteria = criteria == null ? 0 : criteria.getNumCriteria();
+        final int[] arities = new int[numCriteria];
+        final int[] shape = new int[updatedFields.length + numCriteria * 3];
+
+        System.arraycopy(updatedFields, 0, shape, 0, updatedFields.length);
+        int pos = updatedFields.length;
+        for (int i = 0; i < numCriteria; ++i) {
+            final AbstractFieldCriterion criterion = criteria.getCriterion(i);
+            if (criterion instanceof final IntegerFieldCriterion intCriterion) {
+                final ENumericMatchType matchType = intCriterion.getMatchType();
+                final int numValues = intCriterion.getNumIntegers();
+                final boolean isList = matchType == ENumericMatchType.EXACT_IN
+                                       || matchType == ENumericMatchType.EXACT_NOT_IN;
+                arities[i] = isList ? bucket(numValues) : numValues;
+                shape[pos] = fieldIndex(table, intCriterion.getField());
+                shape[pos + 1] = matchType.ordinal();
+                shape[pos + 2] = arities[i];
+                pos += 3;
+            } else {
+                throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Unsupported criterion type", null);
+            }
+        }
+
+        final ShapeKey key = new ShapeKey(type, dbSchema, table, updatedFields.length, shape);
+
+        SqlTemplate result = this.templates.get(key);
+
+        if (result == null) {
+            final String sql = generate(type, dbSchema + "." + table.getName(), table, criteria, arities,
+                    updatedFields);
+            result = new SqlTemplate(sql, arities, updatedFields);
+
+            if (this.templates.size() >= MAX_TEMPLATES) {
+                this.templates.clear();
+            }
+            final SqlTemplate existing = this.templates.putIfAbsent(key, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the SQL for a statement shape.
+     *
+     * @param type          the statement type
+     * @param tableName     the qualified table name
+     * @param table         the table
+     * @param criteria      the selection criteria ({@code null} if none)
+     * @param arities       the number of parameters for each criterion
+     * @param updatedFields the indexes of the fields an update sets
+     * @return the SQL
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    private String generate(final EStatementType type, final String tableName, final Table table,
+                            final SelectionCriteria criteria, final int[] arities, final int[] updatedFields)
+            throws PersistenceException {
+
+        return switch (type) {
+            case COUNT -> SqlBuilder.count(this.dialect, tableName, criteria, arities);
+            case SELECT -> SqlBuilder.select(this.dialect, tableName, table, criteria, arities);
+            case INSERT -> SqlBuilder.insert(tableName, table);
+            case UPDATE -> SqlBuilder.update(this.dialect, tableName, table, updatedFields, criteria, arities);
+            case DELETE -> SqlBuilder.delete(this.dialect, tableName, criteria, arities);
+        };
+    }
+
+    /**
+     * Rounds the length of a list up to a power of two.  Lists of zero or one value keep their length, since they
+     * generate different SQL ("1 = 0" or a single comparison).
+     *
+     * @param numValues the number of values
+     * @return the number of parameters
+     */
+    static int bucket(final int numValues) {
+
+        return numValues <= 1 ? numValues : Integer.highestOneBit(numValues - 1) << 1;
+    }
+
+    /**
+     * Finds the index of a field in a table.
+     *
+     * @param table the table
+     * @param field the field
+     * @return the field index
+     * @throws PersistenceException if the field does not belong to the table
+     */
+    private static int fieldIndex(final Table table, final Field field) throws PersistenceException {
+
+        int result = -1;
+
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            if (table.getField(i) == field) {
+                result = i;
+                break;
+            }
+        }
+
+        if (result == -1) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Criterion field is not in the table",
+                    null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String sizeStr = Integer.toString(this.templates.size());
+
+        return SimpleBuilder.concat("SqlTemplateCache{dialect=", this.dialect.name(), ", templates=", sizeStr, "}");
+    }
+
+    /**
+     * The key of a statement shape.  Tables are compared by identity, since a table that is redefined by a schema
+     * reload is a new object and needs new SQL.
+     */
+    private static final class ShapeKey {
+
+        /** The statement type. */
+        private final EStatementType type;
+
+        /** The database schema name. */
+        private final String dbSchema;
+
+        /** The table. */
+        private final Table table;
+
+        /** The number of updated fields at the start of {@code shape}. */
+        private final int numUpdated;
+
+        /** The updated field indexes, then the field index, match type, and arity of each criterion. */
+        private final int[] shape;
+
+        /** The hash code. */
+        private final int hash;
+
+        /**
+         * Constructs a new {@code ShapeKey}.
+         *
+         * @param theType       the statement type
+         * @param theDbSchema   the database schema name
+         * @param theTable      the table
+         * @param theNumUpdated the number of updated fields at the start of {@code theShape}
+         * @param theShape      the updated field indexes, then the field index, match type, and arity of each
+         *                      criterion
+         */
+        ShapeKey(final EStatementType theType, final String theDbSchema, final Table theTable,
+                 final int theNumUpdated, final int[] theShape) {
+
+            this.type = theType;
+            this.dbSchema = theDbSchema;
+            this.table = theTable;
+            this.numUpdated = theNumUpdated;
+            this.shape = theShape;
+
+            int h = theType.hashCode();
+            h = 31 * h + theDbSchema.hashCode();
+            h = 31 * h + System.identityHashCode(theTable);
+            h = 31 * h + theNumUpdated;
+            this.hash = 31 * h + Arrays.hashCode(theShape);
+        }
+
+        /**
+         * Generates a hash code for the object.
+         *
+         * @return the hash code
+         */
+        @Override
+        public int hashCode() {
+
+            return this.hash;
+        }
+
+        /**
+         * Tests whether this object is equal to another.
+         *
+         * @param obj the other object
+         * @return true if the objects are equal
+         */
+        @Override
+        public boolean equals(final Object obj) {
+
+            final boolean equal;
+
+            if (obj == this) {
+                equal = true;
+            } else if (obj instanceof final ShapeKey key) {
+                equal = this.hash == key.hash && this.type == key.type && this.table == key.table
+                        && this.numUpdated == key.numUpdated && this.dbSchema.equals(key.dbSchema)
+                        && Arrays.equals(this.shape, key.shape);
+            } else {
+                equal = false;
+            }
+
+            return equal;
+        }
+    }
+}
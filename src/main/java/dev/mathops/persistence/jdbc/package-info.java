@@ -0,0 +1,5 @@
+/**
+ * An implementation that maps tables to a relational database through JDBC, with a bounded connection pool shared by
+ * all contexts the implementation serves.
+ */
+package dev.mathops.persistence.jdbc;
@@ -0,0 +1,162 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.NullValue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Builds a column from values copied from an existing column and new values, for a write that creates a new table
+ * snapshot.
+ */
+final class ColumnBuilder {
+
+    /** The field type. */
+    private final EFieldType type;
+
+    /** The storage. */
+    private final EColumnStorage storage;
+
+    /** The dictionary, for STRING fields ({@code null} otherwise). */
+    private final StringDictionary dictionary;
+
+    /** The values, for INT storage. */
+    private int[] ints;
+
+    /** The values, for LONG storage. */
+    private long[] longs;
+
+    /** The values, for DOUBLE storage. */
+    private double[] doubles;
+
+    /** The null bitmap. */
+    private long[] nulls;
+
+    /** True if any value added is null. */
+    private boolean anyNull;
+
+    /** The number of values added. */
+    private int size;
+
+    /**
+     * Constructs a new {@code ColumnBuilder}.
+     *
+     * @param theType       the field type
+     * @param capacity      the number of values that will be added
+     * @param theDictionary the dictionary, for STRING fields ({@code null} otherwise)
+     */
+    ColumnBuilder(final EFieldType theType, final int capacity, final StringDictionary theDictionary) {
+
+        this.type = theType;
+        this.storage = EColumnStorage.forType(theType);
+        this.dictionary = theDictionary;
+
+        switch (this.storage) {
+            case INT -> this.ints = new int[capacity];
+            case LONG -> this.longs = new long[capacity];
+            case DOUBLE -> this.doubles = new double[capacity];
+        }
+        this.nulls = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Copies the values of the first rows of a column (which must be the first values added).
+     *
+     * @param src     the column
+     * @param numRows the number of rows to copy
+     */
+    void copyAll(final MemoryColumn src, final int numRows) {
+
+        switch (this.storage) {
+            case INT -> System.arraycopy(src.ints, 0, this.ints, 0, numRows);
+            case LONG -> System.arraycopy(src.longs, 0, this.longs, 0, numRows);
+            case DOUBLE -> System.arraycopy(src.doubles, 0, this.doubles, 0, numRows);
+        }
+        if (src.nulls != null) {
+            System.arraycopy(src.nulls, 0, this.nulls, 0, (numRows + 63) >>> 6);
+            this.anyNull = true;
+        }
+        this.size = numRows;
+    }
+
+    /**
+     * Copies the value of one row of a column.
+     *
+     * @param src the column
+     * @param row the row index
+     */
+    void copy(final MemoryColumn src, final int row) {
+
+        switch (this.storage) {
+            case INT -> this.ints[this.size] = src.ints[row];
+            case LONG -> this.longs[this.size] = src.longs[row];
+            case DOUBLE -> this.doubles[this.size] = src.doubles[row];
+        }
+        if (src.isNull(row)) {
+            setNull();
+        }
+        ++this.size;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value ({@code null} or {@code NullValue.INSTANCE} for null)
+     * @throws ClassCastException  if the value's class does not match the field type
+     * @throws ArithmeticException if a date or date/time is outside the range that can be stored
+     */
+    void add(final Object value) {
+
+        if (value == null || value == NullValue.INSTANCE) {
+            setNull();
+        } else {
+            switch (this.type) {
+                case STRING -> this.ints[this.size] = this.dictionary.encode((String) value);
+                case BOOLEAN -> this.ints[this.size] = ((Boolean) value).booleanValue() ? 1 : 0;
+                case BYTE, INTEGER -> this.ints[this.size] = ((Number) value).intValue();
+                case LOCAL_DATE -> this.ints[this.size] = Math.toIntExact(((LocalDate) value).toEpochDay());
+                case LONG -> this.longs[this.size] = ((Number) value).longValue();
+                case LOCAL_TIME -> this.longs[this.size] = ((LocalTime) value).toNanoOfDay();
+                case LOCAL_DATE_TIME -> {
+                    final LocalDateTime dateTime = (LocalDateTime) value;
+                    final long seconds = dateTime.toEpochSecond(ZoneOffset.UTC);
+                    this.longs[this.size] = Math.addExact(Math.multiplyExact(seconds, MemoryColumn.NANOS_PER_SECOND),
+                            (long) dateTime.getNano());
+                }
+                case FLOAT, DOUBLE -> this.doubles[this.size] = ((Number) value).doubleValue();
+            }
+        }
+        ++this.size;
+    }
+
+    /**
+     * Marks the value being added as null.
+     */
+    private void setNull() {
+
+        this.nulls[this.size >>> 6] |= 1L << this.size;
+        this.anyNull = true;
+    }
+
+    /**
+     * Builds the column.
+     *
+     * @return the column
+     */
+    MemoryColumn build() {
+
+        final int n = this.size;
+        final long[] theNulls = this.anyNull ? Arrays.copyOf(this.nulls, (n + 63) >>> 6) : null;
+        final String[] strings = this.dictionary == null ? null : this.dictionary.getStrings();
+
+        return switch (this.storage) {
+            case INT -> new MemoryColumn(this.type, Arrays.copyOf(this.ints, n), null, null, theNulls, strings);
+            case LONG -> new MemoryColumn(this.type, null, Arrays.copyOf(this.longs, n), null, theNulls, strings);
+            case DOUBLE -> new MemoryColumn(this.type, null, null, Arrays.copyOf(this.doubles, n), theNulls, strings);
+        };
+    }
+}
@@ -0,0 +1,458 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+
+import java.util.Arrays;
+
+/**
+ * A selection criterion compiled for evaluation against a column: a null test, a set of values, or a range with
+ * inclusive bounds.
+ *
+ * <p>
+ * A predicate filters a selection vector (an array of row indexes) in place, in a loop over the column's primitive
+ * array specialized for the storage and the kind of test, with no boxing or virtual calls per row.  Null values never
+ * match a comparison, set, or range (as in SQL), though a "NOT IN" with no values matches every row.
+ */
+final class ColumnPredicate {
+
+    /** A test for null. */
+    private static final int IS_NULL = 0;
+
+    /** A test for a non-null value. */
+    private static final int IS_NOT_NULL = 1;
+
+    /** A test for membership in a set. */
+    private static final int IN = 2;
+
+    /** A test for a value not in a (non-empty) set. */
+    private static final int NOT_IN = 3;
+
+    /** A test for a value in a range. */
+    private static final int RANGE = 4;
+
+    /** A test that every row passes ("NOT IN" with no values). */
+    private static final int ALL = 5;
+
+    /** The field index. */
+    final int field;
+
+    /** The kind of test. */
+    private final int kind;
+
+    /** The distinct values of a set, in increasing order. */
+    private final long[] values;
+
+    /** The lower bound of a range (inclusive). */
+    final long lower;
+
+    /** The upper bound of a range (inclusive). */
+    final long upper;
+
+    /** The lower bound of a range, for floating-point columns. */
+    private final double doubleLower;
+
+    /** The upper bound of a range, for floating-point columns. */
+    private final double doubleUpper;
+
+    /** True if the lower bound of a range excludes {@code doubleLower}. */
+    private final boolean lowerOpen;
+
+    /** True if the upper bound of a range excludes {@code doubleUpper}. */
+    private final boolean upperOpen;
+
+    /**
+     * Constructs a new {@code ColumnPredicate} that is not a range.
+     *
+     * @param theField  the field index
+     * @param theKind   the kind of test
+     * @param theValues the distinct values of a set, in increasing order ({@code null} if not a set)
+     */
+    private ColumnPredicate(final int theField, final int theKind, final long[] theValues) {
+
+        this.field = theField;
+        this.kind = theKind;
+        this.values = theValues;
+        this.lower = 0L;
+        this.upper = 0L;
+        this.doubleLower = 0.0;
+        this.doubleUpper = 0.0;
+        this.lowerOpen = false;
+        this.upperOpen = false;
+    }
+
+    /**
+     * Constructs a new range {@code ColumnPredicate}.  Because criterion values are integers, an exclusive bound
+     * {@code v} is the inclusive bound {@code v + 1} or {@code v - 1}, which is exact for integer columns;
+     * floating-point columns are tested against the original bounds.
+     *
+     * @param theField     the field index
+     * @param theLower     the lower bound ({@code null} if none)
+     * @param theLowerOpen true if the lower bound is exclusive
+     * @param theUpper     the upper bound ({@code null} if none)
+     * @param theUpperOpen true if the upper bound is exclusive
+     */
+    private ColumnPredicate(final int theField, final Long theLower, final boolean theLowerOpen, final Long theUpper,
+                            final boolean theUpperOpen) {
+
+        this.field = theField;
+        this.kind = RANGE;
+        this.values = null;
+
+        if (theLower == null) {
+            this.lower = Long.MIN_VALUE;
+            this.doubleLower = Double.NEGATIVE_INFINITY;
+            this.lowerOpen = false;
+        } else {
+            final long value = theLower.longValue();
+            this.lower = theLowerOpen ? value + 1L : value;
+            this.doubleLower = (double) value;
+            this.lowerOpen = theLowerOpen;
+        }
+
+        if (theUpper == null) {
+            this.upper = Long.MAX_VALUE;
+            this.doubleUpper = Double.POSITIVE_INFINITY;
+            this.upperOpen = false;
+        } else {
+            final long value = theUpper.longValue();
+            this.upper = theUpperOpen ? value - 1L : value;
+            this.doubleUpper = (double) value;
+            this.upperOpen = theUpperOpen;
+        }
+    }
+
+    /**
+     * Compiles a criterion.
+     *
+     * @param table     the table
+     * @param criterion the criterion
+     * @return the predicate
+     * @throws PersistenceException if the criterion is not supported, its field is not in the table or does not hold
+     *                              numbers, or it has the wrong number of values
+     */
+    static ColumnPredicate compile(final Table table, final AbstractFieldCriterion criterion)
+            throws PersistenceException {
+
+        if (!(criterion instanceof final IntegerFieldCriterion intCriterion)) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Unsupported criterion type", null);
+        }
+
+        final int fieldIndex = fieldIndex(table, intCriterion);
+        final EFieldType type = table.getField(fieldIndex).getDef().getType();
+        if (type != EFieldType.BYTE && type != EFieldType.INTEGER && type != EFieldType.LONG
+            && type != EFieldType.FLOAT && type != EFieldType.DOUBLE) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST,
+                    "Integer criterion on field of type " + type.name(), null);
+        }
+
+        final ENumericMatchType matchType = intCriterion.getMatchType();
+        final int numValues = intCriterion.getNumIntegers();
+        final long[] given = new long[numValues];
+        int numGiven = 0;
+        for (int i = 0; i < numValues; ++i) {
+            final Integer value = intCriterion.getInteger(i);
+            if (value != null) {
+                given[numGiven] = value.longValue();
+                ++numGiven;
+            }
+        }
+        checkArity(matchType, numValues, numGiven);
+
+        final Long first = numGiven > 0 ? Long.valueOf(given[0]) : null;
+        final Long second = numGiven > 1 ? Long.valueOf(given[1]) : null;
+
+        return switch (matchType) {
+            case IS_NULL -> new ColumnPredicate(fieldIndex, IS_NULL, null);
+            case IS_NOT_NULL -> new ColumnPredicate(fieldIndex, IS_NOT_NULL, null);
+            case EXACT_IN -> new ColumnPredicate(fieldIndex, IN, distinct(given, numGiven));
+            case EXACT_NOT_IN -> numValues == 0 ? new ColumnPredicate(fieldIndex, ALL, null)
+                    : new ColumnPredicate(fieldIndex, NOT_IN, distinct(given, numGiven));
+            case GREATER_THAN -> new ColumnPredicate(fieldIndex, first, true, null, false);
+            case GREATER_THAN_OR_EQUAL -> new ColumnPredicate(fieldIndex, first, false, null, false);
+            case LESS_THAN -> new ColumnPredicate(fieldIndex, null, false, first, true);
+            case LESS_THAN_OR_EQUAL -> new ColumnPredicate(fieldIndex, null, false, first, false);
+            case BETWEEN_EXCLUDE_BOUNDS -> new ColumnPredicate(fieldIndex, first, true, second, true);
+            case BETWEEN_EXCLUDE_LOWER_BOUND -> new ColumnPredicate(fieldIndex, first, true, second, false);
+            case BETWEEN_EXCLUDE_UPPER_BOUND -> new ColumnPredicate(fieldIndex, first, false, second, true);
+            case BETWEEN_INCLUDE_BOUNDS -> new ColumnPredicate(fieldIndex, first, false, second, false);
+        };
+    }
+
+    /**
+     * Tests whether this predicate selects a contiguous run of values that can be found with an index: a set or a
+     * range.
+     *
+     * @return true for a set or a range
+     */
+    boolean isIndexable() {
+
+        return this.kind == IN || this.kind == RANGE;
+    }
+
+    /**
+     * Gets the values of a set predicate.
+     *
+     * @return the distinct values, in increasing order ({@code null} if this is not a set predicate)
+     */
+    long[] getSetValues() {
+
+        return this.kind == IN ? this.values : null;
+    }
+
+    /**
+     * Filters a selection vector, keeping the rows whose value passes the test.
+     *
+     * @param col the column
+     * @param sel the selection vector (row indexes), compacted in place
+     * @param n   the number of rows in the selection vector
+     * @return the number of rows kept
+     */
+    int filter(final MemoryColumn col, final int[] sel, final int n) {
+
+        final long[] nulls = col.nulls;
+
+        final int result;
+        if (this.kind == ALL) {
+            result = n;
+        } else if (this.kind == IS_NULL || this.kind == IS_NOT_NULL) {
+            final boolean wantNull = this.kind == IS_NULL;
+            int m = 0;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                final boolean isNull = nulls != null && (nulls[r >>> 6] & (1L << r)) != 0L;
+                if (isNull == wantNull) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+            result = m;
+        } else {
+            result = switch (col.storage) {
+                case INT -> filterInts(col.ints, nulls, sel, n);
+                case LONG -> filterLongs(col.longs, nulls, sel, n);
+                case DOUBLE -> filterDoubles(col.doubles, nulls, sel, n);
+            };
+        }
+
+        return result;
+    }
+
+    /**
+     * Filters a selection vector against an {@code int[]} column.
+     *
+     * @param data  the column values
+     * @param nulls the null bitmap ({@code null} if no value is null)
+     * @param sel   the selection vector, compacted in place
+     * @param n     the number of rows in the selection vector
+     * @return the number of rows kept
+     */
+    private int filterInts(final int[] data, final long[] nulls, final int[] sel, final int n) {
+
+        int m = 0;
+
+        if (this.kind == RANGE) {
+            final long lo = this.lower;
+            final long hi = this.upper;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                final long x = (long) data[r];
+                if (x >= lo && x <= hi && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        } else if (this.values.length == 1) {
+            final long v = this.values[0];
+            final boolean want = this.kind == IN;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                if (((long) data[r] == v) == want && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        } else {
+            final long[] set = this.values;
+            final boolean want = this.kind == IN;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                if ((Arrays.binarySearch(set, (long) data[r]) >= 0) == want
+                    && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        }
+
+        return m;
+    }
+
+    /**
+     * Filters a selection vector against a {@code long[]} column.
+     *
+     * @param data  the column values
+     * @param nulls the null bitmap ({@code null} if no value is null)
+     * @param sel   the selection vector, compacted in place
+     * @param n     the number of rows in the selection vector
+     * @return the number of rows kept
+     */
+    private int filterLongs(final long[] data, final long[] nulls, final int[] sel, final int n) {
+
+        int m = 0;
+
+        if (this.kind == RANGE) {
+            final long lo = this.lower;
+            final long hi = this.upper;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                final long x = data[r];
+                if (x >= lo && x <= hi && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        } else {
+            final long[] set = this.values;
+            final boolean want = this.kind == IN;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                if ((Arrays.binarySearch(set, data[r]) >= 0) == want
+                    && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        }
+
+        return m;
+    }
+
+    /**
+     * Filters a selection vector against a {@code double[]} column.  A range is tested against its original bounds, so
+     * fractional values are tested correctly against both exclusive and inclusive bounds.
+     *
+     * @param data  the column values
+     * @param nulls the null bitmap ({@code null} if no value is null)
+     * @param sel   the selection vector, compacted in place
+     * @param n     the number of rows in the selection vector
+     * @return the number of rows kept
+     */
+    private int filterDoubles(final double[] data, final long[] nulls, final int[] sel, final int n) {
+
+        int m = 0;
+
+        if (this.kind == RANGE) {
+            final double lo = this.doubleLower;
+            final double hi = this.doubleUpper;
+            final boolean loOpen = this.lowerOpen;
+            final boolean hiOpen = this.upperOpen;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                final double x = data[r];
+                final boolean above = loOpen ? x > lo : x >= lo;
+                final boolean below = hiOpen ? x < hi : x <= hi;
+                if (above && below && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        } else {
+            final long[] set = this.values;
+            final boolean want = this.kind == IN;
+            for (int k = 0; k < n; ++k) {
+                final int r = sel[k];
+                final double x = data[r];
+                final boolean isMember = x == Math.rint(x) && Arrays.binarySearch(set, (long) x) >= 0;
+                if (isMember == want && (nulls == null || (nulls[r >>> 6] & (1L << r)) == 0L)) {
+                    sel[m] = r;
+                    ++m;
+                }
+            }
+        }
+
+        return m;
+    }
+
+    /**
+     * Finds the index of a criterion's field in a table.
+     *
+     * @param table     the table
+     * @param criterion the criterion
+     * @return the field index
+     * @throws PersistenceException if the field is not in the table
+     */
+    private static int fieldIndex(final Table table, final IntegerFieldCriterion criterion)
+            throws PersistenceException {
+
+        int result = -1;
+
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            if (table.getField(i) == criterion.getField()) {
+                result = i;
+                break;
+            }
+        }
+
+        if (result == -1) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Criterion field is not in the table",
+                    null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks that a criterion has the number of values its match type requires.
+     *
+     * @param type      the match type
+     * @param numValues the number of values
+     * @param numGiven  the number of values that are not null
+     * @throws PersistenceException if the number of values is wrong, or a comparison or range has a null value
+     */
+    private static void checkArity(final ENumericMatchType type, final int numValues, final int numGiven)
+            throws PersistenceException {
+
+        final boolean valid = switch (type) {
+            case IS_NULL, IS_NOT_NULL -> numValues == 0;
+            case EXACT_IN, EXACT_NOT_IN -> true;
+            case GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL -> numGiven == 1;
+            case BETWEEN_EXCLUDE_BOUNDS, BETWEEN_EXCLUDE_LOWER_BOUND, BETWEEN_EXCLUDE_UPPER_BOUND,
+                 BETWEEN_INCLUDE_BOUNDS -> numGiven == 2;
+        };
+
+        if (!valid) {
+            final String msg = "Criterion of type " + type.name() + " has " + numValues + " values";
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, msg, null);
+        }
+    }
+
+    /**
+     * Sorts values and removes duplicates.
+     *
+     * @param values the values
+     * @param count  the number of values to use
+     * @return the distinct values, in increasing order
+     */
+    private static long[] distinct(final long[] values, final int count) {
+
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+
+        int m = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i == 0 || sorted[i] != sorted[m - 1]) {
+                sorted[m] = sorted[i];
+                ++m;
+            }
+        }
+
+        return Arrays.copyOf(sorted, m);
+    }
+}
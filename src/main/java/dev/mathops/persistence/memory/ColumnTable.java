@@ -0,0 +1,561 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Field;
+import dev.mathops.db.table.NullValue;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The rows of one table in one context, stored by column.
+ *
+ * <p>
+ * Reads take the current snapshot with one volatile read and never lock, so they never wait for writes.  Writes hold
+ * the table's write lock, build a new snapshot (rebuilding only the columns they change, and the primary key index only
+ * if key values change), and publish it with one volatile write.  A write that fails (for example, on a duplicate
+ * primary key) publishes nothing, so it has no effect.  This suits the read-mostly tables the implementation is meant
+ * for; each write costs time proportional to the size of the table.
+ */
+final class ColumnTable {
+
+    /** The ID, which orders the write locks of tables updated together. */
+    final int id;
+
+    /** The table. */
+    private final Table table;
+
+    /** The field types, indexed by field index. */
+    private final EFieldType[] types;
+
+    /** True for each field that may not be null (PARTITION_KEY and NOT_NULL fields). */
+    private final boolean[] required;
+
+    /** The indexes of the primary key fields, in field order. */
+    private final int[] pkFields;
+
+    /** True if the first primary key field holds integers (so the index can be searched by value). */
+    private final boolean searchable;
+
+    /** The dictionaries of STRING fields, indexed by field index ({@code null} for other fields). */
+    private final StringDictionary[] dictionaries;
+
+    /** The lock held while writing. */
+    final ReentrantLock writeLock;
+
+    /** The current snapshot. */
+    private volatile TableSnapshot snapshot;
+
+    /**
+     * Constructs a new, empty {@code ColumnTable}.
+     *
+     * @param theId    the ID
+     * @param theTable the table
+     */
+    ColumnTable(final int theId, final Table theTable) {
+
+        this.id = theId;
+        this.table = theTable;
+
+        final int numFields = theTable.getNumFields();
+        this.types = new EFieldType[numFields];
+        this.required = new boolean[numFields];
+        this.dictionaries = new StringDictionary[numFields];
+        final MemoryColumn[] columns = new MemoryColumn[numFields];
+
+        int numKeys = 0;
+        for (int i = 0; i < numFields; ++i) {
+            final Field field = theTable.getField(i);
+            final EFieldType type = field.getDef().getType();
+            final EFieldRole role = field.getRole();
+            this.types[i] = type;
+            this.required[i] = role != EFieldRole.NULLABLE;
+            if (type == EFieldType.STRING) {
+                this.dictionaries[i] = new StringDictionary();
+            }
+            if (role == EFieldRole.PARTITION_KEY) {
+                ++numKeys;
+            }
+            columns[i] = new ColumnBuilder(type, 0, this.dictionaries[i]).build();
+        }
+
+        this.pkFields = new int[numKeys];
+        int index = 0;
+        for (int i = 0; i < numFields; ++i) {
+            if (theTable.getField(i).getRole() == EFieldRole.PARTITION_KEY) {
+                this.pkFields[index] = i;
+                ++index;
+            }
+        }
+
+        final EFieldType firstKeyType = numKeys == 0 ? null : this.types[this.pkFields[0]];
+        this.searchable = firstKeyType == EFieldType.BYTE || firstKeyType == EFieldType.INTEGER
+                          || firstKeyType == EFieldType.LONG;
+
+        this.writeLock = new ReentrantLock();
+        this.snapshot = new TableSnapshot(0, columns, numKeys == 0 ? null : new int[0],
+                this.searchable ? new long[0] : null);
+    }
+
+    /**
+     * Counts the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    long count(final SelectionCriteria criteria) throws PersistenceException {
+
+        final TableSnapshot snap = this.snapshot;
+        final ColumnPredicate[] predicates = compile(criteria);
+
+        final int result;
+        if (predicates.length == 0) {
+            result = snap.numRows;
+        } else {
+            result = select(snap, predicates, new int[snap.numRows]);
+        }
+
+        return (long) result;
+    }
+
+    /**
+     * Queries the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    void query(final SelectionCriteria criteria, final List<? super Row> results) throws PersistenceException {
+
+        final TableSnapshot snap = this.snapshot;
+        final ColumnPredicate[] predicates = compile(criteria);
+        final int[] sel = new int[snap.numRows];
+        final int n = select(snap, predicates, sel);
+
+        final MemoryColumn[] columns = snap.columns;
+        final int numFields = columns.length;
+        for (int k = 0; k < n; ++k) {
+            final int row = sel[k];
+            final Object[] values = new Object[numFields];
+            for (int f = 0; f < numFields; ++f) {
+                values[f] = columns[f].get(row);
+            }
+            results.add(new Row(this.table, values));
+        }
+    }
+
+    /**
+     * Builds the snapshot that results from inserting rows.  The caller must hold the write lock, and publishes the
+     * snapshot with {@code publish} once every table in the insert has been prepared.
+     *
+     * @param rows the rows to insert (all for this table)
+     * @return the new snapshot
+     * @throws PersistenceException if a value is missing or has the wrong type, or a primary key is duplicated
+     */
+    TableSnapshot prepareInsert(final List<Row> rows) throws PersistenceException {
+
+        final TableSnapshot snap = this.snapshot;
+        final int numFields = this.types.length;
+        final int numNew = rows.size();
+        final int total = snap.numRows + numNew;
+
+        final MemoryColumn[] columns = new MemoryColumn[numFields];
+        try {
+            for (int f = 0; f < numFields; ++f) {
+                final ColumnBuilder builder = new ColumnBuilder(this.types[f], total, this.dictionaries[f]);
+                builder.copyAll(snap.columns[f], snap.numRows);
+                for (final Row row : rows) {
+                    final Object value = row.getFieldValue(f);
+                    checkRequired(f, value);
+                    builder.add(value);
+                }
+                columns[f] = builder.build();
+            }
+        } catch (final ClassCastException | ArithmeticException ex) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Value does not match field type", ex);
+        }
+
+        return index(total, columns);
+    }
+
+    /**
+     * Publishes a new snapshot.  The caller must hold the write lock.
+     *
+     * @param newSnapshot the snapshot
+     */
+    void publish(final TableSnapshot newSnapshot) {
+
+        this.snapshot = newSnapshot;
+    }
+
+    /**
+     * Deletes the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    long delete(final SelectionCriteria criteria) throws PersistenceException {
+
+        final ColumnPredicate[] predicates = compile(criteria);
+
+        final int result;
+
+        this.writeLock.lock();
+        try {
+            final TableSnapshot snap = this.snapshot;
+            final int numRows = snap.numRows;
+            final int[] sel = new int[numRows];
+            result = select(snap, predicates, sel);
+
+            if (result > 0) {
+                final long[] doomed = toBitmap(sel, result, numRows);
+                final int numFields = this.types.length;
+                final MemoryColumn[] columns = new MemoryColumn[numFields];
+                for (int f = 0; f < numFields; ++f) {
+                    final MemoryColumn old = snap.columns[f];
+                    final ColumnBuilder builder = new ColumnBuilder(this.types[f], numRows - result,
+                            this.dictionaries[f]);
+                    for (int r = 0; r < numRows; ++r) {
+                        if ((doomed[r >>> 6] & (1L << r)) == 0L) {
+                            builder.copy(old, r);
+                        }
+                    }
+                    columns[f] = builder.build();
+                }
+                this.snapshot = index(numRows - result, columns);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        return (long) result;
+    }
+
+    /**
+     * Updates the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the criteria are malformed or not supported, a value has the wrong type, a
+     *                              required field would be set to null, or a primary key would be duplicated
+     */
+    long update(final SelectionCriteria criteria, final UpdatedValues values) throws PersistenceException {
+
+        final ColumnPredicate[] predicates = compile(criteria);
+        final int numFields = this.types.length;
+
+        final int result;
+
+        this.writeLock.lock();
+        try {
+            final TableSnapshot snap = this.snapshot;
+            final int numRows = snap.numRows;
+            final int[] sel = new int[numRows];
+            result = select(snap, predicates, sel);
+
+            if (result > 0) {
+                final long[] selected = toBitmap(sel, result, numRows);
+                final MemoryColumn[] columns = snap.columns.clone();
+                boolean keyChanged = false;
+
+                try {
+                    for (int f = 0; f < numFields; ++f) {
+                        final Object value = values.getFieldValue(f);
+                        if (value != null) {
+                            checkRequired(f, value);
+                            final MemoryColumn old = snap.columns[f];
+                            final ColumnBuilder builder = new ColumnBuilder(this.types[f], numRows,
+                                    this.dictionaries[f]);
+                            for (int r = 0; r < numRows; ++r) {
+                                if ((selected[r >>> 6] & (1L << r)) == 0L) {
+                                    builder.copy(old, r);
+                                } else {
+                                    builder.add(value);
+                                }
+                            }
+                            columns[f] = builder.build();
+                            keyChanged = keyChanged || this.table.getField(f).getRole() == EFieldRole.PARTITION_KEY;
+                        }
+                    }
+                } catch (final ClassCastException | ArithmeticException ex) {
+                    throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Value does not match field type",
+                            ex);
+                }
+
+                this.snapshot = keyChanged ? index(numRows, columns)
+                        : new TableSnapshot(numRows, columns, snap.pkOrder, snap.pkKeys);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        return (long) result;
+    }
+
+    /**
+     * Finds the rows of a snapshot that pass every predicate.  If a predicate selects a set or range of the first
+     * primary key field and that field holds integers, the candidate rows are found by binary search in the key index
+     * (and are returned in key order); otherwise every row is a candidate.  Each remaining predicate then filters the
+     * candidates in turn.
+     *
+     * @param snap       the snapshot
+     * @param predicates the predicates
+     * @param sel        an array at least as long as the number of rows, in which to store the selected row indexes
+     * @return the number of rows selected
+     */
+    private int select(final TableSnapshot snap, final ColumnPredicate[] predicates, final int[] sel) {
+
+        int seek = -1;
+        if (snap.pkKeys != null) {
+            for (int i = 0; i < predicates.length; ++i) {
+                if (predicates[i].field == this.pkFields[0] && predicates[i].isIndexable()) {
+                    seek = i;
+                    break;
+                }
+            }
+        }
+
+        int n;
+        if (seek == -1) {
+            n = snap.numRows;
+            for (int r = 0; r < n; ++r) {
+                sel[r] = r;
+            }
+        } else {
+            n = seek(snap, predicates[seek], sel);
+        }
+
+        for (int i = 0; i < predicates.length && n > 0; ++i) {
+            if (i != seek) {
+                final ColumnPredicate predicate = predicates[i];
+                n = predicate.filter(snap.columns[predicate.field], sel, n);
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Finds the rows whose first primary key value is in a set or range, by binary search in the key index.
+     *
+     * @param snap      the snapshot
+     * @param predicate the set or range predicate on the first primary key field
+     * @param sel       the array in which to store the row indexes
+     * @return the number of rows found
+     */
+    private static int seek(final TableSnapshot snap, final ColumnPredicate predicate, final int[] sel) {
+
+        final long[] keys = snap.pkKeys;
+        final int[] order = snap.pkOrder;
+        final long[] set = predicate.getSetValues();
+
+        int n = 0;
+        if (set == null) {
+            final int from = lowerBound(keys, predicate.lower);
+            final int to = upperBound(keys, predicate.upper);
+            if (to > from) {
+                System.arraycopy(order, from, sel, 0, to - from);
+                n = to - from;
+            }
+        } else {
+            for (final long value : set) {
+                final int from = lowerBound(keys, value);
+                final int to = upperBound(keys, value);
+                if (to > from) {
+                    System.arraycopy(order, from, sel, n, to - from);
+                    n += to - from;
+                }
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Finds the first position in a sorted array whose value is at least a given value.
+     *
+     * @param keys  the sorted array
+     * @param value the value
+     * @return the position (the array length if every value is less)
+     */
+    private static int lowerBound(final long[] keys, final long value) {
+
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Finds the first position in a sorted array whose value is greater than a given value.
+     *
+     * @param keys  the sorted array
+     * @param value the value
+     * @return the position (the array length if no value is greater)
+     */
+    private static int upperBound(final long[] keys, final long value) {
+
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Builds a snapshot with a new primary key index.
+     *
+     * @param numRows the number of rows
+     * @param columns the columns
+     * @return the snapshot
+     * @throws PersistenceException if two rows have the same primary key
+     */
+    private TableSnapshot index(final int numRows, final MemoryColumn[] columns) throws PersistenceException {
+
+        int[] order = null;
+        long[] keys = null;
+
+        if (this.pkFields.length > 0) {
+            final Integer[] boxed = new Integer[numRows];
+            for (int r = 0; r < numRows; ++r) {
+                boxed[r] = Integer.valueOf(r);
+            }
+            Arrays.sort(boxed, (r1, r2) -> compareKeys(columns, r1.intValue(), r2.intValue()));
+
+            order = new int[numRows];
+            for (int i = 0; i < numRows; ++i) {
+                order[i] = boxed[i].intValue();
+                if (i > 0 && compareKeys(columns, order[i - 1], order[i]) == 0) {
+                    final String msg = SimpleBuilder.concat("Duplicate primary key in table '", this.table.getName(),
+                            "'");
+                    throw new PersistenceException(EFailureCode.CONSTRAINT_VIOLATION, msg, null);
+                }
+            }
+
+            if (this.searchable) {
+                final MemoryColumn first = columns[this.pkFields[0]];
+                keys = new long[numRows];
+                for (int i = 0; i < numRows; ++i) {
+                    keys[i] = first.getLong(order[i]);
+                }
+            }
+        }
+
+        return new TableSnapshot(numRows, columns, order, keys);
+    }
+
+    /**
+     * Compares the primary keys of two rows.
+     *
+     * @param columns the columns
+     * @param row1    the first row index
+     * @param row2    the second row index
+     * @return a negative number, zero, or a positive number as the first key is less than, equal to, or greater than
+     *         the second
+     */
+    private int compareKeys(final MemoryColumn[] columns, final int row1, final int row2) {
+
+        int result = 0;
+
+        for (int i = 0; i < this.pkFields.length && result == 0; ++i) {
+            result = columns[this.pkFields[i]].compare(row1, row2);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks that a value is allowed in a field.
+     *
+     * @param field the field index
+     * @param value the value
+     * @throws PersistenceException if the value is null (or {@code NullValue.INSTANCE}) and the field is required
+     */
+    private void checkRequired(final int field, final Object value) throws PersistenceException {
+
+        if (this.required[field] && (value == null || value == NullValue.INSTANCE)) {
+            final String msg = SimpleBuilder.concat("Field '", this.table.getField(field).getDef().getName(),
+                    "' may not be null");
+            throw new PersistenceException(EFailureCode.CONSTRAINT_VIOLATION, msg, null);
+        }
+    }
+
+    /**
+     * Compiles selection criteria into predicates.
+     *
+     * @param criteria the selection criteria ({@code null} if none)
+     * @return the predicates
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    private ColumnPredicate[] compile(final SelectionCriteria criteria) throws PersistenceException {
+
+        final int numCriteria = criteria == null ? 0 : criteria.getNumCriteria();
+        final ColumnPredicate[] result = new ColumnPredicate[numCriteria];
+
+        for (int i = 0; i < numCriteria; ++i) {
+            result[i] = ColumnPredicate.compile(this.table, criteria.getCriterion(i));
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts a list of row indexes to a bitmap.
+     *
+     * @param sel     the row indexes
+     * @param n       the number of row indexes
+     * @param numRows the number of rows
+     * @return the bitmap
+     */
+    private static long[] toBitmap(final int[] sel, final int n, final int numRows) {
+
+        final long[] result = new long[(numRows + 63) >>> 6];
+
+        for (int k = 0; k < n; ++k) {
+            final int r = sel[k];
+            result[r >>> 6] |= 1L << r;
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String rowsStr = Integer.toString(this.snapshot.numRows);
+
+        return SimpleBuilder.concat("ColumnTable{table=", this.table.getName(), ", rows=", rowsStr, "}");
+    }
+}
@@ -0,0 +1,37 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldType;
+
+/**
+ * The primitive arrays in which columns of each field type are stored.
+ */
+enum EColumnStorage {
+
+    /**
+     * An {@code int[]}: BOOLEAN (0 or 1), BYTE, INTEGER, LOCAL_DATE (epoch day), and STRING (dictionary code).
+     */
+    INT,
+
+    /**
+     * A {@code long[]}: LONG, LOCAL_TIME (nanosecond of day), and LOCAL_DATE_TIME (nanoseconds since the epoch, UTC).
+     */
+    LONG,
+
+    /** A {@code double[]}: FLOAT and DOUBLE. */
+    DOUBLE;
+
+    /**
+     * Gets the storage for a field type.
+     *
+     * @param type the field type
+     * @return the storage
+     */
+    static EColumnStorage forType(final EFieldType type) {
+
+        return switch (type) {
+            case BOOLEAN, BYTE, INTEGER, LOCAL_DATE, STRING -> INT;
+            case LONG, LOCAL_TIME, LOCAL_DATE_TIME -> LONG;
+            case FLOAT, DOUBLE -> DOUBLE;
+        };
+    }
+}
@@ -0,0 +1,160 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+
+/**
+ * The values of one field for every row of a table snapshot, in a primitive array, with a bitmap of the rows whose
+ * value is null.
+ *
+ * <p>
+ * A column is immutable once built, so any number of threads can read it without locking.  Writes build new columns
+ * (see {@code ColumnBuilder}); a column that a write does not change is shared by the old and new snapshots.
+ */
+final class MemoryColumn {
+
+    /** Nanoseconds per second. */
+    static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** The field type. */
+    final EFieldType type;
+
+    /** The storage. */
+    final EColumnStorage storage;
+
+    /** The values, for INT storage ({@code null} otherwise). */
+    final int[] ints;
+
+    /** The values, for LONG storage ({@code null} otherwise). */
+    final long[] longs;
+
+    /** The values, for DOUBLE storage ({@code null} otherwise). */
+    final double[] doubles;
+
+    /** A bitmap with a 1 for each row whose value is null ({@code null} if no value is null). */
+    final long[] nulls;
+
+    /** The strings for each dictionary code, for STRING fields ({@code null} otherwise). */
+    private final String[] dictionary;
+
+    /**
+     * Constructs a new {@code MemoryColumn}.  The arrays are not copied; the caller must not modify them afterward.
+     *
+     * @param theType       the field type
+     * @param theInts       the values, for INT storage
+     * @param theLongs      the values, for LONG storage
+     * @param theDoubles    the values, for DOUBLE storage
+     * @param theNulls      the null bitmap ({@code null} if no value is null)
+     * @param theDictionary the strings for each dictionary code, for STRING fields
+     */
+    MemoryColumn(final EFieldType theType, final int[] theInts, final long[] theLongs, final double[] theDoubles,
+                 final long[] theNulls, final String[] theDictionary) {
+
+        this.type = theType;
+        this.storage = EColumnStorage.forType(theType);
+        this.ints = theInts;
+        this.longs = theLongs;
+        this.doubles = theDoubles;
+        this.nulls = theNulls;
+        this.dictionary = theDictionary;
+    }
+
+    /**
+     * Tests whether the value in a row is null.
+     *
+     * @param row the row index
+     * @return true if the value is null
+     */
+    boolean isNull(final int row) {
+
+        return this.nulls != null && (this.nulls[row >>> 6] & (1L << row)) != 0L;
+    }
+
+    /**
+     * Gets the value in a row as an object of the type a {@code Row} uses for the field type.
+     *
+     * @param row the row index
+     * @return the value; {@code null} if the value is null
+     */
+    Object get(final int row) {
+
+        Object result = null;
+
+        if (!isNull(row)) {
+            result = switch (this.type) {
+                case STRING -> this.dictionary[this.ints[row]];
+                case BOOLEAN -> Boolean.valueOf(this.ints[row] != 0);
+                case BYTE -> Byte.valueOf((byte) this.ints[row]);
+                case INTEGER -> Integer.valueOf(this.ints[row]);
+                case LOCAL_DATE -> LocalDate.ofEpochDay((long) this.ints[row]);
+                case LONG -> Long.valueOf(this.longs[row]);
+                case LOCAL_TIME -> LocalTime.ofNanoOfDay(this.longs[row]);
+                case LOCAL_DATE_TIME -> {
+                    final long value = this.longs[row];
+                    final long seconds = Math.floorDiv(value, NANOS_PER_SECOND);
+                    final int nanos = (int) Math.floorMod(value, NANOS_PER_SECOND);
+                    yield LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+                }
+                case FLOAT -> Float.valueOf((float) this.doubles[row]);
+                case DOUBLE -> Double.valueOf(this.doubles[row]);
+            };
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the value in a row as a long integer, for INT or LONG storage.
+     *
+     * @param row the row index
+     * @return the value
+     */
+    long getLong(final int row) {
+
+        return this.storage == EColumnStorage.INT ? (long) this.ints[row] : this.longs[row];
+    }
+
+    /**
+     * Compares the values in two rows.  Null values sort first.  Strings are compared by dictionary code, which gives a
+     * consistent order (equal strings are equal) but not an alphabetical one.
+     *
+     * @param row1 the first row index
+     * @param row2 the second row index
+     * @return a negative number, zero, or a positive number as the first value is less than, equal to, or greater than
+     *         the second
+     */
+    int compare(final int row1, final int row2) {
+
+        final boolean null1 = isNull(row1);
+        final boolean null2 = isNull(row2);
+
+        final int result;
+        if (null1 || null2) {
+            result = Boolean.compare(null2, null1);
+        } else {
+            result = switch (this.storage) {
+                case INT -> Integer.compare(this.ints[row1], this.ints[row2]);
+                case LONG -> Long.compare(this.longs[row1], this.longs[row2]);
+                case DOUBLE -> Double.compare(this.doubles[row1], this.doubles[row2]);
+            };
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("MemoryColumn{type=", this.type.name(), ", storage=", this.storage.name(), "}");
+    }
+}
@@ -0,0 +1,206 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An implementation that holds tables in memory, stored by column.  Each context has its own set of tables, which
+ * start empty and are lost when the implementation is discarded.
+ *
+ * <p>
+ * Each column is a primitive array: {@code int[]} for BOOLEAN, BYTE, INTEGER, LOCAL_DATE (as an epoch day), and STRING
+ * (as a code in a per-column dictionary of distinct strings); {@code long[]} for LONG, LOCAL_TIME (as nanoseconds of
+ * the day), and LOCAL_DATE_TIME (as nanoseconds since the epoch in UTC, which covers the years 1677 through 2262); and
+ * {@code double[]} for FLOAT and DOUBLE.  Null values are recorded in a bitmap per column, which is omitted when a
+ * column has no nulls.  Rows are kept in a sorted index on their PARTITION_KEY fields, which enforces key uniqueness
+ * and answers set and range criteria on the first key field by binary search.  Other criteria are evaluated one column
+ * at a time, narrowing an array of selected row indexes in a tight loop over the column's primitive array.
+ *
+ * <p>
+ * Reads never lock.  Writes copy the columns they change and publish a new snapshot, so this implementation suits
+ * read-mostly data such as live reference tables and test fixtures, rather than tables with heavy write traffic.  An
+ * insert that spans several tables publishes all of them together or none of them.
+ *
+ * <p>
+ * Tables are held by table object, so a table that is redefined when its schema is reloaded starts empty.
+ */
+public final class MemoryImplementation implements IImplementation {
+
+    /** A map from context name to a map from table to its storage. */
+    private final Map<String, Map<Table, ColumnTable>> contexts;
+
+    /** The ID to assign to the next table storage created. */
+    private final AtomicInteger nextId;
+
+    /**
+     * Constructs a new, empty {@code MemoryImplementation}.
+     */
+    public MemoryImplementation() {
+
+        this.contexts = new ConcurrentHashMap<>(4);
+        this.nextId = new AtomicInteger();
+    }
+
+    /**
+     * Gets the storage for a table in a context, creating it if needed.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @return the storage
+     */
+    private ColumnTable storage(final String context, final Table table) {
+
+        final Map<Table, ColumnTable> tables = this.contexts.computeIfAbsent(context,
+                key -> new ConcurrentHashMap<>(32));
+
+        return tables.computeIfAbsent(table, key -> new ColumnTable(this.nextId.getAndIncrement(), key));
+    }
+
+    /**
+     * Counts the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    @Override
+    public long count(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return storage(context, table).count(criteria);
+    }
+
+    /**
+     * Queries the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    @Override
+    public void query(final String context, final Table table, final SelectionCriteria criteria,
+                      final List<? super Row> results) throws PersistenceException {
+
+        storage(context, table).query(criteria, results);
+    }
+
+    /**
+     * Inserts rows.  The write locks of all tables involved are taken in a fixed order, the new snapshot of each table
+     * is built, and only when every table has succeeded are the snapshots published.
+     *
+     * @param context the context name
+     * @param rows    the rows to insert
+     * @return the number of rows inserted
+     * @throws PersistenceException if a value is missing or has the wrong type, or a primary key is duplicated (in
+     *                              which case no rows are inserted)
+     */
+    @Override
+    public int insert(final String context, final List<Row> rows) throws PersistenceException {
+
+        final Map<ColumnTable, List<Row>> byTable = new HashMap<>(4);
+        for (final Row row : rows) {
+            final ColumnTable target = storage(context, row.getTable());
+            byTable.computeIfAbsent(target, key -> new ArrayList<>(rows.size())).add(row);
+        }
+
+        final List<ColumnTable> targets = new ArrayList<>(byTable.keySet());
+        targets.sort(Comparator.comparingInt(target -> target.id));
+        final int numTargets = targets.size();
+
+        for (final ColumnTable target : targets) {
+            target.writeLock.lock();
+        }
+        try {
+            final TableSnapshot[] snapshots = new TableSnapshot[numTargets];
+            for (int i = 0; i < numTargets; ++i) {
+                final ColumnTable target = targets.get(i);
+                snapshots[i] = target.prepareInsert(byTable.get(target));
+            }
+            for (int i = 0; i < numTargets; ++i) {
+                targets.get(i).publish(snapshots[i]);
+            }
+        } finally {
+            for (int i = numTargets - 1; i >= 0; --i) {
+                targets.get(i).writeLock.unlock();
+            }
+        }
+
+        return rows.size();
+    }
+
+    /**
+     * Creates the (empty) storage for tables in a context, if it does not already exist.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     */
+    @Override
+    public void provision(final String context, final List<Table> tables) {
+
+        for (final Table table : tables) {
+            storage(context, table);
+        }
+    }
+
+    /**
+     * Deletes the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the criteria are malformed or not supported
+     */
+    @Override
+    public long delete(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return storage(context, table).delete(criteria);
+    }
+
+    /**
+     * Updates the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the criteria are malformed or not supported, a value has the wrong type, a
+     *                              required field would be set to null, or a primary key would be duplicated
+     */
+    @Override
+    public long update(final String context, final Table table, final SelectionCriteria criteria,
+                       final UpdatedValues values) throws PersistenceException {
+
+        return storage(context, table).update(criteria, values);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("MemoryImplementation{contexts=", this.contexts.keySet(), "}");
+    }
+}
@@ -0,0 +1,70 @@
+package dev.mathops.persistence.memory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The dictionary of a STRING column: each distinct string is stored once and rows hold its integer code.
+ *
+ * <p>
+ * Codes are never reassigned, so a column snapshot can keep a reference to the dictionary's array and read the
+ * strings for its codes after later writes have added more.  The dictionary is only modified by the thread that holds
+ * the table's write lock.
+ */
+final class StringDictionary {
+
+    /** The strings, indexed by code (entries at or beyond {@code size} are unused). */
+    private String[] strings;
+
+    /** A map from string to code. */
+    private final Map<String, Integer> codes;
+
+    /** The number of codes assigned. */
+    private int size;
+
+    /**
+     * Constructs a new, empty {@code StringDictionary}.
+     */
+    StringDictionary() {
+
+        this.strings = new String[16];
+        this.codes = new HashMap<>(32);
+    }
+
+    /**
+     * Gets the code for a string, assigning a new code if the string is not yet in the dictionary.
+     *
+     * @param value the string
+     * @return the code
+     */
+    int encode(final String value) {
+
+        final Integer existing = this.codes.get(value);
+
+        final int result;
+        if (existing == null) {
+            result = this.size;
+            if (result == this.strings.length) {
+                this.strings = Arrays.copyOf(this.strings, result * 2);
+            }
+            this.strings[result] = value;
+            this.codes.put(value, Integer.valueOf(result));
+            ++this.size;
+        } else {
+            result = existing.intValue();
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the array of strings, indexed by code.  Every code assigned so far has its string in the array.
+     *
+     * @return the array
+     */
+    String[] getStrings() {
+
+        return this.strings;
+    }
+}
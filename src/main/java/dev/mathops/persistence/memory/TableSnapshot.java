@@ -0,0 +1,59 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+/**
+ * An immutable snapshot of the rows of a table: one column per field, and the primary key index.
+ *
+ * <p>
+ * The primary key index lists the row indexes in order of their primary key (the table's PARTITION_KEY fields, in
+ * field order).  When the first key field holds integers, the index also holds that field's value at each position,
+ * so a set or range of key values can be found by binary search in one dense array.
+ */
+final class TableSnapshot {
+
+    /** The number of rows. */
+    final int numRows;
+
+    /** The columns, indexed by field index. */
+    final MemoryColumn[] columns;
+
+    /** The row indexes in primary key order ({@code null} if the table has no key fields). */
+    final int[] pkOrder;
+
+    /**
+     * The value of the first key field for each entry in {@code pkOrder} ({@code null} if the table has no key fields
+     * or the first key field does not hold integers).
+     */
+    final long[] pkKeys;
+
+    /**
+     * Constructs a new {@code TableSnapshot}.  The arrays are not copied; the caller must not modify them afterward.
+     *
+     * @param theNumRows the number of rows
+     * @param theColumns the columns, indexed by field index
+     * @param thePkOrder the row indexes in primary key order ({@code null} if the table has no key fields)
+     * @param thePkKeys  the value of the first key field for each entry in {@code thePkOrder} ({@code null} if none)
+     */
+    TableSnapshot(final int theNumRows, final MemoryColumn[] theColumns, final int[] thePkOrder,
+                  final long[] thePkKeys) {
+
+        this.numRows = theNumRows;
+        this.columns = theColumns;
+        this.pkOrder = thePkOrder;
+        this.pkKeys = thePkKeys;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String rowsStr = Integer.toString(this.numRows);
+
+        return SimpleBuilder.concat("TableSnapshot{rows=", rowsStr, "}");
+    }
+}
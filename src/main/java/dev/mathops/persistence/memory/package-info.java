@@ -0,0 +1,4 @@
+/**
+ * An implementation that holds tables in memory in columnar form, for live data, small reference tables, and tests.
+ */
+package dev.mathops.persistence.memory;
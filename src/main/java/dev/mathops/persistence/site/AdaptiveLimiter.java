@@ -0,0 +1,196 @@
+package dev.mathops.persistence.site;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+/**
+ * A concurrency limit that adapts to observed latency, with a bounded queue of waiting requests.
+ *
+ * <p>
+ * The limit follows an additive-increase, multiplicative-decrease rule.  The limiter tracks a baseline latency (the
+ * lowest latency seen recently, allowed to drift upward slowly so it follows changes in the workload).  When an
+ * operation completes within {@code TOLERANCE} times the baseline, the limit grows by one over the course of roughly
+ * one limit's worth of completions; when it takes longer, the limit is cut by {@code BACKOFF_RATIO}.  The limit stays
+ * between a minimum and maximum.
+ *
+ * <p>
+ * When the limit is reached, requests wait in a queue of at most {@code QUEUE_FACTOR} times the limit.  A request is
+ * refused at once if the queue is full, or if the expected wait (from the queue length, the limit, and the average
+ * latency) would carry it past its deadline; a request that reaches its deadline while waiting is also refused.
+ */
+final class AdaptiveLimiter {
+
+    /** The ratio of latency to baseline latency above which the limit is reduced. */
+    private static final double TOLERANCE = 2.0;
+
+    /** The factor by which the limit is multiplied when latency exceeds the tolerance. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** The weight given to each new sample in the average latency. */
+    private static final double SMOOTHING = 0.05;
+
+    /** The fraction by which the baseline latency drifts toward each new sample that exceeds it. */
+    private static final double BASELINE_DRIFT = 0.001;
+
+    /** The size of the wait queue as a multiple of the limit. */
+    private static final int QUEUE_FACTOR = 2;
+
+    /** The shortest retry delay suggested to refused requests (milliseconds). */
+    private static final long MIN_RETRY_MILLIS = 50L;
+
+    /** The longest retry delay suggested to refused requests (milliseconds). */
+    private static final long MAX_RETRY_MILLIS = 10000L;
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The limiter name (for diagnostics). */
+    private final String name;
+
+    /** The minimum limit. */
+    private final int minLimit;
+
+    /** The maximum limit. */
+    private final int maxLimit;
+
+    /** The current limit. */
+    private double limit;
+
+    /** The number of admitted operations that have not been released. */
+    private int inFlight;
+
+    /** The number of requests waiting for admission. */
+    private int waiting;
+
+    /** The average latency of completed operations (nanoseconds; 0 before the first sample). */
+    private double avgLatency;
+
+    /** The baseline latency (nanoseconds; 0 before the first sample). */
+    private double baseline;
+
+    /**
+     * Constructs a new {@code AdaptiveLimiter}.
+     *
+     * @param theName         the limiter name
+     * @param theInitialLimit the initial limit
+     * @param theMinLimit     the minimum limit
+     * @param theMaxLimit     the maximum limit
+     */
+    AdaptiveLimiter(final String theName, final int theInitialLimit, final int theMinLimit, final int theMaxLimit) {
+
+        this.name = theName;
+        this.minLimit = theMinLimit;
+        this.maxLimit = theMaxLimit;
+        this.limit = theInitialLimit;
+    }
+
+    /**
+     * Attempts to acquire admission, waiting in the queue if necessary.
+     *
+     * @param deadlineNanos the {@code System.nanoTime()} value after which the request should be refused
+     * @return true if admitted; false if refused
+     */
+    synchronized boolean acquire(final long deadlineNanos) {
+
+        boolean admitted = false;
+
+        if (this.inFlight < (int) this.limit) {
+            ++this.inFlight;
+            admitted = true;
+        } else if (this.waiting < QUEUE_FACTOR * (int) this.limit
+                   && System.nanoTime() + expectedWaitNanos() - deadlineNanos < 0L) {
+            ++this.waiting;
+            try {
+                long remaining = deadlineNanos - System.nanoTime();
+                while (this.inFlight >= (int) this.limit && remaining > 0L) {
+                    final long millis = remaining / NANOS_PER_MILLI;
+                    final int nanos = (int) (remaining % NANOS_PER_MILLI);
+                    wait(millis, nanos);
+                    remaining = deadlineNanos - System.nanoTime();
+                }
+                if (this.inFlight < (int) this.limit) {
+                    ++this.inFlight;
+                    admitted = true;
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                --this.waiting;
+            }
+        }
+
+        return admitted;
+    }
+
+    /**
+     * Releases an admission and, if the operation executed, updates the limit from its latency.
+     *
+     * @param latencyNanos the time the operation took to execute (nanoseconds); negative if it did not execute
+     */
+    synchronized void release(final long latencyNanos) {
+
+        --this.inFlight;
+
+        if (latencyNanos >= 0L) {
+            final double latency = (double) latencyNanos;
+
+            if (this.avgLatency == 0.0) {
+                this.avgLatency = latency;
+                this.baseline = latency;
+            } else {
+                this.avgLatency += SMOOTHING * (latency - this.avgLatency);
+                if (latency < this.baseline) {
+                    this.baseline = latency;
+                } else {
+                    this.baseline += BASELINE_DRIFT * (latency - this.baseline);
+                }
+            }
+
+            if (latency <= this.baseline * TOLERANCE) {
+                this.limit = Math.min((double) this.maxLimit, this.limit + 1.0 / this.limit);
+            } else {
+                this.limit = Math.max((double) this.minLimit, this.limit * BACKOFF_RATIO);
+            }
+        }
+
+        notify();
+    }
+
+    /**
+     * Estimates how long a new request would wait for admission.
+     *
+     * @return the expected wait (nanoseconds)
+     */
+    private long expectedWaitNanos() {
+
+        return (long) (this.avgLatency * (double) (this.waiting + 1) / this.limit);
+    }
+
+    /**
+     * Suggests how long a refused request should wait before retrying.
+     *
+     * @return the delay (milliseconds)
+     */
+    synchronized long getRetryAfterMillis() {
+
+        final long millis = expectedWaitNanos() / NANOS_PER_MILLI;
+
+        return Math.max(MIN_RETRY_MILLIS, Math.min(MAX_RETRY_MILLIS, millis));
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public synchronized String toString() {
+
+        final String limitStr = Integer.toString((int) this.limit);
+        final String inFlightStr = Integer.toString(this.inFlight);
+        final String waitingStr = Integer.toString(this.waiting);
+        final String latencyStr = Long.toString((long) this.avgLatency / 1000L);
+
+        return SimpleBuilder.concat(this.name, "{limit=", limitStr, ", inFlight=", inFlightStr, ", waiting=",
+                waitingStr, ", avgLatencyMicros=", latencyStr, "}");
+    }
+}
@@ -0,0 +1,170 @@
+package dev.mathops.persistence.site;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A binary trie over address bits that maps (address prefix, username) pairs to authorized roles.
+ *
+ * <p>
+ * Each configured prefix is stored as a path from the root whose length is the prefix length in bits.  The node at the
+ * end of the path holds a map from username to role.  A lookup walks the bits of the source address from the root,
+ * remembering the role found at the deepest node whose map contains the username, so the most specific matching
+ * prefix wins.  The cost of a lookup is bounded by the address length (32 steps for IPv4, 128 for IPv6) regardless of
+ * how many prefixes are configured.
+ *
+ * <p>
+ * Instances are built once and then only read, so they can be shared among threads without synchronization once
+ * published.
+ */
+final class AddressTrie {
+
+    /** Bits per byte. */
+    private static final int BITS_PER_BYTE = 8;
+
+    /** The root node. */
+    private final Node root;
+
+    /** The number of address bits this trie indexes (32 for IPv4, 128 for IPv6). */
+    private final int addressBits;
+
+    /** The number of prefixes that have been added. */
+    private int size;
+
+    /**
+     * Constructs a new, empty {@code AddressTrie}.
+     *
+     * @param theAddressBytes the number of bytes in addresses this trie indexes (4 for IPv4, 16 for IPv6)
+     */
+    AddressTrie(final int theAddressBytes) {
+
+        this.root = new Node();
+        this.addressBits = theAddressBytes * BITS_PER_BYTE;
+        this.size = 0;
+    }
+
+    /**
+     * Gets the number of prefixes that have been added.
+     *
+     * @return the number of prefixes
+     */
+    int size() {
+
+        return this.size;
+    }
+
+    /**
+     * Adds a prefix.  If the same prefix and username were added earlier, the new role replaces the earlier one.
+     *
+     * @param address      the address bytes (only the first {@code prefixLength} bits are used)
+     * @param prefixLength the number of leading bits of {@code address} that must match (0 matches every address)
+     * @param username     the username
+     * @param role         the role to grant to that username when connecting from a matching address
+     * @throws IllegalArgumentException if the prefix length is out of range for the address
+     */
+    void add(final byte[] address, final int prefixLength, final String username, final String role) {
+
+        if (prefixLength < 0 || prefixLength > this.addressBits
+            || prefixLength > address.length * BITS_PER_BYTE) {
+            throw new IllegalArgumentException("Invalid prefix length");
+        }
+
+        Node node = this.root;
+        for (int depth = 0; depth < prefixLength; ++depth) {
+            final int bit = bitAt(address, depth);
+            if (bit == 0) {
+                if (node.zero == null) {
+                    node.zero = new Node();
+                }
+                node = node.zero;
+            } else {
+                if (node.one == null) {
+                    node.one = new Node();
+                }
+                node = node.one;
+            }
+        }
+
+        if (node.roles == null) {
+            node.roles = new HashMap<>(4);
+        }
+        node.roles.put(username, role);
+        ++this.size;
+    }
+
+    /**
+     * Finds the role granted to a username connecting from an address, using the longest matching prefix that has an
+     * entry for the username.
+     *
+     * @param address  the address bytes
+     * @param username the username
+     * @return the role; {@code null} if no configured prefix matches the address for the username
+     */
+    String lookup(final byte[] address, final String username) {
+
+        String role = null;
+
+        final int bits = Math.min(this.addressBits, address.length * BITS_PER_BYTE);
+        Node node = this.root;
+        int depth = 0;
+
+        while (node != null) {
+            if (node.roles != null) {
+                final String found = node.roles.get(username);
+                if (found != null) {
+                    role = found;
+                }
+            }
+
+            if (depth == bits) {
+                break;
+            }
+
+            final int bit = bitAt(address, depth);
+            node = bit == 0 ? node.zero : node.one;
+            ++depth;
+        }
+
+        return role;
+    }
+
+    /**
+     * Extracts a single bit from an address, where bit 0 is the most significant bit of the first byte.
+     *
+     * @param address the address bytes
+     * @param index   the bit index
+     * @return the bit value (0 or 1)
+     */
+    private static int bitAt(final byte[] address, final int index) {
+
+        final int byteValue = (int) address[index / BITS_PER_BYTE];
+        final int shift = BITS_PER_BYTE - 1 - index % BITS_PER_BYTE;
+
+        return (byteValue >> shift) & 1;
+    }
+
+    /**
+     * A node in the trie.
+     */
+    private static final class Node {
+
+        /** The child for a 0 bit ({@code null} if none). */
+        Node zero;
+
+        /** The child for a 1 bit ({@code null} if none). */
+        Node one;
+
+        /** A map from username to role for prefixes that end at this node ({@code null} if none). */
+        Map<String, String> roles;
+
+        /**
+         * Constructs a new {@code Node}.
+         */
+        Node() {
+
+            this.zero = null;
+            this.one = null;
+            this.roles = null;
+        }
+    }
+}
@@ -7,17 +7,49 @@ import java.io.File;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.UnknownHostException;
 
 /**
  * A class that loads a list of authorized administrators, and then can test whether a request from a client under a
  * specified login is authorized to perform administration (and if so, under which role).
+ *
+ * <p>
+ * Configured address prefixes are compiled into one {@code AddressTrie} for IPv4 and one for IPv6, so an
+ * authorization check costs at most one step per address bit no matter how many entries are configured.  The compiled
+ * tries are held in a single immutable snapshot that is replaced (never modified) when the configuration file is
+ * reloaded, so readers never block on a reload.
  */
 public final class Administrators {
 
-    /** The list of authorized administrator records. */
-    private final List<AdminRecord> records;
+    /** The name of the configuration file. */
+    static final String FILENAME = "administrators.cfg";
+
+    /** The number of bytes in an IPv4 address. */
+    private static final int IPV4_BYTES = 4;
+
+    /** The number of bytes in an IPv6 address. */
+    private static final int IPV6_BYTES = 16;
+
+    /** The number of bits in an IPv4 address. */
+    private static final int IPV4_BITS = 32;
+
+    /** The number of bits in an IPv6 address. */
+    private static final int IPV6_BITS = 128;
+
+    /** The number of bits in an IPv6 address that precede an embedded IPv4 address. */
+    private static final int IPV4_MAPPED_PREFIX_BITS = 96;
+
+    /** The maximum value of an IPv6 address group. */
+    private static final int MAX_IPV6_GROUP = 0xFFFF;
+
+    /** The maximum value of an IPv4 address part. */
+    private static final int MAX_IPV4_PART = 255;
+
+    /** The configuration file. */
+    private final File file;
+
+    /** The current compiled snapshot. */
+    private volatile Snapshot snapshot;
 
     /**
      * Constructs a new {@code Administrators}, reading configuration data from a specified directory.
@@ -25,185 +57,361 @@ public final class Administrators {
      * <p>
      * Administrators are configured in a file named "administrators.cfg" in the supplied directory.  If that file is
      * present, its contents are used to define authorized administrators.  If it is absent or not valid, no
-     * administrators are authorized.
+     * administrators are authorized until it is reloaded successfully.
      *
      * <p>
      * The file's contents must be a set of lines, where each line is an IP address, a space, and a username, a space,
      * and a role name.  For example, the line "100.2.3.4 jsmith admin" would authorize the user whose login has
-     * username "jsmith" to use "admin" role functions from a client with IP address 100.2.3.4.
+     * username "jsmith" to use "admin" role functions from a client with IP address 100.2.3.4.  Blank lines and lines
+     * that begin with "#" are ignored.
      *
      * <p>
      * The IP address may end with a "*" wildcard, which will match any address with the same leading numbers, such as
-     * "100.2.3.*", "100.2.*", "100.*", or "*".
+     * "100.2.3.*", "100.2.*", "100.*", or "*".  It may also use CIDR notation, such as "100.2.0.0/15".
+     *
+     * <p>
+     * An IPv6 address can be used in the format "2001:db8:85a3:8d3:1319:8a2e:370:7348 jsmith admin", with the usual
+     * "::" abbreviation, CIDR notation (such as "2001:db8::/32"), or a trailing wildcard after whole groups (such as
+     * "2001:db8:*").
      *
      * <p>
-     * An IPv6 address can be used in the format "2001:db8:85a3:8d3:1319:8a2e:370:7348 jsmith admin", with
+     * When several entries for the same username match an address, the most specific (longest prefix) applies.
      *
      * @param configDir the configuration directory
      */
     public Administrators(final File configDir) {
 
-        this.records = new ArrayList<>(20);
+        this.file = new File(configDir, FILENAME);
+
+        final Snapshot loaded = load(this.file);
+        if (loaded == null) {
+            Log.warning("Unable to load '", FILENAME, "' - remote administration locked out");
+            this.snapshot = new Snapshot(new AddressTrie(IPV4_BYTES), new AddressTrie(IPV6_BYTES));
+        } else {
+            this.snapshot = loaded;
+        }
+    }
+
+    /**
+     * Reloads the configuration file and publishes the new configuration.  Lookups in progress continue to use the
+     * prior configuration.  This is intended to be called by a {@code ConfigWatcher} when the file changes.
+     *
+     * <p>
+     * If the file cannot be read, is empty, or has a line that is not valid (as when an editor has only partly written
+     * it), the prior configuration is kept, so a save in progress does not lock out remote administrators.  The next
+     * change to the file triggers another reload.
+     *
+     * @return true if the new configuration was published; false if the prior configuration was kept
+     */
+    public boolean reload() {
 
-        final File admininstratorsFile = new File(configDir, "administrators.cfg");
-        final String[] administratorsLines = FileLoader.loadFileAsLines(admininstratorsFile, false);
+        final Snapshot loaded = load(this.file);
 
-        if (administratorsLines == null) {
-            Log.warning("Unable to read 'administrators.cfg' - remote administration locked out");
+        if (loaded == null) {
+            Log.warning("Unable to load '", FILENAME, "' - keeping the prior administrator configuration");
         } else {
+            this.snapshot = loaded;
+        }
+
+        return loaded != null;
+    }
+
+    /**
+     * Loads and compiles the configuration file.
+     *
+     * @param source the file to load
+     * @return the compiled snapshot; {@code null} if the file could not be read, is empty, or has a line that is not
+     *         valid
+     */
+    private static Snapshot load(final File source) {
+
+        final AddressTrie ipv4 = new AddressTrie(IPV4_BYTES);
+        final AddressTrie ipv6 = new AddressTrie(IPV6_BYTES);
+
+        final String[] administratorsLines = FileLoader.loadFileAsLines(source, false);
+        boolean valid = administratorsLines != null && administratorsLines.length > 0;
+
+        if (valid) {
             for (final String line : administratorsLines) {
                 final AdminRecord record = parse(line);
-                if (record != null) {
-                    this.records.add(record);
+                if (record == null) {
+                    valid = valid && isBlankOrComment(line);
+                } else {
+                    final byte[] address = record.address();
+                    final int prefix = record.prefixLength();
+                    if (address.length == 0) {
+                        ipv4.add(address, 0, record.username(), record.role());
+                        ipv6.add(address, 0, record.username(), record.role());
+                    } else if (address.length == IPV4_BYTES) {
+                        ipv4.add(address, prefix, record.username(), record.role());
+                    } else {
+                        ipv6.add(address, prefix, record.username(), record.role());
+                    }
                 }
             }
+
+        }
+
+        Snapshot result = null;
+        if (valid) {
+            final String count4 = Integer.toString(ipv4.size());
+            final String count6 = Integer.toString(ipv6.size());
+            Log.info("Loaded ", count4, " IPv4 and ", count6, " IPv6 administrator entries from '", FILENAME, "'.");
+            result = new Snapshot(ipv4, ipv6);
         }
+
+        return result;
+    }
+
+    /**
+     * Tests whether a line of the configuration file is blank or a comment.
+     *
+     * @param line the line
+     * @return true if the line is blank or a comment
+     */
+    private static boolean isBlankOrComment(final String line) {
+
+        final String trimmed = line.trim();
+
+        return trimmed.isEmpty() || (int) trimmed.charAt(0) == (int) '#';
     }
 
     /**
      * Attempts to parse an {@code AdminRecord} from a single line in the configuration file.
      *
      * @param line the line
-     * @return the parsed {@code AdminRecord} if successful; {@code null} if not
+     * @return the parsed {@code AdminRecord} if successful; {@code null} if not (or if the line is blank or a comment)
      */
-    private AdminRecord parse(final String line) {
+    private static AdminRecord parse(final String line) {
 
-        // TODO:
-        return null;
+        AdminRecord result = null;
+
+        if (!isBlankOrComment(line)) {
+            final String[] tokens = line.trim().split("\\s+");
+
+            if (tokens.length == 3) {
+                result = parseAddress(tokens[0], tokens[1], tokens[2]);
+                if (result == null) {
+                    Log.warning("Invalid address '", tokens[0], "' in '", FILENAME, "'.");
+                }
+            } else {
+                Log.warning("Line in '", FILENAME, "' does not have the form 'address username role'.");
+            }
+        }
+
+        return result;
     }
 
     /**
-     * Tests whether a user is authorized to perform administration from a source address.
+     * Parses an address specification, which may be "*", an IPv4 or IPv6 address, an address with a trailing "*"
+     * wildcard, or an address in CIDR notation.
      *
-     * @param address  the source address
-     * @param username the login username
-     * @return the role under which the user is authorized to administer the system; null if not authorized
+     * @param spec     the address specification
+     * @param username the username
+     * @param role     the role
+     * @return the record; {@code null} if the address specification is not valid
      */
-    public String getAuthorizedRole(final InetAddress address, final String username) {
+    static AdminRecord parseAddress(final String spec, final String username, final String role) {
 
-        String role = null;
+        AdminRecord result = null;
+
+        if ("*".equals(spec)) {
+            result = new AdminRecord(new byte[0], 0, username, role);
+        } else {
+            final int slash = spec.indexOf('/');
+            final String addressPart = slash == -1 ? spec : spec.substring(0, slash);
+
+            int explicitPrefix = -1;
+            boolean valid = true;
+            if (slash != -1) {
+                try {
+                    explicitPrefix = Integer.parseInt(spec.substring(slash + 1));
+                    if (explicitPrefix < 0) {
+                        Log.warning("Negative prefix length in '", spec, "' in '", FILENAME, "'.");
+                        valid = false;
+                    }
+                } catch (final NumberFormatException ex) {
+                    valid = false;
+                }
+            }
 
-        if (address instanceof final Inet4Address address4) {
-            role = getAuthorizedRole4(address4, username);
-        } else if (address instanceof final Inet6Address address6) {
-            role = getAuthorizedRole6(address6, username);
+            if (valid) {
+                if (addressPart.indexOf(':') == -1) {
+                    result = parseIPv4(addressPart, explicitPrefix, username, role);
+                } else {
+                    result = parseIPv6(addressPart, explicitPrefix, username, role);
+                }
+            }
         }
 
-        return role;
+        return result;
     }
 
     /**
-     * Tests whether a user is authorized to perform administration from a source IPv4 address.
+     * Parses an IPv4 address specification like "100.2.3.4", "100.2.*", or "100.2.0.0/16".
      *
-     * @param address4 the source IPv4 address
-     * @param username the login username
-     * @return the role under which the user is authorized to administer the system; null if not authorized
+     * @param spec           the address portion of the specification
+     * @param explicitPrefix the prefix length from CIDR notation; -1 if none was given
+     * @param username       the username
+     * @param role           the role
+     * @return the record; {@code null} if the address specification is not valid
      */
-    private String getAuthorizedRole4(final Inet4Address address4, final String username) {
+    private static AdminRecord parseIPv4(final String spec, final int explicitPrefix, final String username,
+                                         final String role) {
 
-        String role = null;
+        AdminRecord result = null;
+
+        final String[] parts = spec.split("\\.", -1);
+        final boolean wildcard = "*".equals(parts[parts.length - 1]);
+        final int numNumeric = wildcard ? parts.length - 1 : parts.length;
+
+        if (parts.length <= IPV4_BYTES && (wildcard || numNumeric == IPV4_BYTES)
+            && !(wildcard && explicitPrefix >= 0)) {
+
+            final byte[] address = new byte[IPV4_BYTES];
+            boolean valid = true;
+            for (int i = 0; valid && i < numNumeric; ++i) {
+                final int value = parseNumber(parts[i], 10, MAX_IPV4_PART);
+                if (value < 0) {
+                    valid = false;
+                } else {
+                    address[i] = (byte) value;
+                }
+            }
+
+            final int prefix = wildcard ? numNumeric * 8 : explicitPrefix < 0 ? IPV4_BITS : explicitPrefix;
+            if (valid && prefix <= IPV4_BITS) {
+                result = new AdminRecord(address, prefix, username, role);
+            }
+        }
+
+        return result;
+    }
 
-        final byte[] bytes = address4.getAddress();
-
-        if (bytes.length == 4) {
-            for (final AdminRecord test : this.records) {
-                if (test.username().equals(username)) {
-                    final int[] testParts = test.parts();
-                    if (testParts.length == 4) {
-                        if (testParts[0] == -1) {
-                            // Configured address is "*"
-                            role = test.role();
-                            break;
-                        }
-                        final int part1 = (int) bytes[0] & 0xFF;
-                        if (part1 == testParts[0]) {
-                            if (testParts[1] == -1) {
-                                // Configured address is "###.*"
-                                role = test.role();
-                                break;
-                            }
-                            final int part2 = (int) bytes[1] & 0xFF;
-                            if (part2 == testParts[1]) {
-                                if (testParts[2] == -1) {
-                                    // Configured address is "###.###.*"
-                                    role = test.role();
-                                    break;
-                                }
-
-                                final int part3 = (int) bytes[2] & 0xFF;
-                                if (part3 == testParts[2]) {
-                                    if (testParts[3] == -1) {
-                                        // Configured address is "###.###.###.*"
-                                        role = test.role();
-                                        break;
-                                    }
-
-                                    final int part4 = (int) bytes[3] & 0xFF;
-                                    if (part4 == testParts[3]) {
-                                        // Configured address is "###.###.###.###"
-                                        role = test.role();
-                                        break;
-                                    }
-                                }
-                            }
-                        }
+    /**
+     * Parses an IPv6 address specification like "2001:db8::1", "2001:db8:*", or "2001:db8::/32".
+     *
+     * @param spec           the address portion of the specification
+     * @param explicitPrefix the prefix length from CIDR notation; -1 if none was given
+     * @param username       the username
+     * @param role           the role
+     * @return the record; {@code null} if the address specification is not valid
+     */
+    private static AdminRecord parseIPv6(final String spec, final int explicitPrefix, final String username,
+                                         final String role) {
+
+        AdminRecord result = null;
+
+        if (spec.endsWith(":*")) {
+            // Wildcard after whole groups, like "2001:db8:*" - the "::" abbreviation is not allowed here
+            final String groupsPart = spec.substring(0, spec.length() - 2);
+            final String[] groups = groupsPart.split(":", -1);
+
+            if (explicitPrefix < 0 && !groupsPart.contains("::") && groups.length < IPV6_BYTES / 2) {
+                final byte[] address = new byte[IPV6_BYTES];
+                boolean valid = true;
+                for (int i = 0; valid && i < groups.length; ++i) {
+                    final int value = parseNumber(groups[i], 16, MAX_IPV6_GROUP);
+                    if (value < 0) {
+                        valid = false;
+                    } else {
+                        address[2 * i] = (byte) (value >> 8);
+                        address[2 * i + 1] = (byte) value;
                     }
                 }
+                if (valid) {
+                    result = new AdminRecord(address, groups.length * 16, username, role);
+                }
+            }
+        } else if (isIPv6Literal(spec)) {
+            try {
+                // The string is known to be a numeric literal, so this does not perform a name lookup
+                final InetAddress parsed = InetAddress.getByName(spec);
+                final byte[] address = parsed.getAddress();
+
+                if (parsed instanceof Inet4Address) {
+                    // An IPv4-mapped address like "::ffff:100.2.3.4" - Java reports these as IPv4 addresses
+                    final int prefix = explicitPrefix < 0 ? IPV4_BITS : explicitPrefix - IPV4_MAPPED_PREFIX_BITS;
+                    if (prefix >= 0 && prefix <= IPV4_BITS) {
+                        result = new AdminRecord(address, prefix, username, role);
+                    }
+                } else {
+                    final int prefix = explicitPrefix < 0 ? IPV6_BITS : explicitPrefix;
+                    if (prefix <= IPV6_BITS) {
+                        result = new AdminRecord(address, prefix, username, role);
+                    }
+                }
+            } catch (final UnknownHostException ex) {
+                // Fall through and return null
             }
         }
 
-        return role;
+        return result;
+    }
+
+    /**
+     * Tests whether a string contains only characters that can appear in a numeric IPv6 literal, so it can be parsed
+     * with {@code InetAddress.getByName} without triggering a name lookup.
+     *
+     * @param spec the string
+     * @return true if the string could be a numeric IPv6 literal
+     */
+    private static boolean isIPv6Literal(final String spec) {
+
+        boolean literal = !spec.isEmpty();
+
+        final int len = spec.length();
+        for (int i = 0; literal && i < len; ++i) {
+            final char ch = spec.charAt(i);
+            literal = Character.digit(ch, 16) >= 0 || (int) ch == (int) ':' || (int) ch == (int) '.';
+        }
+
+        return literal;
     }
 
     /**
-     * Tests whether a user is authorized to perform administration from a source IPv6 address.
+     * Parses a non-negative number with a maximum value.
      *
-     * @param address6 the source IPv6 address
+     * @param text  the text to parse
+     * @param radix the radix
+     * @param max   the maximum allowed value
+     * @return the parsed value; -1 if the text is not a valid number in range
+     */
+    private static int parseNumber(final String text, final int radix, final int max) {
+
+        int value = -1;
+
+        if (!text.isEmpty() && text.length() <= 5) {
+            try {
+                final int parsed = Integer.parseInt(text, radix);
+                if (parsed >= 0 && parsed <= max) {
+                    value = parsed;
+                }
+            } catch (final NumberFormatException ex) {
+                // Fall through and return -1
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Tests whether a user is authorized to perform administration from a source address.
+     *
+     * @param address  the source address
      * @param username the login username
      * @return the role under which the user is authorized to administer the system; null if not authorized
      */
-    private String getAuthorizedRole6(final Inet6Address address6, final String username) {
+    public String getAuthorizedRole(final InetAddress address, final String username) {
 
         String role = null;
 
-        final byte[] bytes = address6.getAddress();
-
-        if (bytes.length == 16) {
-            for (final AdminRecord test : this.records) {
-                if (test.username().equals(username)) {
-                    final int[] testParts = test.parts();
-                    if (testParts.length == 8) {
-                        final int part1 = (((int) bytes[0] & 0xFF) << 8) + (int) bytes[1] & 0xFF;
-                        if (part1 == testParts[0]) {
-                            final int part2 = (((int) bytes[2] & 0xFF) << 8) + (int) bytes[3] & 0xFF;
-                            if (part2 == testParts[1]) {
-                                final int part3 = (((int) bytes[4] & 0xFF) << 8) + (int) bytes[5] & 0xFF;
-                                if (part3 == testParts[2]) {
-                                    final int part4 = (((int) bytes[6] & 0xFF) << 8) + (int) bytes[7] & 0xFF;
-                                    if (part4 == testParts[3]) {
-                                        final int part5 = (((int) bytes[8] & 0xFF) << 8) + (int) bytes[9] & 0xFF;
-                                        if (part5 == testParts[4]) {
-                                            final int part6 = (((int) bytes[10] & 0xFF) << 8) + (int) bytes[11] & 0xFF;
-                                            if (part6 == testParts[5]) {
-                                                final int part7 = (((int) bytes[12] & 0xFF) << 8)
-                                                                  + (int) bytes[13] & 0xFF;
-                                                if (part7 == testParts[6]) {
-                                                    final int part8 = (((int) bytes[14] & 0xFF) << 8)
-                                                                      + (int) bytes[15] & 0xFF;
-                                                    if (part8 == testParts[7]) {
-                                                        role = test.role();
-                                                        break;
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        final Snapshot current = this.snapshot;
+
+        if (address instanceof Inet4Address) {
+            role = current.ipv4().lookup(address.getAddress(), username);
+        } else if (address instanceof Inet6Address) {
+            role = current.ipv6().lookup(address.getAddress(), username);
         }
 
         return role;
@@ -212,10 +420,20 @@ public final class Administrators {
     /**
      * A record of an authorized administrator read from the configuration file.
      *
-     * @param parts    the parts of the address (4 for an IPV4 address), with -1 in each wildcard location
-     * @param username the username
-     * @param role     the authorized role
+     * @param address      the address bytes (4 for an IPv4 address, 16 for IPv6, or 0 to match any address)
+     * @param prefixLength the number of leading address bits that must match
+     * @param username     the username
+     * @param role         the authorized role
+     */
+    record AdminRecord(byte[] address, int prefixLength, String username, String role) {
+    }
+
+    /**
+     * An immutable compiled configuration.
+     *
+     * @param ipv4 the trie of IPv4 prefixes
+     * @param ipv6 the trie of IPv6 prefixes
      */
-    private record AdminRecord(int[] parts, String username, String role) {
+    private record Snapshot(AddressTrie ipv4, AddressTrie ipv6) {
     }
 }
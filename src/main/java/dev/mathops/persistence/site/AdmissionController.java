@@ -0,0 +1,145 @@
+package dev.mathops.persistence.site;
+
+import dev.mathops.persistence.dispatch.EApiOperation;
+import dev.mathops.persistence.dispatch.IAdmissionControl;
+import dev.mathops.text.builder.HtmlBuilder;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the number of API operations executing at once, so a burst of expensive operations cannot take every
+ * backend connection and container thread while cheaper operations wait behind them.
+ *
+ * <p>
+ * Each operation type has its own adaptive limit, and so does each effective role (so one busy client role cannot
+ * starve the others).  A request must be admitted under both limits, the role's limit first.  Limits adapt to
+ * observed latency (see {@code AdaptiveLimiter}).  A request that cannot be admitted before its deadline is refused
+ * with a suggested retry delay, which the pipeline reports with the OVERLOADED result code.
+ */
+final class AdmissionController implements IAdmissionControl {
+
+    /** The initial limit for each operation. */
+    private static final int INITIAL_OP_LIMIT = 32;
+
+    /** The maximum limit for each operation. */
+    private static final int MAX_OP_LIMIT = 256;
+
+    /** The initial limit for each role. */
+    private static final int INITIAL_ROLE_LIMIT = 64;
+
+    /** The maximum limit for each role. */
+    private static final int MAX_ROLE_LIMIT = 512;
+
+    /** The minimum limit for operations and roles. */
+    private static final int MIN_LIMIT = 1;
+
+    /** Latency value passed to a limiter when the operation did not execute. */
+    private static final long NOT_EXECUTED = -1L;
+
+    /** The limiter for each operation, indexed by operation ordinal. */
+    private final AdaptiveLimiter[] opLimiters;
+
+    /** The limiter for each role, keyed by effective role ID. */
+    private final Map<Integer, AdaptiveLimiter> roleLimiters;
+
+    /**
+     * Constructs a new {@code AdmissionController}.
+     */
+    AdmissionController() {
+
+        final EApiOperation[] ops = EApiOperation.values();
+        this.opLimiters = new AdaptiveLimiter[ops.length];
+        for (final EApiOperation op : ops) {
+            this.opLimiters[op.ordinal()] = new AdaptiveLimiter(op.name, INITIAL_OP_LIMIT, MIN_LIMIT, MAX_OP_LIMIT);
+        }
+
+        this.roleLimiters = new ConcurrentHashMap<>(20);
+    }
+
+    /**
+     * Requests admission for an operation, waiting if necessary until the deadline.
+     *
+     * @param op            the operation
+     * @param roleId        the effective role ID of the caller
+     * @param deadlineNanos the {@code System.nanoTime()} value after which the request is no longer worth executing
+     * @return 0 if admitted; otherwise, the suggested delay before retrying, in milliseconds
+     */
+    @Override
+    public long admit(final EApiOperation op, final int roleId, final long deadlineNanos) {
+
+        final AdaptiveLimiter opLimiter = this.opLimiters[op.ordinal()];
+        final AdaptiveLimiter roleLimiter = getRoleLimiter(roleId);
+
+        long retryAfter = 0L;
+
+        // The role limit is acquired first, so a caller waiting on its own role's limit does not hold one of the
+        // operation's slots (which are shared by all roles) while it waits
+        if (roleLimiter.acquire(deadlineNanos)) {
+            if (!opLimiter.acquire(deadlineNanos)) {
+                roleLimiter.release(NOT_EXECUTED);
+                retryAfter = opLimiter.getRetryAfterMillis();
+            }
+        } else {
+            retryAfter = roleLimiter.getRetryAfterMillis();
+        }
+
+        return retryAfter;
+    }
+
+    /**
+     * Releases an admission when the operation has finished executing.
+     *
+     * @param op           the operation
+     * @param roleId       the effective role ID of the caller
+     * @param latencyNanos the time the operation took to execute (nanoseconds)
+     */
+    @Override
+    public void release(final EApiOperation op, final int roleId, final long latencyNanos) {
+
+        this.opLimiters[op.ordinal()].release(latencyNanos);
+        getRoleLimiter(roleId).release(latencyNanos);
+    }
+
+    /**
+     * Gets the limiter for a role, creating it if needed.
+     *
+     * @param roleId the effective role ID
+     * @return the limiter
+     */
+    private AdaptiveLimiter getRoleLimiter(final int roleId) {
+
+        final Integer key = Integer.valueOf(roleId);
+
+        AdaptiveLimiter limiter = this.roleLimiters.get(key);
+        if (limiter == null) {
+            limiter = this.roleLimiters.computeIfAbsent(key, k -> new AdaptiveLimiter(SimpleBuilder.concat("role ", k),
+                    INITIAL_ROLE_LIMIT, MIN_LIMIT, MAX_ROLE_LIMIT));
+        }
+
+        return limiter;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final HtmlBuilder builder = new HtmlBuilder(200);
+
+        builder.add("AdmissionController{");
+        for (final AdaptiveLimiter limiter : this.opLimiters) {
+            builder.add(limiter, ", ");
+        }
+        for (final AdaptiveLimiter limiter : this.roleLimiters.values()) {
+            builder.add(limiter, ", ");
+        }
+        builder.add("}");
+
+        return builder.toString();
+    }
+}
@@ -1,12 +1,14 @@
 package dev.mathops.persistence.site;
 
-import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.config.PermissionRegistry;
+import dev.mathops.persistence.dispatch.ApiMultiplexer;
+import dev.mathops.persistence.dispatch.ApiPipeline;
+import dev.mathops.persistence.dispatch.Catalog;
+import dev.mathops.persistence.dispatch.EApiOperation;
 import dev.mathops.persistence.site.session.SessionManager;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.File;
-import java.io.IOException;
 
 /**
  * A handler for API requests.  Every request must provide a valid session ID that resulted from a SCRAM-SHA-256
@@ -15,60 +17,103 @@ import java.io.IOException;
  */
 final class ApiHandler {
 
-    /** The number of characters of URI path used to select this handler. */
-    private final int prefixLength;
-
     /** The directory in which to find configuration files. */
     private final File configDir;
 
     /** The session manager. */
     private final SessionManager sessionMgr;
 
+    /** The registry that holds the current compiled role permissions. */
+    private final PermissionRegistry permissions;
+
+    /** The handler for the SCRAM-SHA-256 authorization exchange. */
+    private final ScramSha256 scram;
+
+    /** The pipeline that processes binary API operations. */
+    private final ApiPipeline pipeline;
+
+    /** The multiplexer that serves API streams. */
+    private final ApiMultiplexer multiplexer;
+
     /**
      * Constructs a new {@code ApiHandler}.
      *
-     * @param thePrefixLength the number of characters of URI path used to select this handler
-     * @param theConfigDir    the directory in which to find configuration files
-     * @param theSessionMgr   the session manager
+     * @param theConfigDir   the directory in which to find configuration files
+     * @param theSessionMgr  the session manager
+     * @param thePermissions the registry that holds the current compiled role permissions
+     * @param theCatalog     the catalog of schemas, contexts, and tables
+     * @param theAdmission   the admission controller that limits concurrent execution
      */
-    ApiHandler(final int thePrefixLength, final File theConfigDir, final SessionManager theSessionMgr) {
+    ApiHandler(final File theConfigDir, final SessionManager theSessionMgr, final PermissionRegistry thePermissions,
+               final Catalog theCatalog, final AdmissionController theAdmission) {
 
-        this.prefixLength = thePrefixLength;
         this.configDir = theConfigDir;
         this.sessionMgr = theSessionMgr;
+        this.permissions = thePermissions;
+        this.scram = new ScramSha256(theSessionMgr, thePermissions);
+        this.pipeline = new ApiPipeline(theCatalog, theSessionMgr, thePermissions, theAdmission);
+
+        final int numWorkers = Runtime.getRuntime().availableProcessors() << 1;
+        this.multiplexer = new ApiMultiplexer(this.pipeline, numWorkers);
     }
 
     /**
-     * Handles an HTTP exchange.
+     * Invalidates cached responses for a table whose data was changed other than through the API (see
+     * {@code ApiPipeline.invalidate}).
      *
-     * @param reqPath the request path (including the prefix that selected this handler)
-     * @param req     the HTTP servlet request
-     * @param resp    the HTTP servlet response
-     * @throws IOException if there is an error reading the request body or writing the response
+     * @param table the table
      */
-    void handleRequest(final String reqPath, final HttpServletRequest req, final HttpServletResponse resp)
-            throws IOException {
-
-        final String method = req.getMethod();
+    void invalidate(final Table table) {
 
-        if ("GET".equalsIgnoreCase(method)) {
-            final String path = reqPath.substring(this.prefixLength);
+        this.pipeline.invalidate(table);
+    }
 
-            Log.info("GET Path is: ", path);
+    /**
+     * Stops the worker threads that serve API streams.
+     */
+    void shutdown() {
 
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-        } else if ("POST".equalsIgnoreCase(method)) {
-            final String path = reqPath.substring(this.prefixLength);
+        this.multiplexer.shutdown();
+    }
 
-            Log.info("POST Path is: ", path);
+    /**
+     * Registers handlers for the API endpoints.
+     *
+     * @param router the router with which to register
+     */
+    void registerRoutes(final Router router) {
+
+        router.register(EEndpoint.API_AUTHORIZATION, this.scram::processPostAuthorization);
+        router.register(EEndpoint.API_LOGOUT, this.scram::processPostLogout);
+
+        registerOperation(router, EEndpoint.API_ALL_CONTEXTS, EApiOperation.ALL_CONTEXTS);
+        registerOperation(router, EEndpoint.API_ALL_SCHEMAS, EApiOperation.ALL_SCHEMAS);
+        registerOperation(router, EEndpoint.API_ALL_TABLES, EApiOperation.ALL_TABLES);
+        registerOperation(router, EEndpoint.API_TABLE, EApiOperation.TABLE);
+        registerOperation(router, EEndpoint.API_COUNT, EApiOperation.COUNT);
+        registerOperation(router, EEndpoint.API_QUERY, EApiOperation.QUERY);
+        registerOperation(router, EEndpoint.API_INSERT, EApiOperation.INSERT);
+        registerOperation(router, EEndpoint.API_INSERT_MULTI, EApiOperation.INSERT_MULTI);
+        registerOperation(router, EEndpoint.API_DELETE, EApiOperation.DELETE);
+        registerOperation(router, EEndpoint.API_UPDATE, EApiOperation.UPDATE);
+        registerOperation(router, EEndpoint.API_PREPARE, EApiOperation.PREPARE);
+        registerOperation(router, EEndpoint.API_EXECUTE_PREPARED, EApiOperation.EXECUTE_PREPARED);
+        registerOperation(router, EEndpoint.API_TERM_FOR_DATE, EApiOperation.TERM_FOR_DATE);
+        registerOperation(router, EEndpoint.API_WEEK_FOR_DATE, EApiOperation.WEEK_FOR_DATE);
+
+        router.register(EEndpoint.API_STREAM, (req, resp) -> this.multiplexer.serve(req.getInputStream(), resp));
+    }
 
-            if ("authorization".equals(path)) {
-                ScramSha256.processPostAuthorization(req, resp);
-            }
+    /**
+     * Registers an endpoint that is processed by the binary API pipeline.
+     *
+     * @param router   the router with which to register
+     * @param endpoint the endpoint
+     * @param op       the operation the endpoint performs
+     */
+    private void registerOperation(final Router router, final EEndpoint endpoint, final EApiOperation op) {
 
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-        } else {
-            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
-        }
+        router.register(endpoint, (req, resp) -> this.pipeline.process(op, req.getInputStream(),
+                req.getHeader(ApiPipeline.TIMEOUT_HEADER), resp));
     }
 }
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * A handler for Documentation requests.
@@ -59,20 +60,13 @@ final class DocHandler {
     /** An HTTP status code. */
     private static final int STATUS_NOT_FOUND = 404;
 
-    /** The number of characters of URI path used to select this handler. */
-    private final int prefixLength;
-
     /** A map from schema to a map from group name to a list of tables in that group. */
     private final Map<String, Map<String, List<Table>>> tables;
 
     /**
      * Constructs a new {@code DocHandler}.
-     *
-     * @param thePrefixLength the number of characters of URI path used to select this handler
      */
-    DocHandler(final int thePrefixLength) {
-
-        this.prefixLength = thePrefixLength;
+    DocHandler() {
 
         final List<Table> allTables = AllTables.INSTANCE.tables;
 
@@ -89,80 +83,75 @@ final class DocHandler {
     }
 
     /**
-     * Handles an HTTP exchange.
+     * Registers handlers for the documentation endpoints.
+     *
+     * @param router the router with which to register
+     */
+    void registerRoutes(final Router router) {
+
+        router.register(EEndpoint.DOC_ROOT, (req, resp) -> servePage(req, resp, this::doGeneralIndex));
+        router.register(EEndpoint.DOC_ROOT_SLASH, (req, resp) -> servePage(req, resp, this::doGeneralIndex));
+        router.register(EEndpoint.DOC_INDEX, (req, resp) -> servePage(req, resp, this::doGeneralIndex));
+        router.register(EEndpoint.DOC_GENERAL1, (req, resp) -> servePage(req, resp, this::doGeneralDatabase));
+        router.register(EEndpoint.DOC_GENERAL2, (req, resp) -> servePage(req, resp, this::doGeneralStructures));
+        router.register(EEndpoint.DOC_GENERAL3, (req, resp) -> servePage(req, resp, this::doGeneralSelectionCriteria));
+        router.register(EEndpoint.DOC_GENERAL4, (req, resp) -> servePage(req, resp, this::doGeneralUpdatedValues));
+        router.register(EEndpoint.DOC_GENERAL5, (req, resp) -> servePage(req, resp, this::doGeneralImplementations));
+        router.register(EEndpoint.DOC_GENERAL6, (req, resp) -> servePage(req, resp, this::doGeneralApiEncoding));
+        router.register(EEndpoint.DOC_GENERAL7, (req, resp) -> servePage(req, resp, this::doGeneralApiEndpoints));
+        router.register(EEndpoint.DOC_SCHEMAS, (req, resp) -> servePage(req, resp, this::doSchemas));
+        router.register(EEndpoint.DOC_SCHEMA, (req, resp) -> servePage(req, resp, htm -> doSchemaPage(req, htm)));
+    }
+
+    /**
+     * Generates a documentation page and sends it as the response.
      *
-     * @param reqPath the request path (including the prefix that selected this handler)
      * @param req     the HTTP servlet request
      * @param resp    the HTTP servlet response
+     * @param content a function that emits the page content
      * @throws IOException if there is an error writing the response
      */
-    void handleRequest(final String reqPath, final HttpServletRequest req, final HttpServletResponse resp)
-            throws IOException {
-
-        final String method = req.getMethod();
-
-        if ("GET".equalsIgnoreCase(method)) {
-            final String path = reqPath.substring(this.prefixLength);
-
-//                Log.info("GET Path is: ", path);
-
-            final CharHtmlBuilder htm = new CharHtmlBuilder(1000);
-            boolean found = true;
-
-            startPage(htm);
-            emitHeader(htm);
-            htm.sDiv(null, "style='padding:20px;'");
-
-            if (path.isEmpty() || "/".equals(path) || "/index.html".equals(path)) {
-                doGeneralIndex(htm);
-            } else if ("/general1.html".equals(path)) {
-                doGeneralDatabase(htm);
-            } else if ("/general2.html".equals(path)) {
-                doGeneralStructures(htm);
-            } else if ("/general3.html".equals(path)) {
-                doGeneralSelectionCriteria(htm);
-            } else if ("/general4.html".equals(path)) {
-                doGeneralUpdatedValues(htm);
-            } else if ("/general5.html".equals(path)) {
-                doGeneralImplementations(htm);
-            } else if ("/general6.html".equals(path)) {
-                doGeneralApiEncoding(htm);
-            } else if ("/general7.html".equals(path)) {
-                doGeneralApiEndpoints(htm);
-            } else if ("/schemas.html".equals(path)) {
-                doSchemas(htm);
-            } else if ("/schema.html".equals(path)) {
-
-                final Map<String, String[]> params = req.getParameterMap();
-                final String[] schemaList = params.get("schema");
-                if (schemaList == null || schemaList.length == 0) {
-                    doSchemas(htm);
-                } else {
-                    final String schema = schemaList[0];
-                    final String[] tableList = params.get("table");
-                    if (tableList == null || tableList.length == 0) {
-                        doSchema(htm, schema, null);
-                    } else {
-                        final String table = tableList[0];
-                        doSchema(htm, schema, table);
-                    }
-                }
-            } else {
-                found = false;
-            }
+    private static void servePage(final HttpServletRequest req, final HttpServletResponse resp,
+                                  final Consumer<? super CharHtmlBuilder> content) throws IOException {
 
-            if (found) {
-                htm.eDiv();
-                endPage(htm);
+        final CharHtmlBuilder htm = new CharHtmlBuilder(1000);
 
-                final String htmString = htm.toString();
-                final byte[] bytes = htmString.getBytes(StandardCharsets.UTF_8);
-                ServiceSite.sendReply(req, resp, "text/html", bytes);
+        startPage(htm);
+        emitHeader(htm);
+        htm.sDiv(null, "style='padding:20px;'");
+
+        content.accept(htm);
+
+        htm.eDiv();
+        endPage(htm);
+
+        final String htmString = htm.toString();
+        final byte[] bytes = htmString.getBytes(StandardCharsets.UTF_8);
+        ServiceSite.sendReply(req, resp, "text/html", bytes);
+    }
+
+    /**
+     * Emits the content of the "schema.html" page, which shows a schema (and optionally a table) selected by request
+     * parameters, or the schemas overview if no schema is selected.
+     *
+     * @param req the HTTP servlet request
+     * @param htm the {@code HtmlBuilder} to which to append
+     */
+    private void doSchemaPage(final HttpServletRequest req, final CharHtmlBuilder htm) {
+
+        final Map<String, String[]> params = req.getParameterMap();
+        final String[] schemaList = params.get("schema");
+        if (schemaList == null || schemaList.length == 0) {
+            doSchemas(htm);
+        } else {
+            final String schema = schemaList[0];
+            final String[] tableList = params.get("table");
+            if (tableList == null || tableList.length == 0) {
+                doSchema(htm, schema, null);
             } else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                final String table = tableList[0];
+                doSchema(htm, schema, table);
             }
-        } else {
-            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
         }
     }
 
@@ -929,9 +918,10 @@ final class DocHandler {
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>An enumerated value (Tinyint) indicating the field type</li>");
         htm.addlnString("  <li>An enumerated value (Tinyint) indicating the field's role</li>");
-        htm.addlnString("  <li>The number (<code>M</code>) of constraints associated with the field, as an integer " +
-                        "(Tinyint, Byte, or Short)</li>");
-        htm.addlnString("  <li><code>M</code> repetitions of constraint definitions:</li>");
+        htm.addlnString("  <li>The number (<code>M</code>) of pre-defined constraints associated with the field " +
+                        "(application-defined constraints are omitted), as an integer (Tinyint, Byte, or Short)</li>");
+        htm.addlnStrings("  <li><code>M</code> repetitions of constraint definitions, each an enumerated value ",
+                "(Tinyint) indicating the constraint type, followed by:</li>");
         htm.addlnString("    <ul>");
         htm.addlnStrings("    <li>If type is STRING_ENUMERATED, the number (<code>P</code>) of enumerated values as ",
                 "an Integer (Tinyint, Byte, or Short) followed by <code>P</code> Strings (ASCII1, ASCII2, ASCII4, ",
@@ -1351,6 +1341,41 @@ final class DocHandler {
                 "in the request body in a binary format.");
         htm.eP();
 
+        htm.sP();
+        htm.addString("""
+                Every response body begins with an enumerated result code.  SUCCESS (0) is followed by the operation's
+                results.  The failure result codes tell the client whether a retry could succeed (retryable) and
+                whether the operation may have executed despite the failure.  A client may retry a retryable failure
+                if the operation is a read (which is idempotent), or if the failure guarantees the operation did not
+                execute.""");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>FAILURE (-1): not retryable (malformed request or implementation error)</li>");
+        htm.addlnString("<li>OVERLOADED (-2): retryable after the suggested delay; not executed</li>");
+        htm.addlnString("<li>DEADLINE_EXCEEDED (-3): retryable; may have executed</li>");
+        htm.addlnString("<li>UNAVAILABLE (-4): retryable; may have executed</li>");
+        htm.addlnString("<li>UNAUTHORIZED (-5): not retryable; not executed</li>");
+        htm.addlnString("<li>CONSTRAINT_VIOLATION (-6): not retryable; not executed</li>");
+        htm.addlnString("<li>NOT_FOUND (-7): not retryable; not executed</li>");
+        htm.addlnString("<li>CONFLICT (-8): retryable; rolled back, so not executed</li>");
+        htm.addlnString("</ul>");
+
+        htm.sP();
+        htm.addStrings(
+                "Any endpoint may refuse a request when the server is overloaded.  The response body then holds the ",
+                "OVERLOADED result code, a suggested delay before retrying in milliseconds (Tinyint, Byte, Short, ",
+                "Integer, or Long), and an error message.  The operation was not attempted, so it is safe to retry.");
+        htm.eP();
+
+        htm.sP();
+        htm.addString("""
+                A request may carry a timeout in milliseconds, measured from when the server receives it, in a
+                <code>Request-Timeout</code> header (or in the frame prefix on the stream endpoint).  The server
+                refuses a request whose timeout has passed, does not wait for admission beyond it, and cancels backend
+                work in progress when it passes where the implementation allows.  Such a request fails with the
+                DEADLINE_EXCEEDED failure code.""");
+        htm.eP();
+
         htm.sP("thin");
         htm.addString("<code>GET all_contexts</code>");
         htm.eP();
@@ -1368,7 +1393,7 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of contexts (N) (Tinyint, Byte, Short, or Integer)</li>");
@@ -1377,7 +1402,7 @@ final class DocHandler {
         htm.addlnString("    <li>Context Encoding (see above)</li>");
         htm.addlnString("    </ul>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1403,7 +1428,7 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of schemas (N) (Tinyint, Byte, Short, or Integer)</li>");
@@ -1412,7 +1437,7 @@ final class DocHandler {
         htm.addlnString("    <li>Schema Encoding (see above)</li>");
         htm.addlnString("    </ul>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1442,7 +1467,7 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>Flags (Short) – copied from request</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
@@ -1456,7 +1481,7 @@ final class DocHandler {
         htm.addlnString("      </ul>");
         htm.addlnString("    </ul>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1485,7 +1510,7 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>Flags (Short) – copied from request</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
@@ -1493,7 +1518,7 @@ final class DocHandler {
         htm.addlnString("  <li>If Flags indicates row count included:</li>");
         htm.addlnString("  <li>Integer number of rows (Tinyint, Byte, Short, Integer, or Long)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1523,12 +1548,12 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows (Tinyint, Byte, Short, Integer, or Long)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1558,13 +1583,13 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows (N) (Tinyint, Byte, Short, Integer, or Long)</li>");
         htm.addlnString("  <li>N repetitions of Row  Encoding (see above)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1596,12 +1621,12 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows inserted (Tinyint, Byte, Short or, Integer)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1637,12 +1662,12 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows inserted (Tinyint, Byte, Short, Integer)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4</li>");
@@ -1672,12 +1697,12 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows deleted (Tinyint, Byte, Short, Integer, or Long)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1708,12 +1733,93 @@ final class DocHandler {
         htm.addString("Response body:");
         htm.eP();
         htm.addlnString("<ul class='thin'>");
-        htm.addlnString("<li>Enumerated result code {SUCCESS | FAILURE} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
         htm.addlnString("<li>On SUCCESS:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Integer number of rows updated (Tinyint, Byte, Short, Integer, or Long)</li>");
         htm.addlnString("  </ul>");
-        htm.addlnString("<li>On FAILURE:</li>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
+        htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("</ul>");
+        htm.eDiv();
+        htm.div("vgap");
+
+        htm.sP("thin");
+        htm.addString("<code>POST prepare</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("""
+                Registers a count or query operation whose selection criteria have a fixed shape, so it can be
+                executed repeatedly by sending only a handle and the criterion values.  Handles belong to the
+                authorization token that prepared them, and each token may hold up to 256 handles.  Only criteria on
+                integer fields may be prepared.""");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>16-byte authorization token</li>");
+        htm.addlnString("<li>Enumerated operation {COUNT | QUERY} (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>The schema ID as an integer (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("<li>The context ID as an integer (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("<li>The table ID as an integer (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("<li>Number of field criteria, N (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("<li>For each of the N criteria:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Field name (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
+        htm.addlnString("  <li>Enumerated match type (Tinyint, Byte or Short)</li>");
+        htm.addlnString("  <li>Number of match values, M (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>Number of fields to return from a query, P (0 for all fields)</li>");
+        htm.addlnString("<li>P field indexes, in increasing order (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("</ul>");
+        htm.sP("redhead");
+        htm.addString("Response body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>On SUCCESS:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Integer handle (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
+        htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("</ul>");
+        htm.eDiv();
+        htm.div("vgap");
+
+        htm.sP("thin");
+        htm.addString("<code>POST execute_prepared</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("Executes a prepared operation.  The caller must still be permitted to perform the operation.");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>16-byte authorization token (the token that prepared the operation)</li>");
+        htm.addlnString("<li>The handle as an integer (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("<li>The match values of every criterion, in order (Tinyint, Byte, Short, or Integer)</li>");
+        htm.addlnString("</ul>");
+        htm.sP("redhead");
+        htm.addString("Response body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>On SUCCESS:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>As for <code>GET count</code> or <code>GET query</code>, with selected fields</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
         htm.addlnString("  <ul>");
         htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
         htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
@@ -1722,6 +1828,119 @@ final class DocHandler {
         htm.eDiv();
         htm.div("vgap");
 
+        htm.sP("thin");
+        htm.addString("<code>GET term_for_date</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("""
+                Retrieves the row of the "term" table whose date range contains a date.  This is answered from an
+                in-memory index of term date ranges, which is rebuilt after the table is written.  The caller must be
+                permitted to query the "term" table.""");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>16-byte authorization token</li>");
+        htm.addlnString("<li>The date (LocalDate)</li>");
+        htm.addlnString("</ul>");
+        htm.sP("redhead");
+        htm.addString("Response body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>On SUCCESS:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Integer number of rows (N), 0 or 1 (Tinyint)</li>");
+        htm.addlnString("  <li>N repetitions of Row  Encoding (see above)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
+        htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("</ul>");
+        htm.eDiv();
+        htm.div("vgap");
+
+        htm.sP("thin");
+        htm.addString("<code>GET week_for_date</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("""
+                Retrieves the term that contains a date, and the row of that term's "term_week" table whose date
+                range contains the date.  Both are answered from in-memory indexes of date ranges, which are rebuilt
+                after the tables are written.  The caller must be permitted to query the "term" and "term_week"
+                tables.""");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>16-byte authorization token</li>");
+        htm.addlnString("<li>The date (LocalDate)</li>");
+        htm.addlnString("</ul>");
+        htm.sP("redhead");
+        htm.addString("Response body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>Enumerated result code (see above) (Tinyint, Byte or Short)</li>");
+        htm.addlnString("<li>On SUCCESS:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>The term ID, or -1 if no term contains the date (Tinyint, Byte, Short, Integer)</li>");
+        htm.addlnString("  <li>Integer number of rows (N), 0 or 1 (Tinyint)</li>");
+        htm.addlnString("  <li>N repetitions of Row  Encoding (see above)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>On any other result code except OVERLOADED:</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>Enumerated failure code (Tinyint, Byte, or Short)</li>");
+        htm.addlnString("  <li>Error message (ASCII1, ASCII2, ASCII4, String1, String2, or String4)</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("</ul>");
+        htm.eDiv();
+        htm.div("vgap");
+
+        htm.sP("thin");
+        htm.addString("<code>POST stream</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("""
+                Carries many API operations over one long-lived request, so a client can keep one connection open
+                (over HTTP/2, or HTTP/1.1 where the server allows the response to be read while the request is still
+                being sent).  Each request frame is processed as if it had been sent to the operation's own endpoint.
+                Response frames are sent as each operation completes, and may arrive in a different order than the
+                requests; the client matches them to requests by request ID.  Up to 64 operations per stream are
+                processed at a time.""");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body (a sequence of frames, ended by closing the request body):");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>4-byte length of the rest of the frame (big-endian)</li>");
+        htm.addlnString("<li>4-byte request ID chosen by the client (big-endian)</li>");
+        htm.addlnString("<li>1-byte operation index (plus 128 if a timeout follows):</li>");
+        htm.addlnString("  <ul>");
+        htm.addlnString("  <li>0 all_contexts, 1 all_schemas, 2 all_tables, 3 table, 4 count, 5 query</li>");
+        htm.addlnString("  <li>6 insert, 7 insert_multi, 8 delete, 9 update, 10 prepare, 11 execute_prepared</li>");
+        htm.addlnString("  <li>12 term_for_date, 13 week_for_date</li>");
+        htm.addlnString("  </ul>");
+        htm.addlnString("<li>If flagged, a 4-byte timeout in milliseconds (big-endian)</li>");
+        htm.addlnString("<li>The operation's request body, starting with the authorization token</li>");
+        htm.addlnString("</ul>");
+        htm.sP("redhead");
+        htm.addString("Response body (a sequence of frames):");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>4-byte length of the rest of the frame (big-endian)</li>");
+        htm.addlnString("<li>4-byte request ID from the request frame (big-endian)</li>");
+        htm.addlnString("<li>The response body the operation's endpoint would have returned</li>");
+        htm.addlnString("</ul>");
+        htm.eDiv();
+        htm.div("vgap");
+
 //        Question: Is a "delete_multi" needed that deletes from multiple tables, where all will be deleted on success,
 //        or none are deleted on failure?
 //        Question: Is an "update_multi" needed that updates multiple tables, where all will be updated on success, or
@@ -1742,6 +1961,38 @@ final class DocHandler {
                 server_first message. The client then sends a client_final message, to which the server responds
                 with a server_final message.""");
         htm.eP();
+        htm.sP("thin");
+        htm.addString("""
+                The client_first message may name the role under which transactions will execute as its authzid
+                (<code>n,a=role,n=user,r=nonce</code>); otherwise the first of the login's roles is used.  The SCRAM
+                password is the uppercase hexadecimal SHA-512 hash of the login's salt followed by the SHA-512 hash
+                of the user's password, where the salt is the UTF-8 text whose base-64 form the server_first message
+                carries.""");
+        htm.eP();
+        htm.sP("thin");
+        htm.addString("""
+                On success, the server_final message is <code>v=verifier,t=token</code>, where the token is the
+                base-64 encoded 16-byte authorization token, and the "Authentication-Info" header carries the session
+                ID.  The token remains valid until the session logs out or goes unused for 30 minutes.""");
+        htm.eP();
+        htm.eDiv();
+        htm.div("vgap");
+
+        htm.sP("thin");
+        htm.addString("<code>POST logout</code>");
+        htm.eP();
+        htm.sDiv("indent");
+        htm.sP("thin");
+        htm.addString("""
+                Ends the session for which an authorization token was issued, which revokes that token and any
+                others issued for the session.""");
+        htm.eP();
+        htm.sP("redhead");
+        htm.addString("Request body:");
+        htm.eP();
+        htm.addlnString("<ul class='thin'>");
+        htm.addlnString("<li>16-byte authorization token</li>");
+        htm.addlnString("</ul>");
         htm.eDiv();
     }
 
@@ -0,0 +1,132 @@
+package dev.mathops.persistence.site;
+
+/**
+ * The endpoints served by the servlet.  Each endpoint is identified by an HTTP method and a complete request path.
+ * The ordinal of each constant is a small, dense ID that can be used to index per-endpoint arrays (such as handler
+ * tables or metrics counters).
+ */
+public enum EEndpoint {
+
+    /** The documentation index, requested as "/doc". */
+    DOC_ROOT(EEndpoint.GET, "/doc"),
+
+    /** The documentation index, requested as "/doc/". */
+    DOC_ROOT_SLASH(EEndpoint.GET, "/doc/"),
+
+    /** The documentation index. */
+    DOC_INDEX(EEndpoint.GET, "/doc/index.html"),
+
+    /** The documentation "Overview" page. */
+    DOC_GENERAL1(EEndpoint.GET, "/doc/general1.html"),
+
+    /** The documentation "Structures" page. */
+    DOC_GENERAL2(EEndpoint.GET, "/doc/general2.html"),
+
+    /** The documentation "Selecting" page. */
+    DOC_GENERAL3(EEndpoint.GET, "/doc/general3.html"),
+
+    /** The documentation "Updating" page. */
+    DOC_GENERAL4(EEndpoint.GET, "/doc/general4.html"),
+
+    /** The documentation "Implementations" page. */
+    DOC_GENERAL5(EEndpoint.GET, "/doc/general5.html"),
+
+    /** The documentation "API Encoding" page. */
+    DOC_GENERAL6(EEndpoint.GET, "/doc/general6.html"),
+
+    /** The documentation "API Endpoints" page. */
+    DOC_GENERAL7(EEndpoint.GET, "/doc/general7.html"),
+
+    /** The documentation schemas overview page. */
+    DOC_SCHEMAS(EEndpoint.GET, "/doc/schemas.html"),
+
+    /** The documentation page for a single schema or table. */
+    DOC_SCHEMA(EEndpoint.GET, "/doc/schema.html"),
+
+    /** The management login page. */
+    MGT_LOGIN_PAGE(EEndpoint.GET, "/mgt/login.html"),
+
+    /** A management login form submission. */
+    MGT_LOGIN(EEndpoint.POST, "/mgt/login.html"),
+
+    /** A form submission to create the initial administrator login. */
+    MGT_CREATE_ADMIN_LOGIN(EEndpoint.POST, "/mgt/create_admin_login.html"),
+
+    /** The secure management page. */
+    MGT_SECURE_PAGE(EEndpoint.GET, "/mgt/secure.html"),
+
+    /** The API authorization (SCRAM-SHA-256) exchange. */
+    API_AUTHORIZATION(EEndpoint.POST, "/api/authorization"),
+
+    /** The API logout, which ends the session for an authorization token. */
+    API_LOGOUT(EEndpoint.POST, "/api/logout"),
+
+    /** The API operation to retrieve all contexts. */
+    API_ALL_CONTEXTS(EEndpoint.GET, "/api/all_contexts"),
+
+    /** The API operation to retrieve all schemas. */
+    API_ALL_SCHEMAS(EEndpoint.GET, "/api/all_schemas"),
+
+    /** The API operation to retrieve all tables. */
+    API_ALL_TABLES(EEndpoint.GET, "/api/all_tables"),
+
+    /** The API operation to retrieve a single table. */
+    API_TABLE(EEndpoint.GET, "/api/table"),
+
+    /** The API operation to count rows. */
+    API_COUNT(EEndpoint.GET, "/api/count"),
+
+    /** The API operation to query rows. */
+    API_QUERY(EEndpoint.GET, "/api/query"),
+
+    /** The API operation to insert rows into a table. */
+    API_INSERT(EEndpoint.POST, "/api/insert"),
+
+    /** The API operation to insert rows into several tables. */
+    API_INSERT_MULTI(EEndpoint.POST, "/api/insert_multi"),
+
+    /** The API operation to delete rows. */
+    API_DELETE(EEndpoint.POST, "/api/delete"),
+
+    /** The API operation to update rows. */
+    API_UPDATE(EEndpoint.POST, "/api/update"),
+
+    /** The API operation to prepare a count or query operation for repeated execution. */
+    API_PREPARE(EEndpoint.POST, "/api/prepare"),
+
+    /** The API operation to execute a prepared operation. */
+    API_EXECUTE_PREPARED(EEndpoint.POST, "/api/execute_prepared"),
+
+    /** The API operation to find the term that contains a date. */
+    API_TERM_FOR_DATE(EEndpoint.GET, "/api/term_for_date"),
+
+    /** The API operation to find the week of a term that contains a date. */
+    API_WEEK_FOR_DATE(EEndpoint.GET, "/api/week_for_date"),
+
+    /** The multiplexed API stream that carries many operations in one long-lived request. */
+    API_STREAM(EEndpoint.POST, "/api/stream");
+
+    /** The GET method. */
+    private static final String GET = "GET";
+
+    /** The POST method. */
+    private static final String POST = "POST";
+
+    /** The HTTP method. */
+    public final String method;
+
+    /** The complete request path. */
+    public final String path;
+
+    /**
+     * Constructs a new {@code EEndpoint}.
+     *
+     * @param theMethod the HTTP method
+     * @param thePath   the complete request path
+     */
+    EEndpoint(final String theMethod, final String thePath) {
+
+        this.method = theMethod;
+        this.path = thePath;
+    }
+}
@@ -0,0 +1,22 @@
+package dev.mathops.persistence.site;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * A handler for requests to a single endpoint.
+ */
+@FunctionalInterface
+interface IRouteHandler {
+
+    /**
+     * Handles a request.
+     *
+     * @param req  the HTTP servlet request
+     * @param resp the HTTP servlet response
+     * @throws IOException if there is an error reading the request body or writing the response
+     */
+    void handle(HttpServletRequest req, HttpServletResponse resp) throws IOException;
+}
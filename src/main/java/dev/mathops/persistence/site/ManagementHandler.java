@@ -21,9 +21,6 @@ import java.util.Map;
  */
  final class ManagementHandler {
 
-    /** The number of characters of URI path used to select this handler. */
-    private final int prefixLength;
-
     /** The directory in which to find configuration files. */
     private final File configDir;
 
@@ -33,57 +30,26 @@ import java.util.Map;
     /**
      * Constructs a new {@code ManagementHandler}.
      *
-     * @param thePrefixLength the number of characters of URI path used to select this handler
-     * @param theConfigDir    the directory in which to find configuration files
-     * @param theSessionMgr   the session manager
+     * @param theConfigDir  the directory in which to find configuration files
+     * @param theSessionMgr the session manager
      */
-    ManagementHandler(final int thePrefixLength, final File theConfigDir, final SessionManager theSessionMgr) {
+    ManagementHandler(final File theConfigDir, final SessionManager theSessionMgr) {
 
-        this.prefixLength = thePrefixLength;
         this.configDir = theConfigDir;
         this.sessionMgr = theSessionMgr;
     }
 
     /**
-     * Handles an HTTP exchange.
+     * Registers handlers for the management endpoints.
      *
-     * @param reqPath the request path (including the prefix that selected this handler)
-     * @param req     the HTTP servlet request
-     * @param resp    the HTTP servlet response
-     * @throws IOException if there is an error reading the request body or writing the response
+     * @param router the router with which to register
      */
-    void handleRequest(final String reqPath, final HttpServletRequest req, final HttpServletResponse resp)
-            throws IOException {
-
-        final String method = req.getMethod();
-
-        if ("GET".equalsIgnoreCase(method)) {
-            final String path = reqPath.substring(this.prefixLength);
-
-            Log.info("GET Path is: ", path);
-
-            if ("/login.html".equals(path)) {
-                doLoginGet(req, resp);
-            } else if ("/secure.html".equals(path)) {
-                doSecureGet(req, resp);
-            } else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-            }
-        } else if ("POST".equalsIgnoreCase(method)) {
-            final String path = reqPath.substring(this.prefixLength);
+    void registerRoutes(final Router router) {
 
-            Log.info("POST Path is: ", path);
-
-            if ("/login.html".equals(path)) {
-                doLoginPost(req, resp);
-            } else if ("/create_admin_login.html".equals(path)) {
-                doCreateAdminLoginPost(req, resp);
-            } else {
-                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
-            }
-        } else {
-            resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
-        }
+        router.register(EEndpoint.MGT_LOGIN_PAGE, this::doLoginGet);
+        router.register(EEndpoint.MGT_LOGIN, this::doLoginPost);
+        router.register(EEndpoint.MGT_CREATE_ADMIN_LOGIN, this::doCreateAdminLoginPost);
+        router.register(EEndpoint.MGT_SECURE_PAGE, this::doSecureGet);
     }
 
     /**
@@ -153,9 +119,9 @@ import java.util.Map;
         final String username = params.get("u");
         final String password = params.get("p");
 
-        Log.info("Login request, u=", username, ", p=", password);
+        Log.info("Login request, u=", username);
 
-        final LoginResult result = this.sessionMgr.createSession(username, password);
+        final LoginResult result = this.sessionMgr.createSession(username, password, req.getRemoteAddr());
         final Session session = result.getSession();
 
         if (session == null) {
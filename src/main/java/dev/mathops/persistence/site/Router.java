@@ -0,0 +1,257 @@
+package dev.mathops.persistence.site;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A routing table that maps (method, path) pairs to endpoint handlers.
+ *
+ * <p>
+ * Handlers are registered during servlet initialization, after which the table is only read.  Paths are stored in a
+ * character trie, so a lookup walks the characters of the request path directly (no substrings are created) and ends
+ * at a node that holds the endpoint for each supported method.  Handlers are stored in an array indexed by endpoint
+ * ordinal, and a request counter is kept per endpoint.
+ */
+final class Router {
+
+    /** The index of the GET method in per-node endpoint arrays. */
+    private static final int GET_INDEX = 0;
+
+    /** The index of the POST method in per-node endpoint arrays. */
+    private static final int POST_INDEX = 1;
+
+    /** The number of supported methods. */
+    private static final int NUM_METHODS = 2;
+
+    /** The root of the path trie. */
+    private final Node root;
+
+    /** The handler for each endpoint, indexed by ordinal. */
+    private final IRouteHandler[] handlers;
+
+    /** The number of requests dispatched to each endpoint, indexed by ordinal. */
+    private final LongAdder[] counts;
+
+    /**
+     * Constructs a new, empty {@code Router}.
+     */
+    Router() {
+
+        this.root = new Node();
+
+        final int numEndpoints = EEndpoint.values().length;
+        this.handlers = new IRouteHandler[numEndpoints];
+        this.counts = new LongAdder[numEndpoints];
+        for (int i = 0; i < numEndpoints; ++i) {
+            this.counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers the handler for an endpoint.  This must only be called during initialization.
+     *
+     * @param endpoint the endpoint
+     * @param handler  the handler
+     * @throws IllegalArgumentException if the endpoint's method is not supported
+     */
+    void register(final EEndpoint endpoint, final IRouteHandler handler) {
+
+        final int methodIndex = methodIndex(endpoint.method);
+        if (methodIndex < 0) {
+            throw new IllegalArgumentException("Unsupported HTTP method");
+        }
+
+        Node node = this.root;
+        final String path = endpoint.path;
+        final int len = path.length();
+        for (int i = 0; i < len; ++i) {
+            node = node.getOrAddChild(path.charAt(i));
+        }
+
+        node.endpoints[methodIndex] = endpoint;
+        this.handlers[endpoint.ordinal()] = handler;
+    }
+
+    /**
+     * Finds the trie node for a path.
+     *
+     * @param path the request path
+     * @return the node; {@code null} if no registered path matches
+     */
+    private Node findNode(final String path) {
+
+        Node node = this.root;
+
+        final int len = path.length();
+        for (int i = 0; node != null && i < len; ++i) {
+            node = node.getChild(path.charAt(i));
+        }
+
+        return node;
+    }
+
+    /**
+     * Finds the endpoint for a request.
+     *
+     * @param method the HTTP method
+     * @param path   the complete request path
+     * @return the endpoint; {@code null} if none matches the method and path
+     */
+    EEndpoint find(final String method, final String path) {
+
+        EEndpoint result = null;
+
+        final int methodIndex = methodIndex(method);
+        if (methodIndex >= 0) {
+            final Node node = findNode(path);
+            if (node != null) {
+                result = node.endpoints[methodIndex];
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether any endpoint is registered for a path (under any method).  This is used to distinguish "method not
+     * allowed" from "not found" when {@code find} fails.
+     *
+     * @param path the complete request path
+     * @return true if some endpoint has the path
+     */
+    boolean hasPath(final String path) {
+
+        boolean found = false;
+
+        final Node node = findNode(path);
+        if (node != null) {
+            for (final EEndpoint endpoint : node.endpoints) {
+                if (endpoint != null) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Gets the handler for an endpoint, and counts the request.
+     *
+     * @param endpoint the endpoint
+     * @return the handler ({@code null} if none is registered)
+     */
+    IRouteHandler dispatch(final EEndpoint endpoint) {
+
+        final int ordinal = endpoint.ordinal();
+        this.counts[ordinal].increment();
+
+        return this.handlers[ordinal];
+    }
+
+    /**
+     * Gets the number of requests that have been dispatched to an endpoint.
+     *
+     * @param endpoint the endpoint
+     * @return the number of requests
+     */
+    long getCount(final EEndpoint endpoint) {
+
+        return this.counts[endpoint.ordinal()].sum();
+    }
+
+    /**
+     * Gets the index of an HTTP method in per-node endpoint arrays.
+     *
+     * @param method the method
+     * @return the index; -1 if the method is not supported
+     */
+    private static int methodIndex(final String method) {
+
+        final int index;
+
+        if ("GET".equals(method)) {
+            index = GET_INDEX;
+        } else if ("POST".equals(method)) {
+            index = POST_INDEX;
+        } else {
+            index = -1;
+        }
+
+        return index;
+    }
+
+    /**
+     * A node in the path trie.  Children are kept in parallel arrays sorted by character; most nodes have a single
+     * child, so lookups are short scans.
+     */
+    private static final class Node {
+
+        /** The characters that lead to child nodes, in increasing order. */
+        private char[] keys;
+
+        /** The child nodes, parallel to {@code keys}. */
+        private Node[] children;
+
+        /** The endpoint whose path ends at this node, for each method ({@code null} entries where none). */
+        final EEndpoint[] endpoints;
+
+        /**
+         * Constructs a new {@code Node}.
+         */
+        Node() {
+
+            this.keys = new char[0];
+            this.children = new Node[0];
+            this.endpoints = new EEndpoint[NUM_METHODS];
+        }
+
+        /**
+         * Gets the child for a character.
+         *
+         * @param ch the character
+         * @return the child; {@code null} if none
+         */
+        Node getChild(final char ch) {
+
+            final int index = Arrays.binarySearch(this.keys, ch);
+
+            return index >= 0 ? this.children[index] : null;
+        }
+
+        /**
+         * Gets the child for a character, adding one if needed.
+         *
+         * @param ch the character
+         * @return the child
+         */
+        Node getOrAddChild(final char ch) {
+
+            final int index = Arrays.binarySearch(this.keys, ch);
+
+            final Node result;
+            if (index >= 0) {
+                result = this.children[index];
+            } else {
+                final int insertAt = -index - 1;
+                final int oldLen = this.keys.length;
+
+                final char[] newKeys = new char[oldLen + 1];
+                final Node[] newChildren = new Node[oldLen + 1];
+                System.arraycopy(this.keys, 0, newKeys, 0, insertAt);
+                System.arraycopy(this.children, 0, newChildren, 0, insertAt);
+                System.arraycopy(this.keys, insertAt, newKeys, insertAt + 1, oldLen - insertAt);
+                System.arraycopy(this.children, insertAt, newChildren, insertAt + 1, oldLen - insertAt);
+
+                result = new Node();
+                newKeys[insertAt] = ch;
+                newChildren[insertAt] = result;
+                this.keys = newKeys;
+                this.children = newChildren;
+            }
+
+            return result;
+        }
+    }
+}
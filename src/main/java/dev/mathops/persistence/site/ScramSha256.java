@@ -1,16 +1,79 @@
 package dev.mathops.persistence.site;
 
-import jakarta.servlet.ServletRequest;
+import dev.mathops.commons.log.Log;
+import dev.mathops.persistence.api.ScramKeys;
+import dev.mathops.persistence.config.PermissionRegistry;
+import dev.mathops.persistence.site.session.AuthToken;
+import dev.mathops.persistence.site.session.LoginResult;
+import dev.mathops.persistence.site.session.ScramCredentials;
+import dev.mathops.persistence.site.session.Session;
+import dev.mathops.persistence.site.session.SessionManager;
+import dev.mathops.text.builder.SimpleBuilder;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Code to process SCRAM-SHA-256 authentication.
+ *
+ * <p>
+ * The exchange takes two requests.  Between them, the server keeps the state of the exchange keyed on the combined
+ * client and server nonce, for at most {@code EXCHANGE_TIMEOUT}.  A successful exchange creates a session and issues
+ * an authorization token tied to that session, so the token is revoked when the session logs out or expires.
  */
-public enum ScramSha256 {
-    ;
+final class ScramSha256 {
+
+    /** The number of random bytes in a server nonce (encoded as 24 base-64 characters). */
+    private static final int SERVER_NONCE_BYTES = 18;
+
+    /** The shortest client nonce accepted. */
+    private static final int MIN_CLIENT_NONCE_LEN = 20;
+
+    /** The time after which an unfinished exchange is discarded (nanoseconds). */
+    private static final long EXCHANGE_TIMEOUT = Duration.ofMinutes(1L).toNanos();
+
+    /** The number of unfinished exchanges at which new exchanges trigger a sweep. */
+    private static final int SWEEP_THRESHOLD = 1000;
+
+    /** The largest number of unfinished exchanges (new exchanges are refused beyond this). */
+    private static final int MAX_EXCHANGES = 10000;
+
+    /** The reply to a malformed message or a failure not covered by a more specific error. */
+    private static final String OTHER_ERROR = "e=other-error";
+
+    /** The session manager that verifies credentials and issues tokens. */
+    private final SessionManager sessionMgr;
+
+    /** The registry that holds the current compiled role permissions. */
+    private final PermissionRegistry permissions;
+
+    /** A secure random number generator for server nonces. */
+    private final SecureRandom rnd;
+
+    /** Unfinished exchanges, keyed on the combined nonce. */
+    private final Map<String, Exchange> exchanges;
+
+    /**
+     * Constructs a new {@code ScramSha256}.
+     *
+     * @param theSessionMgr  the session manager that verifies credentials and issues tokens
+     * @param thePermissions the registry that holds the current compiled role permissions
+     */
+    ScramSha256(final SessionManager theSessionMgr, final PermissionRegistry thePermissions) {
+
+        this.sessionMgr = theSessionMgr;
+        this.permissions = thePermissions;
+        this.rnd = new SecureRandom();
+        this.exchanges = new ConcurrentHashMap<>(20);
+    }
 
     /**
      * Processes a POST request to the "authorization" path, which handles SCRAM-SHA-256 authorization.
@@ -21,8 +84,10 @@ public enum ScramSha256 {
      * with a session ID at the end of the process is documented in RFC7615.
      *
      * <p>
-     * The client sends a "client-first-message": {@code n,n=[username],r=[client-nonce]}
+     * The client sends a "client-first-message": {@code n,[authzid],n=[username],r=[client-nonce]}
      * <ul>
+     * <li>{@code [authzid]} is empty, or {@code a=[role]} to name the role under which transactions will execute (by
+     * default, the first of the login's roles that is defined)</li>
      * <li>{@code [client-nonce]} is a sequence of (at least 20) random ASCII letters or digits</li>
      * </ul>
      *
@@ -36,56 +101,286 @@ public enum ScramSha256 {
      * </ul>
      *
      * <p>
-     * The client sends a "client-final-message": {@code c=,r=[client-nonce][server-nonce],p=[proof]}
+     * The client sends a "client-final-message": {@code c=[binding],r=[client-nonce][server-nonce],p=[proof]}
      * <ul>
+     * <li>{@code [binding]} is the base-64 encoding of the first message's {@code n,[authzid],} header</li>
      * <li>{@code [client-nonce][server-nonce]} is that sent by the server</li>
      * <li>{@code [proof]} is the client's proof</li>
      * </ul>
      *
      * <p>
-     * The server replies with a "server-final-message": {@code v=[verifier]}
+     * The server replies with a "server-final-message": {@code v=[verifier],t=[token]}
      * <ul>
      * <li>{@code [verifier]} is the base-64 encoded server signature</li>
+     * <li>{@code [token]} is the base-64 encoded 16-byte authorization token to send with API requests</li>
      * </ul>
+     * and an "Authentication-Info" header of the form {@code sid=[session-id]}.
+     *
+     * <p>
+     * The SCRAM password is derived from the user's password as described in {@code ScramKeys}.
      *
      * @param req  the HTTP servlet request
      * @param resp the HTTP servlet response
      * @throws IOException if there is an error reading the request body or writing the response
      */
-    static void processPostAuthorization(final HttpServletRequest req, final HttpServletResponse resp)
-            throws IOException {
+    void processPostAuthorization(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
 
         final byte[] body = ServiceSite.getRequestBody(req);
+        final String message = new String(body, StandardCharsets.UTF_8);
+
         final String replyBody;
 
-        if (body.length > 5) {
-            if ((int) body[0] == (int) 'n') {
-                // If the body starts with "n,,n=", this is a "client-first-message"
-                if (((int) body[1] == (int) ',') && ((int) body[2] == (int) ',') && ((int) body[3] == (int) 'n')
-                    && ((int) body[4] == (int) '=')) {
+        if (message.startsWith("n,") || message.startsWith("y,")) {
+            replyBody = processClientFirst(message, req.getRemoteAddr());
+        } else if (message.startsWith("c=")) {
+            replyBody = processClientFinal(message, resp);
+        } else {
+            replyBody = OTHER_ERROR;
+        }
+
+        ServiceSite.sendReply(req, resp, "text/plain", replyBody);
+    }
+
+    /**
+     * Processes a POST request to the "logout" path, which ends the session for which an authorization token was
+     * issued.  The request body is the 16-byte token; the reply is empty whether or not the token was valid.
+     *
+     * @param req  the HTTP servlet request
+     * @param resp the HTTP servlet response
+     * @throws IOException if there is an error reading the request body or writing the response
+     */
+    void processPostLogout(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+
+        final byte[] body = ServiceSite.getRequestBody(req);
+
+        if (body.length >= AuthToken.ENCODED_LENGTH) {
+            this.sessionMgr.logout(AuthToken.decode(body, 0));
+        }
+
+        ServiceSite.sendReply(req, resp, "text/plain", "");
+    }
+
+    /**
+     * Processes a "client-first-message".
+     *
+     * @param message the message
+     * @param address the client address
+     * @return the "server-first-message", or an error reply
+     */
+    private String processClientFirst(final String message, final String address) {
+
+        String reply = OTHER_ERROR;
 
-                    //TODO:
-                    replyBody = "";
+        // The GS2 header is "n," or "y,", then an optional "a=[authzid]", then ","
+        final int headerEnd = message.indexOf(',', 2) + 1;
+
+        if (headerEnd > 0 && message.startsWith("n=", headerEnd)) {
+            final String authzid = headerEnd == 3 ? null : decodeName(message.substring(2, headerEnd - 1), "a=");
+            final String clientFirstBare = message.substring(headerEnd);
+            final int userEnd = clientFirstBare.indexOf(',');
+            final String username = userEnd < 0 ? null : decodeName(clientFirstBare.substring(0, userEnd), "n=");
+            final String clientNonce = userEnd < 0 ? null : attribute(clientFirstBare, userEnd + 1, "r=");
+
+            if (username != null && !username.isEmpty() && (headerEnd == 3 || authzid != null)
+                && clientNonce != null && clientNonce.length() >= MIN_CLIENT_NONCE_LEN) {
+
+                final ScramCredentials credentials = this.sessionMgr.getScramCredentials(username, address);
+
+                if (credentials == null) {
+                    reply = "e=unknown-user";
+                } else if (startExchange()) {
+                    final byte[] nonceBytes = new byte[SERVER_NONCE_BYTES];
+                    this.rnd.nextBytes(nonceBytes);
+                    final String nonce = clientNonce + Base64.getEncoder().encodeToString(nonceBytes);
+                    final String salt = Base64.getEncoder().encodeToString(credentials.salt());
+                    final String iterations = Integer.toString(credentials.iterations());
+                    final String serverFirst = SimpleBuilder.concat("r=", nonce, ",s=", salt, ",i=", iterations);
+
+                    final String gs2Header = message.substring(0, headerEnd);
+                    this.exchanges.put(nonce, new Exchange(credentials, authzid, gs2Header, clientFirstBare,
+                            serverFirst, System.nanoTime()));
+                    reply = serverFirst;
                 } else {
-                    replyBody = "e=other-error";
+                    reply = "e=no-resources";
                 }
-            } else if (body[0] == 'c') {
-                // If the body starts with "c=,r=", this is a "client-final-message"
-                if (((int) body[1] == (int) '=') && ((int) body[2] == (int) ',') && ((int) body[3] == (int) 'r')
-                    && ((int) body[4] == (int) '=')) {
+            }
+        }
+
+        return reply;
+    }
+
+    /**
+     * Processes a "client-final-message".
+     *
+     * @param message the message
+     * @param resp    the HTTP servlet response, to which the "Authentication-Info" header is added on success
+     * @return the "server-final-message", or an error reply
+     */
+    private String processClientFinal(final String message, final HttpServletResponse resp) {
+
+        String reply = OTHER_ERROR;
 
-                    //TODO:
-                    replyBody = "";
+        final int proofStart = message.lastIndexOf(",p=");
+        final int bindingEnd = message.indexOf(',');
+        final String nonce = bindingEnd < 0 ? null : attribute(message, bindingEnd + 1, "r=");
+        final Exchange exchange = nonce == null ? null : this.exchanges.remove(nonce);
+
+        if (exchange != null && proofStart > bindingEnd
+            && System.nanoTime() - exchange.started() <= EXCHANGE_TIMEOUT) {
+
+            final String binding = Base64.getEncoder().encodeToString(
+                    exchange.gs2Header().getBytes(StandardCharsets.UTF_8));
+            final String withoutProof = message.substring(0, proofStart);
+
+            if (message.substring(2, bindingEnd).equals(binding)) {
+                final ScramCredentials credentials = exchange.credentials();
+                final String authMessage = SimpleBuilder.concat(exchange.clientFirstBare(), ",",
+                        exchange.serverFirst(), ",", withoutProof);
+
+                final String username = credentials.username();
+                final boolean valid = isProofValid(credentials, authMessage, message.substring(proofStart + 3));
+                final LoginResult result = this.sessionMgr.finishScramAuthentication(username, valid);
+                final Session session = result.getSession();
+
+                if (session == null) {
+                    reply = valid ? OTHER_ERROR : "e=invalid-proof";
                 } else {
-                    replyBody = "e=other-error";
+                    final AuthToken token = this.sessionMgr.issueToken(session, this.permissions.getMatrix(),
+                            exchange.authzid());
+
+                    if (token == null) {
+                        Log.warning("No role of '", username, "' allows a token for role '", exchange.authzid(), "'.");
+                        this.sessionMgr.logout(session.getId());
+                    } else {
+                        final byte[] signature = ScramKeys.hmac(credentials.serverKey(), authMessage);
+                        final Base64.Encoder encoder = Base64.getEncoder();
+                        resp.setHeader("Authentication-Info", "sid=" + session.getId());
+                        reply = SimpleBuilder.concat("v=", encoder.encodeToString(signature), ",t=",
+                                encoder.encodeToString(token.encode()));
+                    }
                 }
-            } else {
-                replyBody = "e=other-error";
             }
-        } else {
-            replyBody = "e=other-error";
         }
 
-        ServiceSite.sendReply(req, resp, "text/plain", replyBody);
+        return reply;
+    }
+
+    /**
+     * Tests whether a client proof is valid.
+     *
+     * @param credentials the credentials for the exchange
+     * @param authMessage the "AuthMessage" that was signed
+     * @param proof       the base-64 client proof
+     * @return true if the proof is valid
+     */
+    private static boolean isProofValid(final ScramCredentials credentials, final String authMessage,
+                                        final String proof) {
+
+        boolean valid = false;
+
+        try {
+            final byte[] proofBytes = Base64.getDecoder().decode(proof);
+            final byte[] clientSignature = ScramKeys.hmac(credentials.storedKey(), authMessage);
+            if (proofBytes.length == clientSignature.length) {
+                final byte[] clientKey = ScramKeys.xor(proofBytes, clientSignature);
+                valid = MessageDigest.isEqual(ScramKeys.storedKey(clientKey), credentials.storedKey());
+            }
+        } catch (final IllegalArgumentException ex) {
+            Log.warning("Invalid SCRAM client proof encoding.");
+        }
+
+        return valid;
+    }
+
+    /**
+     * Checks that there is room for a new exchange, first discarding exchanges that have timed out if there are many.
+     *
+     * @return true if a new exchange may start
+     */
+    private boolean startExchange() {
+
+        if (this.exchanges.size() >= SWEEP_THRESHOLD) {
+            final long now = System.nanoTime();
+            this.exchanges.values().removeIf(exchange -> now - exchange.started() > EXCHANGE_TIMEOUT);
+        }
+
+        return this.exchanges.size() < MAX_EXCHANGES;
+    }
+
+    /**
+     * Extracts the value of an attribute that starts at a given position and runs to the next comma or the end of the
+     * message.
+     *
+     * @param message the message
+     * @param start   the position where the attribute starts
+     * @param prefix  the expected attribute prefix, such as "r="
+     * @return the value; {@code null} if the attribute at that position does not have the expected prefix
+     */
+    private static String attribute(final String message, final int start, final String prefix) {
+
+        String result = null;
+
+        if (message.startsWith(prefix, start)) {
+            final int end = message.indexOf(',', start);
+            result = message.substring(start + prefix.length(), end < 0 ? message.length() : end);
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a "saslname" attribute, in which "=2C" stands for a comma and "=3D" for an equals sign.
+     *
+     * @param attribute the attribute, including its prefix
+     * @param prefix    the expected prefix, such as "n="
+     * @return the decoded name; {@code null} if the prefix is missing or the name has an invalid escape
+     */
+    private static String decodeName(final String attribute, final String prefix) {
+
+        String result = null;
+
+        if (attribute.startsWith(prefix)) {
+            final int len = attribute.length();
+            final StringBuilder builder = new StringBuilder(len);
+            boolean valid = true;
+
+            int pos = prefix.length();
+            while (valid && pos < len) {
+                final char ch = attribute.charAt(pos);
+                if (ch == '=') {
+                    if (attribute.startsWith("=2C", pos)) {
+                        builder.append(',');
+                    } else if (attribute.startsWith("=3D", pos)) {
+                        builder.append('=');
+                    } else {
+                        valid = false;
+                    }
+                    pos += 3;
+                } else {
+                    builder.append(ch);
+                    ++pos;
+                }
+            }
+
+            if (valid) {
+                result = builder.toString();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The state of an unfinished exchange.
+     *
+     * @param credentials     the credentials for the login
+     * @param authzid         the role named in the first message ({@code null} if none)
+     * @param gs2Header       the GS2 header of the first message, which the final message must echo
+     * @param clientFirstBare the first message without its GS2 header
+     * @param serverFirst     the server's first message
+     * @param started         the {@code System.nanoTime()} value when the exchange started
+     */
+    private record Exchange(ScramCredentials credentials, String authzid, String gs2Header, String clientFirstBare,
+                            String serverFirst, long started) {
     }
 }
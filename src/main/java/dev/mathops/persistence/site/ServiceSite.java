@@ -4,7 +4,20 @@ import dev.mathops.commons.CoreConstants;
 import dev.mathops.commons.installation.Installation;
 import dev.mathops.commons.log.Log;
 import dev.mathops.commons.log.LogBase;
+import dev.mathops.commons.log.LogSettings;
+import dev.mathops.commons.log.LoggingSubsystem;
+import dev.mathops.persistence.config.ConfigWatcher;
+import dev.mathops.persistence.config.PermissionRegistry;
+import dev.mathops.persistence.config.RoleConfigLoader;
+import dev.mathops.persistence.config.SchemaConfigLoader;
+import dev.mathops.persistence.config.SchemaRegistry;
+import dev.mathops.persistence.dispatch.Catalog;
+import dev.mathops.persistence.dispatch.ResponseWriter;
+import dev.mathops.persistence.site.session.LocalLoginStatusStore;
 import dev.mathops.persistence.site.session.SessionManager;
+import dev.mathops.persistence.term.TermLifecycle;
+import dev.mathops.schema.AllTables;
+import dev.mathops.schema.main.TermTable;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
@@ -18,9 +31,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.time.ZoneId;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A servlet the provides the data access API as well as a website with documentation and administrative functions.
@@ -33,14 +47,8 @@ public final class ServiceSite extends HttpServlet {
     /** The name of the servlet. */
     private static final String TITLE = "MathOps Persistence Layer servlet";
 
-    /** The prefix to select the API handler. */
-    private static final String API_PREFIX = "/api";
-
-    /** The prefix to select the MGT handler. */
-    private static final String DOC_PREFIX = "/doc";
-
-    /** The prefix to select the MGT handler. */
-    private static final String MGT_PREFIX = "/mgt";
+    /** One request in this many is logged at INFO level. */
+    private static final long LOG_SAMPLE_INTERVAL = 100L;
 
     /** The servlet configuration. */
     private ServletConfig servletConfig = null;
@@ -57,24 +65,48 @@ public final class ServiceSite extends HttpServlet {
     /** The default configuration directory, used when none specified. */
     private static final String DEFAULT_CONFIG_DIR = "/opt/mathops";
 
+    /** The subdirectory of the configuration directory under which term archives are written. */
+    private static final String ARCHIVE_DIR = "archive";
+
     /** The configuration directory. */
     private File configDir = null;
 
     /** The set of authorized administrators. */
     private Administrators administrators = null;
 
+    /** The registry that holds the current compiled role permissions. */
+    private PermissionRegistry permissions = null;
+
+    /** The registry that holds the built-in and configured tables. */
+    private SchemaRegistry schemas = null;
+
+    /** The catalog of schemas, contexts, and tables exposed by the API. */
+    private Catalog catalog = null;
+
+    /** The watcher that reloads configuration files when they change. */
+    private ConfigWatcher configWatcher = null;
+
     /** The session manager. */
     private SessionManager sessionMgr = null;
 
     /** The handler for API requests. */
     private ApiHandler apiHandler = null;
 
+    /** The term services (active term, provisioning, and archiving). */
+    private TermLifecycle termLifecycle = null;
+
     /** The handler for management requests. */
     private ManagementHandler mgtHandler = null;
 
     /** The handler for documentation requests. */
     private DocHandler docHandler = null;
 
+    /** The routing table, built during initialization. */
+    private Router router = null;
+
+    /** The number of secure requests received (used to sample request logging). */
+    private final AtomicLong requestCount = new AtomicLong();
+
     /**
      * Constructs a new {@code ServiceSite}.
      */
@@ -102,25 +134,57 @@ public final class ServiceSite extends HttpServlet {
 
         this.configDir = this.installation.extractFileProperty(CONFIG_DIR_PROPERTY, new File(DEFAULT_CONFIG_DIR));
         this.administrators = new Administrators(this.configDir);
+        this.permissions = new PermissionRegistry(this.configDir);
+        this.schemas = new SchemaRegistry(this.configDir, AllTables.INSTANCE.tables);
+        this.catalog = new Catalog(this.schemas.getTables());
 
         try {
             this.sessionMgr = new SessionManager(this.configDir);
         } catch (final NoSuchAlgorithmException ex) {
             throw new ServletException(ex);
         }
+        this.sessionMgr.setLoginStatusStore(new LocalLoginStatusStore(this.catalog));
+
+        final AdmissionController admission = new AdmissionController();
+        this.apiHandler = new ApiHandler(this.configDir, this.sessionMgr, this.permissions, this.catalog, admission);
+        this.mgtHandler = new ManagementHandler(this.configDir, this.sessionMgr);
+        this.docHandler = new DocHandler();
+
+        final File archiveDir = new File(this.configDir, ARCHIVE_DIR);
+        this.termLifecycle = new TermLifecycle(this.catalog, archiveDir.toPath(), ZoneId.systemDefault(),
+                snapshot -> this.apiHandler.invalidate(TermTable.INSTANCE));
+        if (!this.termLifecycle.start()) {
+            Log.info("Term services not started: no implementation bound to the 'term' table.");
+        }
 
-        final int apiPrefixLen = API_PREFIX.length();
-        this.apiHandler = new ApiHandler(apiPrefixLen, this.configDir, this.sessionMgr);
-
-        final int mgtPrefixLen = MGT_PREFIX.length();
-        this.mgtHandler = new ManagementHandler(mgtPrefixLen, this.configDir, this.sessionMgr);
+        // Reload callbacks use the session manager, handlers, and term services, so only start watching once they exist
+        this.configWatcher = new ConfigWatcher(this.configDir);
+        this.configWatcher.register(Administrators.FILENAME, this.administrators::reload);
+        this.configWatcher.register(RoleConfigLoader.FILENAME, this.permissions::reload);
+        this.configWatcher.register(SchemaConfigLoader.FILENAME, this::reloadSchemas);
+        this.configWatcher.start();
 
-        final int docPrefixLen = DOC_PREFIX.length();
-        this.docHandler = new DocHandler(docPrefixLen);
+        this.router = new Router();
+        this.apiHandler.registerRoutes(this.router);
+        this.mgtHandler.registerRoutes(this.router);
+        this.docHandler.registerRoutes(this.router);
 
         Log.info(TITLE, " initialized");
     }
 
+    /**
+     * Reloads "schemas.json" and, if any table was added, changed, or removed, publishes the new table list to the
+     * catalog.  Tables whose definitions did not change keep their IDs and cached responses.  The term services are
+     * started if they were waiting for the catalog to change.
+     */
+    private void reloadSchemas() {
+
+        if (this.schemas.reload()) {
+            this.catalog.setTables(this.schemas.getTables());
+            this.termLifecycle.start();
+        }
+    }
+
     /**
      * Gets the servlet configuration.
      *
@@ -163,6 +227,22 @@ public final class ServiceSite extends HttpServlet {
     @Override
     public void destroy() {
 
+        if (this.configWatcher != null) {
+            this.configWatcher.stop();
+        }
+
+        if (this.termLifecycle != null) {
+            this.termLifecycle.close();
+        }
+
+        if (this.sessionMgr != null) {
+            this.sessionMgr.shutdown();
+        }
+
+        if (this.apiHandler != null) {
+            this.apiHandler.shutdown();
+        }
+
         Log.info(TITLE, " terminated");
     }
 
@@ -270,9 +350,8 @@ public final class ServiceSite extends HttpServlet {
     }
 
     /**
-     * Processes a request when it is known the connection was secured. The first part of the request path is used to
-     * determine whether the request is for a public file, or if not, to determine the mid-controller to which to
-     * forward the request.
+     * Processes a request when it is known the connection was secured. The method and request path are looked up in
+     * the routing table, and the request is passed to the handler for the matching endpoint.
      *
      * @param requestPath the request path
      * @param req         the HTTP servlet request
@@ -282,19 +361,42 @@ public final class ServiceSite extends HttpServlet {
     private void serviceSecure(final String requestPath, final HttpServletRequest req,
                                final HttpServletResponse resp) throws IOException {
 
-        Log.info("Servicing secure request: ", requestPath);
+        if (this.requestCount.incrementAndGet() % LOG_SAMPLE_INTERVAL == 0L && isInfoLogged()) {
+            Log.info("Servicing secure request: ", requestPath);
+        }
 
-        if (requestPath.startsWith(API_PREFIX)) {
-            this.apiHandler.handleRequest(requestPath, req, resp);
-        } else if (requestPath.startsWith(MGT_PREFIX)) {
-            this.mgtHandler.handleRequest(requestPath, req, resp);
-        } else if (requestPath.startsWith(DOC_PREFIX)) {
-            this.docHandler.handleRequest(requestPath, req, resp);
+        final String method = req.getMethod();
+        final EEndpoint endpoint = this.router.find(method, requestPath);
+
+        if (endpoint == null) {
+            if (this.router.hasPath(requestPath)) {
+                resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            } else {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
         } else {
-            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            final IRouteHandler handler = this.router.dispatch(endpoint);
+            if (handler == null) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            } else {
+                handler.handle(req, resp);
+            }
         }
     }
 
+    /**
+     * Tests whether messages at INFO level are currently being logged, so callers can skip building log messages that
+     * would be discarded.
+     *
+     * @return true if INFO messages are logged
+     */
+    private static boolean isInfoLogged() {
+
+        final LogSettings settings = LoggingSubsystem.getSettings();
+
+        return (settings.getLogLevel() & LogBase.INFO_BIT) != 0;
+    }
+
     /**
      * Reads the request body from an HTTP request.
      *
@@ -330,8 +432,29 @@ public final class ServiceSite extends HttpServlet {
     static void sendReply(final ServletRequest req, final HttpServletResponse resp, final String contentType,
                           final String reply) throws IOException {
 
-        final byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
-        sendReply(req, resp, contentType, bytes);
+        resp.setContentType(contentType);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Accept-Ranges", "bytes");
+
+        final Locale locale = req.getLocale();
+        resp.setLocale(locale);
+
+        // Encode directly into pooled segments rather than materializing the whole reply as a byte array; replies
+        // larger than one batch of segments are sent with chunked encoding as they are encoded.
+        final ResponseWriter writer = new ResponseWriter();
+        writer.begin(resp);
+        writer.allowStreaming();
+        try {
+            writer.writeUtf8(reply);
+            writer.finish();
+        } catch (final IOException ex) {
+            final String clssName = ex.getClass().getSimpleName();
+            if (!"ClientAbortException".equals(clssName)) {
+                throw ex;
+            }
+        } finally {
+            writer.release();
+        }
     }
 
     /**
@@ -0,0 +1,74 @@
+package dev.mathops.persistence.site.session;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A 128-bit authorization token.  The high-order 64 bits are a random ID generated when the token is issued.  The
+ * low-order 64 bits hold the ID of the role under which the user authenticated (high-order 32 bits) and the ID of the
+ * effective role for transactions (low-order 32 bits).  Role IDs are those assigned by the current
+ * {@code PermissionMatrix}.
+ *
+ * @param randomId        the random ID
+ * @param authRoleId      the authenticating role ID
+ * @param effectiveRoleId the effective role ID
+ */
+public record AuthToken(long randomId, int authRoleId, int effectiveRoleId) {
+
+    /** The length of an encoded token, in bytes. */
+    public static final int ENCODED_LENGTH = 16;
+
+    /**
+     * Encodes the token.
+     *
+     * @return the 16-byte encoded token
+     */
+    public byte[] encode() {
+
+        final byte[] result = new byte[ENCODED_LENGTH];
+
+        final ByteBuffer buffer = ByteBuffer.wrap(result);
+        buffer.putLong(this.randomId);
+        buffer.putInt(this.authRoleId);
+        buffer.putInt(this.effectiveRoleId);
+
+        return result;
+    }
+
+    /**
+     * Decodes a token.
+     *
+     * @param source the source bytes
+     * @param offset the offset of the first byte of the token
+     * @return the token
+     * @throws IllegalArgumentException if there are fewer than 16 bytes at the offset
+     */
+    public static AuthToken decode(final byte[] source, final int offset) {
+
+        if (offset < 0 || source.length - offset < ENCODED_LENGTH) {
+            throw new IllegalArgumentException("Authorization token requires 16 bytes");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(source, offset, ENCODED_LENGTH);
+        final long random = buffer.getLong();
+        final int auth = buffer.getInt();
+        final int effective = buffer.getInt();
+
+        return new AuthToken(random, auth, effective);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.  The random ID is not included.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String authStr = Integer.toString(this.authRoleId);
+        final String effectiveStr = Integer.toString(this.effectiveRoleId);
+
+        return SimpleBuilder.concat("AuthToken{authRoleId=", authStr, ", effectiveRoleId=", effectiveStr, "}");
+    }
+}
@@ -0,0 +1,30 @@
+package dev.mathops.persistence.site.session;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * A store for the failed-login bookkeeping used to enforce progressive lockout.  The production implementation
+ * persists this data through the "local_login" table so lockouts survive restarts; implementations must be safe for
+ * use by multiple threads.
+ */
+public interface ILoginStatusStore {
+
+    /**
+     * Gets the status for a login.
+     *
+     * @param username the username
+     * @return the status; {@code null} if none has been recorded
+     */
+    LoginStatus get(String username);
+
+    /**
+     * Atomically replaces the status for a login with a status computed from the current one.  Concurrent updates for
+     * the same login are applied one at a time, so none is lost.
+     *
+     * @param username the username
+     * @param updater  a function that computes the new status from the current status ({@code null} if none has been
+     *                 recorded); it may be called while a lock is held, so it should be quick
+     * @return the new status
+     */
+    LoginStatus update(String username, UnaryOperator<LoginStatus> updater);
+}
@@ -0,0 +1,413 @@
+package dev.mathops.persistence.site.session;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.NullValue;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.dispatch.Catalog;
+import dev.mathops.persistence.dispatch.RoutingTable;
+import dev.mathops.schema.main.LocalLoginTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+/**
+ * An {@code ILoginStatusStore} that persists statuses in the "when_last_logged_in", "when_last_failed", and
+ * "nbr_failed_logins" columns of the "local_login" table, so lockouts survive restarts.
+ *
+ * <p>
+ * The table is reached through the implementation the catalog binds to its schema (in the schema's first bound
+ * context), looked up on each access so a rebinding takes effect at once.
+ *
+ * <p>
+ * Statuses are cached in memory.  The table is read only the first time a login is seen, so the lockout test made on
+ * every login attempt does not reach the backend.  Updates are applied to the cached status and then written through
+ * to the table.  No lock is held while the backend is called: if a write for a login is already in progress, the
+ * thread doing it writes the newer status when it finishes, so the last status written is always the latest one.
+ * Statuses for logins that have no row in the table, or that were first updated while the table could not be read,
+ * are kept only in memory.  Rows added, and status columns changed, by other means after a login has been seen are not
+ * noticed until a restart.
+ */
+public final class LocalLoginStatusStore implements ILoginStatusStore {
+
+    /** The number of cached statuses above which statuses that carry no information are discarded. */
+    private static final int MAX_CACHED = 10000;
+
+    /** The index of the "when_last_logged_in" field in a "local_login" row. */
+    private static final int WHEN_LAST_LOGGED_IN_FIELD = 9;
+
+    /** The index of the "when_last_failed" field in a "local_login" row. */
+    private static final int WHEN_LAST_FAILED_FIELD = 10;
+
+    /** The index of the "nbr_failed_logins" field in a "local_login" row. */
+    private static final int NBR_FAILED_LOGINS_FIELD = 11;
+
+    /** The catalog through which the "local_login" table is reached. */
+    private final Catalog catalog;
+
+    /** The cached statuses, keyed by username. */
+    private final Map<String, CachedStatus> cache;
+
+    /** A flag that is true while a thread is discarding cached statuses. */
+    private final AtomicBoolean sweeping;
+
+    /**
+     * Constructs a new {@code LocalLoginStatusStore}.
+     *
+     * @param theCatalog the catalog through which the "local_login" table is reached
+     */
+    public LocalLoginStatusStore(final Catalog theCatalog) {
+
+        this.catalog = theCatalog;
+        this.cache = new ConcurrentHashMap<>(100);
+        this.sweeping = new AtomicBoolean(false);
+    }
+
+    /**
+     * Gets the status for a login.
+     *
+     * @param username the username
+     * @return the status; {@code null} if none has been recorded
+     */
+    @Override
+    public LoginStatus get(final String username) {
+
+        final CachedStatus cached = lookup(username);
+
+        return cached == null ? null : cached.getStatus();
+    }
+
+    /**
+     * Atomically replaces the status for a login with a status computed from the current one, then writes the new
+     * status to the table if the login has a row.
+     *
+     * @param username the username
+     * @param updater  a function that computes the new status from the current status ({@code null} if none has been
+     *                 recorded)
+     * @return the new status
+     */
+    @Override
+    public LoginStatus update(final String username, final UnaryOperator<LoginStatus> updater) {
+
+        lookup(username);
+
+        // Statuses that carry information are never discarded, so a status discarded between the lookup and this
+        // update was empty, and starting over from an empty in-memory status loses nothing
+        final CachedStatus cached = this.cache.compute(username, (key, current) -> {
+            final CachedStatus target = current == null ? new CachedStatus(false, null) : current;
+            target.apply(updater);
+            return target;
+        });
+
+        if (cached.hasRow) {
+            writeThrough(username, cached);
+        }
+
+        return cached.getStatus();
+    }
+
+    /**
+     * Gets the cached status for a login, reading it from the table if the login has not been seen before.
+     *
+     * @param username the username
+     * @return the cached status; {@code null} if the login has not been seen and the table could not be read
+     */
+    private CachedStatus lookup(final String username) {
+
+        CachedStatus result = this.cache.get(username);
+
+        if (result == null) {
+            final CachedStatus loaded = load(username);
+            if (loaded != null) {
+                if (this.cache.size() >= MAX_CACHED) {
+                    sweep();
+                }
+                final CachedStatus existing = this.cache.putIfAbsent(username, loaded);
+                result = existing == null ? loaded : existing;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the status for a login from the table.  No lock is held while the table is read.
+     *
+     * @param username the username
+     * @return the status read; {@code null} if the table's schema has no implementation bound or the table could not
+     *         be read
+     */
+    private CachedStatus load(final String username) {
+
+        CachedStatus result = null;
+
+        final Binding binding = findBinding();
+        if (binding != null) {
+            try {
+                final Row row = readRow(binding, username);
+                result = row == null ? new CachedStatus(false, null) : new CachedStatus(true, toStatus(row));
+            } catch (final PersistenceException ex) {
+                Log.warning("Failed to read login status of '", username, "'.", ex);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Discards cached statuses that carry no information (for logins with no row in the table and no status
+     * recorded).  If another thread is already sweeping, this returns immediately.
+     */
+    private void sweep() {
+
+        if (this.sweeping.compareAndSet(false, true)) {
+            try {
+                for (final String username : this.cache.keySet()) {
+                    this.cache.computeIfPresent(username, (key, cached) -> cached.isEmpty() ? null : cached);
+                }
+            } finally {
+                this.sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the latest status for a login to the table, unless it has already been written.  If another thread is
+     * writing the login's status, this returns immediately, and that thread writes the latest status when it is done.
+     *
+     * @param username the username
+     * @param cached   the cached status
+     */
+    private void writeThrough(final String username, final CachedStatus cached) {
+
+        while (cached.needsWrite() && cached.writing.compareAndSet(false, true)) {
+            try {
+                final long version;
+                final LoginStatus status;
+                synchronized (cached) {
+                    version = cached.version;
+                    status = cached.status;
+                }
+
+                final Binding binding = findBinding();
+                if (binding != null) {
+                    try {
+                        writeStatus(binding, username, status);
+                    } catch (final PersistenceException ex) {
+                        Log.warning("Failed to write login status of '", username, "'; keeping it in memory.", ex);
+                    }
+                }
+                cached.markWritten(version);
+            } finally {
+                cached.writing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Finds the implementation and context that hold the "local_login" table in the current routing snapshot.
+     *
+     * @return the binding; {@code null} if the table's schema has no implementation bound
+     */
+    private Binding findBinding() {
+
+        Binding result = null;
+
+        final RoutingTable routes = this.catalog.getRoutes();
+        final int schemaId = routes.getSchemaId(LocalLoginTable.INSTANCE.getSchema());
+
+        if (schemaId >= 0) {
+            final int contextId = routes.getDefaultContextId(schemaId);
+            final IImplementation impl = routes.getImplementation(schemaId, contextId);
+            if (impl != null) {
+                result = new Binding(impl, routes.getContextName(contextId));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the "local_login" row for a login.
+     *
+     * @param binding  the implementation and context that hold the table
+     * @param username the username
+     * @return the row; {@code null} if the login has no row
+     * @throws PersistenceException if the table could not be read
+     */
+    private static Row readRow(final Binding binding, final String username) throws PersistenceException {
+
+        final List<Row> rows = new ArrayList<>(1);
+        final LocalLoginTable table = LocalLoginTable.INSTANCE;
+        binding.impl().query(binding.context(), table, table.mkLoginQuery(username), rows);
+
+        return rows.isEmpty() ? null : rows.getFirst();
+    }
+
+    /**
+     * Writes the status columns of the "local_login" row for a login.
+     *
+     * @param binding  the implementation and context that hold the table
+     * @param username the username
+     * @param status   the status to write
+     * @throws PersistenceException if the row could not be written
+     */
+    private static void writeStatus(final Binding binding, final String username, final LoginStatus status)
+            throws PersistenceException {
+
+        final Object[] values = new Object[LocalLoginTable.INSTANCE.getNumFields()];
+        values[WHEN_LAST_LOGGED_IN_FIELD] = orNull(status.whenLastLoggedIn());
+        values[WHEN_LAST_FAILED_FIELD] = orNull(status.whenLastFailed());
+        values[NBR_FAILED_LOGINS_FIELD] = Integer.valueOf(status.nbrFailedLogins());
+
+        binding.impl().update(binding.context(), LocalLoginTable.INSTANCE,
+                LocalLoginTable.INSTANCE.mkLoginQuery(username), new UpdatedValues(LocalLoginTable.INSTANCE, values));
+    }
+
+    /**
+     * Converts a date/time to an updated value, using {@code NullValue.INSTANCE} to clear the column when there is no
+     * date/time (a {@code null} updated value leaves the column unchanged).
+     *
+     * @param value the date/time ({@code null} if none)
+     * @return the updated value
+     */
+    private static Object orNull(final LocalDateTime value) {
+
+        return value == null ? NullValue.INSTANCE : value;
+    }
+
+    /**
+     * Extracts the status from a "local_login" row.
+     *
+     * @param row the row
+     * @return the status
+     */
+    private static LoginStatus toStatus(final Row row) {
+
+        final int nbrFailed = row.getFieldValue(NBR_FAILED_LOGINS_FIELD) instanceof final Integer count
+                ? count.intValue() : 0;
+        final LocalDateTime lastFailed = row.getFieldValue(WHEN_LAST_FAILED_FIELD) instanceof final LocalDateTime when
+                ? when : null;
+        final LocalDateTime lastLoggedIn =
+                row.getFieldValue(WHEN_LAST_LOGGED_IN_FIELD) instanceof final LocalDateTime when ? when : null;
+
+        return new LoginStatus(nbrFailed, lastFailed, lastLoggedIn);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("LocalLoginStatusStore{catalog=", this.catalog, "}");
+    }
+
+    /**
+     * The implementation and context that hold the "local_login" table.
+     *
+     * @param impl    the implementation
+     * @param context the context name
+     */
+    private record Binding(IImplementation impl, String context) {
+    }
+
+    /**
+     * The cached status for a login, with a version that counts updates so writes to the table can be ordered.
+     */
+    private static final class CachedStatus {
+
+        /** True if the login has a row in the table. */
+        final boolean hasRow;
+
+        /** A flag that is true while a thread is writing this status to the table. */
+        final AtomicBoolean writing;
+
+        /** The status; {@code null} if none has been recorded (access is synchronized on this object). */
+        private LoginStatus status;
+
+        /** The number of updates applied (access is synchronized on this object). */
+        private long version;
+
+        /** The version last written to the table (access is synchronized on this object). */
+        private long writtenVersion;
+
+        /**
+         * Constructs a new {@code CachedStatus}.
+         *
+         * @param theHasRow true if the login has a row in the table
+         * @param theStatus the status; {@code null} if none has been recorded
+         */
+        CachedStatus(final boolean theHasRow, final LoginStatus theStatus) {
+
+            this.hasRow = theHasRow;
+            this.writing = new AtomicBoolean(false);
+            this.status = theStatus;
+            this.version = 0L;
+            this.writtenVersion = 0L;
+        }
+
+        /**
+         * Gets the status.
+         *
+         * @return the status; {@code null} if none has been recorded
+         */
+        synchronized LoginStatus getStatus() {
+
+            return this.status;
+        }
+
+        /**
+         * Replaces the status with one computed from the current status.
+         *
+         * @param updater the function that computes the new status
+         */
+        synchronized void apply(final UnaryOperator<LoginStatus> updater) {
+
+            this.status = updater.apply(this.status);
+            ++this.version;
+        }
+
+        /**
+         * Tests whether an update has been applied that has not been written to the table.
+         *
+         * @return true if the status needs to be written
+         */
+        synchronized boolean needsWrite() {
+
+            return this.version > this.writtenVersion;
+        }
+
+        /**
+         * Records that a version of the status has been written to the table.
+         *
+         * @param theVersion the version written
+         */
+        synchronized void markWritten(final long theVersion) {
+
+            if (theVersion > this.writtenVersion) {
+                this.writtenVersion = theVersion;
+            }
+        }
+
+        /**
+         * Tests whether this status carries no information, so it can be discarded and read again when needed.
+         *
+         * @return true if the login has no row in the table and no status has been recorded
+         */
+        synchronized boolean isEmpty() {
+
+            return !this.hasRow && this.status == null && this.version == 0L;
+        }
+    }
+}
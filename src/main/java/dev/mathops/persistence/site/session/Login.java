@@ -4,7 +4,9 @@ import dev.mathops.commons.HexEncoder;
 import dev.mathops.text.builder.SimpleBuilder;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A single login configuration loaded from the "login.json" file in the configuration directory.  The format of that
@@ -54,6 +56,21 @@ public final class Login {
     /** The list of roles for which the user is authorized. */
     private final List<String> roles;
 
+    /** The set of roles for which the user is authorized, for fast membership tests. */
+    private final Set<String> roleSet;
+
+    /** Flag indicating the login has the ADMIN role. */
+    private final boolean admin;
+
+    /** Flag indicating the login has the DBA role. */
+    private final boolean dba;
+
+    /** Flag indicating the login has the DATA_OWNER role. */
+    private final boolean dataOwner;
+
+    /** Flag indicating the login has the DATA_VIEWER role. */
+    private final boolean dataViewer;
+
     /**
      * Constructs a new {@code Login}.
      *
@@ -68,6 +85,11 @@ public final class Login {
         this.salt = theSalt;
         this.sha512Hash = theSha512Hash.clone();
         this.roles = new ArrayList<>(theRoles);
+        this.roleSet = new HashSet<>(theRoles);
+        this.admin = this.roleSet.contains(ADMIN);
+        this.dba = this.roleSet.contains(DBA);
+        this.dataOwner = this.roleSet.contains(DATA_OWNER);
+        this.dataViewer = this.roleSet.contains(DATA_VIEWER);
     }
 
     /**
@@ -128,7 +150,7 @@ public final class Login {
      */
     boolean isAdmin() {
 
-        return this.roles.contains(ADMIN);
+        return this.admin;
     }
 
     /**
@@ -138,7 +160,7 @@ public final class Login {
      */
     boolean isDba() {
 
-        return this.roles.contains(DBA);
+        return this.dba;
     }
 
     /**
@@ -148,7 +170,7 @@ public final class Login {
      */
     boolean isDataOwner() {
 
-        return this.roles.contains(DATA_OWNER);
+        return this.dataOwner;
     }
 
     /**
@@ -158,7 +180,7 @@ public final class Login {
      */
     boolean isDataViewer() {
 
-        return this.roles.contains(DATA_VIEWER);
+        return this.dataViewer;
     }
 
     /**
@@ -169,7 +191,7 @@ public final class Login {
      */
     boolean isRole(final String theRole) {
 
-        return this.roles.contains(theRole);
+        return this.roleSet.contains(theRole);
     }
 
     /**
@@ -0,0 +1,14 @@
+package dev.mathops.persistence.site.session;
+
+import java.time.LocalDateTime;
+
+/**
+ * The failed-login bookkeeping for a single login, mirroring the "when_last_logged_in", "when_last_failed", and
+ * "nbr_failed_logins" columns of the "local_login" table.
+ *
+ * @param nbrFailedLogins  the number of failed logins since the last successful login
+ * @param whenLastFailed   the date/time of the most recent failed login ({@code null} if none)
+ * @param whenLastLoggedIn the date/time of the most recent successful login ({@code null} if none)
+ */
+public record LoginStatus(int nbrFailedLogins, LocalDateTime whenLastFailed, LocalDateTime whenLastLoggedIn) {
+}
@@ -0,0 +1,388 @@
+package dev.mathops.persistence.site.session;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.text.builder.HtmlBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A background writer that persists the set of configured logins to the "login.json" file.
+ *
+ * <p>
+ * Callers submit a snapshot of the login list and return immediately.  A single daemon thread writes snapshots to
+ * disk.  If several snapshots are submitted before the thread gets to them, only the most recent is written, so a
+ * burst of login changes results in a single file write.
+ *
+ * <p>
+ * Each write goes to a temporary file that is forced to stable storage before being atomically moved over
+ * "login.json", so a crash during a write never leaves a truncated or interleaved file.  Before the move, the prior
+ * contents are copied to a numbered backup ("login_bak_[generation].json"), and only the most recent
+ * {@code MAX_BACKUPS} backups are retained.
+ */
+final class LoginStore {
+
+    /** The filename where logins are stored. */
+    static final String FILENAME = "login.json";
+
+    /** The filename of the temporary file to which new login data is written before being moved into place. */
+    private static final String TEMP_FILENAME = "login.json.tmp";
+
+    /** The prefix of backup filenames (followed by the generation number and ".json"). */
+    private static final String BACKUP_PREFIX = "login_bak_";
+
+    /** The suffix of backup filenames. */
+    private static final String BACKUP_SUFFIX = ".json";
+
+    /** The number of backup generations to retain. */
+    private static final int MAX_BACKUPS = 5;
+
+    /** The maximum time to wait (in milliseconds) for pending writes to complete on shutdown. */
+    private static final long FLUSH_TIMEOUT_MS = 10000L;
+
+    /** The configuration directory. */
+    private final File configDir;
+
+    /** An object on which to synchronize access to the pending snapshot and counters. */
+    private final Object lock;
+
+    /** The most recent snapshot that has not yet been written ({@code null} if none is pending). */
+    private List<Login> pending;
+
+    /** The number of snapshots that have been submitted. */
+    private long submitted;
+
+    /** The submission count that was current when the most recent write completed. */
+    private long written;
+
+    /** The generation number of the most recent backup. */
+    private long generation;
+
+    /** The writer thread ({@code null} until the first snapshot is submitted). */
+    private Thread writer;
+
+    /** Flag indicating the store has been shut down. */
+    private boolean shutDown;
+
+    /**
+     * Constructs a new {@code LoginStore}.
+     *
+     * @param theConfigDir the configuration directory in which to write the "login.json" file
+     */
+    LoginStore(final File theConfigDir) {
+
+        this.configDir = theConfigDir;
+        this.lock = new Object();
+        this.pending = null;
+        this.submitted = 0L;
+        this.written = 0L;
+        this.generation = findLatestGeneration(theConfigDir);
+        this.writer = null;
+        this.shutDown = false;
+    }
+
+    /**
+     * Scans the configuration directory for existing backup files and finds the highest generation number present.
+     *
+     * @param dir the directory to scan
+     * @return the highest generation number found (0 if there are no backups)
+     */
+    private static long findLatestGeneration(final File dir) {
+
+        long latest = 0L;
+
+        final String[] names = dir.list();
+        if (names != null) {
+            for (final String name : names) {
+                final long gen = parseGeneration(name);
+                if (gen > latest) {
+                    latest = gen;
+                }
+            }
+        }
+
+        return latest;
+    }
+
+    /**
+     * Extracts the generation number from a backup filename.
+     *
+     * @param name the filename
+     * @return the generation number; -1 if the filename is not a backup filename
+     */
+    private static long parseGeneration(final String name) {
+
+        long gen = -1L;
+
+        if (name.startsWith(BACKUP_PREFIX) && name.endsWith(BACKUP_SUFFIX)) {
+            final int start = BACKUP_PREFIX.length();
+            final int end = name.length() - BACKUP_SUFFIX.length();
+            if (end > start) {
+                try {
+                    gen = Long.parseLong(name.substring(start, end));
+                } catch (final NumberFormatException ex) {
+                    // Not one of our backup files - ignore it
+                }
+            }
+        }
+
+        return gen;
+    }
+
+    /**
+     * Submits a snapshot of the login list to be written.  This method returns immediately.  If an earlier snapshot
+     * is still waiting to be written, it is replaced by this one.
+     *
+     * @param snapshot the snapshot (the caller must not alter this list after submitting it)
+     */
+    void submit(final List<Login> snapshot) {
+
+        synchronized (this.lock) {
+            if (this.shutDown) {
+                Log.warning("Login data submitted after shutdown; writing synchronously.");
+                write(snapshot);
+            } else {
+                this.pending = snapshot;
+                ++this.submitted;
+
+                if (this.writer == null) {
+                    this.writer = new Thread(this::runWriter, "login-store");
+                    this.writer.setDaemon(true);
+                    this.writer.start();
+                }
+
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all submitted snapshots have been written, or until a timeout expires.
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     * @return true if all submitted snapshots were written; false if the timeout expired
+     */
+    boolean flush(final long timeoutMs) {
+
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+
+        final boolean done;
+
+        synchronized (this.lock) {
+            final long target = this.submitted;
+            long remaining = timeoutMs;
+
+            while (this.written < target && remaining > 0L) {
+                try {
+                    this.lock.wait(remaining);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            done = this.written >= target;
+        }
+
+        return done;
+    }
+
+    /**
+     * Flushes any pending snapshot and stops the writer thread.  Snapshots submitted after this call are written
+     * synchronously.
+     */
+    void shutdown() {
+
+        if (!flush(FLUSH_TIMEOUT_MS)) {
+            Log.warning("Timed out waiting for login data to be written.");
+        }
+
+        final Thread toJoin;
+        synchronized (this.lock) {
+            this.shutDown = true;
+            toJoin = this.writer;
+            this.writer = null;
+            this.lock.notifyAll();
+        }
+
+        if (toJoin != null) {
+            try {
+                toJoin.join(FLUSH_TIMEOUT_MS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The writer thread's main loop.  Waits for a snapshot to be pending, takes it, and writes it outside the lock so
+     * submitters are never blocked by file I/O.
+     */
+    private void runWriter() {
+
+        boolean running = true;
+
+        while (running) {
+            List<Login> toWrite = null;
+            long target = 0L;
+
+            synchronized (this.lock) {
+                while (this.pending == null && !this.shutDown) {
+                    try {
+                        this.lock.wait();
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+
+                if (this.pending == null) {
+                    running = false;
+                } else {
+                    toWrite = this.pending;
+                    target = this.submitted;
+                    this.pending = null;
+                }
+            }
+
+            if (toWrite != null) {
+                write(toWrite);
+
+                synchronized (this.lock) {
+                    this.written = target;
+                    this.lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to disk.  The data is written to a temporary file and forced to stable storage, the current
+     * file is copied to a new backup generation, and the temporary file is then atomically moved into place.
+     *
+     * @param snapshot the snapshot to write
+     */
+    private void write(final List<Login> snapshot) {
+
+        final String fileContents = serialize(snapshot);
+        final byte[] bytes = fileContents.getBytes(StandardCharsets.UTF_8);
+
+        final Path dir = this.configDir.toPath();
+        final Path file = dir.resolve(FILENAME);
+        final Path temp = dir.resolve(TEMP_FILENAME);
+
+        try {
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            if (Files.exists(file)) {
+                backUp(dir, file);
+            }
+
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException ex) {
+            Log.warning("Failed to write login data to '", FILENAME, "'.", ex);
+        }
+    }
+
+    /**
+     * Copies the current file to a new backup generation and deletes backup generations beyond the retention limit.
+     *
+     * @param dir  the configuration directory
+     * @param file the current "login.json" file
+     */
+    private void backUp(final Path dir, final Path file) {
+
+        ++this.generation;
+        final String backupName = BACKUP_PREFIX + this.generation + BACKUP_SUFFIX;
+
+        try {
+            Files.copy(file, dir.resolve(backupName), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException ex) {
+            Log.warning("Failed to back up '", FILENAME, "' to '", backupName, "'.", ex);
+        }
+
+        final String[] names = this.configDir.list();
+        if (names != null) {
+            final List<Long> generations = new ArrayList<>(names.length);
+            for (final String name : names) {
+                final long gen = parseGeneration(name);
+                if (gen >= 0L) {
+                    generations.add(Long.valueOf(gen));
+                }
+            }
+
+            final int numToDelete = generations.size() - MAX_BACKUPS;
+            if (numToDelete > 0) {
+                Collections.sort(generations);
+                for (int i = 0; i < numToDelete; ++i) {
+                    final String oldName = BACKUP_PREFIX + generations.get(i) + BACKUP_SUFFIX;
+                    try {
+                        Files.deleteIfExists(dir.resolve(oldName));
+                    } catch (final IOException ex) {
+                        Log.warning("Failed to delete '", oldName, "'.", ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the JSON representation of a list of logins.
+     *
+     * @param snapshot the list of logins
+     * @return the JSON file contents
+     */
+    static String serialize(final List<Login> snapshot) {
+
+        final HtmlBuilder htm = new HtmlBuilder(1000);
+        final int numLogins = snapshot.size();
+        int onRow = 0;
+
+        htm.addln("[");
+        for (final Login login : snapshot) {
+            ++onRow;
+
+            final String username = login.getUsername();
+            final String salt = login.getSalt();
+            final String hashHex = login.getHashHex();
+            final List<String> roles = login.getRoles();
+            final int numRoles = roles.size();
+
+            htm.add("  [\"", username, "\", \"", salt, "\", \"", hashHex, "\", \"", roles.get(0));
+            for (int i = 1; i < numRoles; ++i) {
+                htm.add(",", roles.get(i));
+            }
+            if (onRow == numLogins) {
+                htm.addln("\"]");
+            } else {
+                htm.addln("\"],");
+            }
+        }
+        htm.addln("]");
+
+        return htm.toString();
+    }
+}
@@ -0,0 +1,341 @@
+package dev.mathops.persistence.site.session;
+
+import dev.mathops.commons.log.Log;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throttles login attempts so that credential-stuffing traffic is rejected before any password hashing is done.
+ *
+ * <p>
+ * Two independent limits apply to every attempt:
+ * <ul>
+ *     <li>A token bucket keyed by username and a token bucket keyed by source address.  Each attempt takes one token
+ *     from both buckets, and buckets refill at a fixed rate up to their capacity.  Buckets live in a bounded
+ *     concurrent map; buckets that have refilled completely carry no information and are discarded when the map is
+ *     swept, and if the map is still too large, the least recently used buckets are discarded.</li>
+ *     <li>A progressive lockout per login.  After {@code LOCKOUT_THRESHOLD} consecutive failures, further attempts are
+ *     refused until a lockout period has passed since the last failure.  The period doubles with each additional
+ *     failure, up to {@code MAX_LOCKOUT}.  Failure counts are kept in an {@code ILoginStatusStore} so they can be
+ *     persisted in the "local_login" table.</li>
+ * </ul>
+ */
+final class LoginThrottle {
+
+    /** The capacity of a per-username bucket. */
+    private static final int USERNAME_CAPACITY = 5;
+
+    /** The time to add one token to a per-username bucket (nanoseconds). */
+    private static final long USERNAME_REFILL_NANOS = Duration.ofSeconds(12L).toNanos();
+
+    /** The capacity of a per-address bucket. */
+    private static final int ADDRESS_CAPACITY = 20;
+
+    /** The time to add one token to a per-address bucket (nanoseconds). */
+    private static final long ADDRESS_REFILL_NANOS = Duration.ofSeconds(3L).toNanos();
+
+    /** The maximum number of buckets to retain in each map. */
+    private static final int MAX_BUCKETS = 10000;
+
+    /** The number of consecutive failures allowed before lockout begins. */
+    private static final int LOCKOUT_THRESHOLD = 5;
+
+    /** The lockout period after the first failure beyond the threshold. */
+    private static final Duration BASE_LOCKOUT = Duration.ofSeconds(30L);
+
+    /** The longest lockout period. */
+    private static final Duration MAX_LOCKOUT = Duration.ofHours(1L);
+
+    /** The largest shift applied to the base lockout (beyond this, the maximum lockout applies). */
+    private static final int MAX_LOCKOUT_SHIFT = 7;
+
+    /** Token buckets keyed by username. */
+    private final Map<String, TokenBucket> usernameBuckets;
+
+    /** Token buckets keyed by source address. */
+    private final Map<String, TokenBucket> addressBuckets;
+
+    /** Flag indicating a sweep is in progress (so only one thread sweeps at a time). */
+    private final AtomicBoolean sweeping;
+
+    /** The store for failed-login counts. */
+    private volatile ILoginStatusStore statusStore;
+
+    /**
+     * Constructs a new {@code LoginThrottle}.
+     */
+    LoginThrottle() {
+
+        this.usernameBuckets = new ConcurrentHashMap<>(100);
+        this.addressBuckets = new ConcurrentHashMap<>(100);
+        this.sweeping = new AtomicBoolean(false);
+        this.statusStore = new MemoryLoginStatusStore();
+    }
+
+    /**
+     * Sets the store for failed-login counts.
+     *
+     * @param theStatusStore the new store
+     */
+    void setStatusStore(final ILoginStatusStore theStatusStore) {
+
+        this.statusStore = theStatusStore;
+    }
+
+    /**
+     * Attempts to take a token from the buckets for a username and a source address.  A token is taken from each
+     * bucket only if both have one available.
+     *
+     * @param username the username
+     * @param address  the source address ({@code null} if not known)
+     * @return true if the attempt may proceed; false if it should be refused
+     */
+    boolean tryAcquire(final String username, final String address) {
+
+        final long now = System.nanoTime();
+
+        final TokenBucket userBucket = getBucket(this.usernameBuckets, username, USERNAME_CAPACITY,
+                USERNAME_REFILL_NANOS, now);
+
+        boolean allowed;
+        if (address == null) {
+            allowed = userBucket.tryTake(now);
+        } else {
+            final TokenBucket addrBucket = getBucket(this.addressBuckets, address, ADDRESS_CAPACITY,
+                    ADDRESS_REFILL_NANOS, now);
+            allowed = addrBucket.tryTake(now);
+            if (allowed) {
+                allowed = userBucket.tryTake(now);
+                if (!allowed) {
+                    addrBucket.giveBack();
+                }
+            }
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Gets the bucket for a key, creating it if needed and sweeping the map if it has grown too large.
+     *
+     * @param map      the map of buckets
+     * @param key      the key
+     * @param capacity the capacity for a new bucket
+     * @param refill   the refill time per token for a new bucket
+     * @param now      the current {@code System.nanoTime()} value
+     * @return the bucket
+     */
+    private TokenBucket getBucket(final Map<String, TokenBucket> map, final String key, final int capacity,
+                                  final long refill, final long now) {
+
+        TokenBucket bucket = map.get(key);
+
+        if (bucket == null) {
+            if (map.size() >= MAX_BUCKETS) {
+                sweep(map, now);
+            }
+            bucket = map.computeIfAbsent(key, s -> new TokenBucket(capacity, refill, now));
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Removes buckets that have refilled completely, then (if the map is still at capacity) the least recently used
+     * half of the remaining buckets.  If another thread is already sweeping, this returns immediately.
+     *
+     * @param map the map to sweep
+     * @param now the current {@code System.nanoTime()} value
+     */
+    private void sweep(final Map<String, TokenBucket> map, final long now) {
+
+        if (this.sweeping.compareAndSet(false, true)) {
+            try {
+                map.values().removeIf(bucket -> bucket.isFull(now));
+
+                final int size = map.size();
+                if (size >= MAX_BUCKETS) {
+                    final List<Map.Entry<String, TokenBucket>> entries = new ArrayList<>(map.entrySet());
+                    entries.sort(Comparator.comparingLong(entry -> entry.getValue().getLastUsed()));
+                    final int numToRemove = size / 2;
+                    for (int i = 0; i < numToRemove; ++i) {
+                        final Map.Entry<String, TokenBucket> entry = entries.get(i);
+                        map.remove(entry.getKey(), entry.getValue());
+                    }
+                    Log.warning("Login throttle table was full; discarded ", Integer.toString(numToRemove),
+                            " buckets.");
+                }
+            } finally {
+                this.sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Tests whether a login is currently locked out due to repeated failures.
+     *
+     * @param username the username
+     * @return true if the login is locked out
+     */
+    boolean isLockedOut(final String username) {
+
+        boolean locked = false;
+
+        final LoginStatus status = this.statusStore.get(username);
+
+        if (status != null && status.whenLastFailed() != null) {
+            final int excess = status.nbrFailedLogins() - LOCKOUT_THRESHOLD;
+            if (excess >= 0) {
+                final Duration period = excess > MAX_LOCKOUT_SHIFT ? MAX_LOCKOUT
+                        : BASE_LOCKOUT.multipliedBy(1L << excess);
+                final Duration capped = period.compareTo(MAX_LOCKOUT) > 0 ? MAX_LOCKOUT : period;
+                final LocalDateTime unlockAt = status.whenLastFailed().plus(capped);
+                locked = LocalDateTime.now().isBefore(unlockAt);
+            }
+        }
+
+        return locked;
+    }
+
+    /**
+     * Records a failed login attempt for a configured login.
+     *
+     * @param username the username
+     */
+    void recordFailure(final String username) {
+
+        final LocalDateTime now = LocalDateTime.now();
+
+        // The count is read and incremented atomically, so concurrent failures are all counted
+        this.statusStore.update(username, status -> status == null ? new LoginStatus(1, now, null)
+                : new LoginStatus(status.nbrFailedLogins() + 1, now, status.whenLastLoggedIn()));
+    }
+
+    /**
+     * Records a successful login, which clears the failure count.
+     *
+     * @param username the username
+     */
+    void recordSuccess(final String username) {
+
+        final LocalDateTime now = LocalDateTime.now();
+
+        this.statusStore.update(username, status -> new LoginStatus(0, null, now));
+    }
+
+    /**
+     * A token bucket.
+     */
+    private static final class TokenBucket {
+
+        /** The maximum number of tokens. */
+        private final int capacity;
+
+        /** The time to add one token (nanoseconds). */
+        private final long refillNanos;
+
+        /** The number of tokens available as of {@code lastRefill}. */
+        private int tokens;
+
+        /** The {@code System.nanoTime()} value at which tokens were last added. */
+        private long lastRefill;
+
+        /** The {@code System.nanoTime()} value at which a token was last taken. */
+        private volatile long lastUsed;
+
+        /**
+         * Constructs a new, full {@code TokenBucket}.
+         *
+         * @param theCapacity    the maximum number of tokens
+         * @param theRefillNanos the time to add one token (nanoseconds)
+         * @param now            the current {@code System.nanoTime()} value
+         */
+        TokenBucket(final int theCapacity, final long theRefillNanos, final long now) {
+
+            this.capacity = theCapacity;
+            this.refillNanos = theRefillNanos;
+            this.tokens = theCapacity;
+            this.lastRefill = now;
+            this.lastUsed = now;
+        }
+
+        /**
+         * Adds any tokens that have accrued since the last refill.  Callers must hold the lock on this object.
+         *
+         * @param now the current {@code System.nanoTime()} value
+         */
+        private void refill(final long now) {
+
+            final long elapsed = now - this.lastRefill;
+            if (elapsed >= this.refillNanos) {
+                final long accrued = elapsed / this.refillNanos;
+                if (accrued >= (long) (this.capacity - this.tokens)) {
+                    this.tokens = this.capacity;
+                    this.lastRefill = now;
+                } else {
+                    this.tokens += (int) accrued;
+                    this.lastRefill += accrued * this.refillNanos;
+                }
+            }
+        }
+
+        /**
+         * Attempts to take a token.
+         *
+         * @param now the current {@code System.nanoTime()} value
+         * @return true if a token was taken; false if the bucket was empty
+         */
+        synchronized boolean tryTake(final long now) {
+
+            refill(now);
+            this.lastUsed = now;
+
+            final boolean taken = this.tokens > 0;
+            if (taken) {
+                --this.tokens;
+            }
+
+            return taken;
+        }
+
+        /**
+         * Returns a token that was taken but not used.
+         */
+        synchronized void giveBack() {
+
+            if (this.tokens < this.capacity) {
+                ++this.tokens;
+            }
+        }
+
+        /**
+         * Tests whether the bucket has refilled completely, so it can be discarded without losing information.
+         *
+         * @param now the current {@code System.nanoTime()} value
+         * @return true if the bucket is full
+         */
+        synchronized boolean isFull(final long now) {
+
+            refill(now);
+
+            return this.tokens >= this.capacity;
+        }
+
+        /**
+         * Gets the time a token was last taken.
+         *
+         * @return the {@code System.nanoTime()} value
+         */
+        long getLastUsed() {
+
+            return this.lastUsed;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package dev.mathops.persistence.site.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * An {@code ILoginStatusStore} that keeps statuses in memory.  This is used until a store backed by the "local_login"
+ * table is installed, and loses lockout state on restart.
+ */
+final class MemoryLoginStatusStore implements ILoginStatusStore {
+
+    /** The stored statuses, keyed by username. */
+    private final Map<String, LoginStatus> statuses;
+
+    /**
+     * Constructs a new {@code MemoryLoginStatusStore}.
+     */
+    MemoryLoginStatusStore() {
+
+        this.statuses = new ConcurrentHashMap<>(10);
+    }
+
+    /**
+     * Gets the status for a login.
+     *
+     * @param username the username
+     * @return the status; {@code null} if none has been recorded
+     */
+    @Override
+    public LoginStatus get(final String username) {
+
+        return this.statuses.get(username);
+    }
+
+    /**
+     * Atomically replaces the status for a login with a status computed from the current one.
+     *
+     * @param username the username
+     * @param updater  a function that computes the new status from the current status ({@code null} if none has been
+     *                 recorded)
+     * @return the new status
+     */
+    @Override
+    public LoginStatus update(final String username, final UnaryOperator<LoginStatus> updater) {
+
+        return this.statuses.compute(username, (key, current) -> updater.apply(current));
+    }
+}
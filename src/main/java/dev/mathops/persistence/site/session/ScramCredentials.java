@@ -0,0 +1,14 @@
+package dev.mathops.persistence.site.session;
+
+/**
+ * The values the server needs to run a SCRAM-SHA-256 exchange for one login, derived from its stored hash (see
+ * {@code ScramKeys}).
+ *
+ * @param username   the username
+ * @param salt       the salt sent to the client
+ * @param iterations the iteration count sent to the client
+ * @param storedKey  the stored key, against which the client's proof is verified
+ * @param serverKey  the server key, with which the server signature is computed
+ */
+public record ScramCredentials(String username, byte[] salt, int iterations, byte[] storedKey, byte[] serverKey) {
+}
@@ -1,5 +1,8 @@
 package dev.mathops.persistence.site.session;
 
+import dev.mathops.persistence.config.PermissionMatrix;
+import dev.mathops.persistence.config.PermissionSet;
+
 /**
  * A login session.
  */
@@ -11,15 +14,25 @@ public final class Session {
     /** The login (this defines the roles granted to the user). */
     private final Login login;
 
+    /** The combined permissions of the login's roles, cached against the matrix from which they were built. */
+    private volatile PermissionSet permissions;
+
+    /** The {@code System.nanoTime()} value when the session was created or last used. */
+    private volatile long lastUsed;
+
     /**
      * A logged-in session.
      *
+     * @param theId    the session ID
      * @param theLogin the login (this defines the roles granted to the user)
+     * @param now      the current {@code System.nanoTime()} value
      */
-    Session(final String theId, final Login theLogin) {
+    Session(final String theId, final Login theLogin, final long now) {
 
         this.id = theId;
         this.login = theLogin;
+        this.permissions = null;
+        this.lastUsed = now;
     }
 
     /**
@@ -41,4 +54,45 @@ public final class Session {
 
         return this.login;
     }
+
+    /**
+     * Records that the session was used, which extends its lifetime.
+     *
+     * @param now the current {@code System.nanoTime()} value
+     */
+    void touch(final long now) {
+
+        this.lastUsed = now;
+    }
+
+    /**
+     * Tests whether the session has gone unused for longer than a timeout.
+     *
+     * @param now         the current {@code System.nanoTime()} value
+     * @param idleTimeout the timeout (nanoseconds)
+     * @return true if the session has expired
+     */
+    boolean isExpired(final long now, final long idleTimeout) {
+
+        return now - this.lastUsed > idleTimeout;
+    }
+
+    /**
+     * Gets the combined permissions of the login's roles.  The result is cached, and is rebuilt only when the current
+     * permission matrix differs from the one the cached value was built from.
+     *
+     * @param current the current permission matrix
+     * @return the permissions
+     */
+    public PermissionSet getPermissions(final PermissionMatrix current) {
+
+        PermissionSet result = this.permissions;
+
+        if (result == null || result.getMatrix() != current) {
+            result = current.union(this.login.getRoles());
+            this.permissions = result;
+        }
+
+        return result;
+    }
 }
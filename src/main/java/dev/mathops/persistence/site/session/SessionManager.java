@@ -3,23 +3,29 @@ package dev.mathops.persistence.site.session;
 import dev.mathops.commons.HexEncoder;
 import dev.mathops.commons.file.FileLoader;
 import dev.mathops.commons.log.Log;
-import dev.mathops.text.builder.HtmlBuilder;
+import dev.mathops.persistence.api.ScramKeys;
+import dev.mathops.persistence.config.PermissionMatrix;
+import dev.mathops.persistence.config.PermissionSet;
 import dev.mathops.text.parser.ParsingException;
 import dev.mathops.text.parser.json.JSONParser;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SequencedMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A session manager.
@@ -31,6 +37,11 @@ import java.util.SequencedMap;
  * <p>
  * It can process login requests to establish new sessions, manage session lifecycles, and test the validity and granted
  * roles of a session ID.
+ *
+ * <p>
+ * Sessions that go unused for {@code SESSION_IDLE_TIMEOUT} expire.  Authorization tokens belong to the session for
+ * which they were issued, and are discarded when that session logs out or expires.  Expired sessions are found when
+ * they are next presented, and by a sweep that runs at most once per {@code SWEEP_INTERVAL} on a calling thread.
  */
 public final class SessionManager {
 
@@ -44,20 +55,17 @@ public final class SessionManager {
     static final int SESSION_ID_LEN = 24;
 
     /** The filename where logins are stored. */
-    private static final String FILENAME = "login.json";
-
-    /** The filename of the most recent backup of login data. */
-    private static final String FILENAME_BAK1 = "login_bak1.json";
-
-    /** The filename of the second most recent backup of login data. */
-    private static final String FILENAME_BAK2 = "login_bak2.json";
-
-    /** The filename of the third most recent backup of login data. */
-    private static final String FILENAME_BAK3 = "login_bak3.json";
+    private static final String FILENAME = LoginStore.FILENAME;
 
     /** The expected length of an SHA-512 hash in bytes. */
     private static final int EXPECT_HASH_LEN = 64;
 
+    /** The time after which an unused session expires (nanoseconds). */
+    private static final long SESSION_IDLE_TIMEOUT = Duration.ofMinutes(30L).toNanos();
+
+    /** The shortest time between sweeps for expired sessions (nanoseconds). */
+    private static final long SWEEP_INTERVAL = Duration.ofMinutes(1L).toNanos();
+
     /** The configuration directory. */
     private final File configDir;
 
@@ -70,9 +78,21 @@ public final class SessionManager {
     /** The active sessions (access to this member is synchronized on the member). */
     private final Map<String, Session> sessions;
 
+    /** Issued authorization tokens, keyed by random ID (access to this member is synchronized on the member). */
+    private final Map<Long, IssuedToken> tokens;
+
+    /** The {@code System.nanoTime()} value after which the next sweep for expired sessions is due. */
+    private final AtomicLong nextSweep;
+
     /** The loaded logins (access to this member is synchronized on the member). */
     private final SequencedMap<String, Login> logins;
 
+    /** The background writer that persists logins to the "login.json" file. */
+    private final LoginStore loginStore;
+
+    /** The throttle that limits the rate of login attempts. */
+    private final LoginThrottle throttle;
+
     /** Flag indicating configuration is valid (there is at least one ADMIN login defined). */
     private boolean valid;
 
@@ -90,6 +110,10 @@ public final class SessionManager {
         this.rnd = SecureRandom.getInstanceStrong();
         this.digest = MessageDigest.getInstance("SHA-512");
         this.sessions = new HashMap<>(20);
+        this.tokens = new HashMap<>(20);
+        this.nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+        this.loginStore = new LoginStore(theConfigDir);
+        this.throttle = new LoginThrottle();
 
         this.logins = load();
     }
@@ -150,68 +174,39 @@ public final class SessionManager {
     }
 
     /**
-     * Stores a set of configured logins to the "login.json" file.  The existing file is backed up if present.
+     * Submits a snapshot of the configured logins to be written to the "login.json" file.  The write happens on a
+     * background thread, and multiple submissions that arrive before that thread runs are coalesced into one write.
+     *
+     * <p>
+     * The snapshot is submitted while the login list is still locked, so snapshots reach the writer in the order they
+     * were taken, and a later snapshot can never be replaced by an earlier one that is missing a login.
      */
-    void store() {
-
-        final HtmlBuilder htm = new HtmlBuilder(1000);
-        final int numLogins = this.logins.size();
-        int onRow = 0;
+    private void store() {
 
-        htm.addln("[");
-        for (final Login login : this.logins.sequencedValues()) {
-            ++onRow;
-
-            final String username = login.getUsername();
-            final String salt = login.getSalt();
-            final String hashHex = login.getHashHex();
-            final List<String> roles = login.getRoles();
-            final int numRoles = roles.size();
-
-            htm.add("  [\"", username, "\", \"", salt, "\", \"", hashHex, "\", \"", roles.get(0));
-            for (int i = 1; i < numRoles; ++i) {
-                htm.add(", ", roles.get(i));
-            }
-            if (onRow == numLogins) {
-                htm.addln("\"]");
-            } else {
-                htm.addln("\"],");
-            }
+        synchronized (this.logins) {
+            final List<Login> snapshot = new ArrayList<>(this.logins.sequencedValues());
+            this.loginStore.submit(snapshot);
         }
-        htm.addln("]");
+    }
 
-        final String fileContents = htm.toString();
-        final File file = new File(this.configDir, FILENAME);
+    /**
+     * Installs the store used to persist failed-login counts for progressive lockout.  Until this is called, counts are
+     * kept in memory.
+     *
+     * @param statusStore the store
+     */
+    public void setLoginStatusStore(final ILoginStatusStore statusStore) {
 
-        if (file.exists()) {
-            final File bak1 = new File(this.configDir, FILENAME_BAK1);
-            if (bak1.exists()) {
-                final File bak2 = new File(this.configDir, FILENAME_BAK2);
-                if (bak2.exists()) {
-                    final File bak3 = new File(this.configDir, FILENAME_BAK3);
-                    if (bak3.exists()) {
-                        if (!bak3.delete()) {
-                            Log.warning("Failed to delete '", FILENAME_BAK3, "'.");
-                        }
-                    }
-                    if (!bak2.renameTo(bak3)) {
-                        Log.warning("Failed to move '", FILENAME_BAK2, "' to '", FILENAME_BAK3, "'.");
-                    }
-                }
-                if (!bak1.renameTo(bak2)) {
-                    Log.warning("Failed to move '", FILENAME_BAK1, "' to '", FILENAME_BAK2, "'.");
-                }
-            }
-            if (!file.renameTo(bak1)) {
-                Log.warning("Failed to move '", FILENAME, "' to '", FILENAME_BAK1, "'.");
-            }
-        }
+        this.throttle.setStatusStore(statusStore);
+    }
 
-        try (final FileWriter writer = new FileWriter(file, StandardCharsets.UTF_8)) {
-            writer.write(fileContents);
-        } catch (final IOException ex) {
-            Log.warning("Failed to write login data to '", FILENAME, "'.", ex);
-        }
+    /**
+     * Writes any pending login changes to disk and stops the background writer.  This should be called when the
+     * servlet is being unloaded.
+     */
+    public void shutdown() {
+
+        this.loginStore.shutdown();
     }
 
     /**
@@ -262,6 +257,7 @@ public final class SessionManager {
      * @param username the username
      * @param password the password
      * @param roles    the list of roles to grant to the new login
+     * @return the new login
      */
     public Login createLogin(final String username, final String password, final List<String> roles) {
 
@@ -289,8 +285,10 @@ public final class SessionManager {
 
         final Login newLogin = new Login(username, salt, hash, roles);
 
-        this.logins.put(username, newLogin);
-        store();
+        synchronized (this.logins) {
+            this.logins.put(username, newLogin);
+            store();
+        }
 
         if (newLogin.isAdmin()) {
             this.valid = true;
@@ -300,76 +298,384 @@ public final class SessionManager {
     }
 
     /**
-     * Gets the login session with a specified session ID.
+     * Gets the login session with a specified session ID, and records that the session was used.
      *
      * @param sessionId the session ID
-     * @return the login session;' {@code null} if none has the specified session ID
+     * @return the login session; {@code null} if none has the specified session ID or the session has expired
      */
     public Session getSession(final String sessionId) {
 
-        return this.sessions.get(sessionId);
+        final long now = System.nanoTime();
+        sweepIfDue(now);
+
+        Session result;
+        synchronized (this.sessions) {
+            result = this.sessions.get(sessionId);
+        }
+
+        if (result != null) {
+            if (result.isExpired(now, SESSION_IDLE_TIMEOUT)) {
+                endSession(result);
+                result = null;
+            } else {
+                result.touch(now);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Ends a session, revoking all authorization tokens issued for it.  Unknown session IDs are ignored.
+     *
+     * @param sessionId the session ID
+     */
+    public void logout(final String sessionId) {
+
+        final Session session;
+        synchronized (this.sessions) {
+            session = this.sessions.get(sessionId);
+        }
+
+        if (session != null) {
+            endSession(session);
+        }
+    }
+
+    /**
+     * Ends the session for which an authorization token was issued, revoking all tokens issued for that session.
+     * Tokens that do not match an issued token are ignored.
+     *
+     * @param token the token
+     */
+    public void logout(final AuthToken token) {
+
+        final IssuedToken issued;
+        synchronized (this.tokens) {
+            issued = this.tokens.get(Long.valueOf(token.randomId()));
+        }
+
+        if (issued != null && token.equals(issued.token())) {
+            endSession(issued.session());
+        }
+    }
+
+    /**
+     * Removes a session and the authorization tokens issued for it.
+     *
+     * @param session the session
+     */
+    private void endSession(final Session session) {
+
+        synchronized (this.sessions) {
+            this.sessions.remove(session.getId(), session);
+        }
+        synchronized (this.tokens) {
+            this.tokens.values().removeIf(issued -> issued.session() == session);
+        }
+    }
+
+    /**
+     * Sweeps for expired sessions if a sweep is due.  If another thread has started the sweep, this returns at once.
+     *
+     * @param now the current {@code System.nanoTime()} value
+     */
+    private void sweepIfDue(final long now) {
+
+        final long due = this.nextSweep.get();
+
+        if (now - due >= 0L && this.nextSweep.compareAndSet(due, now + SWEEP_INTERVAL)) {
+            final Set<Session> expired = Collections.newSetFromMap(new IdentityHashMap<>(10));
+
+            synchronized (this.sessions) {
+                for (final Session session : this.sessions.values()) {
+                    if (session.isExpired(now, SESSION_IDLE_TIMEOUT)) {
+                        expired.add(session);
+                    }
+                }
+                this.sessions.values().removeAll(expired);
+            }
+
+            if (!expired.isEmpty()) {
+                synchronized (this.tokens) {
+                    this.tokens.values().removeIf(issued -> expired.contains(issued.session()));
+                }
+                Log.info("Removed ", Integer.toString(expired.size()), " expired sessions.");
+            }
+        }
+    }
+
+    /**
+     * Creates and registers a session for a login with a new random session ID.
+     *
+     * @param login the login
+     * @return the session
+     */
+    private Session newSession(final Login login) {
+
+        String sessionId = randomString(SESSION_ID_LEN);
+        final Session sess;
+
+        synchronized (this.sessions) {
+            while (this.sessions.containsKey(sessionId)) {
+                sessionId = randomString(SESSION_ID_LEN);
+            }
+            sess = new Session(sessionId, login, System.nanoTime());
+            this.sessions.put(sessionId, sess);
+        }
+
+        return sess;
     }
 
     /**
      * Attempts to create a session with a username and password.  This tests whether  the username and password matches
      * a configured login record, and if so, creates and returns a new login session with that login record.
      *
+     * <p>
+     * Attempts are rate-limited by username and by source address, and logins with repeated failures are locked out
+     * for a time.  Refused attempts are rejected before any password hashing is done.
+     *
      * @param username the username
      * @param password the password
+     * @param address  the source address of the request ({@code null} if not known)
      * @return the result
      */
-    public LoginResult createSession(final String username, final String password) {
-
-        LoginResult result;
+    public LoginResult createSession(final String username, final String password, final String address) {
 
-        final Login login = this.logins.get(username);
+        final LoginResult result;
 
-        if (login == null) {
+        if (username == null || password == null) {
             result = new LoginResult("Invalid login.");
+        } else if (!this.throttle.tryAcquire(username, address)) {
+            Log.warning("Login attempt for '", username, "' from ", address, " refused by rate limit.");
+            result = new LoginResult("Too many login attempts.  Please try again later.");
+        } else if (this.throttle.isLockedOut(username)) {
+            Log.warning("Login attempt for '", username, "' from ", address, " refused by lockout.");
+            result = new LoginResult("Too many failed login attempts.  Please try again later.");
         } else {
-            final String salt = login.getSalt();
-            final byte[] saltBytes = salt.getBytes(StandardCharsets.UTF_8);
-            final int numSaltBytes = saltBytes.length;
+            final Login login;
+            synchronized (this.logins) {
+                login = this.logins.get(username);
+            }
 
-            final byte[] pwdBytes = password.getBytes(StandardCharsets.UTF_8);
+            if (login == null) {
+                result = new LoginResult("Invalid login.");
+            } else if (checkPassword(login, password)) {
+                this.throttle.recordSuccess(username);
+                result = new LoginResult(newSession(login));
+            } else {
+                this.throttle.recordFailure(username);
+                result = new LoginResult("Invalid login.");
+            }
+        }
 
-            final byte[] hash;
+        return result;
+    }
 
-            // MessageDigest is not thread-safe, so synchronize access to that object.
+    /**
+     * Begins a SCRAM-SHA-256 authentication, which is rate-limited and subject to lockout in the same way as
+     * {@code createSession}.
+     *
+     * @param username the username from the client's first message
+     * @param address  the source address of the request ({@code null} if not known)
+     * @return the credentials with which to run the exchange; {@code null} if the attempt was refused or the username
+     *         is not known
+     */
+    public ScramCredentials getScramCredentials(final String username, final String address) {
 
-            synchronized (this.digest) {
-                final byte[] digestedPwdBytes = this.digest.digest(pwdBytes);
-                final int numDigestBytes = digestedPwdBytes.length;
-                final int total = numSaltBytes + numDigestBytes;
+        ScramCredentials result = null;
 
-                final byte[] toHash = new byte[total];
-                System.arraycopy(saltBytes, 0, toHash, 0, numSaltBytes);
-                System.arraycopy(digestedPwdBytes, 0, toHash, numSaltBytes, numDigestBytes);
+        if (!this.throttle.tryAcquire(username, address)) {
+            Log.warning("SCRAM authentication for '", username, "' from ", address, " refused by rate limit.");
+        } else if (this.throttle.isLockedOut(username)) {
+            Log.warning("SCRAM authentication for '", username, "' from ", address, " refused by lockout.");
+        } else {
+            final Login login;
+            synchronized (this.logins) {
+                login = this.logins.get(username);
+            }
 
-                hash = this.digest.digest(toHash);
+            if (login != null) {
+                final byte[] salt = login.getSalt().getBytes(StandardCharsets.UTF_8);
+                final byte[] salted = ScramKeys.saltedPassword(login.getHashHex(), salt, ScramKeys.ITERATIONS);
+                final byte[] storedKey = ScramKeys.storedKey(ScramKeys.clientKey(salted));
+                final byte[] serverKey = ScramKeys.serverKey(salted);
+                result = new ScramCredentials(username, salt, ScramKeys.ITERATIONS, storedKey, serverKey);
             }
+        }
+
+        return result;
+    }
 
-            final byte[] expectHash = login.getHash();
-            if (Arrays.equals(hash, expectHash)) {
-                String sessionId = randomString(SESSION_ID_LEN);
-                final Session sess;
+    /**
+     * Completes a SCRAM-SHA-256 authentication, recording the outcome for lockout and creating a session if the
+     * client's proof was valid.
+     *
+     * @param username   the username
+     * @param proofValid true if the client's proof was verified
+     * @return the result
+     */
+    public LoginResult finishScramAuthentication(final String username, final boolean proofValid) {
 
-                synchronized (this.sessions) {
-                    while (this.sessions.containsKey(sessionId)) {
-                        sessionId = randomString(SESSION_ID_LEN);
-                    }
-                    sess = new Session(sessionId, login);
-                    this.sessions.put(sessionId, sess);
+        final LoginResult result;
+
+        if (proofValid) {
+            this.throttle.recordSuccess(username);
+
+            final Login login;
+            synchronized (this.logins) {
+                login = this.logins.get(username);
+            }
+            result = login == null ? new LoginResult("Invalid login.") : new LoginResult(newSession(login));
+        } else {
+            this.throttle.recordFailure(username);
+            result = new LoginResult("Invalid login.");
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether a password matches the hash stored in a login.
+     *
+     * @param login    the login
+     * @param password the password
+     * @return true if the password matches
+     */
+    private boolean checkPassword(final Login login, final String password) {
+
+        final String salt = login.getSalt();
+        final byte[] saltBytes = salt.getBytes(StandardCharsets.UTF_8);
+        final int numSaltBytes = saltBytes.length;
+
+        final byte[] pwdBytes = password.getBytes(StandardCharsets.UTF_8);
+
+        final byte[] hash;
+
+        // MessageDigest is not thread-safe, so synchronize access to that object.
+
+        synchronized (this.digest) {
+            final byte[] digestedPwdBytes = this.digest.digest(pwdBytes);
+            final int numDigestBytes = digestedPwdBytes.length;
+            final int total = numSaltBytes + numDigestBytes;
+
+            final byte[] toHash = new byte[total];
+            System.arraycopy(saltBytes, 0, toHash, 0, numSaltBytes);
+            System.arraycopy(digestedPwdBytes, 0, toHash, numSaltBytes, numDigestBytes);
+
+            hash = this.digest.digest(toHash);
+        }
+
+        final byte[] expectHash = login.getHash();
+
+        return MessageDigest.isEqual(hash, expectHash);
+    }
+
+    /**
+     * Issues an authorization token that allows a session to execute transactions under an effective role.  The
+     * session's login must have the authenticating role, and the effective role must be the authenticating role or a
+     * role it includes.
+     *
+     * @param session       the session
+     * @param matrix        the current permission matrix
+     * @param authRole      the name of the role under which the user authenticated
+     * @param effectiveRole the name of the role under which transactions will execute
+     * @return the token; {@code null} if the login does not have the authenticating role or that role does not include
+     *         the effective role
+     */
+    public AuthToken issueToken(final Session session, final PermissionMatrix matrix, final String authRole,
+                                final String effectiveRole) {
+
+        AuthToken result = null;
+
+        final int authRoleId = matrix.getRoleId(authRole);
+        final int effectiveRoleId = matrix.getRoleId(effectiveRole);
+
+        if (session.getLogin().isRole(authRole) && matrix.canActAs(authRoleId, effectiveRoleId)) {
+            synchronized (this.tokens) {
+                long randomId = this.rnd.nextLong();
+                while (this.tokens.containsKey(Long.valueOf(randomId))) {
+                    randomId = this.rnd.nextLong();
                 }
-                result = new LoginResult(sess);
+                result = new AuthToken(randomId, authRoleId, effectiveRoleId);
+                this.tokens.put(Long.valueOf(randomId), new IssuedToken(result, session));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Issues an authorization token under the first of the login's roles that allows it.  If an effective role is
+     * given, that is the first login role that includes it; otherwise, it is the first login role that is defined in
+     * the permission matrix, which then serves as both the authenticating and the effective role.
+     *
+     * @param session       the session
+     * @param matrix        the current permission matrix
+     * @param effectiveRole the name of the role under which transactions will execute; {@code null} to use the
+     *                      login's own role
+     * @return the token; {@code null} if no login role allows the effective role
+     */
+    public AuthToken issueToken(final Session session, final PermissionMatrix matrix, final String effectiveRole) {
+
+        AuthToken result = null;
+
+        for (final String authRole : session.getLogin().getRoles()) {
+            result = issueToken(session, matrix, authRole, effectiveRole == null ? authRole : effectiveRole);
+            if (result != null) {
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the permissions that apply to a transaction presented with an authorization token.  The token must match
+     * one that was issued exactly, so the role IDs cannot be altered by the client, and the session for which it was
+     * issued must not have expired.  A successful check records that the session was used.
+     *
+     * @param token  the token presented with the request
+     * @param matrix the current permission matrix
+     * @return the permissions of the token's effective role; {@code null} if the token is not valid
+     */
+    public PermissionSet authorize(final AuthToken token, final PermissionMatrix matrix) {
+
+        final long now = System.nanoTime();
+        sweepIfDue(now);
+
+        final IssuedToken issued;
+        synchronized (this.tokens) {
+            issued = this.tokens.get(Long.valueOf(token.randomId()));
+        }
+
+        PermissionSet result = null;
+
+        if (issued != null && token.equals(issued.token())) {
+            final Session session = issued.session();
+            if (session.isExpired(now, SESSION_IDLE_TIMEOUT)) {
+                endSession(session);
             } else {
-                result = new LoginResult("Invalid login.");
+                session.touch(now);
+                result = matrix.getEffectivePermissions(token.authRoleId(), token.effectiveRoleId());
             }
         }
 
         return result;
     }
 
+    /**
+     * Revokes an authorization token.
+     *
+     * @param token the token
+     */
+    public void revokeToken(final AuthToken token) {
+
+        synchronized (this.tokens) {
+            this.tokens.remove(Long.valueOf(token.randomId()));
+        }
+    }
+
     /**
      * Generates a random string using the character set allowed for salt values.
      *
@@ -389,4 +695,13 @@ public final class SessionManager {
 
         return builder.toString();
     }
+
+    /**
+     * An issued authorization token and the session for which it was issued.
+     *
+     * @param token   the token
+     * @param session the session
+     */
+    private record IssuedToken(AuthToken token, Session session) {
+    }
 }
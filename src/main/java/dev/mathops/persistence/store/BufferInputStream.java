@@ -0,0 +1,93 @@
+package dev.mathops.persistence.store;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads a region of a buffer using absolute reads, so any number of streams can read the same
+ * buffer at once without copying it or changing its position.
+ */
+final class BufferInputStream extends InputStream {
+
+    /** The buffer. */
+    private final ByteBuffer buffer;
+
+    /** The position beyond which the stream may not read. */
+    private final int limit;
+
+    /** The position of the next byte to read. */
+    private int position;
+
+    /**
+     * Constructs a new {@code BufferInputStream}.
+     *
+     * @param theBuffer   the buffer
+     * @param thePosition the position of the first byte to read
+     * @param theLimit    the position beyond which the stream may not read
+     */
+    BufferInputStream(final ByteBuffer theBuffer, final int thePosition, final int theLimit) {
+
+        super();
+
+        this.buffer = theBuffer;
+        this.position = thePosition;
+        this.limit = theLimit;
+    }
+
+    /**
+     * Gets the position of the next byte to read.
+     *
+     * @return the position
+     */
+    int getPosition() {
+
+        return this.position;
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte (0 to 255); -1 at the end of the region
+     */
+    @Override
+    public int read() {
+
+        final int result;
+
+        if (this.position < this.limit) {
+            result = (int) this.buffer.get(this.position) & 0xFF;
+            ++this.position;
+        } else {
+            result = -1;
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads bytes into an array.
+     *
+     * @param b   the array
+     * @param off the offset in the array at which to store the first byte
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read; -1 at the end of the region
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+
+        final int available = this.limit - this.position;
+
+        final int result;
+        if (len == 0) {
+            result = 0;
+        } else if (available <= 0) {
+            result = -1;
+        } else {
+            result = Math.min(len, available);
+            this.buffer.get(this.position, b, off, result);
+            this.position += result;
+        }
+
+        return result;
+    }
+}
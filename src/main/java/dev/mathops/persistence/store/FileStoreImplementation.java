@@ -0,0 +1,311 @@
+package dev.mathops.persistence.store;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An implementation for the STORE schema type that keeps tables in memory-mapped files on local disk.  Each table in
+ * each context has a directory ({@code root/context/schema/table}) holding an append-only segment file of rows encoded
+ * as by {@code FieldEncoder}, an index file, and a write-ahead log.
+ *
+ * <p>
+ * Rows are read in place from the mapped segment file, and a sorted index on the PARTITION_KEY fields (mapped from its
+ * file after each checkpoint) finds rows by key without reading the others, so reads of a warm table run at close to
+ * memory speed with no database server.  Reads never lock.  Writes append to the write-ahead log (forced to disk) and
+ * then to the segment file, so a write that has returned survives a crash, and a partly written record is detected by
+ * its checksum and discarded.  A shared background thread takes checkpoints and compacts segment files that are mostly
+ * deleted rows.
+ *
+ * <p>
+ * Each write copies the index, so this implementation suits data that is read often and written rarely, such as
+ * archived terms.  An insert that spans several tables is validated for every table before any is written, but each
+ * table's files recover independently after a crash.  A segment file is limited to 2 GB.  Times are stored to the
+ * millisecond, as {@code FieldEncoder} encodes them.
+ */
+public final class FileStoreImplementation implements IImplementation, AutoCloseable {
+
+    /** The interval between maintenance passes (seconds). */
+    private static final long MAINTENANCE_INTERVAL = 30L;
+
+    /** The thread that maintains all stores. */
+    private static final ScheduledThreadPoolExecutor MAINTAINER;
+
+    static {
+        MAINTAINER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "file-store-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        MAINTAINER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The root directory. */
+    private final Path root;
+
+    /** A map from table path (context, schema, and table name) to the open table. */
+    private final Map<String, StoreTable> tables;
+
+    /** The lock held while opening or closing tables. */
+    private final ReentrantLock openLock;
+
+    /** The maintenance task. */
+    private final ScheduledFuture<?> maintenance;
+
+    /** The ID to assign to the next table opened. */
+    private int nextId;
+
+    /** True once the implementation has been closed. */
+    private boolean closed;
+
+    /**
+     * Constructs a new {@code FileStoreImplementation}.  Tables are opened when first used.
+     *
+     * @param theRoot the root directory
+     */
+    public FileStoreImplementation(final Path theRoot) {
+
+        this.root = theRoot;
+        this.tables = new ConcurrentHashMap<>(32);
+        this.openLock = new ReentrantLock();
+        this.maintenance = MAINTAINER.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL,
+                MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Gets the open storage for a table in a context, opening it if needed.  If the table has been redefined (by a
+     * schema reload), the storage opened for the old definition is closed and the files reopened with the new one.
+     *
+     * @param context the context name
+     * @param table   the table
+     * @return the storage
+     * @throws PersistenceException if the storage could not be opened
+     */
+    private StoreTable storage(final String context, final Table table) throws PersistenceException {
+
+        final String key = SimpleBuilder.concat(context, "/", table.getSchema(), "/", table.getName());
+
+        StoreTable result = this.tables.get(key);
+
+        if (result == null || result.table != table) {
+            this.openLock.lock();
+            try {
+                if (this.closed) {
+                    throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, "Store is closed", null);
+                }
+
+                result = this.tables.get(key);
+                if (result == null || result.table != table) {
+                    final boolean redefined = result != null;
+                    if (redefined) {
+                        result.close();
+                    }
+                    final Path dir = this.root.resolve(context).resolve(table.getSchema()).resolve(table.getName());
+                    result = StoreTable.open(this.nextId, table, dir, redefined);
+                    ++this.nextId;
+                    this.tables.put(key, result);
+                }
+            } catch (final IOException ex) {
+                final String msg = SimpleBuilder.concat("Unable to open store for table '", table.getName(), "'");
+                throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, msg, ex);
+            } finally {
+                this.openLock.unlock();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long count(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return storage(context, table).count(criteria);
+    }
+
+    /**
+     * Queries the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public void query(final String context, final Table table, final SelectionCriteria criteria,
+                      final List<? super Row> results) throws PersistenceException {
+
+        storage(context, table).query(criteria, results);
+    }
+
+    /**
+     * Inserts rows.  The write locks of all tables involved are taken in a fixed order, and the rows for every table
+     * are validated before any are written.
+     *
+     * @param context the context name
+     * @param rows    the rows to insert
+     * @return the number of rows inserted
+     * @throws PersistenceException if a value is missing or has the wrong type, a primary key is duplicated (in which
+     *                              case no rows are inserted), or the store could not be written
+     */
+    @Override
+    public int insert(final String context, final List<Row> rows) throws PersistenceException {
+
+        final Map<StoreTable, List<Row>> byTable = new HashMap<>(4);
+        for (final Row row : rows) {
+            final StoreTable target = storage(context, row.getTable());
+            byTable.computeIfAbsent(target, key -> new ArrayList<>(rows.size())).add(row);
+        }
+
+        final List<StoreTable> targets = new ArrayList<>(byTable.keySet());
+        targets.sort(Comparator.comparingInt(target -> target.id));
+        final int numTargets = targets.size();
+
+        for (final StoreTable target : targets) {
+            target.writeLock.lock();
+        }
+        try {
+            final StoreTable.PendingWrite[] writes = new StoreTable.PendingWrite[numTargets];
+            for (int i = 0; i < numTargets; ++i) {
+                final StoreTable target = targets.get(i);
+                writes[i] = target.prepareInsert(byTable.get(target));
+            }
+            for (int i = 0; i < numTargets; ++i) {
+                targets.get(i).apply(writes[i]);
+            }
+        } finally {
+            for (int i = numTargets - 1; i >= 0; --i) {
+                targets.get(i).writeLock.unlock();
+            }
+        }
+
+        return rows.size();
+    }
+
+    /**
+     * Opens the storage for tables in a context, creating its directories and files if they do not exist.  Open tables
+     * stay open (with their files mapped), so this also serves to warm the context.
+     *
+     * @param context the context name
+     * @param tables  the tables
+     * @throws PersistenceException if the storage could not be opened
+     */
+    @Override
+    public void provision(final String context, final List<Table> tables) throws PersistenceException {
+
+        for (final Table table : tables) {
+            storage(context, table);
+        }
+    }
+
+    /**
+     * Deletes the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long delete(final String context, final Table table, final SelectionCriteria criteria)
+            throws PersistenceException {
+
+        return storage(context, table).delete(criteria);
+    }
+
+    /**
+     * Updates the rows in a table that match selection criteria.
+     *
+     * @param context  the context name
+     * @param table    the table
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the operation failed
+     */
+    @Override
+    public long update(final String context, final Table table, final SelectionCriteria criteria,
+                       final UpdatedValues values) throws PersistenceException {
+
+        return storage(context, table).update(criteria, values);
+    }
+
+    /**
+     * Takes checkpoints and compacts segment files.  Runs periodically on the shared maintenance thread.
+     */
+    private void maintain() {
+
+        for (final StoreTable table : this.tables.values()) {
+            try {
+                table.maintain();
+            } catch (final IOException ex) {
+                Log.warning("Maintenance of store for table '", table.table.getName(), "' failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Closes the implementation, taking a checkpoint of every table with unsaved writes.
+     */
+    @Override
+    public void close() {
+
+        this.openLock.lock();
+        try {
+            this.closed = true;
+            this.maintenance.cancel(false);
+            for (final StoreTable table : this.tables.values()) {
+                try {
+                    table.close();
+                } catch (final IOException ex) {
+                    Log.warning("Failed to close store for table '", table.table.getName(), "'.", ex);
+                }
+            }
+            this.tables.clear();
+        } finally {
+            this.openLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("FileStoreImplementation{root=", this.root, ", tables=", this.tables.keySet(),
+                "}");
+    }
+}
@@ -0,0 +1,281 @@
+package dev.mathops.persistence.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An immutable index of the live rows of a table: pairs of a 64-bit key and the offset of the row in the segment
+ * file, sorted by key and then by offset.
+ *
+ * <p>
+ * The key of a row is the value of its first primary key field when that field holds integers, so a set or range of
+ * key values is found by binary search; a hash of its primary key values for other keyed tables, so rows with the
+ * same key are found by binary search; and its offset for tables with no key fields.
+ *
+ * <p>
+ * At each checkpoint the index is written to a file with the LSN through which it is current, and the file is then
+ * mapped and used in place, so a table opens without reading its segment file if the two agree.  Writes between
+ * checkpoints produce new indexes on the heap.  The index also counts the deleted rows still in the segment file,
+ * which decides when the file is compacted.
+ */
+final class KeyIndex {
+
+    /** The magic number ("MPIX"). */
+    private static final int MAGIC = 0x4D504958;
+
+    /** The file format version. */
+    private static final int VERSION = 1;
+
+    /** The size of the file header (bytes). */
+    private static final int HEADER_SIZE = 24;
+
+    /** The empty index. */
+    static final KeyIndex EMPTY = new KeyIndex(LongBuffer.allocate(0), 0, 0);
+
+    /** The entries: key and offset pairs. */
+    private final LongBuffer entries;
+
+    /** The number of entries. */
+    final int size;
+
+    /** The number of deleted rows still in the segment file. */
+    final int deadCount;
+
+    /**
+     * Constructs a new {@code KeyIndex}.
+     *
+     * @param theEntries   the entries: key and offset pairs, sorted
+     * @param theSize      the number of entries
+     * @param theDeadCount the number of deleted rows still in the segment file
+     */
+    private KeyIndex(final LongBuffer theEntries, final int theSize, final int theDeadCount) {
+
+        this.entries = theEntries;
+        this.size = theSize;
+        this.deadCount = theDeadCount;
+    }
+
+    /**
+     * Builds an index from keys and offsets in any order.
+     *
+     * @param keys      the keys
+     * @param offsets   the offsets
+     * @param count     the number of entries
+     * @param deadCount the number of deleted rows still in the segment file
+     * @return the index
+     */
+    static KeyIndex build(final long[] keys, final long[] offsets, final int count, final int deadCount) {
+
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, (i1, i2) -> {
+            final int cmp = Long.compare(keys[i1.intValue()], keys[i2.intValue()]);
+            return cmp == 0 ? Long.compare(offsets[i1.intValue()], offsets[i2.intValue()]) : cmp;
+        });
+
+        final long[] pairs = new long[count * 2];
+        for (int i = 0; i < count; ++i) {
+            final int index = order[i].intValue();
+            pairs[2 * i] = keys[index];
+            pairs[2 * i + 1] = offsets[index];
+        }
+
+        return new KeyIndex(LongBuffer.wrap(pairs), count, deadCount);
+    }
+
+    /**
+     * Builds an index from entries already sorted by key and offset, for a segment file with no deleted rows.
+     *
+     * @param pairs the entries: key and offset pairs
+     * @param count the number of entries
+     * @return the index
+     */
+    static KeyIndex sorted(final long[] pairs, final int count) {
+
+        return new KeyIndex(LongBuffer.wrap(pairs), count, 0);
+    }
+
+    /**
+     * Gets the key of an entry.
+     *
+     * @param index the entry index
+     * @return the key
+     */
+    long key(final int index) {
+
+        return this.entries.get(2 * index);
+    }
+
+    /**
+     * Gets the row offset of an entry.
+     *
+     * @param index the entry index
+     * @return the offset
+     */
+    long offset(final int index) {
+
+        return this.entries.get(2 * index + 1);
+    }
+
+    /**
+     * Finds the first entry whose key is at least a given value.
+     *
+     * @param key the key
+     * @return the entry index ({@code size} if every key is less)
+     */
+    int lowerBound(final long key) {
+
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Finds the first entry whose key is greater than a given value.
+     *
+     * @param key the key
+     * @return the entry index ({@code size} if no key is greater)
+     */
+    int upperBound(final long key) {
+
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (key(mid) <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Builds the index that results from removing and adding entries, merging the added entries into this index's
+     * order in a single pass.
+     *
+     * @param removed    the offsets of the rows to remove, in increasing order
+     * @param addKeys    the keys of the rows to add
+     * @param addOffsets the offsets of the rows to add (each greater than any offset in this index)
+     * @return the new index
+     */
+    KeyIndex apply(final long[] removed, final long[] addKeys, final long[] addOffsets) {
+
+        final KeyIndex added = build(addKeys, addOffsets, addKeys.length, 0);
+        final long[] pairs = new long[2 * (this.size + added.size)];
+
+        int count = 0;
+        int numRemoved = 0;
+        int j = 0;
+        for (int i = 0; i < this.size; ++i) {
+            final long key = key(i);
+            final long offset = offset(i);
+            if (Arrays.binarySearch(removed, offset) >= 0) {
+                ++numRemoved;
+            } else {
+                while (j < added.size && added.key(j) < key) {
+                    pairs[2 * count] = added.key(j);
+                    pairs[2 * count + 1] = added.offset(j);
+                    ++count;
+                    ++j;
+                }
+                pairs[2 * count] = key;
+                pairs[2 * count + 1] = offset;
+                ++count;
+            }
+        }
+        while (j < added.size) {
+            pairs[2 * count] = added.key(j);
+            pairs[2 * count + 1] = added.offset(j);
+            ++count;
+            ++j;
+        }
+
+        return new KeyIndex(LongBuffer.wrap(pairs), count, this.deadCount + numRemoved);
+    }
+
+    /**
+     * Writes the index to a file, replacing any existing file only once the new file is complete on disk, and maps the
+     * new file.
+     *
+     * @param path the path of the file
+     * @param lsn  the LSN through which the index is current
+     * @return the index, backed by the mapped file
+     * @throws IOException if the file could not be written
+     */
+    KeyIndex write(final Path path, final long lsn) throws IOException {
+
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        final long length = (long) HEADER_SIZE + 16L * (long) this.size;
+
+        try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0L, length);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putLong(8, lsn);
+            map.putInt(16, this.size);
+            map.putInt(20, this.deadCount);
+            final LongBuffer out = map.slice(HEADER_SIZE, (int) length - HEADER_SIZE).asLongBuffer();
+            for (int i = 0; i < 2 * this.size; ++i) {
+                out.put(i, this.entries.get(i));
+            }
+            map.force();
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return map(path, lsn);
+    }
+
+    /**
+     * Maps an index file, if it is current through a given LSN.
+     *
+     * @param path the path of the file
+     * @param lsn  the LSN
+     * @return the index, backed by the mapped file; {@code null} if the file does not exist, is damaged, or is not
+     *         current through the LSN
+     * @throws IOException if the file could not be read
+     */
+    static KeyIndex map(final Path path, final long lsn) throws IOException {
+
+        KeyIndex result = null;
+
+        if (Files.isRegularFile(path)) {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final long length = channel.size();
+                if (length >= (long) HEADER_SIZE && length <= (long) Integer.MAX_VALUE) {
+                    final ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0L, length);
+                    final int count = map.getInt(16);
+                    if (map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getLong(8) == lsn && count >= 0
+                        && length == (long) HEADER_SIZE + 16L * (long) count) {
+                        final LongBuffer pairs = map.slice(HEADER_SIZE, (int) length - HEADER_SIZE).asLongBuffer();
+                        result = new KeyIndex(pairs, count, map.getInt(20));
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+}
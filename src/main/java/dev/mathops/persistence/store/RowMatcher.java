@@ -0,0 +1,418 @@
+package dev.mathops.persistence.store;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.AbstractFieldCriterion;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+
+import java.util.Arrays;
+
+/**
+ * Selection criteria compiled for evaluation against decoded rows.  Each criterion becomes a null test, a set of
+ * values, or a range with inclusive bounds.  Null values never match a comparison, set, or range (as in SQL), though
+ * a "NOT IN" with no values matches every row.
+ */
+final class RowMatcher {
+
+    /** A test for null. */
+    private static final int IS_NULL = 0;
+
+    /** A test for a non-null value. */
+    private static final int IS_NOT_NULL = 1;
+
+    /** A test for membership in a set. */
+    static final int IN = 2;
+
+    /** A test for a value not in a (non-empty) set. */
+    private static final int NOT_IN = 3;
+
+    /** A test for a value in a range. */
+    static final int RANGE = 4;
+
+    /** A test that every row passes ("NOT IN" with no values). */
+    private static final int ALL = 5;
+
+    /** The tests. */
+    private final Test[] tests;
+
+    /**
+     * Constructs a new {@code RowMatcher}.
+     *
+     * @param theTests the tests
+     */
+    private RowMatcher(final Test[] theTests) {
+
+        this.tests = theTests;
+    }
+
+    /**
+     * Compiles selection criteria.
+     *
+     * @param table    the table
+     * @param criteria the criteria ({@code null} if none)
+     * @return the matcher
+     * @throws PersistenceException if a criterion is not supported, its field is not in the table or does not hold
+     *                              numbers, or it has the wrong number of values
+     */
+    static RowMatcher compile(final Table table, final SelectionCriteria criteria) throws PersistenceException {
+
+        final int numCriteria = criteria == null ? 0 : criteria.getNumCriteria();
+        final Test[] tests = new Test[numCriteria];
+
+        for (int i = 0; i < numCriteria; ++i) {
+            tests[i] = compile(table, criteria.getCriterion(i));
+        }
+
+        return new RowMatcher(tests);
+    }
+
+    /**
+     * Compiles a criterion.
+     *
+     * @param table     the table
+     * @param criterion the criterion
+     * @return the test
+     * @throws PersistenceException if the criterion is not supported, its field is not in the table or does not hold
+     *                              numbers, or it has the wrong number of values
+     */
+    private static Test compile(final Table table, final AbstractFieldCriterion criterion)
+            throws PersistenceException {
+
+        if (!(criterion instanceof final IntegerFieldCriterion intCriterion)) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Unsupported criterion type", null);
+        }
+
+        final int fieldIndex = fieldIndex(table, intCriterion);
+        final EFieldType type = table.getField(fieldIndex).getDef().getType();
+        if (type != EFieldType.BYTE && type != EFieldType.INTEGER && type != EFieldType.LONG
+            && type != EFieldType.FLOAT && type != EFieldType.DOUBLE) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST,
+                    "Integer criterion on field of type " + type.name(), null);
+        }
+
+        final ENumericMatchType matchType = intCriterion.getMatchType();
+        final int numValues = intCriterion.getNumIntegers();
+        final long[] given = new long[numValues];
+        int numGiven = 0;
+        for (int i = 0; i < numValues; ++i) {
+            final Integer value = intCriterion.getInteger(i);
+            if (value != null) {
+                given[numGiven] = value.longValue();
+                ++numGiven;
+            }
+        }
+        checkArity(matchType, numValues, numGiven);
+
+        final Long first = numGiven > 0 ? Long.valueOf(given[0]) : null;
+        final Long second = numGiven > 1 ? Long.valueOf(given[1]) : null;
+
+        return switch (matchType) {
+            case IS_NULL -> new Test(fieldIndex, IS_NULL, null);
+            case IS_NOT_NULL -> new Test(fieldIndex, IS_NOT_NULL, null);
+            case EXACT_IN -> new Test(fieldIndex, IN, distinct(given, numGiven));
+            case EXACT_NOT_IN -> numValues == 0 ? new Test(fieldIndex, ALL, null)
+                    : new Test(fieldIndex, NOT_IN, distinct(given, numGiven));
+            case GREATER_THAN -> new Test(fieldIndex, first, true, null, false);
+            case GREATER_THAN_OR_EQUAL -> new Test(fieldIndex, first, false, null, false);
+            case LESS_THAN -> new Test(fieldIndex, null, false, first, true);
+            case LESS_THAN_OR_EQUAL -> new Test(fieldIndex, null, false, first, false);
+            case BETWEEN_EXCLUDE_BOUNDS -> new Test(fieldIndex, first, true, second, true);
+            case BETWEEN_EXCLUDE_LOWER_BOUND -> new Test(fieldIndex, first, true, second, false);
+            case BETWEEN_EXCLUDE_UPPER_BOUND -> new Test(fieldIndex, first, false, second, true);
+            case BETWEEN_INCLUDE_BOUNDS -> new Test(fieldIndex, first, false, second, false);
+        };
+    }
+
+    /**
+     * Finds the index of a criterion's field in a table.
+     *
+     * @param table     the table
+     * @param criterion the criterion
+     * @return the field index
+     * @throws PersistenceException if the field is not in the table
+     */
+    private static int fieldIndex(final Table table, final IntegerFieldCriterion criterion)
+            throws PersistenceException {
+
+        final int numFields = table.getNumFields();
+        int result = -1;
+        for (int i = 0; i < numFields; ++i) {
+            if (table.getField(i) == criterion.getField()) {
+                result = i;
+                break;
+            }
+        }
+
+        if (result == -1) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Criterion field is not in the table",
+                    null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks that a criterion has the number of values its match type requires.
+     *
+     * @param type      the match type
+     * @param numValues the number of values
+     * @param numGiven  the number of values that are not null
+     * @throws PersistenceException if the number of values is wrong, or a comparison or range has a null value
+     */
+    private static void checkArity(final ENumericMatchType type, final int numValues, final int numGiven)
+            throws PersistenceException {
+
+        final boolean valid = switch (type) {
+            case IS_NULL, IS_NOT_NULL -> numValues == 0;
+            case EXACT_IN, EXACT_NOT_IN -> true;
+            case GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL -> numGiven == 1;
+            case BETWEEN_EXCLUDE_BOUNDS, BETWEEN_EXCLUDE_LOWER_BOUND, BETWEEN_EXCLUDE_UPPER_BOUND,
+                 BETWEEN_INCLUDE_BOUNDS -> numGiven == 2;
+        };
+
+        if (!valid) {
+            final String msg = "Criterion of type " + type.name() + " has " + numValues + " values";
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, msg, null);
+        }
+    }
+
+    /**
+     * Sorts values and removes duplicates.
+     *
+     * @param values the values
+     * @param count  the number of values
+     * @return the distinct values, in increasing order
+     */
+    private static long[] distinct(final long[] values, final int count) {
+
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+
+        int numDistinct = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[numDistinct] = sorted[i];
+                ++numDistinct;
+            }
+        }
+
+        return Arrays.copyOf(sorted, numDistinct);
+    }
+
+    /**
+     * Tests whether the matcher has no tests (and so matches every row).
+     *
+     * @return true if there are no tests
+     */
+    boolean isEmpty() {
+
+        return this.tests.length == 0;
+    }
+
+    /**
+     * Finds a set or range test on a field, which an index on the field can answer.
+     *
+     * @param field the field index
+     * @return the test; {@code null} if there is none
+     */
+    Test findIndexable(final int field) {
+
+        Test result = null;
+
+        for (final Test test : this.tests) {
+            if (test.field == field && (test.kind == IN || test.kind == RANGE)) {
+                result = test;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether the matcher has any test other than one given.
+     *
+     * @param test the test
+     * @return true if there is any other test
+     */
+    boolean hasOtherThan(final Test test) {
+
+        return this.tests.length > (test == null ? 0 : 1);
+    }
+
+    /**
+     * Tests whether a row passes every test.
+     *
+     * @param row  the row
+     * @param skip a test to skip, because an index has already applied it ({@code null} if none)
+     * @return true if the row passes
+     */
+    boolean matches(final Row row, final Test skip) {
+
+        boolean result = true;
+
+        for (final Test test : this.tests) {
+            if (test != skip && !test.matches(row.getFieldValue(test.field))) {
+                result = false;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A test of one field.
+     */
+    static final class Test {
+
+        /** The field index. */
+        final int field;
+
+        /** The kind of test. */
+        final int kind;
+
+        /** The distinct values of a set, in increasing order. */
+        final long[] values;
+
+        /** The lower bound of a range (inclusive). */
+        final long lower;
+
+        /** The upper bound of a range (inclusive). */
+        final long upper;
+
+        /** The lower bound of a range, for floating-point fields. */
+        private final double doubleLower;
+
+        /** The upper bound of a range, for floating-point fields. */
+        private final double doubleUpper;
+
+        /** True if the lower bound of a range excludes {@code doubleLower}. */
+        private final boolean lowerOpen;
+
+        /** True if the upper bound of a range excludes {@code doubleUpper}. */
+        private final boolean upperOpen;
+
+        /**
+         * Constructs a new {@code Test} that is not a range.
+         *
+         * @param theField  the field index
+         * @param theKind   the kind of test
+         * @param theValues the distinct values of a set, in increasing order ({@code null} if not a set)
+         */
+        private Test(final int theField, final int theKind, final long[] theValues) {
+
+            this.field = theField;
+            this.kind = theKind;
+            this.values = theValues;
+            this.lower = 0L;
+            this.upper = 0L;
+            this.doubleLower = 0.0;
+            this.doubleUpper = 0.0;
+            this.lowerOpen = false;
+            this.upperOpen = false;
+        }
+
+        /**
+         * Constructs a new range {@code Test}.  Because criterion values are integers, an exclusive bound {@code v}
+         * is the inclusive bound {@code v + 1} or {@code v - 1} for integer fields; floating-point fields are tested
+         * against the original bounds.
+         *
+         * @param theField     the field index
+         * @param theLower     the lower bound ({@code null} if none)
+         * @param theLowerOpen true if the lower bound is exclusive
+         * @param theUpper     the upper bound ({@code null} if none)
+         * @param theUpperOpen true if the upper bound is exclusive
+         */
+        private Test(final int theField, final Long theLower, final boolean theLowerOpen, final Long theUpper,
+                     final boolean theUpperOpen) {
+
+            this.field = theField;
+            this.kind = RANGE;
+            this.values = null;
+
+            if (theLower == null) {
+                this.lower = Long.MIN_VALUE;
+                this.doubleLower = Double.NEGATIVE_INFINITY;
+                this.lowerOpen = false;
+            } else {
+                final long value = theLower.longValue();
+                this.lower = theLowerOpen ? value + 1L : value;
+                this.doubleLower = (double) value;
+                this.lowerOpen = theLowerOpen;
+            }
+
+            if (theUpper == null) {
+                this.upper = Long.MAX_VALUE;
+                this.doubleUpper = Double.POSITIVE_INFINITY;
+                this.upperOpen = false;
+            } else {
+                final long value = theUpper.longValue();
+                this.upper = theUpperOpen ? value - 1L : value;
+                this.doubleUpper = (double) value;
+                this.upperOpen = theUpperOpen;
+            }
+        }
+
+        /**
+         * Tests whether a field value passes.
+         *
+         * @param value the value ({@code null} if the field is null)
+         * @return true if the value passes
+         */
+        boolean matches(final Object value) {
+
+            final boolean result;
+
+            if (this.kind == ALL) {
+                result = true;
+            } else if (this.kind == IS_NULL) {
+                result = value == null;
+            } else if (this.kind == IS_NOT_NULL) {
+                result = value != null;
+            } else if (value instanceof final Float f) {
+                result = matchesDouble(f.doubleValue());
+            } else if (value instanceof final Double d) {
+                result = matchesDouble(d.doubleValue());
+            } else if (value instanceof final Number n) {
+                final long x = n.longValue();
+                if (this.kind == RANGE) {
+                    result = x >= this.lower && x <= this.upper;
+                } else {
+                    result = (Arrays.binarySearch(this.values, x) >= 0) == (this.kind == IN);
+                }
+            } else {
+                result = false;
+            }
+
+            return result;
+        }
+
+        /**
+         * Tests whether a floating-point value passes.
+         *
+         * @param x the value
+         * @return true if the value passes
+         */
+        private boolean matchesDouble(final double x) {
+
+            final boolean result;
+
+            if (this.kind == RANGE) {
+                final boolean aboveLower = this.lowerOpen ? x > this.doubleLower : x >= this.doubleLower;
+                final boolean belowUpper = this.upperOpen ? x < this.doubleUpper : x <= this.doubleUpper;
+                result = aboveLower && belowUpper;
+            } else {
+                final boolean inSet = x == Math.rint(x) && Arrays.binarySearch(this.values, (long) x) >= 0;
+                result = inSet == (this.kind == IN);
+            }
+
+            return result;
+        }
+    }
+}
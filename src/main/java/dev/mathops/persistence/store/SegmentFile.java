@@ -0,0 +1,238 @@
+package dev.mathops.persistence.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped segment file: a 16-byte header (a magic number, a version, and the base LSN) followed by records,
+ * appended in LSN order.  The file is mapped in full and grows by doubling, so a record is written with a single copy
+ * into the mapping and rows are read from it in place.  The base LSN is the LSN through which the file is complete;
+ * it is set when a compacted file is written, since compaction discards records.
+ *
+ * <p>
+ * A mapping is never unmapped while it may be in use: when the file grows, a new, larger mapping replaces the current
+ * one for new reads and writes, and readers still holding the old mapping see the same bytes through it.  A mapping
+ * is limited to 2 GB, which bounds the size of a table.
+ */
+final class SegmentFile implements AutoCloseable {
+
+    /** The magic number ("MPSG"). */
+    private static final int MAGIC = 0x4D505347;
+
+    /** The file format version. */
+    private static final int VERSION = 1;
+
+    /** The size of the file header (bytes). */
+    static final int HEADER_SIZE = 16;
+
+    /** The initial size of a new file (bytes). */
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    /** The file channel. */
+    private final FileChannel channel;
+
+    /** The current mapping. */
+    private MappedByteBuffer map;
+
+    /** The position just past the last valid record. */
+    private int end;
+
+    /** The LSN of the last valid record (or the base LSN if there are none). */
+    private long lastLsn;
+
+    /**
+     * Constructs a new {@code SegmentFile}.
+     *
+     * @param theChannel the file channel
+     * @param theMap     the mapping
+     */
+    private SegmentFile(final FileChannel theChannel, final MappedByteBuffer theMap) {
+
+        this.channel = theChannel;
+        this.map = theMap;
+    }
+
+    /**
+     * Opens a segment file, creating it if it does not exist, and finds the end of its valid records.
+     *
+     * @param path the path of the file
+     * @return the segment file
+     * @throws IOException if the file could not be opened or is not a segment file
+     */
+    static SegmentFile open(final Path path) throws IOException {
+
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        final SegmentFile result;
+        try {
+            final long size = channel.size();
+            if (size == 0L) {
+                result = new SegmentFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, INITIAL_SIZE));
+                result.writeHeader(0L);
+            } else if (size < (long) HEADER_SIZE || size > (long) Integer.MAX_VALUE) {
+                throw new IOException("Invalid segment file size: " + path);
+            } else {
+                result = new SegmentFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, size));
+                if (result.map.getInt(0) != MAGIC || result.map.getInt(4) != VERSION) {
+                    throw new IOException("Not a segment file: " + path);
+                }
+            }
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        result.scan();
+
+        return result;
+    }
+
+    /**
+     * Creates a new, empty segment file, replacing any existing file.
+     *
+     * @param path     the path of the file
+     * @param baseLsn  the LSN through which the file will be complete
+     * @param capacity the initial capacity (bytes)
+     * @return the segment file
+     * @throws IOException if the file could not be created
+     */
+    static SegmentFile create(final Path path, final long baseLsn, final int capacity) throws IOException {
+
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final int size = Math.max(capacity, INITIAL_SIZE);
+        final SegmentFile result = new SegmentFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, size));
+        result.writeHeader(baseLsn);
+
+        return result;
+    }
+
+    /**
+     * Writes the file header.
+     *
+     * @param baseLsn the base LSN
+     */
+    private void writeHeader(final long baseLsn) {
+
+        this.map.putInt(0, MAGIC);
+        this.map.putInt(4, VERSION);
+        this.map.putLong(8, baseLsn);
+        this.end = HEADER_SIZE;
+        this.lastLsn = baseLsn;
+    }
+
+    /**
+     * Scans the records to find the end of the valid records and the last LSN.
+     */
+    private void scan() {
+
+        final int capacity = this.map.capacity();
+        long last = this.map.getLong(8);
+        int pos = HEADER_SIZE;
+
+        int len = SegmentRecord.check(this.map, pos, capacity);
+        while (len > 0 && SegmentRecord.lsn(this.map, pos) >= last) {
+            last = SegmentRecord.lsn(this.map, pos);
+            pos += len;
+            len = SegmentRecord.check(this.map, pos, capacity);
+        }
+
+        this.end = pos;
+        this.lastLsn = last;
+    }
+
+    /**
+     * Gets the current mapping.  Only absolute reads may be used on it, and only below the end of the valid records at
+     * the time it was obtained.
+     *
+     * @return the mapping
+     */
+    ByteBuffer buffer() {
+
+        return this.map;
+    }
+
+    /**
+     * Gets the position just past the last valid record.
+     *
+     * @return the position
+     */
+    int getEnd() {
+
+        return this.end;
+    }
+
+    /**
+     * Gets the LSN of the last valid record.
+     *
+     * @return the LSN (the base LSN if there are no records)
+     */
+    long getLastLsn() {
+
+        return this.lastLsn;
+    }
+
+    /**
+     * Ensures there is room to append a record, growing the file if needed.
+     *
+     * @param length the length of the record
+     * @throws IOException if the file could not be grown, or would exceed the largest size that can be mapped
+     */
+    void ensureCapacity(final int length) throws IOException {
+
+        final long needed = (long) this.end + (long) length;
+        final int capacity = this.map.capacity();
+
+        if (needed > (long) capacity) {
+            final long newSize = Math.max(needed, 2L * (long) capacity);
+            if (needed > (long) Integer.MAX_VALUE) {
+                throw new IOException("Segment file is full");
+            }
+            this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L,
+                    Math.min(newSize, (long) Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Appends a record.  The caller must first ensure there is room.
+     *
+     * @param record the record
+     * @param lsn    the LSN of the record
+     * @return the position of the record
+     */
+    int append(final byte[] record, final long lsn) {
+
+        final int result = this.end;
+
+        this.map.put(result, record);
+        this.end = result + record.length;
+        this.lastLsn = lsn;
+
+        return result;
+    }
+
+    /**
+     * Forces the file's contents to disk.
+     */
+    void force() {
+
+        this.map.force();
+    }
+
+    /**
+     * Closes the file channel.  The current mapping remains valid until it is no longer referenced.
+     *
+     * @throws IOException if the channel could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.channel.close();
+    }
+}
@@ -0,0 +1,93 @@
+package dev.mathops.persistence.store;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * The framing of a record in a segment file or write-ahead log.
+ *
+ * <p>
+ * A record is a 4-byte payload length, a 4-byte CRC-32C checksum, an 8-byte log sequence number (LSN), and the
+ * payload.  The checksum covers the LSN and the payload, so a record that was only partly written when the process
+ * stopped, or a region of a file that was never written, is recognized as the end of the valid records.  LSNs start at
+ * 1 and never decrease from one record to the next.
+ *
+ * <p>
+ * Each record holds one write: a 4-byte count of deleted rows, the 8-byte file offset of each deleted row, and then
+ * the inserted rows, each encoded by {@code FieldEncoder}.  A row is identified by the offset of its encoding in the
+ * segment file, so a delete, an update, or an insert is applied in one record or not at all.
+ */
+enum SegmentRecord {
+    ;
+
+    /** The size of the record header (bytes). */
+    static final int HEADER_SIZE = 16;
+
+    /** The offset of the checksum in the header. */
+    private static final int CRC_OFFSET = 4;
+
+    /** The offset of the LSN in the header. */
+    private static final int LSN_OFFSET = 8;
+
+    /**
+     * Frames a payload as a record.
+     *
+     * @param lsn     the log sequence number
+     * @param payload the payload
+     * @return the record
+     */
+    static byte[] frame(final long lsn, final byte[] payload) {
+
+        final ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buf.putInt(payload.length);
+        buf.putInt(0);
+        buf.putLong(lsn);
+        buf.put(payload);
+
+        final byte[] result = buf.array();
+        final CRC32C crc = new CRC32C();
+        crc.update(result, LSN_OFFSET, result.length - LSN_OFFSET);
+        buf.putInt(CRC_OFFSET, (int) crc.getValue());
+
+        return result;
+    }
+
+    /**
+     * Checks whether a valid record begins at a position in a buffer.
+     *
+     * @param buf   the buffer
+     * @param pos   the position
+     * @param limit the position beyond which the record may not extend
+     * @return the length of the record, including its header; -1 if there is no valid record at the position
+     */
+    static int check(final ByteBuffer buf, final int pos, final int limit) {
+
+        int result = -1;
+
+        if (limit - pos >= HEADER_SIZE) {
+            final int len = buf.getInt(pos);
+            final long lsn = buf.getLong(pos + LSN_OFFSET);
+            if (len >= 0 && len <= limit - pos - HEADER_SIZE && lsn > 0L) {
+                final CRC32C crc = new CRC32C();
+                crc.update(buf.slice(pos + LSN_OFFSET, len + HEADER_SIZE - LSN_OFFSET));
+                if ((int) crc.getValue() == buf.getInt(pos + CRC_OFFSET)) {
+                    result = HEADER_SIZE + len;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the log sequence number of a record.
+     *
+     * @param buf the buffer
+     * @param pos the position of the record
+     * @return the log sequence number
+     */
+    static long lsn(final ByteBuffer buf, final int pos) {
+
+        return buf.getLong(pos + LSN_OFFSET);
+    }
+}
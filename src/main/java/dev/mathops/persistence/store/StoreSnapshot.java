@@ -0,0 +1,50 @@
+package dev.mathops.persistence.store;
+
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable view of a table for readers: the mapping of the segment file, the end of the records it holds, and
+ * the index of the live rows.  Rows are only ever appended beyond {@code end}, so a reader holding a snapshot sees the
+ * same rows for as long as it holds it.
+ */
+final class StoreSnapshot {
+
+    /** The mapping of the segment file. */
+    final ByteBuffer buffer;
+
+    /** The position just past the last record in the snapshot. */
+    final int end;
+
+    /** The index of the live rows. */
+    final KeyIndex index;
+
+    /**
+     * Constructs a new {@code StoreSnapshot}.
+     *
+     * @param theBuffer the mapping of the segment file
+     * @param theEnd    the position just past the last record in the snapshot
+     * @param theIndex  the index of the live rows
+     */
+    StoreSnapshot(final ByteBuffer theBuffer, final int theEnd, final KeyIndex theIndex) {
+
+        this.buffer = theBuffer;
+        this.end = theEnd;
+        this.index = theIndex;
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String endStr = Integer.toString(this.end);
+        final String rowsStr = Integer.toString(this.index.size);
+
+        return SimpleBuilder.concat("StoreSnapshot{end=", endStr, ", rows=", rowsStr, "}");
+    }
+}
@@ -0,0 +1,971 @@
+package dev.mathops.persistence.store;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.EFieldRole;
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.NullValue;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.persistence.api.FieldDecoder;
+import dev.mathops.persistence.api.FieldEncoder;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The rows of one table in one context, stored in a directory with a segment file, an index file, and a write-ahead
+ * log.
+ *
+ * <p>
+ * Reads take the current snapshot with one volatile read and never lock.  Each write holds the table's write lock,
+ * validates and encodes its rows, checks primary keys for uniqueness, appends one record to the write-ahead log (and
+ * forces it to disk), copies the record into the mapped segment file, and publishes a new snapshot.
+ *
+ * <p>
+ * A checkpoint forces the segment file to disk, writes the index file, and empties the log.  Checkpoints happen
+ * periodically, when the log grows large, and when the table is closed.  When more than half the rows in the segment
+ * file have been deleted, the file is compacted: the live rows are copied, in key order, to a new file that replaces
+ * it.
+ */
+final class StoreTable implements AutoCloseable {
+
+    /** The name of the segment file. */
+    private static final String SEGMENT_FILE = "segment.dat";
+
+    /** The name of the file to which a compacted segment is written before it replaces the segment file. */
+    private static final String COMPACT_FILE = "segment.dat.tmp";
+
+    /** The name of the index file. */
+    private static final String INDEX_FILE = "index.dat";
+
+    /** The name of the write-ahead log file. */
+    private static final String LOG_FILE = "wal.log";
+
+    /** The fewest deleted rows for which the segment file is compacted. */
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    /** The largest payload of a record in a compacted segment file (bytes). */
+    private static final int MAX_COMPACT_PAYLOAD = 1 << 20;
+
+    /** The size of the write-ahead log beyond which a write triggers a checkpoint (bytes). */
+    private static final long CHECKPOINT_LOG_SIZE = 16L << 20;
+
+    /** The FNV-1a 64-bit offset basis. */
+    private static final long FNV_BASIS = 0xCBF29CE484222325L;
+
+    /** The FNV-1a 64-bit prime. */
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    /** The ID, which orders the write locks of tables updated together. */
+    final int id;
+
+    /** The table. */
+    final Table table;
+
+    /** The directory that holds the table's files. */
+    private final Path dir;
+
+    /** The field types, indexed by field index. */
+    private final EFieldType[] types;
+
+    /** True for each field that may not be null (PARTITION_KEY and NOT_NULL fields). */
+    private final boolean[] required;
+
+    /** The indexes of the primary key fields, in field order. */
+    private final int[] pkFields;
+
+    /** True if the first primary key field holds integers (so the index is ordered by its value). */
+    private final boolean ordered;
+
+    /** The lock held while writing. */
+    final ReentrantLock writeLock;
+
+    /** The write-ahead log. */
+    private final WriteAheadLog log;
+
+    /** The segment file. */
+    private SegmentFile segment;
+
+    /** True if there have been writes since the last checkpoint. */
+    private boolean dirty;
+
+    /** True once the table has been closed. */
+    private boolean closed;
+
+    /** The current snapshot. */
+    private volatile StoreSnapshot snapshot;
+
+    /**
+     * Constructs a new {@code StoreTable}.
+     *
+     * @param theId      the ID
+     * @param theTable   the table
+     * @param theDir     the directory that holds the table's files
+     * @param theSegment the segment file
+     * @param theLog     the write-ahead log
+     */
+    private StoreTable(final int theId, final Table theTable, final Path theDir, final SegmentFile theSegment,
+                       final WriteAheadLog theLog) {
+
+        this.id = theId;
+        this.table = theTable;
+        this.dir = theDir;
+        this.segment = theSegment;
+        this.log = theLog;
+        this.writeLock = new ReentrantLock();
+
+        final int numFields = theTable.getNumFields();
+        this.types = new EFieldType[numFields];
+        this.required = new boolean[numFields];
+        int numKeys = 0;
+        for (int i = 0; i < numFields; ++i) {
+            final EFieldRole role = theTable.getField(i).getRole();
+            this.types[i] = theTable.getField(i).getDef().getType();
+            this.required[i] = role != EFieldRole.NULLABLE;
+            if (role == EFieldRole.PARTITION_KEY) {
+                ++numKeys;
+            }
+        }
+
+        this.pkFields = new int[numKeys];
+        int index = 0;
+        for (int i = 0; i < numFields; ++i) {
+            if (theTable.getField(i).getRole() == EFieldRole.PARTITION_KEY) {
+                this.pkFields[index] = i;
+                ++index;
+            }
+        }
+
+        final EFieldType firstKeyType = numKeys == 0 ? null : this.types[this.pkFields[0]];
+        this.ordered = firstKeyType == EFieldType.BYTE || firstKeyType == EFieldType.INTEGER
+                       || firstKeyType == EFieldType.LONG;
+    }
+
+    /**
+     * Opens the storage of a table, creating its files if they do not exist and recovering from the write-ahead log if
+     * the process stopped without a checkpoint.
+     *
+     * @param id           the ID
+     * @param table        the table
+     * @param dir          the directory that holds the table's files
+     * @param rebuildIndex true to rebuild the index from the segment file even if the index file is current (when the
+     *                     table's definition may have changed)
+     * @return the storage
+     * @throws IOException if the files could not be opened or are damaged
+     */
+    static StoreTable open(final int id, final Table table, final Path dir, final boolean rebuildIndex)
+            throws IOException {
+
+        Files.createDirectories(dir);
+
+        final SegmentFile segment = SegmentFile.open(dir.resolve(SEGMENT_FILE));
+        final WriteAheadLog log;
+        try {
+            log = new WriteAheadLog(dir.resolve(LOG_FILE));
+        } catch (final IOException ex) {
+            segment.close();
+            throw ex;
+        }
+
+        final StoreTable result = new StoreTable(id, table, dir, segment, log);
+        try {
+            result.recover(rebuildIndex);
+        } catch (final IOException ex) {
+            log.close();
+            result.segment.close();
+            throw ex;
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies records from the write-ahead log that the segment file does not hold, loads or rebuilds the index, and
+     * takes a checkpoint if anything was recovered.
+     *
+     * @param rebuildIndex true to rebuild the index even if the index file is current
+     * @throws IOException if the files could not be read or are damaged
+     */
+    private void recover(final boolean rebuildIndex) throws IOException {
+
+        int replayed = 0;
+        for (final byte[] record : this.log.readRecords()) {
+            final long lsn = SegmentRecord.lsn(ByteBuffer.wrap(record), 0);
+            if (lsn > this.segment.getLastLsn()) {
+                this.segment.ensureCapacity(record.length);
+                this.segment.append(record, lsn);
+                ++replayed;
+            }
+        }
+        if (replayed > 0) {
+            final String countStr = Integer.toString(replayed);
+            Log.info("Recovered ", countStr, " records from the write-ahead log of table '", this.table.getName(),
+                    "'.");
+            this.dirty = true;
+        }
+
+        final Path indexPath = this.dir.resolve(INDEX_FILE);
+        KeyIndex index = rebuildIndex ? null : KeyIndex.map(indexPath, this.segment.getLastLsn());
+        if (index == null) {
+            index = rebuildIndex();
+            this.dirty = true;
+        }
+        this.snapshot = new StoreSnapshot(this.segment.buffer(), this.segment.getEnd(), index);
+
+        if (this.dirty || this.log.size() > 0L) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Rebuilds the index by reading every record in the segment file.
+     *
+     * @return the index
+     * @throws IOException if a row could not be decoded
+     */
+    private KeyIndex rebuildIndex() throws IOException {
+
+        final ByteBuffer buf = this.segment.buffer();
+        final int end = this.segment.getEnd();
+        final Map<Long, Row> live = new HashMap<>(1024);
+        int dead = 0;
+
+        try {
+            int pos = SegmentFile.HEADER_SIZE;
+            while (pos < end) {
+                final int start = pos + SegmentRecord.HEADER_SIZE;
+                final int limit = start + buf.getInt(pos);
+                final int numDeleted = buf.getInt(start);
+                for (int i = 0; i < numDeleted; ++i) {
+                    if (live.remove(Long.valueOf(buf.getLong(start + 4 + 8 * i))) != null) {
+                        ++dead;
+                    }
+                }
+                final BufferInputStream in = new BufferInputStream(buf, start + 4 + 8 * numDeleted, limit);
+                while (in.getPosition() < limit) {
+                    final long offset = (long) in.getPosition();
+                    live.put(Long.valueOf(offset), FieldDecoder.decodeRow(in, this.table));
+                }
+                pos = limit;
+            }
+        } catch (final IllegalArgumentException | DateTimeException ex) {
+            throw new IOException("Damaged row in segment file of table '" + this.table.getName() + "'", ex);
+        }
+
+        final int count = live.size();
+        final long[] keys = new long[count];
+        final long[] offsets = new long[count];
+        int index = 0;
+        for (final Map.Entry<Long, Row> entry : live.entrySet()) {
+            offsets[index] = entry.getKey().longValue();
+            keys[index] = key(entry.getValue(), offsets[index]);
+            ++index;
+        }
+
+        return KeyIndex.build(keys, offsets, count, dead);
+    }
+
+    /**
+     * Computes the index key of a row.
+     *
+     * @param row    the row
+     * @param offset the offset of the row in the segment file
+     * @return the key
+     * @throws IOException if the primary key could not be encoded
+     */
+    private long key(final Row row, final long offset) throws IOException {
+
+        long result;
+
+        if (this.pkFields.length == 0) {
+            result = offset;
+        } else if (this.ordered) {
+            result = ((Number) row.getFieldValue(this.pkFields[0])).longValue();
+        } else {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            FieldEncoder.encode(row, this.pkFields, out);
+            result = FNV_BASIS;
+            for (final byte b : out.toByteArray()) {
+                result = (result ^ (long) (b & 0xFF)) * FNV_PRIME;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the rows that match selection criteria.  When the only criterion is a set or range on the first key
+     * field, the count comes from the index alone.
+     *
+     * @param criteria the selection criteria ({@code null} to count all rows)
+     * @return the number of matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported, or a row could not be read
+     */
+    long count(final SelectionCriteria criteria) throws PersistenceException {
+
+        final StoreSnapshot snap = this.snapshot;
+        final RowMatcher matcher = RowMatcher.compile(this.table, criteria);
+        final RowMatcher.Test seek = this.ordered ? matcher.findIndexable(this.pkFields[0]) : null;
+        final KeyIndex index = snap.index;
+
+        long result = 0L;
+        if (matcher.isEmpty()) {
+            result = (long) index.size;
+        } else if (seek != null && !matcher.hasOtherThan(seek)) {
+            if (seek.kind == RowMatcher.RANGE) {
+                result = (long) Math.max(0, index.upperBound(seek.upper) - index.lowerBound(seek.lower));
+            } else {
+                for (final long value : seek.values) {
+                    result += (long) (index.upperBound(value) - index.lowerBound(value));
+                }
+            }
+        } else {
+            final long[] counter = new long[1];
+            select(snap, matcher, (offset, row) -> ++counter[0]);
+            result = counter[0];
+        }
+
+        return result;
+    }
+
+    /**
+     * Queries the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to return all rows)
+     * @param results  a list to which to add the matching rows
+     * @throws PersistenceException if the criteria are malformed or not supported, or a row could not be read
+     */
+    void query(final SelectionCriteria criteria, final List<? super Row> results) throws PersistenceException {
+
+        final StoreSnapshot snap = this.snapshot;
+        final RowMatcher matcher = RowMatcher.compile(this.table, criteria);
+
+        select(snap, matcher, (offset, row) -> results.add(row));
+    }
+
+    /**
+     * Prepares to insert rows.  The caller must hold the write lock, and applies the write with {@code apply} once
+     * every table in the insert has been prepared.
+     *
+     * @param rows the rows to insert (all for this table)
+     * @return the prepared write
+     * @throws PersistenceException if a value is missing or has the wrong type, or a primary key is duplicated
+     */
+    PendingWrite prepareInsert(final List<Row> rows) throws PersistenceException {
+
+        final int numFields = this.types.length;
+        final List<Object[]> values = new ArrayList<>(rows.size());
+        for (final Row row : rows) {
+            final Object[] rowValues = new Object[numFields];
+            for (int i = 0; i < numFields; ++i) {
+                rowValues[i] = row.getFieldValue(i);
+            }
+            values.add(rowValues);
+        }
+
+        return prepare(this.snapshot, new long[0], values);
+    }
+
+    /**
+     * Deletes the rows that match selection criteria.
+     *
+     * @param criteria the selection criteria ({@code null} to delete all rows)
+     * @return the number of rows deleted
+     * @throws PersistenceException if the criteria are malformed or not supported, or the store could not be written
+     */
+    long delete(final SelectionCriteria criteria) throws PersistenceException {
+
+        final RowMatcher matcher = RowMatcher.compile(this.table, criteria);
+        final List<Long> offsets = new ArrayList<>(10);
+
+        this.writeLock.lock();
+        try {
+            final StoreSnapshot snap = this.snapshot;
+            select(snap, matcher, (offset, row) -> offsets.add(Long.valueOf(offset)));
+            if (!offsets.isEmpty()) {
+                apply(prepare(snap, sorted(offsets), List.of()));
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        return (long) offsets.size();
+    }
+
+    /**
+     * Updates the rows that match selection criteria.  Each updated row is deleted and its new version inserted, in
+     * one record.
+     *
+     * @param criteria the selection criteria ({@code null} to update all rows)
+     * @param values   the updated values
+     * @return the number of rows updated
+     * @throws PersistenceException if the criteria are malformed or not supported, a value has the wrong type, a
+     *                              required field would be set to null, a primary key would be duplicated, or the
+     *                              store could not be written
+     */
+    long update(final SelectionCriteria criteria, final UpdatedValues values) throws PersistenceException {
+
+        final RowMatcher matcher = RowMatcher.compile(this.table, criteria);
+        final int numFields = this.types.length;
+        final List<Long> offsets = new ArrayList<>(10);
+        final List<Object[]> newRows = new ArrayList<>(10);
+
+        this.writeLock.lock();
+        try {
+            final StoreSnapshot snap = this.snapshot;
+            select(snap, matcher, (offset, row) -> {
+                final Object[] rowValues = new Object[numFields];
+                for (int i = 0; i < numFields; ++i) {
+                    final Object updated = values.getFieldValue(i);
+                    rowValues[i] = updated == null ? row.getFieldValue(i) : updated;
+                }
+                offsets.add(Long.valueOf(offset));
+                newRows.add(rowValues);
+            });
+            if (!offsets.isEmpty()) {
+                apply(prepare(snap, sorted(offsets), newRows));
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        return (long) offsets.size();
+    }
+
+    /**
+     * Finds the rows of a snapshot that match a matcher, in index order.  If the matcher has a set or range test on
+     * the first key field of an ordered index, only the matching runs of the index are read.
+     *
+     * @param snap    the snapshot
+     * @param matcher the matcher
+     * @param sink    the sink that receives each matching row
+     * @throws PersistenceException if a row could not be read
+     */
+    private void select(final StoreSnapshot snap, final RowMatcher matcher, final RowSink sink)
+            throws PersistenceException {
+
+        final KeyIndex index = snap.index;
+        final RowMatcher.Test seek = this.ordered ? matcher.findIndexable(this.pkFields[0]) : null;
+
+        if (seek == null) {
+            scan(snap, 0, index.size, matcher, null, sink);
+        } else if (seek.kind == RowMatcher.RANGE) {
+            scan(snap, index.lowerBound(seek.lower), index.upperBound(seek.upper), matcher, seek, sink);
+        } else {
+            for (final long value : seek.values) {
+                scan(snap, index.lowerBound(value), index.upperBound(value), matcher, seek, sink);
+            }
+        }
+    }
+
+    /**
+     * Reads a run of index entries and passes the rows that match to a sink.
+     *
+     * @param snap    the snapshot
+     * @param from    the index of the first entry
+     * @param to      the index past the last entry
+     * @param matcher the matcher
+     * @param skip    a test the index has already applied ({@code null} if none)
+     * @param sink    the sink
+     * @throws PersistenceException if a row could not be read
+     */
+    private void scan(final StoreSnapshot snap, final int from, final int to, final RowMatcher matcher,
+                      final RowMatcher.Test skip, final RowSink sink) throws PersistenceException {
+
+        for (int i = from; i < to; ++i) {
+            final long offset = snap.index.offset(i);
+            final Row row = readRow(snap, offset);
+            if (matcher.matches(row, skip)) {
+                sink.accept(offset, row);
+            }
+        }
+    }
+
+    /**
+     * Reads a row from the segment file.
+     *
+     * @param snap   the snapshot
+     * @param offset the offset of the row
+     * @return the row
+     * @throws PersistenceException if the row could not be decoded
+     */
+    private Row readRow(final StoreSnapshot snap, final long offset) throws PersistenceException {
+
+        final Row result;
+
+        try {
+            result = FieldDecoder.decodeRow(new BufferInputStream(snap.buffer, (int) offset, snap.end), this.table);
+        } catch (final IOException | IllegalArgumentException | DateTimeException ex) {
+            final String msg = SimpleBuilder.concat("Damaged row in segment file of table '", this.table.getName(),
+                    "'");
+            throw new PersistenceException(EFailureCode.IMPLEMENTATION_ERROR, msg, ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Validates and encodes a write.  The caller must hold the write lock.
+     *
+     * @param snap    the current snapshot
+     * @param removed the offsets of the rows the write deletes, in increasing order
+     * @param newRows the values of the rows the write inserts
+     * @return the prepared write
+     * @throws PersistenceException if a value is missing or has the wrong type, or a primary key is duplicated
+     */
+    private PendingWrite prepare(final StoreSnapshot snap, final long[] removed, final List<Object[]> newRows)
+            throws PersistenceException {
+
+        final int numRows = newRows.size();
+        final Row[] rows = new Row[numRows];
+        final long[] keys = new long[numRows];
+        final int[] positions = new int[numRows];
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * removed.length + 64 * numRows);
+        try {
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(removed.length);
+            for (final long offset : removed) {
+                out.writeLong(offset);
+            }
+            for (int i = 0; i < numRows; ++i) {
+                rows[i] = new Row(this.table, validate(newRows.get(i)));
+                keys[i] = key(rows[i], 0L);
+                positions[i] = out.size();
+                FieldEncoder.encode(rows[i], out);
+            }
+            out.flush();
+        } catch (final IllegalArgumentException ex) {
+            throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Value cannot be stored", ex);
+        } catch (final IOException ex) {
+            throw new PersistenceException(EFailureCode.IMPLEMENTATION_ERROR, "Unable to encode row", ex);
+        }
+
+        checkUnique(snap, removed, rows, keys);
+
+        return new PendingWrite(removed, bytes.toByteArray(), positions, keys);
+    }
+
+    /**
+     * Validates the values of a row.
+     *
+     * @param values the values (converted in place from {@code NullValue.INSTANCE} to {@code null})
+     * @return the values
+     * @throws PersistenceException if a required value is null, or a value does not match its field's type
+     */
+    private Object[] validate(final Object[] values) throws PersistenceException {
+
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] == NullValue.INSTANCE) {
+                values[i] = null;
+            }
+            if (values[i] == null) {
+                if (this.required[i]) {
+                    final String msg = SimpleBuilder.concat("Field '", this.table.getField(i).getDef().getName(),
+                            "' may not be null");
+                    throw new PersistenceException(EFailureCode.CONSTRAINT_VIOLATION, msg, null);
+                }
+            } else if (!isOfType(this.types[i], values[i])) {
+                throw new PersistenceException(EFailureCode.MALFORMED_REQUEST, "Value does not match field type",
+                        null);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Tests whether a value has the class that represents a field type.
+     *
+     * @param type  the field type
+     * @param value the value
+     * @return true if the value's class matches the type
+     */
+    private static boolean isOfType(final EFieldType type, final Object value) {
+
+        return switch (type) {
+            case STRING -> value instanceof String;
+            case BOOLEAN -> value instanceof Boolean;
+            case BYTE -> value instanceof Byte;
+            case INTEGER -> value instanceof Integer;
+            case LONG -> value instanceof Long;
+            case FLOAT -> value instanceof Float;
+            case DOUBLE -> value instanceof Double;
+            case LOCAL_DATE -> value instanceof LocalDate;
+            case LOCAL_TIME -> value instanceof LocalTime;
+            case LOCAL_DATE_TIME -> value instanceof LocalDateTime;
+        };
+    }
+
+    /**
+     * Checks that no two of a set of new rows, and no new row and a live row not being deleted, have the same primary
+     * key.  Live rows with the same key are found by binary search in the index and compared in full, so hash
+     * collisions are harmless.
+     *
+     * @param snap    the current snapshot
+     * @param removed the offsets of the rows being deleted, in increasing order
+     * @param rows    the new rows
+     * @param keys    the index keys of the new rows
+     * @throws PersistenceException if a primary key is duplicated, or a row could not be read
+     */
+    private void checkUnique(final StoreSnapshot snap, final long[] removed, final Row[] rows, final long[] keys)
+            throws PersistenceException {
+
+        if (this.pkFields.length > 0) {
+            final KeyIndex index = snap.index;
+            final Set<List<Object>> seen = new HashSet<>(rows.length * 2);
+
+            for (int i = 0; i < rows.length; ++i) {
+                final List<Object> pk = pkValues(rows[i]);
+                boolean duplicate = !seen.add(pk);
+
+                final int to = index.upperBound(keys[i]);
+                for (int j = index.lowerBound(keys[i]); j < to && !duplicate; ++j) {
+                    final long offset = index.offset(j);
+                    duplicate = Arrays.binarySearch(removed, offset) < 0 && pkValues(readRow(snap, offset)).equals(pk);
+                }
+
+                if (duplicate) {
+                    final String msg = SimpleBuilder.concat("Duplicate primary key in table '", this.table.getName(),
+                            "'");
+                    throw new PersistenceException(EFailureCode.CONSTRAINT_VIOLATION, msg, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the primary key values of a row.
+     *
+     * @param row the row
+     * @return the values, in key field order
+     */
+    private List<Object> pkValues(final Row row) {
+
+        final Object[] values = new Object[this.pkFields.length];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = row.getFieldValue(this.pkFields[i]);
+        }
+
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Applies a prepared write: appends its record to the write-ahead log and the segment file and publishes a new
+     * snapshot.  The caller must hold the write lock.
+     *
+     * @param write the prepared write
+     * @throws PersistenceException if the store is closed or could not be written
+     */
+    void apply(final PendingWrite write) throws PersistenceException {
+
+        if (this.closed) {
+            throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, "Store is closed", null);
+        }
+
+        final long lsn = this.segment.getLastLsn() + 1L;
+        final byte[] record = SegmentRecord.frame(lsn, write.payload);
+        try {
+            this.segment.ensureCapacity(record.length);
+            this.log.append(record);
+        } catch (final IOException ex) {
+            final String msg = SimpleBuilder.concat("Unable to write to store for table '", this.table.getName(), "'");
+            throw new PersistenceException(EFailureCode.BACKEND_UNAVAILABLE, msg, ex);
+        }
+
+        final long base = (long) this.segment.append(record, lsn) + (long) SegmentRecord.HEADER_SIZE;
+        final int numRows = write.positions.length;
+        final long[] offsets = new long[numRows];
+        final long[] keys = new long[numRows];
+        for (int i = 0; i < numRows; ++i) {
+            offsets[i] = base + (long) write.positions[i];
+            keys[i] = this.pkFields.length == 0 ? offsets[i] : write.keys[i];
+        }
+
+        final KeyIndex index = this.snapshot.index.apply(write.removed, keys, offsets);
+        this.snapshot = new StoreSnapshot(this.segment.buffer(), this.segment.getEnd(), index);
+        this.dirty = true;
+
+        if (this.log.size() > CHECKPOINT_LOG_SIZE) {
+            try {
+                checkpoint();
+            } catch (final IOException ex) {
+                Log.warning("Checkpoint of table '", this.table.getName(), "' failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Takes a checkpoint if there have been writes since the last, or compacts the segment file if enough of its rows
+     * have been deleted.  Called periodically from a background thread.
+     *
+     * @throws IOException if the files could not be written
+     */
+    void maintain() throws IOException {
+
+        this.writeLock.lock();
+        try {
+            if (!this.closed) {
+                final KeyIndex index = this.snapshot.index;
+                if (index.deadCount >= MIN_DEAD_TO_COMPACT && index.deadCount > index.size) {
+                    compact();
+                } else if (this.dirty) {
+                    checkpoint();
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the segment file to disk, writes the index file, and empties the write-ahead log.  The caller must hold
+     * the write lock.
+     *
+     * @throws IOException if the files could not be written
+     */
+    private void checkpoint() throws IOException {
+
+        this.segment.force();
+
+        final StoreSnapshot snap = this.snapshot;
+        final KeyIndex index = snap.index.write(this.dir.resolve(INDEX_FILE), this.segment.getLastLsn());
+        this.snapshot = new StoreSnapshot(snap.buffer, snap.end, index);
+
+        this.log.truncate();
+        this.dirty = false;
+    }
+
+    /**
+     * Compacts the segment file: copies the live rows, in index order, to a new file whose base LSN is the current
+     * LSN, and replaces the segment file with it.  The index file is removed first, so a crash before the new index is
+     * written leads to a rebuild rather than an index that does not match the file.  The caller must hold the write
+     * lock.
+     *
+     * @throws IOException if the files could not be written
+     */
+    private void compact() throws IOException {
+
+        checkpoint();
+
+        final StoreSnapshot snap = this.snapshot;
+        final KeyIndex index = snap.index;
+        final long lsn = this.segment.getLastLsn();
+        final Path segmentPath = this.dir.resolve(SEGMENT_FILE);
+        final Path compactPath = this.dir.resolve(COMPACT_FILE);
+        final Path indexPath = this.dir.resolve(INDEX_FILE);
+        final long[] pairs = new long[2 * index.size];
+        final long liveBytes = (long) snap.end * (long) index.size / (long) (index.size + index.deadCount);
+
+        try (final SegmentFile out = SegmentFile.create(compactPath, lsn, (int) liveBytes + MAX_COMPACT_PAYLOAD / 16)) {
+            final ByteArrayOutputStream chunk = new ByteArrayOutputStream(MAX_COMPACT_PAYLOAD + 1024);
+            chunk.write(new byte[4]);
+            int first = 0;
+            for (int i = 0; i < index.size; ++i) {
+                final int offset = (int) index.offset(i);
+                final int length = rowLength(snap, offset);
+                pairs[2 * i] = index.key(i);
+                pairs[2 * i + 1] = (long) chunk.size();
+                final byte[] row = new byte[length];
+                snap.buffer.get(offset, row);
+                chunk.write(row);
+                if (chunk.size() >= MAX_COMPACT_PAYLOAD) {
+                    flushChunk(out, chunk, lsn, pairs, first, i + 1);
+                    first = i + 1;
+                }
+            }
+            if (first < index.size) {
+                flushChunk(out, chunk, lsn, pairs, first, index.size);
+            }
+            out.force();
+        }
+
+        Files.deleteIfExists(indexPath);
+        Files.move(compactPath, segmentPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        final SegmentFile reopened = SegmentFile.open(segmentPath);
+        this.segment.close();
+        this.segment = reopened;
+
+        final KeyIndex newIndex = KeyIndex.sorted(pairs, index.size).write(indexPath, lsn);
+        this.snapshot = new StoreSnapshot(reopened.buffer(), reopened.getEnd(), newIndex);
+
+        final String deadStr = Integer.toString(index.deadCount);
+        Log.info("Compacted store for table '", this.table.getName(), "', removing ", deadStr, " deleted rows.");
+    }
+
+    /**
+     * Finds the encoded length of a row by decoding it.
+     *
+     * @param snap   the snapshot
+     * @param offset the offset of the row
+     * @return the length (bytes)
+     * @throws IOException if the row could not be decoded
+     */
+    private int rowLength(final StoreSnapshot snap, final int offset) throws IOException {
+
+        final BufferInputStream in = new BufferInputStream(snap.buffer, offset, snap.end);
+        try {
+            FieldDecoder.decodeRow(in, this.table);
+        } catch (final IllegalArgumentException | DateTimeException ex) {
+            throw new IOException("Damaged row in segment file of table '" + this.table.getName() + "'", ex);
+        }
+
+        return in.getPosition() - offset;
+    }
+
+    /**
+     * Writes a chunk of rows to a compacted segment file as one record, converts the rows' positions in the chunk to
+     * offsets in the file, and starts a new chunk.
+     *
+     * @param out   the compacted segment file
+     * @param chunk the chunk (a 4-byte zero count of deleted rows followed by rows)
+     * @param lsn   the LSN of the record
+     * @param pairs the index entries, whose offsets hold positions in the chunk for the rows in the chunk
+     * @param from  the index of the first entry in the chunk
+     * @param to    the index past the last entry in the chunk
+     * @throws IOException if the file could not be written
+     */
+    private static void flushChunk(final SegmentFile out, final ByteArrayOutputStream chunk, final long lsn,
+                                   final long[] pairs, final int from, final int to) throws IOException {
+
+        final byte[] record = SegmentRecord.frame(lsn, chunk.toByteArray());
+        out.ensureCapacity(record.length);
+        final long base = (long) out.append(record, lsn) + (long) SegmentRecord.HEADER_SIZE;
+
+        for (int i = from; i < to; ++i) {
+            pairs[2 * i + 1] += base;
+        }
+
+        chunk.reset();
+        chunk.write(new byte[4]);
+    }
+
+    /**
+     * Converts a list of offsets to a sorted array.
+     *
+     * @param offsets the offsets
+     * @return the sorted array
+     */
+    private static long[] sorted(final List<Long> offsets) {
+
+        final long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = offsets.get(i).longValue();
+        }
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    /**
+     * Closes the table, taking a checkpoint if there have been writes since the last.  Readers holding a snapshot
+     * can still read it; later writes fail.
+     *
+     * @throws IOException if the checkpoint failed or the files could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.writeLock.lock();
+        try {
+            if (!this.closed) {
+                this.closed = true;
+                try {
+                    if (this.dirty) {
+                        checkpoint();
+                    }
+                } finally {
+                    this.log.close();
+                    this.segment.close();
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("StoreTable{table=", this.table.getName(), ", dir=", this.dir, ", snapshot=",
+                this.snapshot, "}");
+    }
+
+    /**
+     * A receiver of the rows a selection finds.
+     */
+    @FunctionalInterface
+    private interface RowSink {
+
+        /**
+         * Accepts a row.
+         *
+         * @param offset the offset of the row in the segment file
+         * @param row    the row
+         */
+        void accept(long offset, Row row);
+    }
+
+    /**
+     * A write that has been validated and encoded but not yet applied.
+     */
+    static final class PendingWrite {
+
+        /** The offsets of the rows the write deletes, in increasing order. */
+        final long[] removed;
+
+        /** The record payload. */
+        final byte[] payload;
+
+        /** The position of each inserted row in the payload. */
+        final int[] positions;
+
+        /** The index key of each inserted row (unused for tables with no key fields). */
+        final long[] keys;
+
+        /**
+         * Constructs a new {@code PendingWrite}.
+         *
+         * @param theRemoved   the offsets of the rows the write deletes, in increasing order
+         * @param thePayload   the record payload
+         * @param thePositions the position of each inserted row in the payload
+         * @param theKeys      the index key of each inserted row
+         */
+        PendingWrite(final long[] theRemoved, final byte[] thePayload, final int[] thePositions,
+                     final long[] theKeys) {
+
+            this.removed = theRemoved;
+            this.payload = thePayload;
+            this.positions = thePositions;
+            this.keys = theKeys;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dev.mathops.persistence.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The write-ahead log of a table: each record is written here and forced to disk before it is written to the
+ * memory-mapped segment file, whose pages the operating system writes back in no particular order.  After a crash,
+ * records in the log that the segment file does not hold intact are copied to it.  The log is emptied whenever the
+ * segment file has been forced to disk.
+ */
+final class WriteAheadLog implements AutoCloseable {
+
+    /** The file channel. */
+    private final FileChannel channel;
+
+    /** The size of the log (bytes). */
+    private long size;
+
+    /**
+     * Opens a write-ahead log, creating it if it does not exist.
+     *
+     * @param path the path of the log file
+     * @throws IOException if the file could not be opened
+     */
+    WriteAheadLog(final Path path) throws IOException {
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.size = this.channel.size();
+    }
+
+    /**
+     * Reads the valid records in the log, up to the first that is incomplete or damaged.
+     *
+     * @return the records, in order
+     * @throws IOException if the file could not be read
+     */
+    List<byte[]> readRecords() throws IOException {
+
+        final List<byte[]> result = new ArrayList<>(10);
+
+        if (this.size > 0L) {
+            final int len = (int) Math.min(this.size, (long) Integer.MAX_VALUE);
+            final ByteBuffer buf = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, (long) len);
+
+            int pos = 0;
+            int recordLen = SegmentRecord.check(buf, pos, len);
+            while (recordLen > 0) {
+                final byte[] record = new byte[recordLen];
+                buf.get(pos, record);
+                result.add(record);
+                pos += recordLen;
+                recordLen = SegmentRecord.check(buf, pos, len);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Appends a record and forces it to disk.
+     *
+     * @param record the record
+     * @throws IOException if the record could not be written
+     */
+    void append(final byte[] record) throws IOException {
+
+        final ByteBuffer buf = ByteBuffer.wrap(record);
+        long pos = this.size;
+        while (buf.hasRemaining()) {
+            pos += (long) this.channel.write(buf, pos);
+        }
+        this.channel.force(false);
+        this.size = pos;
+    }
+
+    /**
+     * Gets the size of the log.
+     *
+     * @return the size (bytes)
+     */
+    long size() {
+
+        return this.size;
+    }
+
+    /**
+     * Empties the log.  Called only once the segment file holds every record in the log and has been forced to disk.
+     *
+     * @throws IOException if the file could not be truncated
+     */
+    void truncate() throws IOException {
+
+        this.channel.truncate(0L);
+        this.channel.force(true);
+        this.size = 0L;
+    }
+
+    /**
+     * Closes the log file.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.channel.close();
+    }
+}
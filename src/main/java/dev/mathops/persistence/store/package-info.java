@@ -0,0 +1,5 @@
+/**
+ * An implementation that keeps tables in memory-mapped files on local disk, for data that is read often and written
+ * rarely (such as archived terms) and needs no database server.
+ */
+package dev.mathops.persistence.store;
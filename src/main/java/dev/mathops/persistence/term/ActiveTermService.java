@@ -0,0 +1,338 @@
+package dev.mathops.persistence.term;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.UpdatedValues;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the active term from an immutable in-memory snapshot of the "term" table (see {@code TermSnapshot}), and
+ * rolls the active indexes over when a term ends.
+ *
+ * <p>
+ * Readers get the current snapshot from a volatile field, so looking up the active term, or the term with a given
+ * active index or containing a given date, takes no lock and makes no query.  A snapshot never changes once it is
+ * published; each refresh builds a new one and replaces the old one in a single write, so a reader sees either all the
+ * terms before a rollover or all the terms after it, never a mix.
+ *
+ * <p>
+ * A refresh reads the "term" table, computes the active index each term should have on the current date (0 for the
+ * term that contains the date, and the difference in position from that term for the others), and writes any that
+ * differ back to the table.  Since the indexes are computed from the term dates rather than incremented, a refresh is
+ * idempotent: if several servers refresh at the same boundary, they all write the same values.  Implementations do not
+ * support transactions that span several statements, so the rows are updated one at a time; if an update fails, the
+ * rows already changed are set back to their prior values and the prior snapshot is kept.  The new snapshot is
+ * published only after every row has been written.
+ *
+ * <p>
+ * Refreshes are scheduled at midnight at the start of the day after the active term ends (or on the first day of the
+ * next term, between terms), and periodically to pick up changes made by other servers or administrators.  Listeners
+ * (such as those that invalidate cached responses for the "term" table) are notified only when a refresh changes the
+ * terms or their active indexes.
+ */
+public final class ActiveTermService implements AutoCloseable {
+
+    /** How often the "term" table is read again, apart from refreshes at term boundaries. */
+    private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(5L);
+
+    /** The thread that refreshes snapshots for all services. */
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "active-term");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The implementation that holds the "term" table. */
+    private final IImplementation impl;
+
+    /** The context that holds the "term" table. */
+    private final String context;
+
+    /** The time zone in which term dates are interpreted. */
+    private final ZoneId zone;
+
+    /** The listeners to notify when a changed snapshot is published. */
+    private final List<ITermListener> listeners;
+
+    /** A lock held while a refresh reads, updates, and publishes, so refreshes do not overlap. */
+    private final ReentrantLock updateLock;
+
+    /** The current snapshot. */
+    private volatile TermSnapshot snapshot;
+
+    /** The periodic refresh; {@code null} if not started. */
+    private ScheduledFuture<?> periodic;
+
+    /** The refresh scheduled at the next term boundary; {@code null} if none. */
+    private ScheduledFuture<?> rollover;
+
+    /** True once the service has been closed, after which no refreshes are scheduled. */
+    private boolean closed;
+
+    /**
+     * Constructs a new {@code ActiveTermService}.  The snapshot is empty until the first refresh.
+     *
+     * @param theImpl    the implementation that holds the "term" table
+     * @param theContext the context that holds the "term" table
+     * @param theZone    the time zone in which term dates are interpreted
+     */
+    public ActiveTermService(final IImplementation theImpl, final String theContext, final ZoneId theZone) {
+
+        this.impl = theImpl;
+        this.context = theContext;
+        this.zone = theZone;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.updateLock = new ReentrantLock();
+        this.snapshot = TermSnapshot.EMPTY;
+    }
+
+    /**
+     * Gets the current snapshot.
+     *
+     * @return the snapshot
+     */
+    public TermSnapshot getSnapshot() {
+
+        return this.snapshot;
+    }
+
+    /**
+     * Adds a listener to notify when a changed snapshot is published.
+     *
+     * @param listener the listener
+     */
+    public void addListener(final ITermListener listener) {
+
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(final ITermListener listener) {
+
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Refreshes the snapshot, then starts periodic refreshes on the background thread.
+     *
+     * @throws PersistenceException if the "term" table could not be read or updated
+     */
+    public void start() throws PersistenceException {
+
+        refresh();
+
+        this.updateLock.lock();
+        try {
+            if (this.periodic == null && !this.closed) {
+                final long interval = REFRESH_INTERVAL.toMillis();
+                this.periodic = SCHEDULER.scheduleWithFixedDelay(this::refreshScheduled, interval, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the "term" table, rolls the active indexes over if they do not match the current date, and publishes a
+     * new snapshot if anything changed.
+     *
+     * @return the current snapshot after the refresh
+     * @throws PersistenceException if the "term" table could not be read or updated (the prior snapshot is kept)
+     */
+    public TermSnapshot refresh() throws PersistenceException {
+
+        this.updateLock.lock();
+        try {
+            final TermSnapshot current = this.snapshot;
+
+            final List<Row> rows = new ArrayList<>(20);
+            this.impl.query(this.context, TermTable.INSTANCE, null, rows);
+            TermSnapshot next = TermSnapshot.build(rows, current.version);
+
+            final LocalDate today = LocalDate.now(this.zone);
+            final int[] indexes = next.indexesFor(today);
+            if (indexes != null && writeIndexes(next, indexes)) {
+                next = next.withActiveIndexes(indexes, current.version);
+            }
+
+            if (!next.sameContents(current)) {
+                next = next.withVersion(current.version + 1L);
+                this.snapshot = next;
+                Log.info("Published term snapshot ", next.toString(), ".");
+                notifyListeners(next);
+            }
+
+            scheduleRollover(next, today);
+        } finally {
+            this.updateLock.unlock();
+        }
+
+        return this.snapshot;
+    }
+
+    /**
+     * Writes the active indexes that differ from those stored in the "term" table.  If a write fails, the rows already
+     * written are set back to their prior values.
+     *
+     * @param stored  the snapshot of the rows as stored
+     * @param indexes the active index each term should have, in order of start date
+     * @return true if any rows were written
+     * @throws PersistenceException if a row could not be written
+     */
+    private boolean writeIndexes(final TermSnapshot stored, final int[] indexes) throws PersistenceException {
+
+        final int numTerms = stored.getNumTerms();
+        final List<Integer> written = new ArrayList<>(numTerms);
+
+        try {
+            for (int i = 0; i < numTerms; ++i) {
+                if (stored.getActiveIndex(i) != indexes[i]) {
+                    writeIndex(stored.getTermId(i), indexes[i]);
+                    written.add(Integer.valueOf(i));
+                }
+            }
+        } catch (final PersistenceException ex) {
+            for (final Integer pos : written) {
+                final int termId = stored.getTermId(pos.intValue());
+                try {
+                    writeIndex(termId, stored.getActiveIndex(pos.intValue()));
+                } catch (final PersistenceException ex2) {
+                    Log.warning("Failed to restore active index of term ", Integer.toString(termId), ".", ex2);
+                }
+            }
+            throw ex;
+        }
+
+        if (!written.isEmpty()) {
+            final String countStr = Integer.toString(written.size());
+            Log.info("Rolled over active indexes of ", countStr, " terms.");
+        }
+
+        return !written.isEmpty();
+    }
+
+    /**
+     * Writes the active index of one term.
+     *
+     * @param termId      the term ID
+     * @param activeIndex the active index
+     * @throws PersistenceException if the row could not be written
+     */
+    private void writeIndex(final int termId, final int activeIndex) throws PersistenceException {
+
+        final Object[] values = new Object[TermTable.INSTANCE.getNumFields()];
+        values[TermFields.TERM_ACTIVE_INDEX] = Integer.valueOf(activeIndex);
+
+        this.impl.update(this.context, TermTable.INSTANCE, TermTable.INSTANCE.mkTermIdQuery(termId),
+                new UpdatedValues(TermTable.INSTANCE, values));
+    }
+
+    /**
+     * Notifies listeners of a new snapshot.  A listener that throws is logged and does not prevent the others from
+     * being notified.
+     *
+     * @param published the published snapshot
+     */
+    private void notifyListeners(final TermSnapshot published) {
+
+        for (final ITermListener listener : this.listeners) {
+            try {
+                listener.termsChanged(published);
+            } catch (final RuntimeException ex) {
+                Log.warning("Term listener failed.", ex);
+            }
+        }
+    }
+
+    /**
+     * Schedules a refresh at midnight at the start of the next term boundary, replacing any refresh already scheduled.
+     * This is called with the update lock held.
+     *
+     * @param published the current snapshot
+     * @param today     the current date
+     */
+    private void scheduleRollover(final TermSnapshot published, final LocalDate today) {
+
+        if (this.rollover != null) {
+            this.rollover.cancel(false);
+            this.rollover = null;
+        }
+
+        final LocalDate boundary = published.nextBoundary(today);
+        if (boundary != null && !this.closed) {
+            final ZonedDateTime when = boundary.atStartOfDay(this.zone);
+            final long delay = Math.max(0L, Duration.between(ZonedDateTime.now(this.zone), when).toMillis());
+            this.rollover = SCHEDULER.schedule(this::refreshScheduled, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Refreshes the snapshot on the background thread, logging any failure.
+     */
+    private void refreshScheduled() {
+
+        try {
+            refresh();
+        } catch (final PersistenceException ex) {
+            Log.warning("Failed to refresh active term.", ex);
+        }
+    }
+
+    /**
+     * Stops all scheduled refreshes.  The current snapshot remains available.
+     */
+    @Override
+    public void close() {
+
+        this.updateLock.lock();
+        try {
+            this.closed = true;
+            if (this.periodic != null) {
+                this.periodic.cancel(false);
+                this.periodic = null;
+            }
+            if (this.rollover != null) {
+                this.rollover.cancel(false);
+                this.rollover = null;
+            }
+        } finally {
+            this.updateLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("ActiveTermService{context=", this.context, ", snapshot=", this.snapshot, "}");
+    }
+}
@@ -0,0 +1,16 @@
+package dev.mathops.persistence.term;
+
+/**
+ * An object notified when the active term service publishes a snapshot whose terms or active indexes have changed.
+ */
+@FunctionalInterface
+public interface ITermListener {
+
+    /**
+     * Called after a changed snapshot is published.  This is called on the service's background thread (or the thread
+     * that called {@code refresh}), so it should return quickly.
+     *
+     * @param snapshot the new snapshot
+     */
+    void termsChanged(TermSnapshot snapshot);
+}
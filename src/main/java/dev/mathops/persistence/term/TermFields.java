@@ -0,0 +1,27 @@
+package dev.mathops.persistence.term;
+
+/**
+ * The indexes of the fields of the "term" and "term_week" tables that the term services and the date interval indexes
+ * read directly from rows.  These follow the order of the fields in {@code TermTable} and {@code TermWeekTable}.
+ */
+public enum TermFields {
+    ;
+
+    /** The index of the "term" field in a "term" row. */
+    public static final int TERM = 0;
+
+    /** The index of the "start_date" field in a "term" row. */
+    public static final int TERM_START_DATE = 1;
+
+    /** The index of the "end_date" field in a "term" row. */
+    public static final int TERM_END_DATE = 2;
+
+    /** The index of the "active_index" field in a "term" row. */
+    public static final int TERM_ACTIVE_INDEX = 4;
+
+    /** The index of the "start_date" field in a "term_week" row. */
+    public static final int WEEK_START_DATE = 1;
+
+    /** The index of the "end_date" field in a "term_week" row. */
+    public static final int WEEK_END_DATE = 2;
+}
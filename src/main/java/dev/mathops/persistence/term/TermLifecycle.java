@@ -0,0 +1,239 @@
+package dev.mathops.persistence.term;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.archive.TermArchiver;
+import dev.mathops.persistence.dispatch.Catalog;
+import dev.mathops.persistence.dispatch.RoutingTable;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the term services for the server: the active term service, which keeps the snapshot of the "term" table
+ * current; the provisioner, which creates and binds the schema of each term; and the archiver, which writes the
+ * schema of a term whose row has been deleted to files.
+ *
+ * <p>
+ * The services use the implementation bound to the default context of the "term" table's schema, and keep the term
+ * schemas in the same implementation.  If nothing is bound when {@code start} is called, nothing starts, and the
+ * server calls {@code start} again when its catalog changes.
+ *
+ * <p>
+ * Each time the active term service publishes a changed snapshot, terms that were not in the prior snapshot are
+ * provisioned (so all terms are provisioned when the server starts), and terms that have been removed are archived to
+ * a directory named for their context.  This work is done on a shared background thread, so the listener returns at
+ * once.  The data of an archived term is left in place, since implementations have no operation to drop a context.
+ */
+public final class TermLifecycle implements AutoCloseable {
+
+    /** The largest number of tables archived at once. */
+    private static final int ARCHIVE_PARALLELISM = 4;
+
+    /** The thread that provisions and archives terms for all lifecycles. */
+    private static final ExecutorService WORKER;
+
+    static {
+        WORKER = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "term-lifecycle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** The catalog in which term contexts are bound. */
+    private final Catalog catalog;
+
+    /** The directory under which term archives are written. */
+    private final Path archiveDir;
+
+    /** The time zone in which term dates are interpreted. */
+    private final ZoneId zone;
+
+    /** A listener to notify (after the lifecycle's own work is queued) when a changed snapshot is published. */
+    private final ITermListener cacheListener;
+
+    /** The term IDs in the last snapshot processed (only accessed on the worker thread). */
+    private final Set<Integer> knownTerms;
+
+    /** The active term service; {@code null} until started. */
+    private ActiveTermService activeTerms;
+
+    /** The provisioner; {@code null} until started. */
+    private TermProvisioner provisioner;
+
+    /** The archiver; {@code null} until started. */
+    private TermArchiver archiver;
+
+    /** True once the lifecycle has been closed. */
+    private boolean closed;
+
+    /**
+     * Constructs a new {@code TermLifecycle}.  No services run until {@code start} is called.
+     *
+     * @param theCatalog       the catalog in which term contexts are bound
+     * @param theArchiveDir    the directory under which term archives are written
+     * @param theZone          the time zone in which term dates are interpreted
+     * @param theCacheListener a listener to notify when a changed snapshot is published (for example, to invalidate
+     *                         cached responses for the "term" table, which a rollover writes directly)
+     */
+    public TermLifecycle(final Catalog theCatalog, final Path theArchiveDir, final ZoneId theZone,
+                         final ITermListener theCacheListener) {
+
+        this.catalog = theCatalog;
+        this.archiveDir = theArchiveDir;
+        this.zone = theZone;
+        this.cacheListener = theCacheListener;
+        this.knownTerms = new HashSet<>(20);
+    }
+
+    /**
+     * Starts the term services if they are not running and an implementation is bound to the "term" table's schema.
+     * The first refresh of the active term service runs on the calling thread.
+     *
+     * @return true if the services are running
+     */
+    public synchronized boolean start() {
+
+        if (this.activeTerms == null && !this.closed) {
+            final RoutingTable routes = this.catalog.getRoutes();
+            final int schemaId = routes.getSchemaId(TermTable.INSTANCE.getSchema());
+            final int contextId = schemaId < 0 ? -1 : routes.getDefaultContextId(schemaId);
+
+            if (contextId >= 0) {
+                final IImplementation impl = routes.getImplementation(schemaId, contextId);
+                final String context = routes.getContextName(contextId);
+
+                final ActiveTermService service = new ActiveTermService(impl, context, this.zone);
+                this.provisioner = new TermProvisioner(this.catalog, impl, this.zone);
+                this.archiver = new TermArchiver(impl, ARCHIVE_PARALLELISM);
+                service.addListener(this::termsChanged);
+                service.addListener(this.cacheListener);
+
+                try {
+                    service.start();
+                    this.activeTerms = service;
+                    Log.info("Started term services on context ", context, ".");
+                } catch (final PersistenceException ex) {
+                    Log.warning("Failed to start term services.", ex);
+                    service.close();
+                    this.provisioner.close();
+                }
+            }
+        }
+
+        return this.activeTerms != null;
+    }
+
+    /**
+     * Gets the active term service.
+     *
+     * @return the service; {@code null} if the term services have not started
+     */
+    public synchronized ActiveTermService getActiveTerms() {
+
+        return this.activeTerms;
+    }
+
+    /**
+     * Queues the provisioning and archiving of terms added to or removed from a published snapshot.
+     *
+     * @param snapshot the new snapshot
+     */
+    private void termsChanged(final TermSnapshot snapshot) {
+
+        WORKER.execute(() -> reconcile(snapshot));
+    }
+
+    /**
+     * Provisions terms that are new in a snapshot and archives terms that are no longer in it.  This runs on the
+     * worker thread.
+     *
+     * @param snapshot the snapshot
+     */
+    private void reconcile(final TermSnapshot snapshot) {
+
+        final int numTerms = snapshot.getNumTerms();
+        final Set<Integer> current = new HashSet<>(numTerms);
+        final List<Row> added = new ArrayList<>(numTerms);
+
+        for (int i = 0; i < numTerms; ++i) {
+            final Integer termId = Integer.valueOf(snapshot.getTermId(i));
+            current.add(termId);
+            if (!this.knownTerms.contains(termId)) {
+                added.add(snapshot.getTerm(i));
+            }
+        }
+
+        if (!added.isEmpty()) {
+            try {
+                this.provisioner.provisionAll(added);
+            } catch (final PersistenceException ex) {
+                Log.warning("Failed to provision term schemas.", ex);
+            }
+        }
+
+        for (final Integer termId : this.knownTerms) {
+            if (!current.contains(termId)) {
+                archive(termId.intValue());
+            }
+        }
+
+        this.knownTerms.clear();
+        this.knownTerms.addAll(current);
+    }
+
+    /**
+     * Archives the schema of a term whose row has been removed.
+     *
+     * @param termId the term ID
+     */
+    private void archive(final int termId) {
+
+        final String context = TermProvisioner.contextName(termId);
+        final Path dir = this.archiveDir.resolve(context);
+
+        try {
+            final long rows = this.archiver.archive(context, this.provisioner.termTables(), dir);
+            Log.info("Archived term schema ", context, " (", Long.toString(rows), " rows) to ", dir, ".");
+        } catch (final IOException | PersistenceException ex) {
+            Log.warning("Failed to archive term schema ", context, ".", ex);
+        }
+    }
+
+    /**
+     * Stops the term services.  Provisioning or archiving already queued still runs.
+     */
+    @Override
+    public synchronized void close() {
+
+        this.closed = true;
+        if (this.activeTerms != null) {
+            this.activeTerms.close();
+            this.provisioner.close();
+        }
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("TermLifecycle{archiveDir=", this.archiveDir, ", activeTerms=", this.activeTerms,
+                "}");
+    }
+}
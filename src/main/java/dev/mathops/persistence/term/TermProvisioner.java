@@ -0,0 +1,261 @@
+package dev.mathops.persistence.term;
+
+import dev.mathops.commons.log.Log;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.Table;
+import dev.mathops.persistence.IImplementation;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.persistence.api.EFailureCode;
+import dev.mathops.persistence.dispatch.Catalog;
+import dev.mathops.persistence.dispatch.RoutingTable;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions the schema of each term: every row in the "term" table has a matching context (such as "term202590") of
+ * the "term" schema.
+ *
+ * <p>
+ * Provisioning a term creates the storage for the term schema's tables in the implementation (see
+ * {@code IImplementation.provision}) and then binds the term's context in the catalog, so the new routing snapshot is
+ * only published once the tables exist.  Provisioning is idempotent, so all terms can be provisioned again when the
+ * server starts.
+ *
+ * <p>
+ * A term is also warmed (see {@code IImplementation.warm}) shortly before it becomes active, at midnight at the start
+ * of its first day, so the requests that arrive just after the rollover find open connections, generated SQL, and
+ * prepared statements rather than all waiting to create them.  Warming is done on a shared background thread.
+ */
+public final class TermProvisioner implements AutoCloseable {
+
+    /** The name of the schema provisioned for each term. */
+    public static final String TERM_SCHEMA = "term";
+
+    /** The prefix of the context name of each term. */
+    private static final String CONTEXT_PREFIX = "term";
+
+    /** How long before a term becomes active it is warmed. */
+    private static final Duration WARM_LEAD = Duration.ofMinutes(2L);
+
+    /** The thread that warms terms for all provisioners. */
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "term-provisioner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    /** The catalog in which term contexts are bound. */
+    private final Catalog catalog;
+
+    /** The implementation that holds term schemas. */
+    private final IImplementation impl;
+
+    /** The time zone in which term dates are interpreted. */
+    private final ZoneId zone;
+
+    /** A map from term ID to the scheduled warming of that term. */
+    private final Map<Integer, ScheduledFuture<?>> scheduled;
+
+    /**
+     * Constructs a new {@code TermProvisioner}.
+     *
+     * @param theCatalog the catalog in which term contexts are bound
+     * @param theImpl    the implementation that holds term schemas
+     * @param theZone    the time zone in which term dates are interpreted
+     */
+    public TermProvisioner(final Catalog theCatalog, final IImplementation theImpl, final ZoneId theZone) {
+
+        this.catalog = theCatalog;
+        this.impl = theImpl;
+        this.zone = theZone;
+        this.scheduled = new ConcurrentHashMap<>(4);
+    }
+
+    /**
+     * Gets the name of the context that holds a term's data.
+     *
+     * @param termId the term ID (such as 202590)
+     * @return the context name (such as "term202590")
+     */
+    public static String contextName(final int termId) {
+
+        return CONTEXT_PREFIX + termId;
+    }
+
+    /**
+     * Gets the tables of the term schema from the current routing snapshot.
+     *
+     * @return the tables
+     * @throws PersistenceException if the catalog has no term schema
+     */
+    List<Table> termTables() throws PersistenceException {
+
+        final RoutingTable routes = this.catalog.getRoutes();
+        final int schemaId = routes.getSchemaId(TERM_SCHEMA);
+        if (schemaId < 0) {
+            throw new PersistenceException(EFailureCode.NOT_FOUND, "Catalog has no term schema", null);
+        }
+
+        final int numTables = routes.getNumTables(schemaId);
+        final List<Table> result = new ArrayList<>(numTables);
+        for (int i = 0; i < numTables; ++i) {
+            final Table table = routes.getTable(schemaId, i);
+            if (table != null) {
+                result.add(table);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Provisions a term: creates the storage for the term schema's tables, then binds the term's context.
+     *
+     * @param termId the term ID
+     * @return the context name
+     * @throws PersistenceException if the catalog has no term schema or the storage could not be created
+     */
+    public String provision(final int termId) throws PersistenceException {
+
+        final String context = contextName(termId);
+
+        this.impl.provision(context, termTables());
+        this.catalog.bind(TERM_SCHEMA, context, this.impl);
+        Log.info("Provisioned term schema ", context, ".");
+
+        return context;
+    }
+
+    /**
+     * Warms a term's context.
+     *
+     * @param termId the term ID
+     * @throws PersistenceException if the catalog has no term schema or the context could not be warmed
+     */
+    public void warm(final int termId) throws PersistenceException {
+
+        final String context = contextName(termId);
+
+        this.impl.warm(context, termTables());
+        Log.info("Warmed term schema ", context, ".");
+    }
+
+    /**
+     * Schedules a term to be warmed shortly before midnight at the start of its first day (or at once, if that time
+     * has passed).  Any warming already scheduled for the term is replaced.
+     *
+     * @param termId    the term ID
+     * @param startDate the first day of the term
+     */
+    public void scheduleWarm(final int termId, final LocalDate startDate) {
+
+        final ZonedDateTime when = startDate.atStartOfDay(this.zone).minus(WARM_LEAD);
+        final long delay = Math.max(0L, Duration.between(ZonedDateTime.now(this.zone), when).toMillis());
+
+        final ScheduledFuture<?> future = SCHEDULER.schedule(() -> warmScheduled(termId), delay,
+                TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> previous = this.scheduled.put(Integer.valueOf(termId), future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Warms a term on the background thread, logging any failure.
+     *
+     * @param termId the term ID
+     */
+    private void warmScheduled(final int termId) {
+
+        this.scheduled.remove(Integer.valueOf(termId));
+        try {
+            warm(termId);
+        } catch (final PersistenceException ex) {
+            Log.warning("Failed to warm term schema ", contextName(termId), ".", ex);
+        }
+    }
+
+    /**
+     * Provisions every term in a list of "term" rows (as when the server starts), warms the term that contains the
+     * current date, and schedules the next term to be warmed before it becomes active.
+     *
+     * @param termRows the rows of the "term" table (rows of other tables are ignored)
+     * @return the number of terms provisioned
+     * @throws PersistenceException if a term could not be provisioned or warmed
+     */
+    public int provisionAll(final List<Row> termRows) throws PersistenceException {
+
+        final LocalDate today = LocalDate.now(this.zone);
+
+        int count = 0;
+        int currentTerm = -1;
+        int nextTerm = -1;
+        LocalDate nextStart = null;
+
+        for (final Row row : termRows) {
+            if (row.getTable() == TermTable.INSTANCE
+                && row.getFieldValue(TermFields.TERM) instanceof final Integer termId
+                && row.getFieldValue(TermFields.TERM_START_DATE) instanceof final LocalDate start
+                && row.getFieldValue(TermFields.TERM_END_DATE) instanceof final LocalDate end) {
+                provision(termId.intValue());
+                ++count;
+
+                if (!today.isBefore(start) && !today.isAfter(end)) {
+                    currentTerm = termId.intValue();
+                } else if (start.isAfter(today) && (nextStart == null || start.isBefore(nextStart))) {
+                    nextTerm = termId.intValue();
+                    nextStart = start;
+                }
+            }
+        }
+
+        if (currentTerm >= 0) {
+            warm(currentTerm);
+        }
+        if (nextStart != null) {
+            scheduleWarm(nextTerm, nextStart);
+        }
+
+        return count;
+    }
+
+    /**
+     * Cancels all scheduled warming.
+     */
+    @Override
+    public void close() {
+
+        for (final ScheduledFuture<?> future : this.scheduled.values()) {
+            future.cancel(false);
+        }
+        this.scheduled.clear();
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        return SimpleBuilder.concat("TermProvisioner{impl=", this.impl, ", scheduled=", this.scheduled.keySet(), "}");
+    }
+}
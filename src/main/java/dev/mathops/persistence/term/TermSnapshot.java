@@ -0,0 +1,326 @@
+package dev.mathops.persistence.term;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.persistence.dispatch.DateIntervalIndex;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.text.builder.SimpleBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the rows of the "term" table, indexed by active index and by date.
+ *
+ * <p>
+ * Terms are held in a {@code DateIntervalIndex}, in order of start date, with each term's ID and active index in
+ * parallel arrays.  When the active indexes are consecutive (as they are once the terms have been rolled over), the
+ * term with a given active index is found by subtraction; the term that contains a date is found by binary search on
+ * the start days.
+ */
+public final class TermSnapshot {
+
+    /** A snapshot with no terms. */
+    static final TermSnapshot EMPTY = new TermSnapshot(0L, DateIntervalIndex.EMPTY);
+
+    /** The snapshot version, which increases each time a changed snapshot is published. */
+    public final long version;
+
+    /** The term rows, indexed by date range (positions are in order of start date). */
+    private final DateIntervalIndex terms;
+
+    /** The term IDs. */
+    private final int[] termIds;
+
+    /** The active index of each term. */
+    private final int[] activeIndexes;
+
+    /** True if each term's active index is one more than that of the term before it. */
+    private final boolean consecutive;
+
+    /**
+     * Constructs a new {@code TermSnapshot}.
+     *
+     * @param theVersion the snapshot version
+     * @param theTerms   the term rows, indexed by date range
+     */
+    private TermSnapshot(final long theVersion, final DateIntervalIndex theTerms) {
+
+        this.version = theVersion;
+        this.terms = theTerms;
+
+        final int numTerms = theTerms.size();
+        this.termIds = new int[numTerms];
+        this.activeIndexes = new int[numTerms];
+
+        boolean isConsecutive = true;
+        for (int i = 0; i < numTerms; ++i) {
+            final Row row = theTerms.get(i);
+            this.termIds[i] = ((Integer) row.getFieldValue(TermFields.TERM)).intValue();
+            this.activeIndexes[i] = ((Integer) row.getFieldValue(TermFields.TERM_ACTIVE_INDEX)).intValue();
+            if (i > 0 && this.activeIndexes[i] != this.activeIndexes[i - 1] + 1) {
+                isConsecutive = false;
+            }
+        }
+        this.consecutive = isConsecutive;
+    }
+
+    /**
+     * Builds a snapshot from the rows of the "term" table.  Rows of other tables, and rows missing a term ID, start
+     * date, end date, or active index, are ignored.
+     *
+     * @param rows       the rows
+     * @param theVersion the snapshot version
+     * @return the snapshot
+     */
+    static TermSnapshot build(final List<Row> rows, final long theVersion) {
+
+        final List<Row> valid = new ArrayList<>(rows.size());
+        for (final Row row : rows) {
+            if (row.getTable() == TermTable.INSTANCE && row.getFieldValue(TermFields.TERM) instanceof Integer
+                && row.getFieldValue(TermFields.TERM_ACTIVE_INDEX) instanceof Integer) {
+                valid.add(row);
+            }
+        }
+
+        final DateIntervalIndex index = DateIntervalIndex.build(valid, TermFields.TERM_START_DATE,
+                TermFields.TERM_END_DATE);
+
+        return new TermSnapshot(theVersion, index);
+    }
+
+    /**
+     * Creates a copy of this snapshot with new active indexes.
+     *
+     * @param indexes    the active index of each term, in order of start date
+     * @param theVersion the version of the new snapshot
+     * @return the new snapshot
+     */
+    TermSnapshot withActiveIndexes(final int[] indexes, final long theVersion) {
+
+        final int numTerms = this.terms.size();
+        final List<Row> newTerms = new ArrayList<>(numTerms);
+
+        for (int i = 0; i < numTerms; ++i) {
+            final Row row = this.terms.get(i);
+            final int numFields = row.getTable().getNumFields();
+            final Object[] values = new Object[numFields];
+            for (int j = 0; j < numFields; ++j) {
+                values[j] = row.getFieldValue(j);
+            }
+            values[TermFields.TERM_ACTIVE_INDEX] = Integer.valueOf(indexes[i]);
+            newTerms.add(new Row(row.getTable(), values));
+        }
+
+        final DateIntervalIndex index = DateIntervalIndex.build(newTerms, TermFields.TERM_START_DATE,
+                TermFields.TERM_END_DATE);
+
+        return new TermSnapshot(theVersion, index);
+    }
+
+    /**
+     * Creates a copy of this snapshot with a new version.
+     *
+     * @param theVersion the version of the new snapshot
+     * @return the new snapshot
+     */
+    TermSnapshot withVersion(final long theVersion) {
+
+        return new TermSnapshot(theVersion, this.terms);
+    }
+
+    /**
+     * Tests whether this snapshot holds the same terms, dates, and active indexes as another.
+     *
+     * @param other the other snapshot
+     * @return true if the contents are the same
+     */
+    boolean sameContents(final TermSnapshot other) {
+
+        return Arrays.equals(this.termIds, other.termIds) && this.terms.sameRanges(other.terms)
+               && Arrays.equals(this.activeIndexes, other.activeIndexes);
+    }
+
+    /**
+     * Computes the active index each term should have on a date: 0 for the term that contains the date, and the
+     * difference in position from that term for the others.
+     *
+     * @param date the date
+     * @return the active index of each term, in order of start date; {@code null} if no term contains the date
+     */
+    int[] indexesFor(final LocalDate date) {
+
+        int[] result = null;
+
+        final int pos = this.terms.positionOf(date.toEpochDay());
+        if (pos >= 0) {
+            final int numTerms = this.terms.size();
+            result = new int[numTerms];
+            for (int i = 0; i < numTerms; ++i) {
+                result[i] = i - pos;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the date on which the active term next changes after a date: the day after the last day of the term that
+     * contains the date, or the first day of the next term to start if no term contains it.
+     *
+     * @param date the date
+     * @return the date of the next change; {@code null} if there is none
+     */
+    LocalDate nextBoundary(final LocalDate date) {
+
+        LocalDate result = null;
+
+        final long day = date.toEpochDay();
+        final int pos = this.terms.positionOf(day);
+        if (pos >= 0) {
+            result = LocalDate.ofEpochDay(this.terms.getEndDay(pos) + 1L);
+        } else {
+            final int next = this.terms.positionAfter(day);
+            if (next >= 0) {
+                result = LocalDate.ofEpochDay(this.terms.getStartDay(next));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the position of the term with an active index.
+     *
+     * @param activeIndex the active index
+     * @return the position; -1 if no term has the active index
+     */
+    private int positionOfIndex(final int activeIndex) {
+
+        int result = -1;
+
+        if (this.consecutive) {
+            if (this.terms.size() > 0) {
+                final long pos = (long) activeIndex - (long) this.activeIndexes[0];
+                if (pos >= 0L && pos < (long) this.terms.size()) {
+                    result = (int) pos;
+                }
+            }
+        } else {
+            for (int i = 0; i < this.terms.size(); ++i) {
+                if (this.activeIndexes[i] == activeIndex) {
+                    result = i;
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the ID of a term by position.
+     *
+     * @param pos the position, in order of start date
+     * @return the term ID
+     */
+    int getTermId(final int pos) {
+
+        return this.termIds[pos];
+    }
+
+    /**
+     * Gets the active index of a term by position.
+     *
+     * @param pos the position, in order of start date
+     * @return the active index
+     */
+    int getActiveIndex(final int pos) {
+
+        return this.activeIndexes[pos];
+    }
+
+    /**
+     * Gets the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int getNumTerms() {
+
+        return this.terms.size();
+    }
+
+    /**
+     * Gets a term by position.
+     *
+     * @param pos the position, in order of start date
+     * @return the term row
+     */
+    public Row getTerm(final int pos) {
+
+        return this.terms.get(pos);
+    }
+
+    /**
+     * Gets the term with an active index.
+     *
+     * @param activeIndex the active index (0 for the active term, 1 for the next, -1 for the prior, and so on)
+     * @return the term row; {@code null} if no term has the active index
+     */
+    public Row getByActiveIndex(final int activeIndex) {
+
+        final int pos = positionOfIndex(activeIndex);
+
+        return pos < 0 ? null : this.terms.get(pos);
+    }
+
+    /**
+     * Gets the active term.
+     *
+     * @return the term row; {@code null} if no term has active index 0
+     */
+    public Row getActiveTerm() {
+
+        return getByActiveIndex(0);
+    }
+
+    /**
+     * Gets the ID of the active term.
+     *
+     * @return the term ID; -1 if no term has active index 0
+     */
+    public int getActiveTermId() {
+
+        final int pos = positionOfIndex(0);
+
+        return pos < 0 ? -1 : this.termIds[pos];
+    }
+
+    /**
+     * Gets the term that contains a date.
+     *
+     * @param date the date
+     * @return the term row; {@code null} if no term contains the date
+     */
+    public Row getForDate(final LocalDate date) {
+
+        return this.terms.find(date);
+    }
+
+    /**
+     * Generates a diagnostic string representation of the object.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+
+        final String versionStr = Long.toString(this.version);
+        final String idsStr = Arrays.toString(this.termIds);
+        final String indexesStr = Arrays.toString(this.activeIndexes);
+
+        return SimpleBuilder.concat("TermSnapshot{version=", versionStr, ", terms=", idsStr, ", activeIndexes=",
+                indexesStr, "}");
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Services for the term structure: provisioning the schema of each new term, preparing it before the term becomes
+ * active, serving the active term from memory as terms roll over, and archiving the schema of a removed term.
+ */
+package dev.mathops.persistence.term;
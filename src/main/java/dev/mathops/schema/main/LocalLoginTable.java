@@ -4,8 +4,11 @@ import dev.mathops.db.table.EFieldRole;
 import dev.mathops.db.table.EFieldType;
 import dev.mathops.db.table.Field;
 import dev.mathops.db.table.FieldDef;
+import dev.mathops.db.table.SelectionCriteria;
 import dev.mathops.db.table.Table;
 import dev.mathops.db.table.constraint.StringLengthConstraint;
+import dev.mathops.db.table.criteria.EStringMatchType;
+import dev.mathops.db.table.criteria.StringFieldCriterion;
 
 /**
  * The "LocalLogin" table specification within the "system" schema of the "main" tablespace.
@@ -116,4 +119,15 @@ public final class LocalLoginTable extends Table {
                 F_SERVER_KEY, F_WHEN_CREATED, F_WHEN_EXPIRES, F_WHEN_LAST_LOGGED_IN, F_WHEN_LAST_FAILED,
                 F_NBR_FAILED_LOGINS, F_FORCE_PWD_CHANGE);
     }
+
+    /**
+     * Creates a {@code SelectionCriteria} object that matches on a specified login name.
+     *
+     * @param theLogin the login name for which to query
+     * @return the selection criteria
+     */
+    public SelectionCriteria mkLoginQuery(final String theLogin) {
+
+        return new SelectionCriteria(this, new StringFieldCriterion(F_LOGIN, EStringMatchType.EXACT_IN, theLogin));
+    }
 }
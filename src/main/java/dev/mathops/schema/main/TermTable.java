@@ -71,7 +71,7 @@ public final class TermTable extends Table {
      * for the prior term, -2 for the term prior to the prior term, etc.  At each transition between terms, all records
      * are updated to increment their active index.
      */
-    public static final Field F_ACTIVE_INDEX = new Field(new FieldDef("active_index", EFieldType.LOCAL_DATE,
+    public static final Field F_ACTIVE_INDEX = new Field(new FieldDef("active_index", EFieldType.INTEGER,
             "The active index (0 for the current active term, +1 for the next term, -1 for the prior term, etc.)."),
             EFieldRole.NOT_NULL);
 
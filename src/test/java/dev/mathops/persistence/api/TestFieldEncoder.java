@@ -0,0 +1,226 @@
+package dev.mathops.persistence.api;
+
+import dev.mathops.db.table.FieldDef;
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.EStringMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.db.table.criteria.StringFieldCriterion;
+import dev.mathops.schema.main.LocalLoginTable;
+import dev.mathops.schema.main.TermTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@code FieldEncoder} class, by decoding what it encodes with the {@code FieldDecoder} class.
+ */
+final class TestFieldEncoder {
+
+    /**
+     * Creates an input stream over the bytes written to an output stream.
+     *
+     * @param out the output stream
+     * @return the input stream
+     */
+    private static ByteArrayInputStream inputFrom(final ByteArrayOutputStream out) {
+
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("integer, long, and string values round-trip")
+    void test001() throws IOException {
+
+        final int[] ints = {0, 1, 127, 128, 255, 256, 65535, 65536, -1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        final long[] longs = {0L, 200L, 70000L, -1L, (long) Integer.MAX_VALUE + 1L, Long.MIN_VALUE, Long.MAX_VALUE};
+        final String[] strings = {"", "term", "caf\u00e9", "x".repeat(300)};
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(1000);
+        for (final int value : ints) {
+            FieldEncoder.encode(value, out);
+        }
+        for (final long value : longs) {
+            FieldEncoder.encode(value, out);
+        }
+        for (final String value : strings) {
+            FieldEncoder.encode(value, out);
+        }
+
+        final ByteArrayInputStream in = inputFrom(out);
+        for (final int value : ints) {
+            assertEquals(value, FieldDecoder.decodeIntValue(in), "Expected integer to round-trip");
+        }
+        for (final long value : longs) {
+            assertEquals(value, FieldDecoder.decodeLongValue(in), "Expected long to round-trip");
+        }
+        for (final String value : strings) {
+            assertEquals(value, FieldDecoder.decodeStringValue(in), "Expected string to round-trip");
+        }
+        assertEquals(0, in.available(), "Expected all bytes to be consumed");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("row round-trips")
+    void test002() throws IOException {
+
+        final TermTable table = TermTable.INSTANCE;
+        final Row row = new Row(table, Integer.valueOf(202590), LocalDate.of(2025, 8, 25), LocalDate.of(2025, 12, 19),
+                Integer.valueOf(2526), Integer.valueOf(-1), LocalDate.of(2025, 9, 5), LocalDate.of(2025, 10, 31));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(row, out);
+        final Row decoded = FieldDecoder.decodeRow(inputFrom(out), table);
+
+        assertSame(table, decoded.getTable(), "Expected decoded row to belong to the table");
+        final int numFields = table.getNumFields();
+        for (int i = 0; i < numFields; ++i) {
+            assertEquals(row.getFieldValue(i), decoded.getFieldValue(i), "Expected field value to round-trip");
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("integer criteria round-trip")
+    void test003() throws IOException {
+
+        final TermTable table = TermTable.INSTANCE;
+        final SelectionCriteria criteria = new SelectionCriteria(table,
+                new IntegerFieldCriterion(table.getField(0), ENumericMatchType.BETWEEN_INCLUDE_BOUNDS,
+                        Integer.valueOf(202510), Integer.valueOf(202590)),
+                new IntegerFieldCriterion(TermTable.F_ACTIVE_INDEX, ENumericMatchType.EXACT_NOT_IN,
+                        Integer.valueOf(-2), Integer.valueOf(0)));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(criteria, out);
+        final SelectionCriteria decoded = FieldDecoder.decodeSelectionCriteria(inputFrom(out), table);
+
+        assertEquals(2, decoded.getNumCriteria(), "Expected number of criteria to be 2");
+        for (int i = 0; i < 2; ++i) {
+            final IntegerFieldCriterion expected = (IntegerFieldCriterion) criteria.getCriterion(i);
+            final IntegerFieldCriterion actual = assertInstanceOf(IntegerFieldCriterion.class,
+                    decoded.getCriterion(i), "Expected criterion to be IntegerFieldCriterion");
+            assertSame(expected.getField(), actual.getField(), "Expected criterion field to round-trip");
+            assertEquals(expected.getMatchType(), actual.getMatchType(), "Expected match type to round-trip");
+            assertEquals(expected.getNumIntegers(), actual.getNumIntegers(), "Expected value count to round-trip");
+            for (int j = 0; j < expected.getNumIntegers(); ++j) {
+                assertEquals(expected.getInteger(j), actual.getInteger(j), "Expected value to round-trip");
+            }
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("string criteria round-trip")
+    void test004() throws IOException {
+
+        final LocalLoginTable table = LocalLoginTable.INSTANCE;
+        final SelectionCriteria criteria = table.mkLoginQuery("jsmith");
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(criteria, out);
+        final SelectionCriteria decoded = FieldDecoder.decodeSelectionCriteria(inputFrom(out), table);
+
+        assertEquals(1, decoded.getNumCriteria(), "Expected number of criteria to be 1");
+        final StringFieldCriterion expected = (StringFieldCriterion) criteria.getCriterion(0);
+        final StringFieldCriterion actual = assertInstanceOf(StringFieldCriterion.class, decoded.getCriterion(0),
+                "Expected criterion to be StringFieldCriterion");
+        assertSame(expected.getField(), actual.getField(), "Expected criterion field to round-trip");
+        assertEquals(EStringMatchType.EXACT_IN, actual.getMatchType(), "Expected match type to round-trip");
+        assertEquals(1, actual.getNumStrings(), "Expected value count to round-trip");
+        assertEquals("jsmith", actual.getString(0), "Expected value to round-trip");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("criteria on a field the table does not have are rejected")
+    void test005() throws IOException {
+
+        final SelectionCriteria criteria = TermTable.INSTANCE.mkTermIdQuery(202590);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(criteria, out);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> FieldDecoder.decodeSelectionCriteria(inputFrom(out), LocalLoginTable.INSTANCE),
+                "Expected criteria on a field the table does not have to be rejected");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("range constraint encoding")
+    void test006() throws IOException {
+
+        final FieldDef def = TermTable.INSTANCE.getField(0).getDef();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(def.getConstraint(0), out);
+        final ByteArrayInputStream in = inputFrom(out);
+
+        assertEquals(EConstraintType.INTEGER_RANGE.ordinal(), FieldDecoder.decodeIntValue(in),
+                "Expected constraint type to be INTEGER_RANGE");
+        assertEquals(100000, FieldDecoder.decodeIntValue(in), "Expected minimum value to be encoded");
+        assertEquals(999999, FieldDecoder.decodeIntValue(in), "Expected maximum value to be encoded");
+        assertEquals(0, in.available(), "Expected all bytes to be consumed");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if a stream could not be read or written
+     */
+    @Test
+    @DisplayName("rows and criteria are rejected without a table definition")
+    void test007() throws IOException {
+
+        final TermTable table = TermTable.INSTANCE;
+        final Row row = new Row(table, Integer.valueOf(202590), LocalDate.of(2025, 8, 25), LocalDate.of(2025, 12, 19),
+                Integer.valueOf(2526), Integer.valueOf(-1), LocalDate.of(2025, 9, 5), LocalDate.of(2025, 10, 31));
+
+        final ByteArrayOutputStream rowOut = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(row, rowOut);
+        assertThrows(IllegalArgumentException.class, () -> FieldDecoder.decode(inputFrom(rowOut)),
+                "Expected row to be rejected without a table definition");
+
+        final ByteArrayOutputStream criteriaOut = new ByteArrayOutputStream(100);
+        FieldEncoder.encode(table.mkTermIdQuery(202590), criteriaOut);
+        assertThrows(IllegalArgumentException.class, () -> FieldDecoder.decode(inputFrom(criteriaOut)),
+                "Expected criteria to be rejected without a table definition");
+    }
+}
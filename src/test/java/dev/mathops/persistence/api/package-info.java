@@ -0,0 +1,4 @@
+/**
+ * Test cases for the {@code dev.mathops.persistence.api} package.
+ */
+package dev.mathops.persistence.api;
@@ -0,0 +1,98 @@
+package dev.mathops.persistence.config;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code PermissionMatrix} class.
+ */
+final class TestPermissionMatrix {
+
+    /** Permissions that allow only queries. */
+    private static final TablePermissions QUERY_ONLY = new TablePermissions(false, true, false, false, false);
+
+    /** Permissions that allow only inserts. */
+    private static final TablePermissions INSERT_ONLY = new TablePermissions(false, false, true, false, false);
+
+    /**
+     * Compiles a matrix with an "advisor" role that may query "student", and a "manager" role that includes "advisor"
+     * and may insert into "exam".
+     *
+     * @return the matrix
+     */
+    private static PermissionMatrix compile() {
+
+        final RoleConfig advisor = new RoleConfig("advisor");
+        advisor.setTablePermissions("main", "student", QUERY_ONLY);
+
+        final RoleConfig manager = new RoleConfig("manager");
+        manager.addGrantedRole("advisor");
+        manager.setTablePermissions("main", "exam", INSERT_ONLY);
+
+        return PermissionCompiler.compile(List.of(advisor, manager), List.of(), null);
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("included roles gate acting as a role")
+    void test001() {
+
+        final PermissionMatrix matrix = compile();
+        final int advisor = matrix.getRoleId("advisor");
+        final int manager = matrix.getRoleId("manager");
+
+        assertTrue(matrix.canActAs(manager, manager), "Expected a role to act as itself");
+        assertTrue(matrix.canActAs(manager, advisor), "Expected a role to act as an included role");
+        assertFalse(matrix.canActAs(advisor, manager), "Expected a role not to act as a role that includes it");
+        assertNull(matrix.getEffectivePermissions(advisor, manager), "Expected no permissions for a disallowed role");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("effective permissions are the role's own grants")
+    void test002() {
+
+        final PermissionMatrix matrix = compile();
+        final int advisor = matrix.getRoleId("advisor");
+        final int manager = matrix.getRoleId("manager");
+        final int student = matrix.getTableId("main", "student");
+        final int exam = matrix.getTableId("main", "exam");
+
+        final PermissionSet asManager = matrix.getEffectivePermissions(manager, manager);
+        assertNotNull(asManager, "Expected permissions when acting as own role");
+        assertTrue(asManager.isAllowed(exam, EOperation.INSERT), "Expected own grant to apply");
+        assertFalse(asManager.isAllowed(student, EOperation.QUERY), "Expected included role's grant not to apply");
+
+        final PermissionSet asAdvisor = matrix.getEffectivePermissions(manager, advisor);
+        assertNotNull(asAdvisor, "Expected permissions when acting as an included role");
+        assertTrue(asAdvisor.isAllowed(student, EOperation.QUERY), "Expected included role's grant to apply");
+        assertFalse(asAdvisor.isAllowed(exam, EOperation.INSERT), "Expected including role's grant not to apply");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("union does not expand included roles")
+    void test003() {
+
+        final PermissionMatrix matrix = compile();
+        final int student = matrix.getTableId("main", "student");
+        final int exam = matrix.getTableId("main", "exam");
+
+        final PermissionSet union = matrix.union(List.of("manager", "unknown"));
+        assertTrue(union.isAllowed(exam, EOperation.INSERT), "Expected named role's grant to apply");
+        assertFalse(union.isAllowed(student, EOperation.QUERY), "Expected included role's grant not to apply");
+    }
+}
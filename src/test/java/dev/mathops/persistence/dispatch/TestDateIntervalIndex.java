@@ -0,0 +1,98 @@
+package dev.mathops.persistence.dispatch;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.schema.term.TermWeekTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for the {@code DateIntervalIndex} class.
+ */
+final class TestDateIntervalIndex {
+
+    /** The index of the "start_date" field in a "term_week" row. */
+    private static final int START_DATE_FIELD = 1;
+
+    /** The index of the "end_date" field in a "term_week" row. */
+    private static final int END_DATE_FIELD = 2;
+
+    /**
+     * Constructs a "term_week" row.
+     *
+     * @param weekNbr the week number
+     * @param start   the first day of the week
+     * @param end     the last day of the week
+     * @return the row
+     */
+    private static Row week(final int weekNbr, final LocalDate start, final LocalDate end) {
+
+        return new Row(TermWeekTable.INSTANCE, Integer.valueOf(weekNbr), start, end);
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("find by date")
+    void test001() {
+
+        final Row week1 = week(1, LocalDate.of(2025, 8, 25), LocalDate.of(2025, 8, 31));
+        final Row week2 = week(2, LocalDate.of(2025, 9, 1), LocalDate.of(2025, 9, 7));
+        final Row week3 = week(3, LocalDate.of(2025, 9, 8), LocalDate.of(2025, 9, 21));
+        final DateIntervalIndex index = DateIntervalIndex.build(List.of(week3, week1, week2), START_DATE_FIELD,
+                END_DATE_FIELD);
+
+        assertEquals(3, index.size(), "Expected size to be 3");
+        assertSame(week1, index.get(0), "Expected rows to be sorted by start date");
+        assertSame(week1, index.find(LocalDate.of(2025, 8, 25)), "Expected first day to match");
+        assertSame(week1, index.find(LocalDate.of(2025, 8, 31)), "Expected last day to match");
+        assertSame(week2, index.find(LocalDate.of(2025, 9, 4)), "Expected middle day to match");
+        assertSame(week3, index.find(LocalDate.of(2025, 9, 15)), "Expected day in two-week range to match");
+        assertNull(index.find(LocalDate.of(2025, 8, 24)), "Expected day before all ranges not to match");
+        assertNull(index.find(LocalDate.of(2025, 9, 22)), "Expected day after all ranges not to match");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("gaps between ranges")
+    void test002() {
+
+        final Row week1 = week(1, LocalDate.of(2025, 1, 6), LocalDate.of(2025, 1, 10));
+        final Row week2 = week(2, LocalDate.of(2025, 1, 13), LocalDate.of(2025, 1, 17));
+        final DateIntervalIndex index = DateIntervalIndex.build(List.of(week1, week2), START_DATE_FIELD,
+                END_DATE_FIELD);
+
+        final long saturday = LocalDate.of(2025, 1, 11).toEpochDay();
+        assertEquals(-1, index.positionOf(saturday), "Expected day in gap not to match");
+        assertEquals(1, index.positionAfter(saturday), "Expected next range to follow gap");
+        assertEquals(-1, index.positionAfter(LocalDate.of(2025, 1, 13).toEpochDay()),
+                "Expected no range to start after the last start day");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("invalid rows and empty index")
+    void test003() {
+
+        final Row valid = week(1, LocalDate.of(2025, 1, 6), LocalDate.of(2025, 1, 10));
+        final Row reversed = week(2, LocalDate.of(2025, 1, 17), LocalDate.of(2025, 1, 13));
+        final Row missing = week(3, null, LocalDate.of(2025, 1, 24));
+        final DateIntervalIndex index = DateIntervalIndex.build(List.of(valid, reversed, missing), START_DATE_FIELD,
+                END_DATE_FIELD);
+
+        assertEquals(1, index.size(), "Expected rows without a valid range to be left out");
+        assertNull(DateIntervalIndex.EMPTY.find(LocalDate.of(2025, 1, 6)), "Expected empty index not to match");
+        assertEquals(-1, DateIntervalIndex.EMPTY.positionAfter(0L), "Expected empty index to have no next range");
+    }
+}
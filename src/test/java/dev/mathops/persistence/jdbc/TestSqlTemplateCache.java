@@ -0,0 +1,196 @@
+package dev.mathops.persistence.jdbc;
+
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.schema.main.TermTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code SqlTemplateCache} class.
+ */
+final class TestSqlTemplateCache {
+
+    /** The database schema name used by tests. */
+    private static final String DB_SCHEMA = "main";
+
+    /**
+     * Creates criteria that match the "term" field against a list of consecutive term IDs.
+     *
+     * @param type      the match type
+     * @param numValues the number of values
+     * @return the criteria
+     */
+    private static SelectionCriteria termList(final ENumericMatchType type, final int numValues) {
+
+        final Integer[] values = new Integer[numValues];
+        for (int i = 0; i < numValues; ++i) {
+            values[i] = Integer.valueOf(200000 + i);
+        }
+
+        return new SelectionCriteria(TermTable.INSTANCE,
+                new IntegerFieldCriterion(TermTable.INSTANCE.getField(0), type, values));
+    }
+
+    /**
+     * Counts the occurrences of a substring.
+     *
+     * @param str the string to search
+     * @param sub the substring
+     * @return the number of occurrences
+     */
+    private static int occurrences(final String str, final String sub) {
+
+        int count = 0;
+        int index = str.indexOf(sub);
+        while (index >= 0) {
+            ++count;
+            index = str.indexOf(sub, index + sub.length());
+        }
+
+        return count;
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("list lengths are rounded up to a power of two")
+    void test001() {
+
+        final int[] lengths = {0, 1, 2, 3, 4, 5, 8, 9, 1000, 1024, 1025};
+        final int[] expected = {0, 1, 2, 4, 4, 8, 8, 16, 1024, 1024, 2048};
+
+        for (int i = 0; i < lengths.length; ++i) {
+            assertEquals(expected[i], SqlTemplateCache.bucket(lengths[i]), "Expected list length to be bucketed");
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a template could not be generated
+     */
+    @Test
+    @DisplayName("lists of similar length share one padded template")
+    void test002() throws PersistenceException {
+
+        final SqlTemplateCache cache = new SqlTemplateCache(ESqlDialect.POSTGRESQL);
+        final TermTable table = TermTable.INSTANCE;
+
+        final SqlTemplate three = cache.select(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 3));
+        final SqlTemplate four = cache.select(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 4));
+        final SqlTemplate five = cache.select(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 5));
+        final SqlTemplate notIn = cache.select(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_NOT_IN, 3));
+
+        assertSame(three, four, "Expected lists of 3 and 4 values to share a template");
+        assertNotSame(four, five, "Expected a list of 5 values to use a larger template");
+        assertNotSame(three, notIn, "Expected match type to be part of the shape");
+        assertEquals(4, occurrences(three.sql, "?"), "Expected list of 3 values to be padded to 4 parameters");
+        assertEquals(8, occurrences(five.sql, "?"), "Expected list of 5 values to be padded to 8 parameters");
+        assertTrue(three.sql.endsWith(" WHERE term IN (?, ?, ?, ?)"), "Expected one IN list");
+        assertTrue(notIn.sql.endsWith(" WHERE term NOT IN (?, ?, ?, ?)"), "Expected one NOT IN list");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a template could not be generated
+     */
+    @Test
+    @DisplayName("empty and single-value lists are not padded")
+    void test003() throws PersistenceException {
+
+        final SqlTemplateCache cache = new SqlTemplateCache(ESqlDialect.POSTGRESQL);
+        final TermTable table = TermTable.INSTANCE;
+
+        final String empty = cache.count(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 0)).sql;
+        final String single = cache.count(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 1)).sql;
+        final String emptyNot = cache.count(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_NOT_IN, 0)).sql;
+
+        assertEquals("SELECT COUNT(*) FROM main.term WHERE 1 = 0", empty, "Expected empty IN to match nothing");
+        assertEquals("SELECT COUNT(*) FROM main.term WHERE term = ?", single, "Expected single value comparison");
+        assertEquals("SELECT COUNT(*) FROM main.term WHERE 1 = 1", emptyNot, "Expected empty NOT IN to match all");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a template could not be generated
+     */
+    @Test
+    @DisplayName("Oracle splits long lists at 1000 values")
+    void test004() throws PersistenceException {
+
+        final TermTable table = TermTable.INSTANCE;
+        final SqlTemplateCache oracle = new SqlTemplateCache(ESqlDialect.ORACLE);
+        final SqlTemplateCache postgres = new SqlTemplateCache(ESqlDialect.POSTGRESQL);
+
+        final String in = oracle.delete(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 1500)).sql;
+        assertEquals(2048, occurrences(in, "?"), "Expected list of 1500 values to be padded to 2048 parameters");
+        assertEquals(3, occurrences(in, "term IN ("), "Expected list to be split into 3 lists");
+        assertEquals(2, occurrences(in, ") OR term IN ("), "Expected lists to be joined by OR");
+        assertTrue(in.startsWith("DELETE FROM main.term WHERE (term IN (?, "), "Expected split lists in parentheses");
+        assertTrue(in.endsWith(", ?))"), "Expected split lists to be closed");
+
+        final String notIn = oracle.delete(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_NOT_IN, 1500)).sql;
+        assertEquals(3, occurrences(notIn, "term NOT IN ("), "Expected NOT IN list to be split into 3 lists");
+        assertEquals(2, occurrences(notIn, ") AND term NOT IN ("), "Expected NOT IN lists to be joined by AND");
+
+        final String exact = oracle.delete(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 1000)).sql;
+        assertEquals(2, occurrences(exact, "term IN ("), "Expected list padded past 1000 to be split");
+
+        final String pg = postgres.delete(DB_SCHEMA, table, termList(ENumericMatchType.EXACT_IN, 1500)).sql;
+        assertEquals(1, occurrences(pg, "term IN ("), "Expected PostgreSQL not to split the list");
+        assertEquals(2048, occurrences(pg, "?"), "Expected PostgreSQL list to be padded to 2048 parameters");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a template could not be generated
+     * @throws SQLException         if a value could not be bound
+     */
+    @Test
+    @DisplayName("padding parameters repeat the last value")
+    void test005() throws PersistenceException, SQLException {
+
+        final SqlTemplateCache cache = new SqlTemplateCache(ESqlDialect.ORACLE);
+        final SelectionCriteria criteria = termList(ENumericMatchType.EXACT_IN, 5);
+        final SqlTemplate template = cache.select(DB_SCHEMA, TermTable.INSTANCE, criteria);
+
+        final List<Integer> indexes = new ArrayList<>(8);
+        final List<Integer> bound = new ArrayList<>(8);
+        final PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if ("setInt".equals(method.getName())) {
+                        indexes.add((Integer) args[0]);
+                        bound.add((Integer) args[1]);
+                    }
+                    return null;
+                });
+
+        final int next = template.bindCriteria(stmt, 1, criteria);
+
+        assertEquals(9, next, "Expected 8 parameters to be bound");
+        assertEquals(List.of(Integer.valueOf(1), Integer.valueOf(2), Integer.valueOf(3), Integer.valueOf(4),
+                Integer.valueOf(5), Integer.valueOf(6), Integer.valueOf(7), Integer.valueOf(8)), indexes,
+                "Expected parameters to be bound in order");
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(200000 + Math.min(i, 4), bound.get(i), "Expected padding to repeat the last value");
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Test cases for the {@code dev.mathops.persistence.jdbc} package.
+ */
+package dev.mathops.persistence.jdbc;
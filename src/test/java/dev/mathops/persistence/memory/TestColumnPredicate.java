@@ -0,0 +1,246 @@
+package dev.mathops.persistence.memory;
+
+import dev.mathops.db.table.EFieldType;
+import dev.mathops.db.table.Table;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.schema.main.TermTable;
+import dev.mathops.schema.mathops.DoubleRangeConstraintTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code ColumnPredicate} class.
+ */
+final class TestColumnPredicate {
+
+    /** The index of the "term" field (INTEGER) in the "term" table. */
+    private static final int TERM_FIELD = 0;
+
+    /** The index of the "min_value" field (DOUBLE) in the "double_range_constraint" table. */
+    private static final int MIN_VALUE_FIELD = 4;
+
+    /**
+     * Compiles a criterion on a field of a table.
+     *
+     * @param table  the table
+     * @param field  the field index
+     * @param type   the match type
+     * @param values the values
+     * @return the predicate
+     * @throws PersistenceException if the criterion could not be compiled
+     */
+    private static ColumnPredicate compile(final Table table, final int field, final ENumericMatchType type,
+                                           final Integer... values) throws PersistenceException {
+
+        return ColumnPredicate.compile(table, new IntegerFieldCriterion(table.getField(field), type, values));
+    }
+
+    /**
+     * Compiles a criterion on the "term" field of the "term" table.
+     *
+     * @param type   the match type
+     * @param values the values
+     * @return the predicate
+     * @throws PersistenceException if the criterion could not be compiled
+     */
+    private static ColumnPredicate compileTerm(final ENumericMatchType type, final Integer... values)
+            throws PersistenceException {
+
+        return compile(TermTable.INSTANCE, TERM_FIELD, type, values);
+    }
+
+    /**
+     * Creates a null bitmap.
+     *
+     * @param rows the indexes of the rows whose value is null
+     * @return the bitmap
+     */
+    private static long[] nulls(final int... rows) {
+
+        final long[] result = new long[1];
+        for (final int row : rows) {
+            result[row >>> 6] |= 1L << row;
+        }
+
+        return result;
+    }
+
+    /**
+     * Filters every row of a column.
+     *
+     * @param predicate the predicate
+     * @param col       the column
+     * @param numRows   the number of rows
+     * @return the indexes of the rows kept
+     */
+    private static int[] select(final ColumnPredicate predicate, final MemoryColumn col, final int numRows) {
+
+        final int[] sel = new int[numRows];
+        for (int i = 0; i < numRows; ++i) {
+            sel[i] = i;
+        }
+
+        final int kept = predicate.filter(col, sel, numRows);
+
+        return Arrays.copyOf(sel, kept);
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a criterion could not be compiled
+     */
+    @Test
+    @DisplayName("integer ranges honor exclusive bounds and skip nulls")
+    void test001() throws PersistenceException {
+
+        final MemoryColumn col = new MemoryColumn(EFieldType.INTEGER, new int[]{1, 2, 3, 4, 5, 6}, null, null,
+                nulls(2), null);
+
+        assertArrayEquals(new int[]{3}, select(compileTerm(ENumericMatchType.BETWEEN_EXCLUDE_BOUNDS,
+                Integer.valueOf(2), Integer.valueOf(5)), col, 6), "Expected open range to exclude bounds and nulls");
+        assertArrayEquals(new int[]{1, 3, 4}, select(compileTerm(ENumericMatchType.BETWEEN_INCLUDE_BOUNDS,
+                Integer.valueOf(2), Integer.valueOf(5)), col, 6), "Expected closed range to include bounds");
+        assertArrayEquals(new int[]{1, 3, 4}, select(compileTerm(ENumericMatchType.BETWEEN_EXCLUDE_UPPER_BOUND,
+                Integer.valueOf(2), Integer.valueOf(6)), col, 6), "Expected half-open range to exclude upper bound");
+        assertArrayEquals(new int[]{4, 5}, select(compileTerm(ENumericMatchType.GREATER_THAN, Integer.valueOf(4)),
+                col, 6), "Expected greater-than to exclude its bound");
+        assertArrayEquals(new int[]{0, 1}, select(compileTerm(ENumericMatchType.LESS_THAN_OR_EQUAL,
+                Integer.valueOf(3)), col, 6), "Expected less-than-or-equal to include its bound but not nulls");
+
+        final ColumnPredicate range = compileTerm(ENumericMatchType.GREATER_THAN_OR_EQUAL, Integer.valueOf(3));
+        assertTrue(range.isIndexable(), "Expected range to be indexable");
+        assertNull(range.getSetValues(), "Expected range to have no set values");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a criterion could not be compiled
+     */
+    @Test
+    @DisplayName("sets match distinct values, and NOT IN never matches nulls unless the set is empty")
+    void test002() throws PersistenceException {
+
+        final MemoryColumn col = new MemoryColumn(EFieldType.INTEGER, new int[]{5, 3, 7, 5, 9}, null, null, nulls(4),
+                null);
+
+        final ColumnPredicate in = compileTerm(ENumericMatchType.EXACT_IN, Integer.valueOf(5), Integer.valueOf(3),
+                Integer.valueOf(5), null);
+        assertTrue(in.isIndexable(), "Expected set to be indexable");
+        assertArrayEquals(new long[]{3L, 5L}, in.getSetValues(), "Expected set values to be sorted and distinct");
+        assertArrayEquals(new int[]{0, 1, 3}, select(in, col, 5), "Expected set to match its values");
+
+        assertArrayEquals(new int[]{0, 3}, select(compileTerm(ENumericMatchType.EXACT_IN, Integer.valueOf(5)), col,
+                5), "Expected single value to match");
+        assertArrayEquals(new int[]{2}, select(compileTerm(ENumericMatchType.EXACT_NOT_IN, Integer.valueOf(5),
+                Integer.valueOf(3)), col, 5), "Expected NOT IN to skip nulls");
+        assertArrayEquals(new int[0], select(compileTerm(ENumericMatchType.EXACT_IN), col, 5),
+                "Expected empty IN to match nothing");
+
+        final ColumnPredicate all = compileTerm(ENumericMatchType.EXACT_NOT_IN);
+        assertFalse(all.isIndexable(), "Expected empty NOT IN not to be indexable");
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, select(all, col, 5), "Expected empty NOT IN to match every row");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a criterion could not be compiled
+     */
+    @Test
+    @DisplayName("null tests and filtering of a partial selection vector")
+    void test003() throws PersistenceException {
+
+        final MemoryColumn col = new MemoryColumn(EFieldType.INTEGER, new int[]{1, 0, 3, 0, 5}, null, null,
+                nulls(1, 3), null);
+
+        assertArrayEquals(new int[]{1, 3}, select(compileTerm(ENumericMatchType.IS_NULL), col, 5),
+                "Expected IS NULL to match null rows");
+        assertArrayEquals(new int[]{0, 2, 4}, select(compileTerm(ENumericMatchType.IS_NOT_NULL), col, 5),
+                "Expected IS NOT NULL to match other rows");
+
+        final int[] sel = {4, 1, 2, -1, -1};
+        final int kept = compileTerm(ENumericMatchType.GREATER_THAN, Integer.valueOf(2)).filter(col, sel, 3);
+        assertArrayEquals(new int[]{4, 2}, Arrays.copyOf(sel, kept),
+                "Expected only the selected rows to be tested, in order");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a criterion could not be compiled
+     */
+    @Test
+    @DisplayName("long columns are compared across the full range")
+    void test004() throws PersistenceException {
+
+        final MemoryColumn col = new MemoryColumn(EFieldType.LONG, null,
+                new long[]{Long.MIN_VALUE, -1L, 0L, 3000000000L, Long.MAX_VALUE}, null, null, null);
+
+        assertArrayEquals(new int[]{2, 3, 4}, select(compileTerm(ENumericMatchType.GREATER_THAN_OR_EQUAL,
+                Integer.valueOf(0)), col, 5), "Expected range to include values beyond the integer range");
+        assertArrayEquals(new int[]{0}, select(compileTerm(ENumericMatchType.LESS_THAN, Integer.valueOf(-1)), col,
+                5), "Expected range to include the smallest long value");
+        assertArrayEquals(new int[]{0, 2, 3, 4}, select(compileTerm(ENumericMatchType.EXACT_NOT_IN,
+                Integer.valueOf(-1)), col, 5), "Expected NOT IN to match other long values");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws PersistenceException if a criterion could not be compiled
+     */
+    @Test
+    @DisplayName("floating-point columns honor exclusive bounds and match only whole values in sets")
+    void test005() throws PersistenceException {
+
+        final DoubleRangeConstraintTable table = DoubleRangeConstraintTable.INSTANCE;
+        final MemoryColumn col = new MemoryColumn(EFieldType.DOUBLE, null, null, new double[]{1.5, 2.0, 2.5, 3.0},
+                null, null);
+
+        assertArrayEquals(new int[]{2, 3}, select(compile(table, MIN_VALUE_FIELD, ENumericMatchType.GREATER_THAN,
+                Integer.valueOf(2)), col, 4), "Expected exclusive bound to keep fractional values above it");
+        assertArrayEquals(new int[]{0, 1}, select(compile(table, MIN_VALUE_FIELD,
+                ENumericMatchType.LESS_THAN_OR_EQUAL, Integer.valueOf(2)), col, 4),
+                "Expected inclusive bound to keep fractional values below it");
+        assertArrayEquals(new int[]{0, 1, 2}, select(compile(table, MIN_VALUE_FIELD,
+                ENumericMatchType.BETWEEN_EXCLUDE_UPPER_BOUND, Integer.valueOf(1), Integer.valueOf(3)), col, 4),
+                "Expected half-open range to exclude only its upper bound");
+        assertArrayEquals(new int[]{1, 3}, select(compile(table, MIN_VALUE_FIELD, ENumericMatchType.EXACT_IN,
+                Integer.valueOf(2), Integer.valueOf(3)), col, 4), "Expected set to match only whole values");
+        assertArrayEquals(new int[]{0, 2}, select(compile(table, MIN_VALUE_FIELD, ENumericMatchType.EXACT_NOT_IN,
+                Integer.valueOf(2), Integer.valueOf(3)), col, 4), "Expected NOT IN to keep fractional values");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("unsupported criteria are rejected")
+    void test006() {
+
+        assertThrows(PersistenceException.class, () -> compile(DoubleRangeConstraintTable.INSTANCE, 0,
+                ENumericMatchType.EXACT_IN, Integer.valueOf(1)), "Expected criterion on a string field to fail");
+        assertThrows(PersistenceException.class, () -> ColumnPredicate.compile(TermTable.INSTANCE,
+                        new IntegerFieldCriterion(DoubleRangeConstraintTable.INSTANCE.getField(MIN_VALUE_FIELD),
+                                ENumericMatchType.EXACT_IN, Integer.valueOf(1))),
+                "Expected criterion on a field not in the table to fail");
+        assertThrows(PersistenceException.class, () -> compileTerm(ENumericMatchType.BETWEEN_INCLUDE_BOUNDS,
+                Integer.valueOf(1)), "Expected range with one value to fail");
+        assertThrows(PersistenceException.class, () -> compileTerm(ENumericMatchType.GREATER_THAN,
+                (Integer) null), "Expected comparison with a null value to fail");
+        assertThrows(PersistenceException.class, () -> compileTerm(ENumericMatchType.IS_NULL, Integer.valueOf(1)),
+                "Expected null test with a value to fail");
+    }
+}
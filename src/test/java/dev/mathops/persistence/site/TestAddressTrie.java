@@ -0,0 +1,117 @@
+package dev.mathops.persistence.site;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for the {@code AddressTrie} class.
+ */
+final class TestAddressTrie {
+
+    /**
+     * Constructs a 4-byte address.
+     *
+     * @param b1 the first byte
+     * @param b2 the second byte
+     * @param b3 the third byte
+     * @param b4 the fourth byte
+     * @return the address
+     */
+    private static byte[] ipv4(final int b1, final int b2, final int b3, final int b4) {
+
+        return new byte[]{(byte) b1, (byte) b2, (byte) b3, (byte) b4};
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("exact match")
+    void test001() {
+
+        final AddressTrie trie = new AddressTrie(4);
+        trie.add(ipv4(100, 2, 3, 4), 32, "jsmith", "admin");
+
+        assertEquals("admin", trie.lookup(ipv4(100, 2, 3, 4), "jsmith"), "Expected exact address to match");
+        assertNull(trie.lookup(ipv4(100, 2, 3, 5), "jsmith"), "Expected different address not to match");
+        assertNull(trie.lookup(ipv4(100, 2, 3, 4), "jdoe"), "Expected different username not to match");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("longest prefix wins")
+    void test002() {
+
+        final AddressTrie trie = new AddressTrie(4);
+        trie.add(ipv4(0, 0, 0, 0), 0, "jsmith", "dba");
+        trie.add(ipv4(100, 2, 0, 0), 15, "jsmith", "admin");
+        trie.add(ipv4(100, 2, 3, 0), 24, "jsmith", "sysadmin");
+
+        assertEquals("sysadmin", trie.lookup(ipv4(100, 2, 3, 99), "jsmith"), "Expected /24 entry to apply");
+        assertEquals("admin", trie.lookup(ipv4(100, 3, 200, 1), "jsmith"), "Expected /15 entry to apply");
+        assertEquals("dba", trie.lookup(ipv4(10, 0, 0, 1), "jsmith"), "Expected /0 entry to apply");
+        assertEquals(3, trie.size(), "Expected size to be 3");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("per-username entries")
+    void test003() {
+
+        final AddressTrie trie = new AddressTrie(4);
+        trie.add(ipv4(100, 2, 0, 0), 16, "jsmith", "admin");
+        trie.add(ipv4(100, 2, 3, 0), 24, "jdoe", "dba");
+
+        assertEquals("admin", trie.lookup(ipv4(100, 2, 3, 4), "jsmith"),
+                "Expected shorter prefix to apply when longer prefix is for another user");
+        assertEquals("dba", trie.lookup(ipv4(100, 2, 3, 4), "jdoe"), "Expected /24 entry to apply");
+        assertNull(trie.lookup(ipv4(100, 2, 4, 4), "jdoe"), "Expected address outside /24 not to match");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("IPv6 prefix")
+    void test004() {
+
+        final AddressTrie trie = new AddressTrie(16);
+        final byte[] prefix = new byte[16];
+        prefix[0] = (byte) 0x20;
+        prefix[1] = (byte) 0x01;
+        prefix[2] = (byte) 0x0d;
+        prefix[3] = (byte) 0xb8;
+        trie.add(prefix, 32, "jsmith", "admin");
+
+        final byte[] inside = prefix.clone();
+        inside[15] = (byte) 0x01;
+        final byte[] outside = prefix.clone();
+        outside[3] = (byte) 0xb9;
+
+        assertEquals("admin", trie.lookup(inside, "jsmith"), "Expected address inside /32 to match");
+        assertNull(trie.lookup(outside, "jsmith"), "Expected address outside /32 not to match");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("invalid prefix length")
+    void test005() {
+
+        final AddressTrie trie = new AddressTrie(4);
+
+        assertThrows(IllegalArgumentException.class, () -> trie.add(ipv4(1, 2, 3, 4), 33, "jsmith", "admin"),
+                "Expected prefix longer than address to be rejected");
+        assertThrows(IllegalArgumentException.class, () -> trie.add(ipv4(1, 2, 3, 4), -1, "jsmith", "admin"),
+                "Expected negative prefix to be rejected");
+    }
+}
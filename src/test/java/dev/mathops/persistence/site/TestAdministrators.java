@@ -0,0 +1,239 @@
+package dev.mathops.persistence.site;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code Administrators} class.
+ */
+final class TestAdministrators {
+
+    /**
+     * Constructs a 4-byte address.
+     *
+     * @param b1 the first byte
+     * @param b2 the second byte
+     * @param b3 the third byte
+     * @param b4 the fourth byte
+     * @return the address
+     */
+    private static byte[] ipv4(final int b1, final int b2, final int b3, final int b4) {
+
+        return new byte[]{(byte) b1, (byte) b2, (byte) b3, (byte) b4};
+    }
+
+    /**
+     * Parses an address specification with a fixed username and role.
+     *
+     * @param spec the address specification
+     * @return the record; {@code null} if the specification is not valid
+     */
+    private static Administrators.AdminRecord parse(final String spec) {
+
+        return Administrators.parseAddress(spec, "jsmith", "admin");
+    }
+
+    /**
+     * Writes the configuration file in a directory.
+     *
+     * @param dir     the directory
+     * @param content the file content
+     * @throws IOException if the file could not be written
+     */
+    private static void writeConfig(final Path dir, final String content) throws IOException {
+
+        Files.writeString(dir.resolve(Administrators.FILENAME), content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("IPv4 addresses")
+    void test001() {
+
+        final Administrators.AdminRecord exact = parse("100.2.3.4");
+        assertNotNull(exact, "Expected full IPv4 address to parse");
+        assertArrayEquals(ipv4(100, 2, 3, 4), exact.address(), "Expected address bytes to match");
+        assertEquals(32, exact.prefixLength(), "Expected full address to have a 32-bit prefix");
+        assertEquals("jsmith", exact.username(), "Expected username to be kept");
+        assertEquals("admin", exact.role(), "Expected role to be kept");
+
+        assertNotNull(parse("0.0.0.0"), "Expected all-zero address to parse");
+        assertNotNull(parse("255.255.255.255"), "Expected all-ones address to parse");
+        assertNull(parse("256.2.3.4"), "Expected out-of-range part to be rejected");
+        assertNull(parse("100.2.3"), "Expected short address without wildcard to be rejected");
+        assertNull(parse("100.2.3.4.5"), "Expected five-part address to be rejected");
+        assertNull(parse("100.2..4"), "Expected empty part to be rejected");
+        assertNull(parse("100.2.x.4"), "Expected non-numeric part to be rejected");
+        assertNull(parse("-1.2.3.4"), "Expected negative part to be rejected");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("IPv4 CIDR and wildcards")
+    void test002() {
+
+        final Administrators.AdminRecord cidr = parse("100.2.0.0/15");
+        assertNotNull(cidr, "Expected CIDR address to parse");
+        assertArrayEquals(ipv4(100, 2, 0, 0), cidr.address(), "Expected CIDR address bytes to match");
+        assertEquals(15, cidr.prefixLength(), "Expected CIDR prefix length to be kept");
+
+        assertNotNull(parse("0.0.0.0/0"), "Expected zero-length prefix to parse");
+        assertNull(parse("100.2.0.0/33"), "Expected prefix longer than 32 bits to be rejected");
+        assertNull(parse("100.2.0.0/abc"), "Expected non-numeric prefix to be rejected");
+        assertNull(parse("100.2.*/16"), "Expected wildcard with CIDR prefix to be rejected");
+
+        final Administrators.AdminRecord wild2 = parse("100.2.*");
+        assertNotNull(wild2, "Expected two-part wildcard to parse");
+        assertArrayEquals(ipv4(100, 2, 0, 0), wild2.address(), "Expected wildcard parts to be zero");
+        assertEquals(16, wild2.prefixLength(), "Expected two-part wildcard to have a 16-bit prefix");
+
+        final Administrators.AdminRecord wild3 = parse("100.2.3.*");
+        assertNotNull(wild3, "Expected three-part wildcard to parse");
+        assertEquals(24, wild3.prefixLength(), "Expected three-part wildcard to have a 24-bit prefix");
+
+        final Administrators.AdminRecord any = parse("*");
+        assertNotNull(any, "Expected '*' to parse");
+        assertEquals(0, any.address().length, "Expected '*' to have an empty address");
+        assertEquals(0, any.prefixLength(), "Expected '*' to have a zero-length prefix");
+
+        assertNull(parse("100.*.3.4"), "Expected wildcard before the last part to be rejected");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("IPv6 addresses")
+    void test003() {
+
+        final Administrators.AdminRecord full = parse("2001:db8:85a3:8d3:1319:8a2e:370:7348");
+        assertNotNull(full, "Expected full IPv6 address to parse");
+        assertEquals(16, full.address().length, "Expected 16 address bytes");
+        assertEquals(128, full.prefixLength(), "Expected full address to have a 128-bit prefix");
+        assertEquals(0x20, full.address()[0] & 0xFF, "Expected first byte to match");
+        assertEquals(0x48, full.address()[15] & 0xFF, "Expected last byte to match");
+
+        final Administrators.AdminRecord abbreviated = parse("2001:db8::1");
+        assertNotNull(abbreviated, "Expected abbreviated IPv6 address to parse");
+        assertEquals(1, abbreviated.address()[15], "Expected '::' to expand to zero groups");
+        assertEquals(128, abbreviated.prefixLength(), "Expected abbreviated address to have a 128-bit prefix");
+
+        final Administrators.AdminRecord mapped = parse("::ffff:100.2.3.4");
+        assertNotNull(mapped, "Expected IPv4-mapped address to parse");
+        assertArrayEquals(ipv4(100, 2, 3, 4), mapped.address(), "Expected IPv4-mapped address as IPv4 bytes");
+        assertEquals(32, mapped.prefixLength(), "Expected IPv4-mapped address to have a 32-bit prefix");
+
+        assertNull(parse("2001:db8::1::2"), "Expected two '::' abbreviations to be rejected");
+        assertNull(parse("2001:db8:g::1"), "Expected non-hex group to be rejected");
+        assertNull(parse("2001:db8:12345::1"), "Expected five-digit group to be rejected");
+        assertNull(parse("example.com"), "Expected host name to be rejected");
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("IPv6 CIDR and wildcards")
+    void test004() {
+
+        final Administrators.AdminRecord cidr = parse("2001:db8::/32");
+        assertNotNull(cidr, "Expected IPv6 CIDR address to parse");
+        assertEquals(32, cidr.prefixLength(), "Expected IPv6 CIDR prefix length to be kept");
+        assertNull(parse("2001:db8::/129"), "Expected prefix longer than 128 bits to be rejected");
+
+        final Administrators.AdminRecord mapped = parse("::ffff:100.2.0.0/112");
+        assertNotNull(mapped, "Expected IPv4-mapped CIDR address to parse");
+        assertEquals(16, mapped.prefixLength(), "Expected IPv4-mapped prefix to be relative to the IPv4 address");
+
+        final Administrators.AdminRecord wild = parse("2001:db8:*");
+        assertNotNull(wild, "Expected IPv6 wildcard to parse");
+        assertEquals(16, wild.address().length, "Expected 16 address bytes");
+        assertEquals(32, wild.prefixLength(), "Expected two-group wildcard to have a 32-bit prefix");
+        assertEquals(0x0D, wild.address()[2] & 0xFF, "Expected second group to be parsed as hex");
+        assertEquals(0xB8, wild.address()[3] & 0xFF, "Expected second group to be parsed as hex");
+
+        assertNull(parse("2001::*"), "Expected wildcard with '::' to be rejected");
+        assertNull(parse("2001:db8:*/32"), "Expected wildcard with CIDR prefix to be rejected");
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException if the configuration file could not be written
+     */
+    @Test
+    @DisplayName("reload keeps prior configuration when load fails")
+    void test005() throws IOException {
+
+        final Path dir = Files.createTempDirectory("admins");
+        try {
+            final InetAddress client = InetAddress.getByName("100.2.3.4");
+
+            writeConfig(dir, "# Administrators\n100.2.3.* jsmith admin\n");
+            final Administrators admins = new Administrators(dir.toFile());
+            assertEquals("admin", admins.getAuthorizedRole(client, "jsmith"), "Expected wildcard rule to match");
+
+            writeConfig(dir, "");
+            assertFalse(admins.reload(), "Expected empty file to be rejected");
+            assertEquals("admin", admins.getAuthorizedRole(client, "jsmith"), "Expected prior rules after empty file");
+
+            writeConfig(dir, "100.2.3.* jsmith admin\n100.2.3\n");
+            assertFalse(admins.reload(), "Expected file with an invalid line to be rejected");
+            assertEquals("admin", admins.getAuthorizedRole(client, "jsmith"),
+                    "Expected prior rules after invalid line");
+
+            Files.delete(dir.resolve(Administrators.FILENAME));
+            assertFalse(admins.reload(), "Expected missing file to be rejected");
+            assertEquals("admin", admins.getAuthorizedRole(client, "jsmith"),
+                    "Expected prior rules after missing file");
+
+            writeConfig(dir, "100.2.3.4 jdoe sysadmin\n");
+            assertTrue(admins.reload(), "Expected valid file to be loaded");
+            assertNull(admins.getAuthorizedRole(client, "jsmith"), "Expected replaced rule not to match");
+            assertEquals("sysadmin", admins.getAuthorizedRole(client, "jdoe"), "Expected new rule to match");
+        } finally {
+            final File[] files = dir.toFile().listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     */
+    @Test
+    @DisplayName("negative CIDR prefixes are rejected")
+    void test006() {
+
+        assertNull(parse("100.2.3.4/-1"), "Expected IPv4 prefix of -1 to be rejected");
+        assertNull(parse("100.2.3.4/-24"), "Expected negative IPv4 prefix to be rejected");
+        assertNull(parse("2001:db8::1/-1"), "Expected IPv6 prefix of -1 to be rejected");
+        assertNull(parse("2001:db8::/-64"), "Expected negative IPv6 prefix to be rejected");
+
+        final Administrators.AdminRecord zero = parse("2001:db8::/0");
+        assertNotNull(zero, "Expected zero-length IPv6 prefix to parse");
+        assertEquals(0, zero.prefixLength(), "Expected zero-length IPv6 prefix to be kept");
+    }
+}
@@ -0,0 +1,185 @@
+package dev.mathops.persistence.site.session;
+
+import dev.mathops.persistence.api.ScramKeys;
+import dev.mathops.persistence.config.PermissionCompiler;
+import dev.mathops.persistence.config.PermissionMatrix;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code SessionManager} class.
+ */
+final class TestSessionManager {
+
+    /** The username used by tests. */
+    private static final String USERNAME = "jsmith";
+
+    /** The password used by tests. */
+    private static final String PASSWORD = "correct horse battery staple";
+
+    /**
+     * Deletes a temporary directory and the files in it.
+     *
+     * @param dir the directory
+     * @throws IOException if a file could not be deleted
+     */
+    private static void deleteDir(final Path dir) throws IOException {
+
+        final File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Compiles a permission matrix with only the built-in roles.
+     *
+     * @return the matrix
+     */
+    private static PermissionMatrix builtInMatrix() {
+
+        return PermissionCompiler.compile(List.of(), List.of(), null);
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException              if the temporary directory could not be created or deleted
+     * @throws NoSuchAlgorithmException if the session manager could not be created
+     */
+    @Test
+    @DisplayName("client and server derive the same SCRAM keys")
+    void test001() throws IOException, NoSuchAlgorithmException {
+
+        final Path dir = Files.createTempDirectory("sessions");
+        final SessionManager mgr = new SessionManager(dir.toFile());
+        try {
+            mgr.createLogin(USERNAME, PASSWORD, List.of("DATA_VIEWER"));
+
+            final ScramCredentials credentials = mgr.getScramCredentials(USERNAME, "100.2.3.4");
+            assertNotNull(credentials, "Expected credentials for a known login");
+            assertNull(mgr.getScramCredentials("jdoe", "100.2.3.4"), "Expected no credentials for an unknown login");
+
+            final String salt = new String(credentials.salt(), StandardCharsets.UTF_8);
+            final String scramPassword = ScramKeys.loginHash(PASSWORD, salt);
+            final byte[] salted = ScramKeys.saltedPassword(scramPassword, credentials.salt(), credentials.iterations());
+
+            assertArrayEquals(credentials.storedKey(), ScramKeys.storedKey(ScramKeys.clientKey(salted)),
+                    "Expected client to derive the server's stored key");
+            assertArrayEquals(credentials.serverKey(), ScramKeys.serverKey(salted),
+                    "Expected client to derive the server's server key");
+        } finally {
+            mgr.shutdown();
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException              if the temporary directory could not be created or deleted
+     * @throws NoSuchAlgorithmException if the session manager could not be created
+     */
+    @Test
+    @DisplayName("tokens belong to their session")
+    void test002() throws IOException, NoSuchAlgorithmException {
+
+        final Path dir = Files.createTempDirectory("sessions");
+        final SessionManager mgr = new SessionManager(dir.toFile());
+        try {
+            mgr.createLogin(USERNAME, PASSWORD, List.of("ADMIN", "DATA_VIEWER"));
+            final PermissionMatrix matrix = builtInMatrix();
+
+            assertNull(mgr.finishScramAuthentication(USERNAME, false).getSession(),
+                    "Expected no session for an invalid proof");
+
+            final Session session = mgr.finishScramAuthentication(USERNAME, true).getSession();
+            assertNotNull(session, "Expected a session for a valid proof");
+
+            final AuthToken token = mgr.issueToken(session, matrix, null);
+            assertNotNull(token, "Expected a token under the first defined login role");
+            assertEquals(matrix.getRoleId("DATA_VIEWER"), token.effectiveRoleId(),
+                    "Expected undefined roles to be skipped");
+            assertNull(mgr.issueToken(session, matrix, "DATA_OWNER"), "Expected no token for a role not granted");
+
+            final AuthToken second = mgr.issueToken(session, matrix, "DATA_VIEWER");
+            assertNotNull(mgr.authorize(token, matrix), "Expected issued token to be authorized");
+            final AuthToken altered = new AuthToken(token.randomId(), token.authRoleId(), token.effectiveRoleId() + 1);
+            assertNull(mgr.authorize(altered, matrix), "Expected altered token not to be authorized");
+
+            mgr.logout(token);
+            assertNull(mgr.authorize(token, matrix), "Expected token not to be authorized after logout");
+            assertNull(mgr.authorize(second, matrix), "Expected session's other tokens to be revoked on logout");
+            assertNull(mgr.getSession(session.getId()), "Expected session to end on logout");
+        } finally {
+            mgr.shutdown();
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException              if the temporary directory could not be created or deleted
+     * @throws NoSuchAlgorithmException if the session manager could not be created
+     * @throws InterruptedException     if interrupted while waiting for the creating threads
+     */
+    @Test
+    @DisplayName("logins created concurrently are all persisted")
+    void test003() throws IOException, NoSuchAlgorithmException, InterruptedException {
+
+        final int numThreads = 8;
+        final Path dir = Files.createTempDirectory("sessions");
+        try {
+            final SessionManager mgr = new SessionManager(dir.toFile());
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Thread> threads = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; ++i) {
+                final String username = USERNAME + i;
+                final Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        mgr.createLogin(username, PASSWORD, List.of("DATA_VIEWER"));
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            start.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            mgr.shutdown();
+
+            final String json = Files.readString(dir.resolve(LoginStore.FILENAME), StandardCharsets.UTF_8);
+            for (int i = 0; i < numThreads; ++i) {
+                assertTrue(json.contains("[\"" + USERNAME + i + "\", "),
+                        "Expected every concurrently created login to be persisted");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+}
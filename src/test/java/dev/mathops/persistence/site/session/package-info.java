@@ -0,0 +1,4 @@
+/**
+ * Test cases for the {@code dev.mathops.persistence.site.session} package.
+ */
+package dev.mathops.persistence.site.session;
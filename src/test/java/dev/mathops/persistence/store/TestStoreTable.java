@@ -0,0 +1,511 @@
+package dev.mathops.persistence.store;
+
+import dev.mathops.db.table.Row;
+import dev.mathops.db.table.SelectionCriteria;
+import dev.mathops.db.table.criteria.ENumericMatchType;
+import dev.mathops.db.table.criteria.IntegerFieldCriterion;
+import dev.mathops.persistence.PersistenceException;
+import dev.mathops.schema.main.TermTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the {@code StoreTable} class, and in particular its recovery after a crash.  A crash is simulated by
+ * copying a table's files while it is open (so they hold what a crash would leave on disk), damaging the copies, and
+ * opening a table on them.
+ */
+final class TestStoreTable {
+
+    /** The name of the segment file. */
+    private static final String SEGMENT_FILE = "segment.dat";
+
+    /** The name of the index file. */
+    private static final String INDEX_FILE = "index.dat";
+
+    /** The name of the write-ahead log file. */
+    private static final String LOG_FILE = "wal.log";
+
+    /** The name of the file to which a compacted segment is written. */
+    private static final String COMPACT_FILE = "segment.dat.tmp";
+
+    /** The first term ID used by the compaction tests. */
+    private static final int FIRST_TERM = 100000;
+
+    /** The number of rows inserted by the compaction tests. */
+    private static final int NUM_ROWS = 1100;
+
+    /** The number of those rows that are deleted (enough to trigger compaction). */
+    private static final int NUM_DELETED = 1060;
+
+    /**
+     * Deletes a temporary directory and everything in it.
+     *
+     * @param dir the directory
+     * @throws IOException if a file could not be deleted
+     */
+    private static void deleteDir(final Path dir) throws IOException {
+
+        final List<Path> paths;
+        try (final Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (final Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Opens the storage of the "term" table in a directory.
+     *
+     * @param dir the directory
+     * @return the storage
+     * @throws IOException if the files could not be opened or are damaged
+     */
+    private static StoreTable open(final Path dir) throws IOException {
+
+        return StoreTable.open(0, TermTable.INSTANCE, dir, false);
+    }
+
+    /**
+     * Creates a row for the "term" table.
+     *
+     * @param termId the term ID
+     * @return the row
+     */
+    private static Row termRow(final int termId) {
+
+        return new Row(TermTable.INSTANCE, Integer.valueOf(termId), LocalDate.of(2025, 8, 25),
+                LocalDate.of(2025, 12, 19), Integer.valueOf(2526), Integer.valueOf(0), LocalDate.of(2025, 9, 5),
+                LocalDate.of(2025, 10, 31));
+    }
+
+    /**
+     * Inserts rows in one write (one log record).
+     *
+     * @param store the storage
+     * @param rows  the rows
+     * @throws PersistenceException if the rows could not be inserted
+     */
+    private static void insert(final StoreTable store, final List<Row> rows) throws PersistenceException {
+
+        store.writeLock.lock();
+        try {
+            store.apply(store.prepareInsert(rows));
+        } finally {
+            store.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the term IDs of all rows, in increasing order.
+     *
+     * @param store the storage
+     * @return the term IDs
+     * @throws PersistenceException if the rows could not be read
+     */
+    private static List<Integer> termIds(final StoreTable store) throws PersistenceException {
+
+        final List<Row> rows = new ArrayList<>(10);
+        store.query(null, rows);
+
+        final List<Integer> result = new ArrayList<>(rows.size());
+        for (final Row row : rows) {
+            result.add((Integer) row.getFieldValue(0));
+        }
+        result.sort(null);
+
+        return result;
+    }
+
+    /**
+     * Copies files from one directory to another.
+     *
+     * @param from  the source directory
+     * @param to    the target directory
+     * @param names the names of the files to copy
+     * @throws IOException if a file could not be copied
+     */
+    private static void copy(final Path from, final Path to, final String... names) throws IOException {
+
+        Files.createDirectories(to);
+        for (final String name : names) {
+            Files.copy(from.resolve(name), to.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gets the length of a record (including its header) that begins at a position in a file.
+     *
+     * @param path     the file
+     * @param position the position of the record
+     * @return the length
+     * @throws IOException if the file could not be read
+     */
+    private static int recordLength(final Path path, final int position) throws IOException {
+
+        final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        return SegmentRecord.HEADER_SIZE + buf.getInt(position);
+    }
+
+    /**
+     * Inverts the bits of one byte in a file.
+     *
+     * @param path     the file
+     * @param position the position of the byte
+     * @throws IOException if the file could not be read or written
+     */
+    private static void corrupt(final Path path, final int position) throws IOException {
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, (long) position);
+            one.put(0, (byte) ~one.get(0));
+            one.rewind();
+            channel.write(one, (long) position);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("writes in the log are replayed into a segment file that lacks them")
+    void test001() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            final Path live = dir.resolve("live");
+            final Path crashed = dir.resolve("crashed");
+
+            try (final StoreTable store = open(live)) {
+                insert(store, List.of(termRow(202510)));
+            }
+            copy(live, crashed, SEGMENT_FILE, INDEX_FILE);
+
+            try (final StoreTable store = open(live)) {
+                insert(store, List.of(termRow(202560)));
+                insert(store, List.of(termRow(202590)));
+                copy(live, crashed, LOG_FILE);
+            }
+
+            try (final StoreTable store = open(crashed)) {
+                assertEquals(List.of(Integer.valueOf(202510), Integer.valueOf(202560), Integer.valueOf(202590)),
+                        termIds(store), "Expected logged rows to be recovered");
+                assertEquals(1L, store.count(TermTable.INSTANCE.mkTermIdQuery(202560)),
+                        "Expected recovered row to be found by key");
+            }
+            assertEquals(0L, Files.size(crashed.resolve(LOG_FILE)), "Expected log to be emptied by recovery");
+
+            try (final StoreTable store = open(crashed)) {
+                assertEquals(3, termIds(store).size(), "Expected recovered rows to survive a second reopen");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("a torn record at the end of the log is discarded")
+    void test002() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            final Path live = dir.resolve("live");
+            final Path crashed = dir.resolve("crashed");
+
+            try (final StoreTable store = open(live)) {
+                insert(store, List.of(termRow(202510)));
+                insert(store, List.of(termRow(202560)));
+                insert(store, List.of(termRow(202590)));
+                copy(live, crashed, LOG_FILE);
+            }
+
+            final Path log = crashed.resolve(LOG_FILE);
+            try (final FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 5L);
+            }
+
+            try (final StoreTable store = open(crashed)) {
+                assertEquals(List.of(Integer.valueOf(202510), Integer.valueOf(202560)), termIds(store),
+                        "Expected only complete records to be recovered");
+                insert(store, List.of(termRow(202610)));
+            }
+
+            try (final StoreTable store = open(crashed)) {
+                assertEquals(List.of(Integer.valueOf(202510), Integer.valueOf(202560), Integer.valueOf(202610)),
+                        termIds(store), "Expected a write after recovery to survive a reopen");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("a damaged record in the log ends the replay")
+    void test003() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            final Path live = dir.resolve("live");
+            final Path crashed = dir.resolve("crashed");
+
+            try (final StoreTable store = open(live)) {
+                insert(store, List.of(termRow(202510)));
+                insert(store, List.of(termRow(202560)));
+                insert(store, List.of(termRow(202590)));
+                copy(live, crashed, LOG_FILE);
+            }
+
+            final Path log = crashed.resolve(LOG_FILE);
+            final int second = recordLength(log, 0);
+            corrupt(log, second + SegmentRecord.HEADER_SIZE + 6);
+
+            try (final StoreTable store = open(crashed)) {
+                assertEquals(List.of(Integer.valueOf(202510)), termIds(store),
+                        "Expected replay to stop at the damaged record");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("the index file is loaded after a checkpoint, and rebuilt when missing or stale")
+    void test004() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            try (final StoreTable store = open(dir)) {
+                insert(store, List.of(termRow(202510), termRow(202560)));
+                insert(store, List.of(termRow(202590)));
+            }
+            assertEquals(0L, Files.size(dir.resolve(LOG_FILE)), "Expected checkpoint to empty the log");
+            assertTrue(Files.isRegularFile(dir.resolve(INDEX_FILE)), "Expected checkpoint to write the index");
+
+            try (final StoreTable store = open(dir)) {
+                assertEquals(3, termIds(store).size(), "Expected rows to be read with the saved index");
+                assertEquals(1L, store.count(TermTable.INSTANCE.mkTermIdQuery(202590)),
+                        "Expected row to be found with the saved index");
+            }
+
+            Files.delete(dir.resolve(INDEX_FILE));
+            try (final StoreTable store = open(dir)) {
+                assertEquals(1L, store.count(TermTable.INSTANCE.mkTermIdQuery(202560)),
+                        "Expected row to be found with a rebuilt index");
+            }
+            assertTrue(Files.isRegularFile(dir.resolve(INDEX_FILE)), "Expected rebuilt index to be written");
+
+            corrupt(dir.resolve(INDEX_FILE), 8);
+            try (final StoreTable store = open(dir)) {
+                assertEquals(3, termIds(store).size(), "Expected a stale index to be rebuilt");
+                assertEquals(1L, store.count(TermTable.INSTANCE.mkTermIdQuery(202510)),
+                        "Expected row to be found after a stale index is rebuilt");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("a damaged record at the end of the segment file is restored from the log, or dropped without it")
+    void test005() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            final Path live = dir.resolve("live");
+            final Path withLog = dir.resolve("withLog");
+            final Path withoutLog = dir.resolve("withoutLog");
+
+            try (final StoreTable store = open(live)) {
+                insert(store, List.of(termRow(202510)));
+                insert(store, List.of(termRow(202560)));
+                copy(live, withLog, SEGMENT_FILE, INDEX_FILE, LOG_FILE);
+                copy(live, withoutLog, SEGMENT_FILE, INDEX_FILE);
+            }
+
+            final int second = SegmentFile.HEADER_SIZE + recordLength(withLog.resolve(SEGMENT_FILE),
+                    SegmentFile.HEADER_SIZE);
+            corrupt(withLog.resolve(SEGMENT_FILE), second + SegmentRecord.HEADER_SIZE + 6);
+            corrupt(withoutLog.resolve(SEGMENT_FILE), second + SegmentRecord.HEADER_SIZE + 6);
+
+            try (final StoreTable store = open(withLog)) {
+                assertEquals(List.of(Integer.valueOf(202510), Integer.valueOf(202560)), termIds(store),
+                        "Expected damaged record to be restored from the log");
+            }
+            try (final StoreTable store = open(withoutLog)) {
+                assertEquals(List.of(Integer.valueOf(202510)), termIds(store),
+                        "Expected damaged record to be dropped when the log does not hold it");
+                assertEquals(0L, store.count(TermTable.INSTANCE.mkTermIdQuery(202560)),
+                        "Expected index to be rebuilt without the damaged record");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * Fills a table with rows, then deletes most of them.
+     *
+     * @param store the storage
+     * @throws PersistenceException if the store could not be written
+     */
+    private static void fillAndDelete(final StoreTable store) throws PersistenceException {
+
+        final List<Row> rows = new ArrayList<>(NUM_ROWS);
+        for (int i = 0; i < NUM_ROWS; ++i) {
+            rows.add(termRow(FIRST_TERM + i));
+        }
+        insert(store, rows);
+
+        final SelectionCriteria criteria = new SelectionCriteria(TermTable.INSTANCE,
+                new IntegerFieldCriterion(TermTable.INSTANCE.getField(0), ENumericMatchType.LESS_THAN,
+                        Integer.valueOf(FIRST_TERM + NUM_DELETED)));
+        assertEquals((long) NUM_DELETED, store.delete(criteria), "Expected rows to be deleted");
+    }
+
+    /**
+     * Checks that a table holds the rows left by {@code fillAndDelete}.
+     *
+     * @param store the storage
+     * @throws PersistenceException if the store could not be read
+     */
+    private static void checkRemaining(final StoreTable store) throws PersistenceException {
+
+        final List<Integer> ids = termIds(store);
+        assertEquals(NUM_ROWS - NUM_DELETED, ids.size(), "Expected only rows that were not deleted");
+        assertEquals(FIRST_TERM + NUM_DELETED, ids.getFirst(), "Expected first remaining row");
+        assertEquals(FIRST_TERM + NUM_ROWS - 1, ids.getLast(), "Expected last remaining row");
+        assertEquals(1L, store.count(TermTable.INSTANCE.mkTermIdQuery(FIRST_TERM + NUM_DELETED + 7)),
+                "Expected remaining row to be found by key");
+        assertEquals(0L, store.count(TermTable.INSTANCE.mkTermIdQuery(FIRST_TERM + 7)),
+                "Expected deleted row not to be found by key");
+    }
+
+    /**
+     * Gets the number of live and deleted rows recorded in an index file.
+     *
+     * @param path the index file
+     * @return a two-element array with the number of live rows and the number of deleted rows
+     * @throws IOException if the file could not be read
+     */
+    private static int[] indexCounts(final Path path) throws IOException {
+
+        final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        return new int[]{buf.getInt(16), buf.getInt(20)};
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("compaction removes deleted rows and survives reopening")
+    void test006() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            try (final StoreTable store = open(dir)) {
+                fillAndDelete(store);
+                store.maintain();
+
+                checkRemaining(store);
+                assertFalse(Files.exists(dir.resolve(COMPACT_FILE)), "Expected compacted file to replace segment");
+                final int[] counts = indexCounts(dir.resolve(INDEX_FILE));
+                assertEquals(NUM_ROWS - NUM_DELETED, counts[0], "Expected index to hold only live rows");
+                assertEquals(0, counts[1], "Expected no deleted rows after compaction");
+            }
+
+            try (final StoreTable store = open(dir)) {
+                checkRemaining(store);
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * A test case.
+     *
+     * @throws IOException          if a file could not be read or written
+     * @throws PersistenceException if the store could not be read or written
+     */
+    @Test
+    @DisplayName("a crash during compaction leaves the original segment file in use")
+    void test007() throws IOException, PersistenceException {
+
+        final Path dir = Files.createTempDirectory("store");
+        try {
+            try (final StoreTable store = open(dir)) {
+                fillAndDelete(store);
+            }
+
+            // Compaction removes the index file, then writes the compacted file; a crash leaves both states behind
+            Files.delete(dir.resolve(INDEX_FILE));
+            Files.write(dir.resolve(COMPACT_FILE), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+            try (final StoreTable store = open(dir)) {
+                checkRemaining(store);
+                assertEquals(NUM_DELETED, indexCounts(dir.resolve(INDEX_FILE))[1],
+                        "Expected rebuilt index to count deleted rows");
+
+                store.maintain();
+                checkRemaining(store);
+                assertFalse(Files.exists(dir.resolve(COMPACT_FILE)), "Expected compacted file to replace segment");
+            }
+
+            try (final StoreTable store = open(dir)) {
+                checkRemaining(store);
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+}